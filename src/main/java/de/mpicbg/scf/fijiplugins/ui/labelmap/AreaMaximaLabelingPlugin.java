@@ -13,6 +13,7 @@ import net.imglib2.img.Img;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
 import de.mpicbg.scf.imgtools.image.create.labelmap.AreaMaximaLabeling;
+import de.mpicbg.scf.imgtools.image.create.labelmap.MaxTree;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 
@@ -74,6 +75,7 @@ public class AreaMaximaLabelingPlugin implements PlugInFilter {
 		GenericDialog gd = new GenericDialog("AreaMaxima");
 		gd.addNumericField("Minimum area (in pixels / voxels)", 100, 2);
 		gd.addNumericField("Threshold (minimum grey value)", 20, 2);
+		gd.addCheckbox("Live preview of the number of maxima (max-tree)", false);
 		gd.showDialog();
 		if (gd.wasCanceled())
 		{
@@ -81,12 +83,29 @@ public class AreaMaximaLabelingPlugin implements PlugInFilter {
 		}
 		double minimumArea = gd.getNextNumber();
 		double threshold = gd.getNextNumber();
+		boolean useMaxTree = gd.getNextBoolean();
 				
 		
 		//image conversion for imglib2
 		int[] dims = imp.getDimensions();
 		//detectedMaxima;
 		Img<FloatType> localHotSpotsMap = ImagePlusAdapter.convertFloat(imp);
+		
+		//Max-tree built once, the minimum area is chosen with a live count of the maxima
+		if (useMaxTree)
+		{
+			MaxTreeMaximaDialog maxTreeDialog = new MaxTreeMaximaDialog(localHotSpotsMap, (float)threshold, MaxTree.Attribute.AREA);
+			DebugHelper.print(this, "max-tree with " + maxTreeDialog.getNumberOfNodes() + " nodes, thresh = " + threshold);
+			Img<IntType> detectedMaxima = maxTreeDialog.showDialog("AreaMaxima", "Minimum area (in pixels / voxels)", minimumArea);
+			if (detectedMaxima == null)
+			{
+				return;
+			}
+			ImageJUtilities.showLabelMapProperly(detectedMaxima, "Label map from AreaMaxima ", dims, imp.getCalibration());
+			DebugHelper.print(this, maxTreeDialog.getNumberOfFoundObjects() + " found objects");
+			return;
+		}
+		
 		AreaMaximaLabeling filter = new AreaMaximaLabeling();
 		
 		//Actual application of the filter.
@@ -78,6 +78,8 @@ public class ConstraintLabelingPlugin implements PlugInFilter {
 		gd.addNumericField("Minimum_signal ", Double.MIN_VALUE, 2);
 		gd.addNumericField("Maximum_signal ", Double.MAX_VALUE, 2);
 		
+		gd.addNumericField("Number_of_threads", Runtime.getRuntime().availableProcessors(), 0);
+		
 		gd.showDialog();
 		if (gd.wasCanceled())
 		{
@@ -98,6 +100,8 @@ public class ConstraintLabelingPlugin implements PlugInFilter {
 		double minimumAverageSignal = gd.getNextNumber();
 		double maximumAverageSignal = gd.getNextNumber();
 		
+		int numThreads = Math.max(1, (int) gd.getNextNumber());
+		
 
 		int[] dimensions = labelMap.getDimensions();
 		Calibration calib = labelMap.getCalibration();
@@ -107,6 +111,7 @@ public class ConstraintLabelingPlugin implements PlugInFilter {
 		
 		ConstraintLabelmap<FloatType, FloatType> clm = new ConstraintLabelmap<FloatType, FloatType>(wrappedImp, voxelsize);
 		//ConstraintLabelMap clm = new ConstraintLabelMap(labelMap);
+		clm.setNumThreads(numThreads);
 		if (applyBinaryMask)
 		{
 			clm.setMustOverLapWithOtherLabelMap(binaryMask);
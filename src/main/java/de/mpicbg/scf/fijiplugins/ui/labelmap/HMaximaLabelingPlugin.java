@@ -13,6 +13,7 @@ import net.imglib2.img.Img;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
 import de.mpicbg.scf.imgtools.image.create.labelmap.HMaximaLabeling;
+import de.mpicbg.scf.imgtools.image.create.labelmap.MaxTree;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 
@@ -66,6 +67,7 @@ public class HMaximaLabelingPlugin implements PlugInFilter {
 		GenericDialog gd = new GenericDialog("HMaxima");
 		gd.addNumericField("Minimum grey value distance between two local optima", 100, 2);
 		gd.addNumericField("Threshold (minimum grey value)", 20, 2);
+		gd.addCheckbox("Live preview of the number of maxima (max-tree)", false);
 		gd.showDialog();
 		if (gd.wasCanceled())
 		{
@@ -73,12 +75,29 @@ public class HMaximaLabelingPlugin implements PlugInFilter {
 		}
 		double minimumH = gd.getNextNumber();
 		double threshold = gd.getNextNumber();
+		boolean useMaxTree = gd.getNextBoolean();
 				
 		
 		//image conversion for imglib2
 		int[] dims = imp.getDimensions();
 		Img<IntType> detectedMaxima;
 		Img<FloatType> localHotSpotsMap = ImagePlusAdapter.convertFloat(imp);
+		
+		//Max-tree built once, the minimum distance is chosen with a live count of the maxima
+		if (useMaxTree)
+		{
+			MaxTreeMaximaDialog maxTreeDialog = new MaxTreeMaximaDialog(localHotSpotsMap, (float)threshold, MaxTree.Attribute.HEIGHT);
+			DebugHelper.print(this, "max-tree with " + maxTreeDialog.getNumberOfNodes() + " nodes, thresh = " + threshold);
+			detectedMaxima = maxTreeDialog.showDialog("HMaxima", "Minimum grey value distance between two local optima", minimumH);
+			if (detectedMaxima == null)
+			{
+				return;
+			}
+			ImageJUtilities.showLabelMapProperly(detectedMaxima, "Label map from HMaxima ", dims, imp.getCalibration());
+			DebugHelper.print(this, maxTreeDialog.getNumberOfFoundObjects() + " found objects");
+			return;
+		}
+		
 		HMaximaLabeling filter = new HMaximaLabeling();
 		
 		//Actual application of the filter.
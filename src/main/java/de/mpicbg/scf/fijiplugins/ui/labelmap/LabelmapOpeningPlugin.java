@@ -3,11 +3,15 @@ package de.mpicbg.scf.fijiplugins.ui.labelmap;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
+import java.util.Arrays;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
 import de.mpicbg.scf.imgtools.image.filter.LabelmapMathematicalMorphology;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 
@@ -57,6 +61,8 @@ public class LabelmapOpeningPlugin implements PlugInFilter{
 	public void run(ImageProcessor ip) {
 		ImagePlus labelMap = IJ.getImage();
 		
+		Calibration calibration = labelMap.getCalibration();
+		
 		GenericDialogPlus gd = new GenericDialogPlus("Constraint labels in a label map (2D, 3D) ");
 		gd.addNumericField("Margin size for the opening operation (in pixels, default = 3)", 3, 0);
 		gd.showDialog();
@@ -64,16 +70,71 @@ public class LabelmapOpeningPlugin implements PlugInFilter{
 		{
 			return;
 		}
-		int distanceInPixels = (int)gd.getNextNumber();
+		double distanceInPixels = gd.getNextNumber();
 
 		Img<FloatType> labelMapImg = ImagePlusAdapter.convertFloat(labelMap);
 		
-		Img<FloatType> openedLabelMapImg = LabelmapMathematicalMorphology.openingLabelMap(labelMapImg, distanceInPixels);
+		// the image axes are x, y, then channel, z and time when they have more than one plane.
+		// The margin is in pixels along x, the spacing of y and z is taken relative to x so that
+		// anisotropic stacks are opened with a euclidean ball, the runtime does not depend on the radius
+		int channelDim = labelMap.getNChannels() > 1 ? 2 : -1;
+		int zDim = labelMap.getNSlices() > 1 ? (channelDim < 0 ? 2 : 3) : -1;
+		int frameDim = labelMap.getNFrames() > 1 ? labelMapImg.numDimensions() - 1 : -1;
 		
+		double[] voxelSize = new double[labelMapImg.numDimensions()];
+		Arrays.fill(voxelSize, 1);
+		if (voxelSize.length > 1)
+			voxelSize[1] = calibration.pixelHeight / calibration.pixelWidth;
+		if (zDim >= 0)
+			voxelSize[zDim] = calibration.pixelDepth / calibration.pixelWidth;
+		
+		Img<FloatType> openedLabelMapImg;
+		if (channelDim < 0 && frameDim < 0)
+		{
+			openedLabelMapImg = LabelmapMathematicalMorphology.openingLabelMap(labelMapImg, distanceInPixels, voxelSize);
+		}
+		else
+		{
+			// labels are not opened across channels and frames, each (x, y, z) volume is opened on its own
+			openedLabelMapImg = labelMapImg.copy();
+			openVolumes(openedLabelMapImg, distanceInPixels, voxelSize, frameDim, channelDim);
+		}
 		
 		int[] dims = labelMap.getDimensions();
 		//ImagePlus openedLabelMap = ImgLib2Utils.floatImageToImagePlus(openedLabelMapImg, "Opened LabelMap (" + distanceInPixels + ")", "", dims);
 		//openedLabelMap.show();
-		ImageJUtilities.showLabelMapProperly(openedLabelMapImg, "Opened (" + distanceInPixels + "px) label map ", dims, labelMap.getCalibration());
+		ImageJUtilities.showLabelMapProperly(openedLabelMapImg, "Opened (" + distanceInPixels + "px) label map ", dims, calibration);
+	}
+	
+	// opens the label map in place in each hyperslice of the given axes, the axes are sliced from the last one
+	private static void openVolumes(RandomAccessibleInterval<FloatType> labelMap, double distanceInPixels, double[] voxelSize, int... sliceDims)
+	{
+		int sliceDim = -1;
+		int[] remainingDims = new int[0];
+		for (int i = 0; i < sliceDims.length; i++)
+		{
+			if (sliceDims[i] >= 0)
+			{
+				sliceDim = sliceDims[i];
+				remainingDims = Arrays.copyOfRange(sliceDims, i + 1, sliceDims.length);
+				break;
+			}
+		}
+		if (sliceDim < 0)
+		{
+			LabelmapMathematicalMorphology.openingLabelMap(labelMap, distanceInPixels, voxelSize, labelMap);
+			return;
+		}
+		
+		double[] sliceVoxelSize = new double[voxelSize.length - 1];
+		for (int d = 0, e = 0; d < voxelSize.length; d++)
+		{
+			if (d != sliceDim)
+				sliceVoxelSize[e++] = voxelSize[d];
+		}
+		for (long pos = labelMap.min(sliceDim); pos <= labelMap.max(sliceDim); pos++)
+		{
+			openVolumes(Views.hyperSlice(labelMap, sliceDim, pos), distanceInPixels, sliceVoxelSize, remainingDims);
+		}
 	}
 }
@@ -0,0 +1,125 @@
+package de.mpicbg.scf.fijiplugins.ui.labelmap;
+
+import ij.IJ;
+import ij.gui.DialogListener;
+import ij.gui.GenericDialog;
+
+import java.awt.AWTEvent;
+import java.awt.Label;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import de.mpicbg.scf.imgtools.image.create.labelmap.MaxTree;
+
+/**
+ * Dialog of the HMaxima and AreaMaxima plugins when the maxima are detected with a max-tree: the max-tree of
+ * the image is built once, then the number of maxima selected by the minimum criterion is updated live
+ * while the slider moves. The label map is only computed when the dialog is closed.
+ *
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+class MaxTreeMaximaDialog implements DialogListener {
+
+	private final MaxTree tree;
+	private final MaxTree.Attribute attribute;
+	private Label numberOfMaximaLabel;
+
+	/**
+	 * @param input image to detect the maxima in
+	 * @param threshold minimum grey value of the maxima
+	 * @param attribute HEIGHT for the HMaxima, AREA for the AreaMaxima
+	 */
+	<T extends RealType<T>> MaxTreeMaximaDialog(RandomAccessibleInterval<T> input, float threshold, MaxTree.Attribute attribute) {
+		IJ.showStatus("Building the max-tree...");
+		tree = new MaxTree(input, threshold);
+		IJ.showStatus("");
+		this.attribute = attribute;
+	}
+
+	/**
+	 * @param title title of the dialog
+	 * @param criterion name of the minimum value of the attribute
+	 * @param minimumValue initial minimum value
+	 * @return label map of the maxima, null if the dialog was canceled
+	 */
+	Img<IntType> showDialog(String title, String criterion, double minimumValue) {
+		double maxValue = getMaxValue() + 1;
+		minimumValue = Math.min(minimumValue, maxValue);
+		GenericDialog gd = new GenericDialog(title);
+		gd.addSlider(criterion, 0, maxValue, minimumValue);
+		gd.addMessage("Number of maxima: " + getNumberOfMaxima(minimumValue) + "        ");
+		numberOfMaximaLabel = (Label) gd.getMessage();
+		gd.addDialogListener(this);
+		gd.showDialog();
+		if (gd.wasCanceled())
+		{
+			return null;
+		}
+		return tree.getMaximaLabeling(attribute, getTreeValue(gd.getNextNumber()));
+	}
+
+	@Override
+	public boolean dialogItemChanged(GenericDialog gd, AWTEvent e) {
+		double minimumValue = gd.getNextNumber();
+		if (gd.invalidNumber())
+		{
+			return false;
+		}
+		numberOfMaximaLabel.setText("Number of maxima: " + getNumberOfMaxima(minimumValue));
+		return true;
+	}
+
+	int getNumberOfNodes() {
+		return tree.getNumberOfNodes();
+	}
+
+	int getNumberOfFoundObjects() {
+		return tree.getNumberOfFoundObjects();
+	}
+
+	// HMaxima counts the grey levels of a maximum, the height in the max-tree is one less
+	private double getTreeValue(double minimumValue) {
+		return attribute == MaxTree.Attribute.HEIGHT ? minimumValue - 1 : minimumValue;
+	}
+
+	private int getNumberOfMaxima(double minimumValue) {
+		return tree.getNumberOfMaxima(attribute, getTreeValue(minimumValue));
+	}
+
+	private double getMaxValue() {
+		double max = 0;
+		for (int n = 0; n < tree.getNumberOfNodes(); n++)
+		{
+			max = Math.max(max, tree.getAttribute(attribute, n));
+		}
+		return max;
+	}
+
+}
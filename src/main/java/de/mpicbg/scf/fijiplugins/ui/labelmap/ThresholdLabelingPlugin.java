@@ -12,7 +12,9 @@ import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
+import de.mpicbg.scf.imgtools.image.create.labelmap.RunLengthLabeling;
 import de.mpicbg.scf.imgtools.image.create.labelmap.ThresholdLabeling;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
 
@@ -64,29 +66,48 @@ public class ThresholdLabelingPlugin implements PlugInFilter {
 		//Configuration
 		GenericDialog gd = new GenericDialog("Threshold based labeling");
 		gd.addNumericField("Threshold (minimum grey value)", 20, 2);
+		String[] connectivities = { "FULL", "FACE" };
+		gd.addChoice("Connectivity", connectivities, connectivities[0]);
+		gd.addNumericField("Number of threads", Runtime.getRuntime().availableProcessors(), 0);
+		gd.addCheckbox("Run-length labeling (sparse masks, single thread)", false);
 		gd.showDialog();
 		if (gd.wasCanceled())
 		{
 			return;
 		}
 		double threshold = gd.getNextNumber();
+		ImageConnectivity.Connectivity connectivity = ImageConnectivity.Connectivity.valueOf(gd.getNextChoice());
+		int numThreads = Math.max(1, (int) gd.getNextNumber());
+		boolean useRuns = gd.getNextBoolean();
 				
 		
 		//image conversion for imglib2
 		int[] dims = imp.getDimensions();
 		Img<IntType> detectedMaxima;
 		Img<FloatType> localHotSpotsMap = ImagePlusAdapter.convertFloat(imp);
-		ThresholdLabeling filter = new ThresholdLabeling();
+		int numberOfFoundObjects;
 		
 		//Actual application of the filter.
-		DebugHelper.print(this, "Labeling thresh = " + threshold);
-		detectedMaxima = filter.Labeling(localHotSpotsMap,  (float)threshold);
+		if (useRuns)
+		{
+			DebugHelper.print(this, "Run-length labeling thresh = " + threshold + ", " + connectivity + " connectivity");
+			RunLengthLabeling runs = new RunLengthLabeling(localHotSpotsMap, (float)threshold, connectivity);
+			detectedMaxima = runs.getLabeling();
+			numberOfFoundObjects = runs.getNumberOfFoundObjects();
+		}
+		else
+		{
+			DebugHelper.print(this, "Labeling thresh = " + threshold + ", " + connectivity + " connectivity, " + numThreads + " threads");
+			ThresholdLabeling filter = new ThresholdLabeling();
+			detectedMaxima = filter.Labeling(localHotSpotsMap,  (float)threshold, connectivity, numThreads);
+			numberOfFoundObjects = filter.getNumberOfFoundObjects();
+		}
 		
 		//ImagePlus hotSpotMap = ImgLib2Utils.floatImageToImagePlus(detectedMaxima, "Labelled Objects (" + filter.getNumberOfFoundObjects() + ")", "glasbey", dims);
 		//hotSpotMap.show();
 		ImageJUtilities.showLabelMapProperly(detectedMaxima, "Label map from threshold ", dims, imp.getCalibration());
 		
-		DebugHelper.print(this, filter.getNumberOfFoundObjects() + " found objects");
+		DebugHelper.print(this, numberOfFoundObjects + " found objects");
 	}
 
 	/**
@@ -5,9 +5,14 @@ import ij.ImagePlus;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
+import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import de.mpicbg.scf.imgtools.image.create.labelmap.WatershedLabeling;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import de.mpicbg.scf.imgtools.ui.ImageJUtilities;
@@ -85,19 +90,18 @@ public class WatershedLabelingPlugin implements PlugInFilter{
 
 		DebugHelper.print(this, "Converting.");
 		Img<FloatType> img = ImagePlusAdapter.convertFloat(imp);
-		Img<FloatType> seedImg = ImagePlusAdapter.convertFloat(seedImp).copy();
+		Img<FloatType> seedImg = ImagePlusAdapter.convertFloat(seedImp);
 
 		DebugHelper.print(this, "Run actual watershed.");
 
-		Img<FloatType> segmentedByWatershed = null;
-		if (applyThreshold)
-		{
-			segmentedByWatershed = WatershedLabeling.watershed(img, seedImg, (float) threshold);
-		}
-		else
-		{
-			segmentedByWatershed = WatershedLabeling.watershed(img, seedImg);
-		}
+		// the seeds are only read, the labels go to a new image
+		final Dimensions dimensions = new FinalDimensions(Intervals.dimensionsAsLongArray(img));
+		final IntType t = new IntType();
+		Img<IntType> segmentedByWatershed = Util.getArrayOrCellImgFactory(dimensions, t).create(dimensions, t);
+
+		// only the pixels strictly above the threshold are flooded
+		float floodThreshold = applyThreshold ? Math.nextUp((float) threshold) : Float.NEGATIVE_INFINITY;
+		WatershedLabeling.watershed(img, seedImg, segmentedByWatershed, floodThreshold, WatershedLabeling.WatershedConnectivity.FULL);
 		//image back-conversion to visualise it in ImageJ
 		ImageJUtilities.showLabelMapProperly(segmentedByWatershed, "Label map from watershed", dims, imp.getCalibration());
 
@@ -62,6 +62,7 @@ public class LabelAnalyserPlugin implements PlugInFilter {
 	private static EnumSet<Feature> previousConfig = null;
 	private static int numberNOfClosestNeighbors = 5;
 	private static double closeNeighborDistanceD = 100;
+	private static int numberOfThreads = Runtime.getRuntime().availableProcessors();
 
 	private static boolean showResultsAsTable = true;
 	private static boolean showResultsAsImages = true;
@@ -161,6 +162,7 @@ public class LabelAnalyserPlugin implements PlugInFilter {
 		gdp.addNumericField("n_", numberNOfClosestNeighbors, 0);
 		gdp.addCheckbox("Number_of_neighbors_closer_than_distance_d", whatToMeasure.contains(Feature.NUMBER_OF_NEIGHBORS_CLOSER_THAN));
 		gdp.addNumericField("d_", closeNeighborDistanceD, 2);
+		gdp.addNumericField("Number_of_threads", numberOfThreads, 0);
 
 		gdp.addMessage("Show result as");
 		gdp.addCheckbox("table ", showResultsAsTable);
@@ -226,6 +228,7 @@ public class LabelAnalyserPlugin implements PlugInFilter {
 		}
 
 		closeNeighborDistanceD = gdp.getNextNumber();
+		numberOfThreads = Math.max(1, (int) gdp.getNextNumber());
 
 		showResultsAsTable = gdp.getNextBoolean();
 		showResultsAsImages = gdp.getNextBoolean();
@@ -306,6 +309,7 @@ public class LabelAnalyserPlugin implements PlugInFilter {
 		}
 		labelParticleAnalyser.setCloseNeighborDistanceD(closeNeighborDistanceD);
 		labelParticleAnalyser.setNumberNOfClosestNeighbors(numberNOfClosestNeighbors);
+		labelParticleAnalyser.setNumThreads(numberOfThreads);
 
 		// Get results
 		volumes = labelParticleAnalyser.getFeatures(Feature.AREA_VOLUME);
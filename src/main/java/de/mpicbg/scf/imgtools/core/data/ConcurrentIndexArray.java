@@ -0,0 +1,87 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+// array of pixel indices shared by several threads (see PagedIndexArray), e.g. a union-find forest whose trees
+// are linked concurrently with compareAndSet. set is a lazy write: it is seen by the other threads at the
+// latest after the next synchronization (end of a task, compareAndSet ...), which is enough as long as only
+// one thread writes a value or all the threads write the same value
+
+public class ConcurrentIndexArray {
+
+	private final long size;
+	private final int pageBits;
+	private final long pageMask;
+	private final AtomicIntegerArray[] intPages;
+	private final AtomicLongArray[] longPages;
+	private final AtomicIntegerArray flat; // the single int page of a small array, shortcut for get/set
+
+
+	public ConcurrentIndexArray(long size)
+	{
+		this.size = size;
+		this.pageBits = PagedIntArray.getPageBits(size);
+		this.pageMask = (1L << pageBits) - 1;
+
+		final int nPages = (int)( (size + pageMask) >>> pageBits );
+		if( size>Integer.MAX_VALUE )
+		{
+			intPages = null;
+			longPages = new AtomicLongArray[nPages];
+			for( int i=0; i<nPages; i++)
+				longPages[i] = new AtomicLongArray(getPageSize(i));
+		}
+		else
+		{
+			longPages = null;
+			intPages = new AtomicIntegerArray[nPages];
+			for( int i=0; i<nPages; i++)
+				intPages[i] = new AtomicIntegerArray(getPageSize(i));
+		}
+		flat = intPages!=null && intPages.length==1 ? intPages[0] : null;
+	}
+
+	private int getPageSize(int i)
+	{
+		return (int) Math.min( 1L<<pageBits, size - ((long)i<<pageBits) );
+	}
+
+	public final long get(long idx)
+	{
+		if( flat!=null )
+			return flat.get((int) idx);
+		if( intPages!=null )
+			return intPages[(int)(idx >>> pageBits)].get((int)(idx & pageMask));
+		return longPages[(int)(idx >>> pageBits)].get((int)(idx & pageMask));
+	}
+
+	public final void set(long idx, long val)
+	{
+		if( flat!=null )
+			flat.lazySet((int) idx, (int) val);
+		else if( intPages!=null )
+			intPages[(int)(idx >>> pageBits)].lazySet((int)(idx & pageMask), (int) val);
+		else
+			longPages[(int)(idx >>> pageBits)].lazySet((int)(idx & pageMask), val);
+	}
+
+	/**
+	 * @return true if the value at idx was expect and is now update
+	 */
+	public final boolean compareAndSet(long idx, long expect, long update)
+	{
+		if( flat!=null )
+			return flat.compareAndSet((int) idx, (int) expect, (int) update);
+		if( intPages!=null )
+			return intPages[(int)(idx >>> pageBits)].compareAndSet((int)(idx & pageMask), (int) expect, (int) update);
+		return longPages[(int)(idx >>> pageBits)].compareAndSet((int)(idx & pageMask), expect, update);
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+}
@@ -0,0 +1,79 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+
+// levels of a hierarchical queue for the grey values in [min, max], in increasing order of the values
+// the level of a value is computed in O(1), the values do not have to be sorted or collected:
+// - integer values spanning less than MAX_LEVELS levels are their own level (value - min)
+// - other values are bucketed on the bits of their float key (see RadixSort.getAscendingKey): the keys of
+//   [min, max] are split in at most MAX_LEVELS buckets of 2^shift consecutive floats. Values in the same
+//   bucket share a level, they are served in FIFO order. A bucket spans a relative precision of about
+//   2^(shift-23), the levels are exact when [min, max] holds less than MAX_LEVELS floats
+
+public final class FloatLevels {
+
+	public static final int MAX_LEVELS = 1 << 16;
+
+	private final boolean isInteger;
+	private final double min;
+	private final long minKey;
+	private final int shift;
+	private final int nLevels;
+
+
+	/**
+	 * @param min lowest value to queue
+	 * @param max highest value to queue
+	 * @param isIntegerValued true if all the values to queue are integers
+	 */
+	public FloatLevels(double min, double max, boolean isIntegerValued)
+	{
+		this.min = min;
+		this.isInteger = isIntegerValued && max - min < MAX_LEVELS;
+		if( isInteger )
+		{
+			minKey = 0;
+			shift = 0;
+			nLevels = (int)(max - min) + 1;
+		}
+		else
+		{
+			minKey = getKey(min);
+			final long range = Math.max( getKey(max) - minKey, 0 );
+			int s = 0;
+			while( (range >>> s) >= MAX_LEVELS )
+				s++;
+			shift = s;
+			nLevels = (int)(range >>> shift) + 1;
+		}
+	}
+
+	/**
+	 * @param val a grey value
+	 * @return level of the value, values outside [min, max] get the first or the last level
+	 */
+	public int getLevel(double val)
+	{
+		final long level;
+		if( isInteger )
+			level = (long)(val - min);
+		else
+			level = ( getKey(val) - minKey ) >> shift;
+
+		if( level < 0 )
+			return 0;
+		return (int) Math.min(level, nLevels-1);
+	}
+
+	public int getNumberOfLevels()
+	{
+		return nLevels;
+	}
+
+
+	// unsigned float key of the value as a positive long
+	private static long getKey(double val)
+	{
+		return RadixSort.getAscendingKey((float) val) & 0xFFFFFFFFL;
+	}
+
+}
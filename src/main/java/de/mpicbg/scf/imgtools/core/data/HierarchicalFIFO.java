@@ -1,11 +1,19 @@
 package de.mpicbg.scf.imgtools.core.data;
 
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+// hierarchical queue: one FIFO per grey level, the highest non empty level is served first
+// each level is a growable ring buffer of primitive int, no boxing and no list node per queued pixel
+// buffers are allocated on first use and released once the level is drained
+// pixel indices are stored as int, or as long for images with more than Integer.MAX_VALUE pixels
+// a ring buffer is a single array up to 2^pageBits values, then it is split in pages of 2^pageBits
+// values (as in PagedIndexArray), so that a level can hold more than a java array
 
 public class HierarchicalFIFO {
-	
+
+	public static final int DEFAULT_PAGE_BITS = 30;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int MAX_PAGES = Integer.MAX_VALUE - 8;
+
 	private int current_level;
 	public int getCurrent_level() {
 		return current_level;
@@ -18,54 +26,189 @@ public class HierarchicalFIFO {
 
 	private final int min, max;
 	private int max_level;
-	private ArrayList<LinkedList<Integer>> QueueList; 
-	
-	
+	private final boolean isLong;
+	private final int pageBits;
+	private final long pageMask;
+	private int[][][] buffers; // level, page, value
+	private long[][][] longBuffers;
+	private long[] capacities;
+	private long[] heads;
+	private long[] sizes;
+
+
 	/**
 	 * not stable, use rather HierarchicalFIFO(int min, int max) constructor
 	 */
 	@Deprecated
 	public HierarchicalFIFO(int min, int max, int nbin)
 	{
-		QueueList = new ArrayList<LinkedList<Integer>>(nbin);
-		for(int i=0; i<nbin; i++)
-			QueueList.add( new LinkedList<Integer>() );
 		this.min = min;
 		this.max = max;
-		this.max_level = nbin-1;
-		current_level = max_level;
+		this.isLong = false;
+		this.pageBits = DEFAULT_PAGE_BITS;
+		this.pageMask = (1L << pageBits) - 1;
+		init(nbin);
 	}
-	
+
 	public HierarchicalFIFO(int min, int max)
 	{
-		int nbin = max - min + 1;
-		QueueList = new ArrayList<LinkedList<Integer>>(nbin);
-		for(int i=0; i<nbin; i++)
-			QueueList.add( new LinkedList<Integer>() );
+		this(min, max, (long) Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param min lowest level
+	 * @param max highest level
+	 * @param maxIndex largest pixel index that will be queued, indices are stored as long above Integer.MAX_VALUE
+	 */
+	public HierarchicalFIFO(int min, int max, long maxIndex)
+	{
+		this(min, max, maxIndex, DEFAULT_PAGE_BITS);
+	}
+
+	/**
+	 * @param min lowest level
+	 * @param max highest level
+	 * @param maxIndex largest pixel index that will be queued, indices are stored as long above Integer.MAX_VALUE
+	 * @param pageBits log2 of the number of values in a page of a level
+	 */
+	public HierarchicalFIFO(int min, int max, long maxIndex, int pageBits)
+	{
 		this.min = min;
 		this.max = max;
+		this.isLong = maxIndex > Integer.MAX_VALUE;
+		this.pageBits = pageBits;
+		this.pageMask = (1L << pageBits) - 1;
+		init(max - min + 1);
+	}
+
+	private void init(int nbin)
+	{
+		if( isLong )
+			longBuffers = new long[nbin][][];
+		else
+			buffers = new int[nbin][][];
+		capacities = new long[nbin];
+		heads = new long[nbin];
+		sizes = new long[nbin];
 		this.max_level = nbin-1;
 		current_level = max_level;
 	}
-	
+
 	public void add(long idx, int val)
 	{
-		int level = val - min ;
-		QueueList.get(level).add( (int) idx  );
+		final int level = val - min ;
+		final long size = sizes[level];
+		if( size == capacities[level] )
+			grow(level);
+
+		long tail = heads[level] + size;
+		if( tail >= capacities[level] )
+			tail -= capacities[level];
+		if( isLong )
+			longBuffers[level][(int)(tail >>> pageBits)][(int)(tail & pageMask)] = idx;
+		else
+			buffers[level][(int)(tail >>> pageBits)][(int)(tail & pageMask)] = (int) idx;
+		sizes[level] = size + 1;
 	}
-	
+
 	public boolean HasNext()
 	{
-		while( QueueList.get(current_level).isEmpty() & current_level>0)
+		while( sizes[current_level]==0 & current_level>0)
+		{
+			if( isLong )
+				longBuffers[current_level] = null;
+			else
+				buffers[current_level] = null;
+			capacities[current_level] = 0;
 			current_level--;
-		
-		return !QueueList.get(current_level).isEmpty();
+		}
+
+		return sizes[current_level]>0;
 	}
-	
+
 	public long Next()
-	{	
-		return QueueList.get(current_level).poll();	
+	{
+		final int level = current_level;
+		long head = heads[level];
+		final int page = (int)(head >>> pageBits);
+		final int offset = (int)(head & pageMask);
+		final long idx = isLong ? longBuffers[level][page][offset] : buffers[level][page][offset];
+
+		head++;
+		if( head == capacities[level] )
+			head = 0;
+
+		final long size = sizes[level] - 1;
+		sizes[level] = size;
+		heads[level] = size==0 ? 0 : head;
+
+		return idx;
 	}
 
 
-}
\ No newline at end of file
+	// double the capacity of a full ring buffer and unwrap its content at the start of the new buffer
+	// a single page buffer grows up to the page size, then the number of pages doubles
+	private void grow(int level)
+	{
+		final long n = capacities[level];
+		final long pageSize = 1L << pageBits;
+		final long newCapacity;
+		if( n == 0 )
+			newCapacity = Math.min(INITIAL_CAPACITY, pageSize);
+		else if( n < pageSize )
+			newCapacity = Math.min(n*2, pageSize);
+		else if( (n >>> pageBits) < MAX_PAGES )
+			newCapacity = Math.min(n >>> pageBits << 1, MAX_PAGES) << pageBits;
+		else
+			throw new IllegalStateException("HierarchicalFIFO: level " + (level+min) + " is full, it holds " + n + " pixels");
+
+		final int nPages = (int)( (newCapacity + pageMask) >>> pageBits );
+		final long head = heads[level];
+		if( isLong )
+		{
+			final long[][] buffer = longBuffers[level];
+			final long[][] newBuffer = new long[nPages][];
+			for( int i=0; i<nPages; i++)
+				newBuffer[i] = new long[(int) Math.min( pageSize, newCapacity - ((long)i<<pageBits) )];
+			for( long i=0, pos=head; i<n; )
+			{
+				final int len = getRunLength(i, pos, n);
+				System.arraycopy(buffer[(int)(pos >>> pageBits)], (int)(pos & pageMask), newBuffer[(int)(i >>> pageBits)], (int)(i & pageMask), len);
+				i += len;
+				pos += len;
+				if( pos == n )
+					pos = 0;
+			}
+			longBuffers[level] = newBuffer;
+		}
+		else
+		{
+			final int[][] buffer = buffers[level];
+			final int[][] newBuffer = new int[nPages][];
+			for( int i=0; i<nPages; i++)
+				newBuffer[i] = new int[(int) Math.min( pageSize, newCapacity - ((long)i<<pageBits) )];
+			for( long i=0, pos=head; i<n; )
+			{
+				final int len = getRunLength(i, pos, n);
+				System.arraycopy(buffer[(int)(pos >>> pageBits)], (int)(pos & pageMask), newBuffer[(int)(i >>> pageBits)], (int)(i & pageMask), len);
+				i += len;
+				pos += len;
+				if( pos == n )
+					pos = 0;
+			}
+			buffers[level] = newBuffer;
+		}
+		capacities[level] = newCapacity;
+		heads[level] = 0;
+	}
+
+	// number of values that can be copied at once from position pos of a ring of capacity n to position i of
+	// the grown buffer: up to the end of the source page, of the target page, of the ring and of the content
+	private int getRunLength(long i, long pos, long n)
+	{
+		final long pageSize = 1L << pageBits;
+		final long len = Math.min( Math.min( pageSize - (pos & pageMask), pageSize - (i & pageMask) ), Math.min( n - pos, n - i ) );
+		return (int) len;
+	}
+
+}
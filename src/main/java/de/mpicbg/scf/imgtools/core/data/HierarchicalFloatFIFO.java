@@ -0,0 +1,84 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+
+// hierarchical queue for non integer grey values (float, double)
+// the levels are the ones of FloatLevels: at most FloatLevels.MAX_LEVELS buckets of the order-preserving
+// float bits of the values in [min, max], FIFO order inside a bucket. The level of a value is computed
+// in O(1), adding and removing a pixel is O(1) and the queue needs neither a sort of the values nor memory
+// per distinct value. Each level is a ring buffer of the HierarchicalFIFO, allocated when it receives pixels
+
+public class HierarchicalFloatFIFO {
+
+	private final FloatLevels levels;
+	private final HierarchicalFIFO Q;
+
+
+	/**
+	 * @param min lowest value that will be queued
+	 * @param max highest value that will be queued
+	 */
+	public HierarchicalFloatFIFO(double min, double max)
+	{
+		this(min, max, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param min lowest value that will be queued
+	 * @param max highest value that will be queued
+	 * @param maxIndex largest pixel index that will be queued (see HierarchicalFIFO)
+	 */
+	public HierarchicalFloatFIFO(double min, double max, long maxIndex)
+	{
+		this(new FloatLevels(min, max, false), maxIndex);
+	}
+
+	/**
+	 * @param levels levels of the queue
+	 * @param maxIndex largest pixel index that will be queued (see HierarchicalFIFO)
+	 */
+	public HierarchicalFloatFIFO(FloatLevels levels, long maxIndex)
+	{
+		this.levels = levels;
+		Q = new HierarchicalFIFO( 0, levels.getNumberOfLevels()-1, maxIndex );
+	}
+
+	/**
+	 * @param val a grey value
+	 * @return level of the value, see FloatLevels.getLevel()
+	 */
+	public int getLevel(double val)
+	{
+		return levels.getLevel(val);
+	}
+
+	public void add(long idx, double val)
+	{
+		Q.add( idx, getLevel(val) );
+	}
+
+	public void addLevel(long idx, int level)
+	{
+		Q.add( idx, level );
+	}
+
+	public boolean HasNext()
+	{
+		return Q.HasNext();
+	}
+
+	public long Next()
+	{
+		return Q.Next();
+	}
+
+	public int getCurrent_level()
+	{
+		return Q.getCurrent_level();
+	}
+
+	public int getNumberOfLevels()
+	{
+		return levels.getNumberOfLevels();
+	}
+
+}
@@ -0,0 +1,139 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.Arrays;
+
+
+// hash map from positive long keys to counts, e.g. the number of pixels shared by two labels packed in a key
+// (see packPair), without a boxed object per entry. Open addressing with linear probing in a table at most half
+// full, 0 marks an empty slot. Maps counted by several threads are summed with addAll
+
+public class LongCountMap {
+
+	private long[] keys;
+	private long[] counts;
+	private int size = 0;
+
+
+	public LongCountMap()
+	{
+		this(16);
+	}
+
+	public LongCountMap(int expectedSize)
+	{
+		int capacity = 16;
+		while( capacity < 2L*expectedSize && capacity < 1<<30 )
+			capacity <<= 1;
+		keys = new long[capacity];
+		counts = new long[capacity];
+	}
+
+	/**
+	 * @return a key with the smaller value in the upper bits, the same for (a, b) and (b, a)
+	 */
+	public static long packSymmetricPair(int a, int b)
+	{
+		return a < b ? packPair(a, b) : packPair(b, a);
+	}
+
+	/**
+	 * @return a key with a in the upper bits and b in the lower bits, positive if a and b are positive
+	 */
+	public static long packPair(int a, int b)
+	{
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	public static int getFirst(long key)
+	{
+		return (int) (key >>> 32);
+	}
+
+	public static int getSecond(long key)
+	{
+		return (int) key;
+	}
+
+
+	public void add(long key, long count)
+	{
+		final int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while( keys[i]!=0 )
+		{
+			if( keys[i]==key )
+			{
+				counts[i] += count;
+				return;
+			}
+			i = (i+1) & mask;
+		}
+		keys[i] = key;
+		counts[i] = count;
+		size++;
+		if( 2*size > keys.length )
+			rehash(2*keys.length);
+	}
+
+	/**
+	 * @return the count of the key, 0 if it is not in the map
+	 */
+	public long get(long key)
+	{
+		final int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while( keys[i]!=0 )
+		{
+			if( keys[i]==key )
+				return counts[i];
+			i = (i+1) & mask;
+		}
+		return 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void addAll(LongCountMap other)
+	{
+		for( int i=0; i<other.keys.length; i++)
+			if( other.keys[i]!=0 )
+				add(other.keys[i], other.counts[i]);
+	}
+
+	/**
+	 * @return the keys of the map in increasing order, i.e. pairs sorted by first then second value
+	 */
+	public long[] getSortedKeys()
+	{
+		final long[] result = new long[size];
+		int n = 0;
+		for( long key : keys )
+			if( key!=0 )
+				result[n++] = key;
+		Arrays.sort(result);
+		return result;
+	}
+
+
+	private void rehash(int capacity)
+	{
+		final long[] oldKeys = keys;
+		final long[] oldCounts = counts;
+		keys = new long[capacity];
+		counts = new long[capacity];
+		size = 0;
+		for( int i=0; i<oldKeys.length; i++)
+			if( oldKeys[i]!=0 )
+				add(oldKeys[i], oldCounts[i]);
+	}
+
+	private static int hash(long key)
+	{
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
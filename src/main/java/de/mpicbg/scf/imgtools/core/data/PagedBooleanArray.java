@@ -0,0 +1,54 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.Arrays;
+
+
+// boolean array indexed by long, stored in pages of 2^pageBits values (see PagedIntArray)
+
+public class PagedBooleanArray {
+
+	private final long size;
+	private final int pageBits;
+	private final long pageMask;
+	private final boolean[][] pages;
+
+
+	public PagedBooleanArray(long size)
+	{
+		this(size, PagedIntArray.getPageBits(size));
+	}
+
+	public PagedBooleanArray(long size, int pageBits)
+	{
+		this.size = size;
+		this.pageBits = pageBits;
+		this.pageMask = (1L << pageBits) - 1;
+
+		final int nPages = (int)( (size + pageMask) >>> pageBits );
+		pages = new boolean[nPages][];
+		for( int i=0; i<nPages; i++)
+			pages[i] = new boolean[(int) Math.min( 1L<<pageBits, size - ((long)i<<pageBits) )];
+	}
+
+	public final boolean get(long idx)
+	{
+		return pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)];
+	}
+
+	public final void set(long idx, boolean val)
+	{
+		pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)] = val;
+	}
+
+	public void fill(boolean val)
+	{
+		for( boolean[] page : pages )
+			Arrays.fill(page, val);
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+}
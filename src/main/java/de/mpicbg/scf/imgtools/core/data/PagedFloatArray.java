@@ -0,0 +1,54 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.Arrays;
+
+
+// float array indexed by long, stored in pages of 2^pageBits values (see PagedIntArray)
+
+public class PagedFloatArray {
+
+	private final long size;
+	private final int pageBits;
+	private final long pageMask;
+	private final float[][] pages;
+
+
+	public PagedFloatArray(long size)
+	{
+		this(size, PagedIntArray.getPageBits(size));
+	}
+
+	public PagedFloatArray(long size, int pageBits)
+	{
+		this.size = size;
+		this.pageBits = pageBits;
+		this.pageMask = (1L << pageBits) - 1;
+
+		final int nPages = (int)( (size + pageMask) >>> pageBits );
+		pages = new float[nPages][];
+		for( int i=0; i<nPages; i++)
+			pages[i] = new float[(int) Math.min( 1L<<pageBits, size - ((long)i<<pageBits) )];
+	}
+
+	public final float get(long idx)
+	{
+		return pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)];
+	}
+
+	public final void set(long idx, float val)
+	{
+		pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)] = val;
+	}
+
+	public void fill(float val)
+	{
+		for( float[] page : pages )
+			Arrays.fill(page, val);
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+}
@@ -0,0 +1,102 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.Arrays;
+
+
+// array of pixel indices (union-find parents, sorted pixel lists), indexed by long
+// the values are stored as int as long as the array is not larger than Integer.MAX_VALUE, i.e. as long as
+// any index it can hold fits in an int, and as long above. Both are stored in pages of 2^pageBits values,
+// a small array is a single int page that can be wrapped as an ArrayImg without copy (see getIntPage)
+
+public class PagedIndexArray {
+
+	private final long size;
+	private final int pageBits;
+	private final long pageMask;
+	private final int[][] intPages;
+	private final long[][] longPages;
+	private final int[] flat; // the single int page of a small array, shortcut for get/set
+
+
+	public PagedIndexArray(long size)
+	{
+		this(size, PagedIntArray.getPageBits(size), size>Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param size number of values
+	 * @param pageBits log2 of the number of values in a page
+	 * @param isLong store the values as long, even if the array is small enough for int
+	 */
+	public PagedIndexArray(long size, int pageBits, boolean isLong)
+	{
+		this.size = size;
+		this.pageBits = pageBits;
+		this.pageMask = (1L << pageBits) - 1;
+
+		final int nPages = (int)( (size + pageMask) >>> pageBits );
+		if( isLong )
+		{
+			intPages = null;
+			longPages = new long[nPages][];
+			for( int i=0; i<nPages; i++)
+				longPages[i] = new long[getPageSize(i)];
+		}
+		else
+		{
+			longPages = null;
+			intPages = new int[nPages][];
+			for( int i=0; i<nPages; i++)
+				intPages[i] = new int[getPageSize(i)];
+		}
+		flat = intPages!=null && intPages.length==1 ? intPages[0] : null;
+	}
+
+	private int getPageSize(int i)
+	{
+		return (int) Math.min( 1L<<pageBits, size - ((long)i<<pageBits) );
+	}
+
+	public final long get(long idx)
+	{
+		if( flat!=null )
+			return flat[(int) idx];
+		if( intPages!=null )
+			return intPages[(int)(idx >>> pageBits)][(int)(idx & pageMask)];
+		return longPages[(int)(idx >>> pageBits)][(int)(idx & pageMask)];
+	}
+
+	public final void set(long idx, long val)
+	{
+		if( flat!=null )
+			flat[(int) idx] = (int) val;
+		else if( intPages!=null )
+			intPages[(int)(idx >>> pageBits)][(int)(idx & pageMask)] = (int) val;
+		else
+			longPages[(int)(idx >>> pageBits)][(int)(idx & pageMask)] = val;
+	}
+
+	public void fill(long val)
+	{
+		if( intPages!=null )
+			for( int[] page : intPages )
+				Arrays.fill(page, (int) val);
+		else
+			for( long[] page : longPages )
+				Arrays.fill(page, val);
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the values as a single int array if they are stored this way, null otherwise
+	 */
+	public int[] getIntPage()
+	{
+		return flat;
+	}
+
+}
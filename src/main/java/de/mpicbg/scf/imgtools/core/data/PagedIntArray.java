@@ -0,0 +1,77 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+import java.util.Arrays;
+
+
+// int array indexed by long, stored in pages of 2^pageBits values
+// an array that fits in a java array is stored in a single page of exactly its size, which can be
+// wrapped as an ArrayImg without copy (see getPage)
+
+public class PagedIntArray {
+
+	public static final int DEFAULT_PAGE_BITS = 30;
+	public static final int MAX_PAGE_SIZE = Integer.MAX_VALUE - 8;
+
+	private final long size;
+	private final int pageBits;
+	private final long pageMask;
+	private final int[][] pages;
+
+
+	public PagedIntArray(long size)
+	{
+		this(size, getPageBits(size));
+	}
+
+	public PagedIntArray(long size, int pageBits)
+	{
+		this.size = size;
+		this.pageBits = pageBits;
+		this.pageMask = (1L << pageBits) - 1;
+
+		final int nPages = (int)( (size + pageMask) >>> pageBits );
+		pages = new int[nPages][];
+		for( int i=0; i<nPages; i++)
+			pages[i] = new int[(int) Math.min( 1L<<pageBits, size - ((long)i<<pageBits) )];
+	}
+
+	/**
+	 * @return 31 if size fits in a single page (idx>>>31 is then always 0), DEFAULT_PAGE_BITS otherwise
+	 */
+	public static int getPageBits(long size)
+	{
+		return size<=MAX_PAGE_SIZE ? 31 : DEFAULT_PAGE_BITS;
+	}
+
+	public final int get(long idx)
+	{
+		return pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)];
+	}
+
+	public final void set(long idx, int val)
+	{
+		pages[(int)(idx >>> pageBits)][(int)(idx & pageMask)] = val;
+	}
+
+	public void fill(int val)
+	{
+		for( int[] page : pages )
+			Arrays.fill(page, val);
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	public int getNumberOfPages()
+	{
+		return pages.length;
+	}
+
+	public int[] getPage(int i)
+	{
+		return pages[i];
+	}
+
+}
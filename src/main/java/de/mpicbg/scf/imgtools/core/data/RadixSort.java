@@ -0,0 +1,115 @@
+package de.mpicbg.scf.imgtools.core.data;
+
+
+// stable LSD radix sort of values (e.g. pixel indices) by unsigned int keys, 11 bits per pass. It runs in
+// O(n) and needs, besides the sorted arrays, a buffer of the same size whatever the range of the keys.
+// A pass is skipped when all the keys have the same digit, e.g. the low bits of the float keys of an
+// image of integer values, so that a sort often costs 1 or 2 passes.
+// Float values are sorted through the keys of getAscendingKey or getDescendingKey
+
+public final class RadixSort {
+
+	private static final int BITS = 11;
+	private static final int NBINS = 1 << BITS;
+	private static final int MASK = NBINS - 1;
+	private static final int NPASSES = (32 + BITS - 1) / BITS;
+
+	private RadixSort() {}
+
+
+	/**
+	 * @return a key whose unsigned order is the order of the float values, 0.0 and -0.0 have the same key
+	 */
+	public static int getAscendingKey(float value)
+	{
+		int bits = Float.floatToIntBits( value==0 ? 0f : value );
+		// positive values: set the sign bit, negative values: flip all the bits
+		return bits ^ ((bits >> 31) | 0x80000000);
+	}
+
+	/**
+	 * @return a key whose unsigned order is the reverse order of the float values
+	 */
+	public static int getDescendingKey(float value)
+	{
+		return ~getAscendingKey(value);
+	}
+
+
+	/**
+	 * sort keys and values by increasing unsigned key, values with equal keys keep their order
+	 *
+	 * @param keys sorted in place
+	 * @param values sorted in place, along with keys
+	 * @param keyBuffer scratch array at least as large as keys
+	 * @param valueBuffer scratch array at least as large as values, storing the same range of values
+	 */
+	public static void sort(PagedIntArray keys, PagedIndexArray values, PagedIntArray keyBuffer, PagedIndexArray valueBuffer)
+	{
+		final long n = keys.size();
+
+		// the histograms of all the digits in a single pass
+		final long[][] histo = new long[NPASSES][NBINS];
+		for( long i=0; i<n; i++)
+		{
+			int key = keys.get(i);
+			for( int pass=0; pass<NPASSES; pass++)
+				histo[pass][(key >>> (pass*BITS)) & MASK]++;
+		}
+
+		PagedIntArray keysIn = keys, keysOut = keyBuffer;
+		PagedIndexArray valuesIn = values, valuesOut = valueBuffer;
+		final long[] pos = new long[NBINS];
+		for( int pass=0; pass<NPASSES; pass++)
+		{
+			final long[] h = histo[pass];
+			final int shift = pass*BITS;
+			if( n==0 || h[(keysIn.get(0) >>> shift) & MASK]==n ){ continue; }
+
+			long start = 0;
+			for( int b=0; b<NBINS; b++)
+			{
+				pos[b] = start;
+				start += h[b];
+			}
+			if( valuesIn.getIntPage()!=null && valuesOut.getIntPage()!=null && keysIn.getNumberOfPages()==1 && keysOut.getNumberOfPages()==1 )
+				scatter(keysIn.getPage(0), valuesIn.getIntPage(), keysOut.getPage(0), valuesOut.getIntPage(), (int)n, shift, pos);
+			else
+			{
+				for( long i=0; i<n; i++)
+				{
+					int key = keysIn.get(i);
+					long k = pos[(key >>> shift) & MASK]++;
+					keysOut.set(k, key);
+					valuesOut.set(k, valuesIn.get(i));
+				}
+			}
+
+			PagedIntArray auxKeys = keysIn; keysIn = keysOut; keysOut = auxKeys;
+			PagedIndexArray auxValues = valuesIn; valuesIn = valuesOut; valuesOut = auxValues;
+		}
+
+		// after an odd number of passes the result is in the buffers
+		if( keysIn!=keys )
+		{
+			for( long i=0; i<n; i++)
+			{
+				keys.set(i, keysIn.get(i));
+				values.set(i, valuesIn.get(i));
+			}
+		}
+	}
+
+	// a pass on arrays stored in a single page
+	private static void scatter(int[] keysIn, int[] valuesIn, int[] keysOut, int[] valuesOut, int n, int shift, long[] pos)
+	{
+		for( int i=0; i<n; i++)
+		{
+			int key = keysIn[i];
+			int k = (int) pos[(key >>> shift) & MASK]++;
+			keysOut[k] = key;
+			valuesOut[k] = valuesIn[i];
+		}
+	}
+
+}
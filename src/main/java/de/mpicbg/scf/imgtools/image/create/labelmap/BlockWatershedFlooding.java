@@ -0,0 +1,586 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.mpicbg.scf.imgtools.core.data.FloatLevels;
+import de.mpicbg.scf.imgtools.core.data.HierarchicalFIFO;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+
+// Block decomposition of the seeded IFT watershed (see ParallelWatershedLabeling)
+//
+// the image is cut in blocks, each block is flooded independently on a local copy made of the block
+// and a one pixel halo. The halo holds the cost (flooding level), distance and label that the neighbor
+// blocks found on their faces during the previous round, halo pixels act as additional seeds.
+// Blocks are flooded again as long as the faces of one of their neighbors change.
+//
+// pixels are ranked as in the hierarchical FIFO of WatershedLabeling.watershedInPlace: highest level first,
+// then within a level by distance to the pixels where the flood entered that level (entries, seeds).
+// A block is flooded in two passes:
+// - the (level, distance) of each pixel is relaxed with the queue, it is only ever replaced by a strictly
+//   better pair. The pair reached from a neighbor is a monotone function of the pair of the neighbor, thus
+//   the result is the best pair over all the paths from the seeds, whatever the order of the updates.
+// - the pixels are then visited by decreasing level and increasing distance. A pixel takes the label of its
+//   predecessors (the neighbors it is reached from with its level and distance) with the highest level,
+//   then the smallest distance, then the smallest label. Predecessors come first in that order, so each
+//   label is set once. watershedInPlace takes the first label of its queue where this rule looks at the
+//   label, thus both give the same labels on images without plateau ties (e.g. non integer images).
+//
+// the rounds converge: the halo pairs of the first round are the worst possible ones, a better halo
+// can only give better pairs, so the face pairs only improve from one round to the next and can do so a
+// finite number of times (this is checked when the faces are committed). Once they are stable, the labels
+// follow the predecessors, which are acyclic, from the seeds and stop changing after a finite number of
+// rounds. The result is the one of a single block, independent of the block size and of the processing order.
+
+class BlockWatershedFlooding {
+
+	interface BlockAccess
+	{
+		// fill values and seeds of the block + halo (localMin is the position of the first halo pixel)
+		// values outside the image have to be left to NaN
+		void read(long[] localMin, int[] localDims, double[] values, int[] seeds);
+
+		// write the labels of the block core (labels are given in the block + halo local indexing)
+		void write(long[] coreMin, int[] coreDims, int[] localDims, int[] labels);
+	}
+
+	private static final byte OTHER = 0; // outside the image, below threshold or halo not reached yet
+	private static final byte CORE = 1;  // pixel of the block to flood
+	private static final byte SEED = 2;  // seed pixel of the block, never relabeled
+	private static final byte HALO = 3;  // halo pixel with a known cost, used as a seed
+
+	private final int ndim;
+	private final long[] dimensions;
+	private final int[] blockSize;
+	private final int[] nBlocks;
+	private final int numBlocks;
+	private final double threshold;
+	private final FloatLevels levels;
+	private final long[][] neigh;
+
+	// cost, distance in level and label of the 2*ndim faces of each block as found in the last round,
+	// null if the block did not reach any face pixel yet. The cost is a level of the FloatLevels
+	// face 2*d is the lower face along dimension d, face 2*d+1 the upper one
+	private final double[][][] faceCost;
+	private final int[][][] faceDist;
+	private final int[][][] faceLabel;
+
+	private int numberOfRounds = 0;
+	private int numberOfBlockFloodings = 0;
+
+
+	// levels: levels of the values above the threshold, the same for all the blocks so that their costs compare
+	BlockWatershedFlooding(long[] dimensions, int[] blockSize, double threshold, FloatLevels levels, ImageConnectivity.Connectivity connectivity)
+	{
+		this.ndim = dimensions.length;
+		this.dimensions = dimensions.clone();
+		this.blockSize = new int[ndim];
+		this.nBlocks = new int[ndim];
+		int n = 1;
+		for( int d=0; d<ndim; d++)
+		{
+			this.blockSize[d] = (int) Math.max( 1, Math.min(blockSize[d], dimensions[d]) );
+			nBlocks[d] = (int)( (dimensions[d] + this.blockSize[d] - 1) / this.blockSize[d] );
+			n *= nBlocks[d];
+		}
+		this.numBlocks = n;
+		this.threshold = threshold;
+		this.levels = levels;
+		this.neigh = ImageConnectivity.getConnectivityPos(ndim, connectivity);
+
+		faceCost = new double[numBlocks][][];
+		faceDist = new int[numBlocks][][];
+		faceLabel = new int[numBlocks][][];
+	}
+
+
+	void run(final BlockAccess access, ExecutorService service) throws InterruptedException, ExecutionException
+	{
+		boolean[] dirty = new boolean[numBlocks];
+		Arrays.fill(dirty, true);
+		int nDirty = numBlocks;
+
+		final int[] g = new int[ndim];
+		final int[] gn = new int[ndim];
+		final int nGridNeigh = (int) Math.pow(3, ndim);
+
+		while( nDirty>0 )
+		{
+			numberOfRounds++;
+
+			// flood all the dirty blocks, they only read the faces of the previous round
+			List<Callable<BlockResult>> tasks = new ArrayList<Callable<BlockResult>>();
+			for( int b=0; b<numBlocks; b++)
+			{
+				if( dirty[b] )
+				{
+					final int block = b;
+					tasks.add( new Callable<BlockResult>() {
+						@Override
+						public BlockResult call() {
+							return floodBlock(block, access);
+						}
+					});
+				}
+			}
+			numberOfBlockFloodings += tasks.size();
+			List<Future<BlockResult>> results = service.invokeAll(tasks);
+
+			// commit the new faces, neighbors of changed blocks are flooded again
+			Arrays.fill(dirty, false);
+			nDirty = 0;
+			for( Future<BlockResult> future : results )
+			{
+				BlockResult result = future.get();
+				if( !result.isSameFaces(faceCost[result.block], faceDist[result.block], faceLabel[result.block]) )
+				{
+					if( !result.isNotWorse(faceCost[result.block], faceDist[result.block]) )
+						throw new IllegalStateException("Watershed faces of block " + result.block + " got worse in round " + numberOfRounds + ", the rounds would not converge");
+
+					faceCost[result.block] = result.faceCost;
+					faceDist[result.block] = result.faceDist;
+					faceLabel[result.block] = result.faceLabel;
+
+					getBlockGridPos(result.block, g);
+					for( int i=0; i<nGridNeigh; i++)
+					{
+						int aux = i;
+						boolean inGrid = true;
+						for( int d=0; d<ndim; d++)
+						{
+							gn[d] = g[d] + (aux % 3) - 1;
+							aux /= 3;
+							inGrid &= gn[d]>=0 && gn[d]<nBlocks[d];
+						}
+						if( inGrid )
+						{
+							int bn = getBlockIndex(gn);
+							if( bn!=result.block && !dirty[bn] )
+							{
+								dirty[bn] = true;
+								nDirty++;
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+
+	private BlockResult floodBlock(int block, BlockAccess access)
+	{
+		final int[] g = new int[ndim];
+		getBlockGridPos(block, g);
+
+		final long[] coreMin = new long[ndim];
+		final long[] localMin = new long[ndim];
+		final int[] coreDims = new int[ndim];
+		final int[] localDims = new int[ndim];
+		final long[] localDimsL = new long[ndim];
+		int nLocal = 1;
+		for( int d=0; d<ndim; d++)
+		{
+			coreMin[d] = (long)g[d] * blockSize[d];
+			coreDims[d] = getBlockDim(g[d], d);
+			localMin[d] = coreMin[d] - 1;
+			localDims[d] = coreDims[d] + 2;
+			localDimsL[d] = localDims[d];
+			nLocal *= localDims[d];
+		}
+
+		final double[] values = new double[nLocal];
+		Arrays.fill(values, Double.NaN);
+		final int[] seeds = new int[nLocal];
+		access.read(localMin, localDims, values, seeds);
+
+		// classify the local pixels, read the halo from the neighbor faces
+		final byte[] state = new byte[nLocal];
+		final double[] haloCost = new double[nLocal];
+		final int[] dist = new int[nLocal];
+		final int[] labels = new int[nLocal];
+		final int[] pos = new int[ndim];
+		final double[] haloPixel = new double[3];
+		for( int i=0; i<nLocal; i++)
+		{
+			boolean isHalo = false;
+			for( int d=0; d<ndim; d++)
+				isHalo |= pos[d]==0 || pos[d]==localDims[d]-1;
+
+			if( !isHalo )
+			{
+				if( values[i]>=threshold )
+					state[i] = CORE;
+			}
+			else if( !Double.isNaN(values[i]) && getHaloPixel(localMin, localDims, pos, haloPixel) )
+			{
+				state[i] = HALO;
+				haloCost[i] = haloPixel[0];
+				dist[i] = (int) haloPixel[1];
+				labels[i] = (int) haloPixel[2];
+			}
+
+			// next local position
+			for( int d=0; d<ndim; d++)
+			{
+				if( ++pos[d]<localDims[d] )
+					break;
+				pos[d] = 0;
+			}
+		}
+
+		// levels of the pixel values, the same in all the blocks, and cost of the halo. The block is flooded with
+		// the ranks of the levels present in the block, thus the queue and the sorts only span these levels
+		final int[] valueLevel = new int[nLocal];
+		final int[] costLevel = new int[nLocal];
+		Arrays.fill(costLevel, -1);
+		int[] blockLevels = new int[nLocal];
+		int nValues = 0;
+		for( int i=0; i<nLocal; i++)
+		{
+			if( state[i]==CORE )
+				blockLevels[nValues++] = valueLevel[i] = levels.getLevel(values[i]);
+			else if( state[i]==HALO )
+				blockLevels[nValues++] = (int) haloCost[i];
+		}
+		blockLevels = getDistinctValues(blockLevels, nValues);
+		final HierarchicalFIFO Q = new HierarchicalFIFO(0, Math.max(blockLevels.length-1, 0));
+
+		// fill the queue with the seeds and the halo, remember the rank of each pixel value
+		for( int i=0; i<nLocal; i++)
+		{
+			if( state[i]==CORE )
+			{
+				valueLevel[i] = Arrays.binarySearch(blockLevels, valueLevel[i]);
+				if( seeds[i]>0 )
+				{
+					state[i] = SEED;
+					costLevel[i] = valueLevel[i];
+					labels[i] = seeds[i];
+					Q.add(i, costLevel[i]);
+				}
+			}
+			else if( state[i]==HALO )
+			{
+				costLevel[i] = Arrays.binarySearch(blockLevels, (int) haloCost[i]);
+				Q.add(i, costLevel[i]);
+			}
+		}
+
+		// flood, a pixel is updated when it is reached at a higher level or closer to the entries of its level
+		final int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, localDimsL);
+		final int nNeigh = n_offset.length;
+		final int[] rank = new int[2];
+		while( Q.HasNext() )
+		{
+			final int pIdx = (int) Q.Next();
+			final int pLevel = Q.getCurrent_level();
+			if( costLevel[pIdx]!=pLevel ) // outdated entry, the pixel was queued again at a higher level
+				continue;
+
+			final boolean isHalo = state[pIdx]==HALO;
+			if( isHalo )
+				getPosFromIdx(pIdx, localDims, pos);
+
+			for( int i=0; i<nNeigh; i++)
+			{
+				if( isHalo && !isInBounds(pos, i, localDims) )
+					continue;
+
+				final int nIdx = pIdx + n_offset[i];
+				if( state[nIdx]!=CORE )
+					continue;
+
+				getRank(pLevel, dist[pIdx], valueLevel[nIdx], rank);
+				if( rank[0]>costLevel[nIdx] || ( rank[0]==costLevel[nIdx] && rank[1]<dist[nIdx] ) )
+				{
+					costLevel[nIdx] = rank[0];
+					dist[nIdx] = rank[1];
+					Q.add(nIdx, rank[0]);
+				}
+			}
+		}
+
+		// label the flooded pixels by decreasing level and increasing distance, their predecessors are labeled first
+		int[] order = new int[nLocal];
+		int nFlooded = 0;
+		int maxDist = 0;
+		for( int i=0; i<nLocal; i++)
+		{
+			if( state[i]==CORE && costLevel[i]>=0 )
+			{
+				order[nFlooded++] = i;
+				maxDist = Math.max(maxDist, dist[i]);
+			}
+		}
+		order = sortByKey(order, nFlooded, dist, maxDist, false);
+		order = sortByKey(order, nFlooded, costLevel, blockLevels.length-1, true);
+		for( int k=0; k<nFlooded; k++)
+		{
+			// p is interior to the block, all its neighbors are in the local array
+			final int pIdx = order[k];
+			int bestLevel = -1;
+			int bestDist = Integer.MAX_VALUE;
+			int bestLabel = 0;
+			for( int i=0; i<nNeigh; i++)
+			{
+				final int qIdx = pIdx + n_offset[i];
+				if( state[qIdx]==OTHER || costLevel[qIdx]<0 )
+					continue;
+				getRank(costLevel[qIdx], dist[qIdx], valueLevel[pIdx], rank);
+				if( rank[0]!=costLevel[pIdx] || rank[1]!=dist[pIdx] ) // not a predecessor
+					continue;
+				if( costLevel[qIdx]>bestLevel || ( costLevel[qIdx]==bestLevel && ( dist[qIdx]<bestDist || ( dist[qIdx]==bestDist && labels[qIdx]<bestLabel ) ) ) )
+				{
+					bestLevel = costLevel[qIdx];
+					bestDist = dist[qIdx];
+					bestLabel = labels[qIdx];
+				}
+			}
+			labels[pIdx] = bestLabel;
+		}
+
+		access.write(coreMin, coreDims, localDims, labels);
+
+		// collect the faces of the block
+		BlockResult result = new BlockResult(block);
+		for( int d=0; d<ndim; d++)
+		{
+			for( int side=0; side<2; side++)
+			{
+				int nFace = 1;
+				for( int j=0; j<ndim; j++)
+					if( j!=d ) { nFace *= coreDims[j]; }
+
+				double[] cost = new double[nFace];
+				int[] faceDistance = new int[nFace];
+				int[] label = new int[nFace];
+
+				// iterate the face in the same order as getFaceIndex()
+				Arrays.fill(pos, 1);
+				pos[d] = side==0 ? 1 : coreDims[d];
+				for( int f=0; f<nFace; f++)
+				{
+					int idx = 0;
+					for( int j=ndim-1; j>=0; j--)
+						idx = idx*localDims[j] + pos[j];
+
+					if( costLevel[idx]>=0 )
+					{
+						cost[f] = blockLevels[costLevel[idx]];
+						faceDistance[f] = dist[idx];
+						label[f] = labels[idx];
+					}
+					else
+					{
+						cost[f] = Double.NEGATIVE_INFINITY;
+					}
+
+					for( int j=0; j<ndim; j++)
+					{
+						if( j==d )
+							continue;
+						if( ++pos[j]<=coreDims[j] )
+							break;
+						pos[j] = 1;
+					}
+				}
+				result.faceCost[2*d+side] = cost;
+				result.faceDist[2*d+side] = faceDistance;
+				result.faceLabel[2*d+side] = label;
+			}
+		}
+
+		return result;
+	}
+
+
+	// cost, distance and label of a halo pixel, as found on the face of the block owning that pixel
+	private boolean getHaloPixel(long[] localMin, int[] localDims, int[] pos, double[] haloPixel)
+	{
+		final int[] gn = new int[ndim];
+		final long[] globalPos = new long[ndim];
+		int faceDim = -1;
+		for( int d=0; d<ndim; d++)
+		{
+			globalPos[d] = localMin[d] + pos[d];
+			gn[d] = (int)( globalPos[d] / blockSize[d] );
+			if( faceDim<0 && ( pos[d]==0 || pos[d]==localDims[d]-1 ) )
+				faceDim = d;
+		}
+
+		int bn = getBlockIndex(gn);
+		if( faceCost[bn]==null )
+			return false;
+
+		// the pixel is on the upper face of the neighbor if it is below the block, and conversely
+		int face = 2*faceDim + ( pos[faceDim]==0 ? 1 : 0 );
+		int f = 0;
+		for( int j=ndim-1; j>=0; j--)
+		{
+			if( j==faceDim )
+				continue;
+			f = f*getBlockDim(gn[j], j) + (int)( globalPos[j] - (long)gn[j]*blockSize[j] );
+		}
+
+		haloPixel[0] = faceCost[bn][face][f];
+		haloPixel[1] = faceDist[bn][face][f];
+		haloPixel[2] = faceLabel[bn][face][f];
+		return haloPixel[0] > Double.NEGATIVE_INFINITY;
+	}
+
+	// level and distance of a pixel with value level vLevel reached from a pixel at qLevel, qDist
+	private static void getRank(int qLevel, int qDist, int vLevel, int[] rank)
+	{
+		if( vLevel<qLevel ) // entered from a higher level
+		{
+			rank[0] = vLevel;
+			rank[1] = 0;
+		}
+		else
+		{
+			rank[0] = qLevel;
+			rank[1] = qDist + 1;
+		}
+	}
+
+	// stable counting sort of the first n pixels by key[pixel], 0<=key<=maxKey
+	private static int[] sortByKey(int[] pixels, int n, int[] key, int maxKey, boolean descending)
+	{
+		final int[] start = new int[maxKey + 2];
+		for( int k=0; k<n; k++)
+			start[ ( descending ? maxKey - key[pixels[k]] : key[pixels[k]] ) + 1 ]++;
+		for( int i=1; i<start.length; i++)
+			start[i] += start[i-1];
+
+		final int[] sorted = new int[pixels.length];
+		for( int k=0; k<n; k++)
+		{
+			final int p = pixels[k];
+			sorted[ start[ descending ? maxKey - key[p] : key[p] ]++ ] = p;
+		}
+		return sorted;
+	}
+
+	// sorted distinct values among the first n values of the array, the array is modified
+	private static int[] getDistinctValues(int[] values, int n)
+	{
+		Arrays.sort(values, 0, n);
+		int nDistinct = 0;
+		for( int i=0; i<n; i++)
+		{
+			if( nDistinct==0 || values[i]!=values[nDistinct-1] )
+				values[nDistinct++] = values[i];
+		}
+		return Arrays.copyOf(values, nDistinct);
+	}
+
+	private boolean isInBounds(int[] pos, int i, int[] localDims)
+	{
+		for( int d=0; d<ndim; d++)
+		{
+			long p = pos[d] + neigh[i][d];
+			if( p<0 || p>=localDims[d] )
+				return false;
+		}
+		return true;
+	}
+
+	private static void getPosFromIdx(int idx, int[] dims, int[] pos)
+	{
+		for( int d=0; d<dims.length; d++)
+		{
+			pos[d] = idx % dims[d];
+			idx /= dims[d];
+		}
+	}
+
+	private int getBlockDim(int g, int d)
+	{
+		return (int) Math.min( blockSize[d], dimensions[d] - (long)g*blockSize[d] );
+	}
+
+	private void getBlockGridPos(int block, int[] g)
+	{
+		for( int d=0; d<ndim; d++)
+		{
+			g[d] = block % nBlocks[d];
+			block /= nBlocks[d];
+		}
+	}
+
+	private int getBlockIndex(int[] g)
+	{
+		int block = 0;
+		for( int d=ndim-1; d>=0; d--)
+			block = block*nBlocks[d] + g[d];
+		return block;
+	}
+
+	int getNumberOfBlocks() {
+		return numBlocks;
+	}
+
+	int getNumberOfRounds() {
+		return numberOfRounds;
+	}
+
+	int getNumberOfBlockFloodings() {
+		return numberOfBlockFloodings;
+	}
+
+
+	private class BlockResult
+	{
+		final int block;
+		final double[][] faceCost = new double[2*ndim][];
+		final int[][] faceDist = new int[2*ndim][];
+		final int[][] faceLabel = new int[2*ndim][];
+
+		BlockResult(int block)
+		{
+			this.block = block;
+		}
+
+		boolean isSameFaces(double[][] cost, int[][] distance, int[][] label)
+		{
+			for( int f=0; f<faceCost.length; f++)
+			{
+				if( cost==null )
+				{
+					// nothing known yet about the faces of this block, same as unreached faces
+					for( double c : faceCost[f] )
+						if( c>Double.NEGATIVE_INFINITY )
+							return false;
+				}
+				else if( !Arrays.equals(faceCost[f], cost[f]) || !Arrays.equals(faceDist[f], distance[f]) || !Arrays.equals(faceLabel[f], label[f]) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// true if no face pixel has a lower cost, or a larger distance at the same cost, than in the previous round
+		boolean isNotWorse(double[][] cost, int[][] distance)
+		{
+			if( cost==null )
+				return true;
+			for( int f=0; f<faceCost.length; f++)
+			{
+				for( int i=0; i<faceCost[f].length; i++)
+				{
+					if( faceCost[f][i]<cost[f][i] || ( faceCost[f][i]==cost[f][i] && faceCost[f][i]>Double.NEGATIVE_INFINITY && faceDist[f][i]>distance[f][i] ) )
+						return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,445 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+
+// pixel access by index in flat iteration order, for the labelers that address pixels by their index
+// (see ImageNeighborhood). ArrayImg and PlanarImg (thus ImageJ images) of the common primitive types are
+// read and written directly in their backing arrays, one page per plane for a PlanarImg. Any other image
+// goes through a RandomAccess, the index being converted back to a position at each access.
+// Values written in an integer type are cast, not rounded: only integer values should be written there
+
+public final class FlatImageAccess {
+
+	private FlatImageAccess() {}
+
+
+	// grey values of an image
+	public static abstract class Real
+	{
+		public abstract double get(long idx);
+		public abstract void set(long idx, double val);
+
+		/**
+		 * @return true if the values are read and written in the backing arrays of the image, false if they go
+		 *         through a RandomAccess, i.e. if copying the image is worth it before many accesses
+		 */
+		public boolean isArrayBacked()
+		{
+			return false;
+		}
+	}
+
+	// label image, labels are int
+	public static abstract class Labels
+	{
+		public abstract int get(long idx);
+		public abstract void set(long idx, int label);
+		public abstract long getMaxLabel();
+	}
+
+
+	public static <T extends RealType<T>> Real createReal(RandomAccessibleInterval<T> img)
+	{
+		final Object[] pages = getStoragePages(img);
+		final T type = Util.getTypeFromInterval(img);
+
+		if( pages!=null )
+		{
+			final int pageSize = getPageSize(img, pages.length);
+			final Object data = pages[0];
+			if( type instanceof FloatType && data instanceof float[] )
+				return new FloatAccess(pages, pageSize);
+			if( type instanceof DoubleType && data instanceof double[] )
+				return new DoubleAccess(pages, pageSize);
+			if( type instanceof UnsignedByteType && data instanceof byte[] )
+				return new ByteAccess(pages, pageSize, true);
+			if( type instanceof ByteType && data instanceof byte[] )
+				return new ByteAccess(pages, pageSize, false);
+			if( type instanceof UnsignedShortType && data instanceof short[] )
+				return new ShortAccess(pages, pageSize, true);
+			if( type instanceof ShortType && data instanceof short[] )
+				return new ShortAccess(pages, pageSize, false);
+			if( type instanceof IntType && data instanceof int[] )
+				return new IntAccess(pages, pageSize);
+		}
+
+		final RandomAccess<T> ra = Views.zeroMin(img).randomAccess();
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		return new Real() {
+			@Override
+			public double get(long idx)
+			{
+				setPosition(ra, idx, dims);
+				return ra.get().getRealDouble();
+			}
+			@Override
+			public void set(long idx, double val)
+			{
+				setPosition(ra, idx, dims);
+				ra.get().setReal(val);
+			}
+		};
+	}
+
+
+	public static <L extends IntegerType<L>> Labels createLabels(RandomAccessibleInterval<L> img)
+	{
+		final Object[] pages = getStoragePages(img);
+		final L type = Util.getTypeFromInterval(img);
+
+		if( pages!=null )
+		{
+			final int pageSize = getPageSize(img, pages.length);
+			final Object data = pages[0];
+			if( type instanceof IntType && data instanceof int[] )
+			{
+				final IntAccess access = new IntAccess(pages, pageSize);
+				return new Labels() {
+					@Override
+					public int get(long idx) { return access.getInt(idx); }
+					@Override
+					public void set(long idx, int label) { access.setInt(idx, label); }
+					@Override
+					public long getMaxLabel() { return Integer.MAX_VALUE; }
+				};
+			}
+			if( type instanceof UnsignedShortType && data instanceof short[] )
+			{
+				final ShortAccess access = new ShortAccess(pages, pageSize, true);
+				return new Labels() {
+					@Override
+					public int get(long idx) { return (int) access.get(idx); }
+					@Override
+					public void set(long idx, int label) { access.set(idx, label); }
+					@Override
+					public long getMaxLabel() { return 0xffff; }
+				};
+			}
+		}
+
+		final RandomAccess<L> ra = Views.zeroMin(img).randomAccess();
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		final long maxLabel = (long) Math.min(type.getMaxValue(), Integer.MAX_VALUE);
+		return new Labels() {
+			@Override
+			public int get(long idx)
+			{
+				setPosition(ra, idx, dims);
+				return ra.get().getInteger();
+			}
+			@Override
+			public void set(long idx, int label)
+			{
+				setPosition(ra, idx, dims);
+				ra.get().setInteger(label);
+			}
+			@Override
+			public long getMaxLabel() { return maxLabel; }
+		};
+	}
+
+
+	/**
+	 * @return values of no image, 0 at first, stored as double in pages of at most 2^30 values, e.g. a copy of
+	 *         an image that is not array backed
+	 */
+	public static Real createDoubleBuffer(long size)
+	{
+		final int pageSize = (int) Math.max(1, Math.min(size, 1L<<30));
+		final Object[] pages = new Object[(int) Math.max(1, (size + pageSize - 1) / pageSize)];
+		for( int i=0; i<pages.length; i++)
+			pages[i] = new double[(int) Math.min(pageSize, size - (long)i*pageSize)];
+		return new DoubleAccess(pages, pageSize);
+	}
+
+	/**
+	 * @return same as createDoubleBuffer with float values, for values that are exact in a float
+	 */
+	public static Real createFloatBuffer(long size)
+	{
+		final int pageSize = (int) Math.max(1, Math.min(size, 1L<<30));
+		final Object[] pages = new Object[(int) Math.max(1, (size + pageSize - 1) / pageSize)];
+		for( int i=0; i<pages.length; i++)
+			pages[i] = new float[(int) Math.min(pageSize, size - (long)i*pageSize)];
+		return new FloatAccess(pages, pageSize);
+	}
+
+
+	// primitive arrays backing an ArrayImg (one page) or a PlanarImg (one page per plane), null for any other image
+	private static Object[] getStoragePages(RandomAccessibleInterval<?> img)
+	{
+		Object[] accesses;
+		if( img instanceof ArrayImg )
+		{
+			accesses = new Object[] { ((ArrayImg<?, ?>) img).update(null) };
+		}
+		else if( img instanceof PlanarImg )
+		{
+			final PlanarImg<?, ?> planar = (PlanarImg<?, ?>) img;
+			accesses = new Object[planar.numSlices()];
+			for( int i=0; i<accesses.length; i++)
+				accesses[i] = planar.getPlane(i);
+		}
+		else
+			return null;
+
+		final Object[] pages = new Object[accesses.length];
+		for( int i=0; i<accesses.length; i++)
+		{
+			if( !(accesses[i] instanceof ArrayDataAccess) )
+				return null;
+			pages[i] = ((ArrayDataAccess<?>) accesses[i]).getCurrentStorageArray();
+			if( pages[i]==null || pages[i].getClass()!=pages[0].getClass() )
+				return null;
+		}
+		return pages;
+	}
+
+	private static int getPageSize(RandomAccessibleInterval<?> img, int nPages)
+	{
+		long size = 1;
+		for( int d=0; d<img.numDimensions(); d++)
+			size *= img.dimension(d);
+		return (int) (size / nPages);
+	}
+
+	private static void setPosition(RandomAccess<?> ra, long idx, long[] dims)
+	{
+		for( int d=0; d<dims.length; d++)
+		{
+			ra.setPosition(idx % dims[d], d);
+			idx /= dims[d];
+		}
+	}
+
+
+	// one class per primitive type, a single page is indexed directly, several pages by idx / pageSize
+
+	private static final class FloatAccess extends Real
+	{
+		private final float[][] pages;
+		private final float[] page;
+		private final int pageSize;
+
+		FloatAccess(Object[] data, int pageSize)
+		{
+			pages = new float[data.length][];
+			for( int i=0; i<data.length; i++)
+				pages[i] = (float[]) data[i];
+			page = pages.length==1 ? pages[0] : null;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public boolean isArrayBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public double get(long idx)
+		{
+			if( page!=null )
+				return page[(int) idx];
+			return pages[(int)(idx / pageSize)][(int)(idx % pageSize)];
+		}
+
+		@Override
+		public void set(long idx, double val)
+		{
+			if( page!=null )
+				page[(int) idx] = (float) val;
+			else
+				pages[(int)(idx / pageSize)][(int)(idx % pageSize)] = (float) val;
+		}
+	}
+
+	private static final class DoubleAccess extends Real
+	{
+		private final double[][] pages;
+		private final double[] page;
+		private final int pageSize;
+
+		DoubleAccess(Object[] data, int pageSize)
+		{
+			pages = new double[data.length][];
+			for( int i=0; i<data.length; i++)
+				pages[i] = (double[]) data[i];
+			page = pages.length==1 ? pages[0] : null;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public boolean isArrayBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public double get(long idx)
+		{
+			if( page!=null )
+				return page[(int) idx];
+			return pages[(int)(idx / pageSize)][(int)(idx % pageSize)];
+		}
+
+		@Override
+		public void set(long idx, double val)
+		{
+			if( page!=null )
+				page[(int) idx] = val;
+			else
+				pages[(int)(idx / pageSize)][(int)(idx % pageSize)] = val;
+		}
+	}
+
+	private static final class ByteAccess extends Real
+	{
+		private final byte[][] pages;
+		private final byte[] page;
+		private final int pageSize;
+		private final int mask;
+
+		ByteAccess(Object[] data, int pageSize, boolean isUnsigned)
+		{
+			pages = new byte[data.length][];
+			for( int i=0; i<data.length; i++)
+				pages[i] = (byte[]) data[i];
+			page = pages.length==1 ? pages[0] : null;
+			this.pageSize = pageSize;
+			mask = isUnsigned ? 0xff : -1;
+		}
+
+		@Override
+		public boolean isArrayBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public double get(long idx)
+		{
+			if( page!=null )
+				return page[(int) idx] & mask;
+			return pages[(int)(idx / pageSize)][(int)(idx % pageSize)] & mask;
+		}
+
+		@Override
+		public void set(long idx, double val)
+		{
+			if( page!=null )
+				page[(int) idx] = (byte) (long) val;
+			else
+				pages[(int)(idx / pageSize)][(int)(idx % pageSize)] = (byte) (long) val;
+		}
+	}
+
+	private static final class ShortAccess extends Real
+	{
+		private final short[][] pages;
+		private final short[] page;
+		private final int pageSize;
+		private final int mask;
+
+		ShortAccess(Object[] data, int pageSize, boolean isUnsigned)
+		{
+			pages = new short[data.length][];
+			for( int i=0; i<data.length; i++)
+				pages[i] = (short[]) data[i];
+			page = pages.length==1 ? pages[0] : null;
+			this.pageSize = pageSize;
+			mask = isUnsigned ? 0xffff : -1;
+		}
+
+		@Override
+		public boolean isArrayBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public double get(long idx)
+		{
+			if( page!=null )
+				return page[(int) idx] & mask;
+			return pages[(int)(idx / pageSize)][(int)(idx % pageSize)] & mask;
+		}
+
+		@Override
+		public void set(long idx, double val)
+		{
+			if( page!=null )
+				page[(int) idx] = (short) (long) val;
+			else
+				pages[(int)(idx / pageSize)][(int)(idx % pageSize)] = (short) (long) val;
+		}
+	}
+
+	private static final class IntAccess extends Real
+	{
+		private final int[][] pages;
+		private final int[] page;
+		private final int pageSize;
+
+		IntAccess(Object[] data, int pageSize)
+		{
+			pages = new int[data.length][];
+			for( int i=0; i<data.length; i++)
+				pages[i] = (int[]) data[i];
+			page = pages.length==1 ? pages[0] : null;
+			this.pageSize = pageSize;
+		}
+
+		int getInt(long idx)
+		{
+			if( page!=null )
+				return page[(int) idx];
+			return pages[(int)(idx / pageSize)][(int)(idx % pageSize)];
+		}
+
+		void setInt(long idx, int val)
+		{
+			if( page!=null )
+				page[(int) idx] = val;
+			else
+				pages[(int)(idx / pageSize)][(int)(idx % pageSize)] = val;
+		}
+
+		@Override
+		public boolean isArrayBacked()
+		{
+			return true;
+		}
+
+		@Override
+		public double get(long idx)
+		{
+			return getInt(idx);
+		}
+
+		@Override
+		public void set(long idx, double val)
+		{
+			setInt(idx, (int) (long) val);
+		}
+	}
+
+}
@@ -1,24 +1,16 @@
 package de.mpicbg.scf.imgtools.image.create.labelmap;
 
-import net.imglib2.Cursor;
-import net.imglib2.FinalInterval;
-import net.imglib2.RandomAccess;
 //import net.imglib2.RandomAccessible;
-import net.imglib2.RandomAccessibleInterval;
 //import net.imglib2.algorithm.neighborhood.Neighborhood;
 //import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.basictypeaccess.IntAccess;
-import net.imglib2.img.basictypeaccess.array.IntArray;
-import net.imglib2.outofbounds.OutOfBounds;
-import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
-import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Fraction;
-import net.imglib2.view.Views;
+import de.mpicbg.scf.imgtools.core.data.PagedBooleanArray;
+import de.mpicbg.scf.imgtools.core.data.PagedFloatArray;
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
 import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
 import de.mpicbg.scf.imgtools.ui.visualisation.ProgressDialog;
 
 
@@ -31,9 +23,9 @@ import de.mpicbg.scf.imgtools.ui.visualisation.ProgressDialog;
 
 public class HMaximaLabeling {
 
-	int[] parent;
-	boolean[] is_ActivePeak;
-	int[] criteria;
+	PagedIndexArray parent;
+	PagedBooleanArray is_ActivePeak;
+	PagedFloatArray criteria;
 	
 
 	private int numberOfFoundObjects = 0;
@@ -42,131 +34,37 @@ public class HMaximaLabeling {
 	public <T extends RealType<T> > Img<IntType> HMaxima(Img<T> input, final int Hmin, float threshold)
 	{
 		double jobCount = 0;
-		double jobCountMax = input.size() * 5;
+		double jobCountMax = input.size() * 3;
 		ProgressDialog.reset();
-		//////////////////////////////////////////////////////////////////////////////////////
-		// build an ordered list of the pixel ////////////////////////////////////////////////
 		
-		// get image min and max
-		Cursor<T> in_cursor = input.cursor();
-		float aux = in_cursor.next().getRealFloat();
-		float min = aux;
-		float max = aux;
-
-		ProgressDialog.setStatusText("HMaxima: Initialisation (Step 1/5)");
-		while ( in_cursor.hasNext() )
-		{
-			//---------------
-			//Status report
-			jobCount ++;
-			ProgressDialog.setProgress(jobCount / jobCountMax);
-			if (ProgressDialog.wasCancelled())
-			{
-				break;
-			}
-			//--------------
-			float val = in_cursor.next().getRealFloat();
-			if(val<min)       {  min = val;  }
-			else if( val>max ){  max = val;  }
-		}
+		int ndim = input.numDimensions();
+		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
 		
-		min = Math.max(min, threshold+1);
+		// pixel values read by index
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
 		
-		 // get image histogram
-		int nlevel = (int) (max - min + 1);
-        int[] histo_Int = new int[ nlevel ];
-        
-        // create a flat iterable cursor
-        int ndim = input.numDimensions();
- 		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
- 		long[] minindim = new long[ ndim ], maxindim = new long[ ndim ];
-        for ( int d = 0; d < ndim; ++d ){   minindim[ d ] = 0 ;    maxindim[ d ] = dimensions[d] - 1 ;  }
-        FinalInterval interval = new FinalInterval( minindim, maxindim );
-        
-        final Cursor< T > in_flatcursor = Views.flatIterable( Views.interval( input, interval)).cursor();
-        
-
-        ProgressDialog.setStatusText("HMaxima: Build histogram (Step 2/5)");
-        while ( in_flatcursor.hasNext() )
-		{
-        	//---------------
-			//Status report
-			jobCount ++;
-			ProgressDialog.setProgress(jobCount / jobCountMax);
-			if (ProgressDialog.wasCancelled())
-			{
-				break;
-			}
-			//--------------
-        	int level = (int)(in_flatcursor.next().getRealFloat() - min); 
-        	if(level>=0)
-        	{
-        		histo_Int[ level ]++;
-        	}
-		}
-
-        // get each level start to build the sorted list
-        int[] posInLevel = new int[ nlevel ];
-        posInLevel[nlevel-1] = 0;
-        for (int i = nlevel - 1; i > 0; i--)
-            posInLevel[ i-1 ] = posInLevel[ i ] + histo_Int[ i ];
-
-        // build a sorted list // higher level are put first // for each level pix are in lexicographic order
-        int[] Sorted_Pix = new int[(int) input.size()];
-        in_flatcursor.reset(); 
-        int idx = 0; 
-        
-
-        ProgressDialog.setStatusText("HMaxima: Build sorted list (Step 3/5)");
-        while ( in_flatcursor.hasNext() )
-        {
-        	//---------------
-			//Status report
-			jobCount ++;
-			ProgressDialog.setProgress(jobCount / jobCountMax);
-			if (ProgressDialog.wasCancelled())
-			{
-				break;
-			}
-			//--------------
-        	int level = (int)(in_flatcursor.next().getRealFloat() - min);
-        	if(level>=0)
-        	{
-        		Sorted_Pix[posInLevel[level]] = idx;
-        		posInLevel[level]++;
-        	}
-        	idx++;
-        }
-            
-		//////////////////////////////////////////////////////////////////////////////////////
-		//////////////////////////////////////////////////////////////////////////////////////
-
-		
-		// define image dealing with out of bound
-        T outOfBoundValue = input.firstElement();
- 		final OutOfBoundsFactory< T, RandomAccessibleInterval< T >> oobImageFactory =  new OutOfBoundsConstantValueFactory< T, RandomAccessibleInterval< T >>( outOfBoundValue );
- 		final OutOfBounds< T > input_X = oobImageFactory.create( input );
- 		RandomAccess<T> input_RA = input.randomAccess();
+		// sorted list of the pixels above threshold, higher values first, in flat order for equal values
+		ProgressDialog.setStatusText("HMaxima: Build sorted list (Step 1/3)");
+		PagedIndexArray Sorted_Pix = SortedPixels.sort(in, input.size(), threshold);
+		long nSorted = Sorted_Pix.size();
+		jobCount += input.size();
+		ProgressDialog.setProgress(jobCount / jobCountMax);
  				
  		// define the connectivity
- 		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.FULL);
- 		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
- 		long[][] neighMov = ImageConnectivity.getSuccessiveMove(neigh);
- 		int nNeigh = neigh.length;
+ 		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, ImageConnectivity.Connectivity.FULL);
+ 		PeakMerging merging = new PeakMerging(in, Hmin);
  		
  		// first pass in sorted order of the pixel
- 		parent = new int[(int)input.size()];
- 		int pval, nval, rval;
- 		int nidx, ridx;
- 		long[] position = new long[ndim];
+ 		parent = new PagedIndexArray(input.size());
+ 		float pval;
  		
- 		is_ActivePeak = new boolean[(int)input.size()];
- 		for( int i = 0; i < is_ActivePeak.length; i++){  is_ActivePeak[i] = false;}
- 		criteria = new int[(int) input.size()];
+ 		is_ActivePeak = new PagedBooleanArray(input.size());
+ 		criteria = new PagedFloatArray(input.size());
  		
- 		ProgressDialog.setStatusText("HMaxima: Build neighborhood (Step 4/5)");
-		for(int pidx: Sorted_Pix)
+ 		ProgressDialog.setStatusText("HMaxima: Build neighborhood (Step 2/3)");
+		for(long k=0; k<nSorted; k++)
 		{
+			long pidx = Sorted_Pix.get(k);
 			//---------------
 			//Status report
 			jobCount ++;
@@ -176,51 +74,18 @@ public class HMaximaLabeling {
 				break;
 			}
 			//--------------
-			getPosFromIdx( pidx, dimensions, position);
-			input_X.setPosition(position);
-			pval = (int)input_X.get().getRealFloat();
-			
-			if(pval<=threshold){ break; }
+			pval = (float)in.get(pidx);
 			
-			parent[pidx]=pidx;
-			is_ActivePeak[pidx]=true;
-			criteria[pidx] = 1;
+			parent.set(pidx, pidx);
+			is_ActivePeak.set(pidx, true);
+			criteria.set(pidx, 1);
 			
 			//boolean is_ActiveAux = true;
 			
 			// for each neighbor
-			for(int i=0; i<nNeigh; i++)
-			{
-				//------------------
-				if (ProgressDialog.wasCancelled())
-				{
-					break;
-				}
-				//------------------
-				input_X.move(neighMov[i]);
-				if( input_X.isOutOfBounds() ){  continue;  }
-				nval = (int)input_X.get().getRealFloat();
-				nidx = pidx + n_offset[i];
-				
-				if ( (pval < nval)  |  ((pval == nval) & (nidx < pidx)) ) // test if n was already processed processed
-				{	
-					ridx = FindRoot(nidx);
-					if( ridx == pidx) { continue; }
-					if ( ! is_ActivePeak[ridx])
-					{
-						is_ActivePeak[pidx] = false;
-						continue;
-					}
-					
-					getPosFromIdx( ridx, dimensions, position);
-					input_RA.setPosition(position);
-					rval = (int)input_RA.get().getRealFloat();
-					
-					union(ridx, pidx, rval, pval, Hmin);
-					
-					
-				}
-			}
+			merging.pidx = pidx;
+			merging.pval = pval;
+			neighborhood.forEachNeighbor(pidx, merging);
 			
 		}
 		
@@ -229,8 +94,8 @@ public class HMaximaLabeling {
 		int current_label=1;
 		
 
-		ProgressDialog.setStatusText("HMaxima: Generate output (Step 5/5)");
-		for (int i = Sorted_Pix.length - 1; i >= 0; i--)
+		ProgressDialog.setStatusText("HMaxima: Generate output (Step 3/3)");
+		for (long i = nSorted - 1; i >= 0; i--)
         {
 			//---------------
 			//Status report
@@ -241,20 +106,20 @@ public class HMaximaLabeling {
 				break;
 			}
 			//--------------
-            idx = Sorted_Pix[i];
-            if ( parent[idx] != idx )
-                parent[idx] = parent[parent[idx]];
+            long idx = Sorted_Pix.get(i);
+            if ( parent.get(idx) != idx )
+                parent.set(idx, parent.get(parent.get(idx)));
             else
             { 
-            	if( is_ActivePeak[idx] & criteria[idx]>=Hmin)
+            	if( is_ActivePeak.get(idx) & criteria.get(idx)>=Hmin)
             	{
             		//parent[idx] = criteria[idx]; // to color with the peak volume
-            		parent[idx] = current_label; // to color with label
+            		parent.set(idx, current_label); // to color with label
             		current_label++;
             	}
             	else
             	{
-            		parent[idx] = 0;
+            		parent.set(idx, 0);
             	}
             	
             }
@@ -263,46 +128,79 @@ public class HMaximaLabeling {
 		ProgressDialog.finish();
 		
 		// create an output image from the label array
-		final IntAccess access = new IntArray( parent );
-		final Fraction frac = new Fraction(1,1);
-		final ArrayImg<IntType, IntAccess> array =	new ArrayImg<IntType, IntAccess>( access, dimensions, frac );// create a Type that is linked to the container
-		//final ArrayImg<IntType, IntAccess> array = new ArrayImg<IntType, IntAccess>( access, dimensions, 1 );// create a Type that is linked to the container
-		final IntType linkedType = new IntType( array );
-		// pass it to the DirectAccessContainer
-		array.setLinkedType( linkedType );	
+		return LabelingUtilities.convertIndexArrayToLabelmap(parent, dimensions);
+	}
+	
+	
+	// merge pixel p with the peaks of its neighbors already processed
+	private class PeakMerging implements ImageNeighborhood.NeighborConsumer
+	{
+		final FlatImageAccess.Real in;
+		final int Hmin;
+		long pidx;
+		float pval;
+		
+		PeakMerging(FlatImageAccess.Real in, int Hmin)
+		{
+			this.in = in;
+			this.Hmin = Hmin;
+		}
 		
-		return array;
+		@Override
+		public void accept(int i, long nidx)
+		{
+			float nval = (float)in.get(nidx);
+			if ( (pval < nval)  |  ((pval == nval) & (nidx < pidx)) ) // test if n was already processed processed
+			{	
+				long ridx = FindRoot(nidx);
+				if( ridx == pidx) { return; }
+				if ( ! is_ActivePeak.get(ridx))
+				{
+					is_ActivePeak.set(pidx, false);
+					return;
+				}
+				
+				float rval = (float)in.get(ridx);
+				union(ridx, pidx, rval, pval, Hmin);
+			}
+		}
 	}
 	
 	
-	private int FindRoot(int n)
+	private long FindRoot(long n)
     {
-        if (parent[n] != n)
+        long r = n;
+        while (parent.get(r) != r)
+            r = parent.get(r);
+        
+        // path compression
+        while (n != r)
         {
-            parent[n] = FindRoot(parent[n]);
-            return parent[n];
+            long next = parent.get(n);
+            parent.set(n, r);
+            n = next;
         }
-        else { return n; }
+        return r;
     }
 	
 	
-	private void union(int r, int p, int valr, int valp, int Hmin)
+	private void union(long r, long p, float valr, float valp, int Hmin)
 	{
-		if (  ( valr == valp )  |  ( criteria[r]<Hmin )  )
+		if (  ( valr == valp )  |  ( criteria.get(r)<Hmin )  )
 		{
-			criteria[p] = Math.max(criteria[p], criteria[r] + valr - valp)  ;
-			criteria[r]=0;
-			parent[r] = p;
-			is_ActivePeak[r] = false;
+			criteria.set(p, Math.max(criteria.get(p), criteria.get(r) + valr - valp) );
+			criteria.set(r, 0);
+			parent.set(r, p);
+			is_ActivePeak.set(r, false);
 		}
 		else // without this else. a new region are restarted indefinitely when previous one reaches the max Area 
-			is_ActivePeak[p]=false;  
+			is_ActivePeak.set(p, false);  
 		
 		return;
 	}
 
 	
-	protected static void getPosFromIdx(int idx, long[] dimensions, long[] position)
+	protected static void getPosFromIdx(long idx, long[] dimensions, long[] position)
 	{
 		int ndim = dimensions.length;
 		for( int d=0; d<ndim; d++)
@@ -313,6 +211,19 @@ public class HMaximaLabeling {
 	}
 	
 	
+	/**
+	 * same labels as HMaxima(input, Hmin, threshold) on an image of integer values, computed with the max-tree
+	 * of the image built by numThreads threads (see MaxTree)
+	 */
+	public <T extends RealType<T> > Img<IntType> HMaxima(Img<T> input, final int Hmin, float threshold, int numThreads)
+	{
+		MaxTree tree = new MaxTree(input, threshold, numThreads);
+		Img<IntType> output = tree.getMaximaLabeling(MaxTree.Attribute.HEIGHT, Hmin - 1);
+		numberOfFoundObjects = tree.getNumberOfFoundObjects();
+		return output;
+	}
+	
+	
 	public <T extends RealType<T> > Img<IntType> HMaxima(Img<T> input, final int Hmin)
 	{
 		float threshold = (float)input.firstElement().createVariable().getMinValue();
@@ -1,12 +1,16 @@
 package de.mpicbg.scf.imgtools.image.create.labelmap;
 
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
 import de.mpicbg.scf.imgtools.geometry.data.PointN;
 import ij.ImagePlus;
 import java.util.ArrayList;
 import java.util.List;
 import net.imglib2.*;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.array.IntArray;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.roi.Regions;
 import net.imglib2.roi.labeling.ImgLabeling;
@@ -19,6 +23,7 @@ import net.imglib2.type.logic.BoolType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
@@ -91,6 +96,32 @@ public class LabelingUtilities {
     }
 
 
+    /**
+     * Label image from labels stored in flat iteration order (as the union-find labelers do). A single int
+     * page is wrapped in an ArrayImg without copy, otherwise the labels are copied in an ArrayImg or, for
+     * images with more than Integer.MAX_VALUE pixels, in a CellImg.
+     */
+    public static Img<IntType> convertIndexArrayToLabelmap(PagedIndexArray labels, long[] dims) {
+        final int[] intPage = labels.getIntPage();
+        if (intPage != null) {
+            final IntAccess access = new IntArray(intPage);
+            final ArrayImg<IntType, IntAccess> array = new ArrayImg<IntType, IntAccess>(access, dims, new Fraction(1, 1));
+            array.setLinkedType(new IntType(array));
+            return array;
+        }
+
+        final Dimensions dimensions = new FinalDimensions(dims);
+        final IntType t = new IntType();
+        final Img<IntType> img = Util.getArrayOrCellImgFactory(dimensions, t).create(dimensions, t);
+        long idx = 0;
+        for (final IntType p : Views.flatIterable(img)) {
+            p.set((int) labels.get(idx));
+            idx++;
+        }
+        return img;
+    }
+
+
     public static <T extends RealType<T>> ImgLabeling<Integer, IntType> getIntIntImgLabellingFromLabelMapImg(Img<T> labelMap) {
         final Dimensions dims = labelMap;
         final IntType t = new IntType();
@@ -1,32 +1,20 @@
 package de.mpicbg.scf.imgtools.image.create.labelmap;
 
-import net.imglib2.Cursor;
-import net.imglib2.FinalInterval;
-//import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessible;
-//import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.basictypeaccess.IntAccess;
-import net.imglib2.img.basictypeaccess.array.IntArray;
-//import net.imglib2.outofbounds.OutOfBounds;
-//import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
-//import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Fraction;
-import net.imglib2.view.Views;
+import de.mpicbg.scf.imgtools.core.data.PagedBooleanArray;
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
 import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
 
 
 
 public class LocalMaximaLabeling
 {
 	
-	int[] parent;
-	boolean[] ismaxroot;
+	PagedIndexArray parent;
+	PagedBooleanArray ismaxroot;
 	int numberOfFoundObjects = 0;
 	
 	
@@ -35,127 +23,27 @@ public class LocalMaximaLabeling
 	
 	public <T extends RealType<T> > Img<IntType> LocalMaxima(Img<T> input)
 	{
-		
-		int ndim = input.numDimensions();
-		long[] dims = new long[ndim]; input.dimensions(dims);
-		parent = new int[(int) input.size()];
-		for( int i=0; i<parent.length; i++)
-			parent[i]=-1;
-		
-		// extend the input
-		T minT = input.firstElement().createVariable();
-		minT.setReal(minT.getMinValue());
-		float minT_float = minT.getRealFloat();
-		RandomAccessible< T > input_X = Views.extendValue(input, minT );
-		
-		
-		// create a flat iterable cursor
-		long[] min = new long[ ndim ], max = new long[ ndim ];
-        for ( int d = 0; d < ndim; ++d ){   min[ d ] = 0 ;    max[ d ] = dims[d] - 1 ;  }
-        FinalInterval interval = new FinalInterval( min, max );
-        final Cursor< T > ipix = Views.flatIterable( Views.interval( input_X, interval)).cursor();
-        		
-		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.LEXICO_FULL);
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dims);
-        final RectangleShape shape = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-        int nNeigh = (int)((Math.pow(3, ndim)-1)/2);
-		
-        
-		// first path, go through all the pixel and check already visited neighbor for existing tree
-        int p = -1, n, r;
-        float pval, nval;
-        
-        ismaxroot = new boolean[(int)input.size()];
-        for( int i=0; i<ismaxroot.length; i++)
-        	ismaxroot[i] = false; 
-        
-        for ( final Neighborhood< T > neighborhood : shape.neighborhoods( Views.interval( input_X, interval)) )
-        {
-        	p++;
-        	pval = ipix.next().getRealFloat();
-			if (pval<=minT_float){ continue;}
-        	
-			parent[p]=p;
-			ismaxroot[p]= true;
-			
-			// loop on neighbor
-			Cursor<T> nCursor = neighborhood.cursor();
-			for( int i = 0; i<nNeigh; i++)
-			{
-				// if n is in bounds
-				nval = nCursor.next().getRealFloat(); 
-				if(nval<=minT_float){ continue; }
-				
-				n=p+n_offset[i];
-				if( pval >= nval) 
-				{
-					// union of n and p
-					r = find_root(n);
-					if( r == p) { continue; }
-					if (pval==nval)
-					{	parent[r]=p;
-						ismaxroot[p] = ismaxroot[p] & ismaxroot[r];
-					}
-					ismaxroot[r]=false;
-					
-				}
-				else // if ( pval < nval ) then p status is changed to non-maximum root
-				{	
-					ismaxroot[p] = false;
-				}
-			}
-			
-		}
-		
-        
-		// second path to label the tree
-        int current_label = 0;
-        for(int i = parent.length-1 ; i>-1 ; i--)
-		{
-			if(parent[i]>=0)
-			{
-				if(parent[i]==i) // if i is root of a flat zone
-				{
-					if( ismaxroot[i] ) // if i is root of a maxima create a new label
-					{
-						current_label++;
-						parent[i] = current_label;
-					}
-					else // if i is not a maxima set its intensity to zero
-						parent[i] = 0;
-				}
-				else 
-					parent[i] = parent[ parent[i] ];
-			}
-		}
-		numberOfFoundObjects = current_label;
-        
-		
-        // create an output image from the label array
-		final IntAccess access = new IntArray( parent );
-		final Fraction frac = new Fraction(1,1);
-		final ArrayImg<IntType, IntAccess> array =	new ArrayImg<IntType, IntAccess>( access, dims, frac );// create a Type that is linked to the container
-		//final ArrayImg<IntType, IntAccess> array = new ArrayImg<IntType, IntAccess>( access, dims, 1 );// create a Type that is linked to the container
-		final IntType linkedType = new IntType( array );
-		// pass it to the DirectAccessContainer
-		array.setLinkedType( linkedType );	
-		
-		return array;
+		// only the pixels above the minimum value of the type are processed
+		float minT_float = (float)input.firstElement().createVariable().getMinValue();
+		return LocalMaxima(input, minT_float);
 	}
 	
 	
 	
-	private int find_root(int p)
+	private long find_root(long p)
 	{
-		if( parent[p]!=p)
+		long r = p;
+		while( parent.get(r)!=r )
+			r = parent.get(r);
+		
+		// path compression
+		while( p!=r )
 		{
-			parent[p] = find_root(parent[p]);
-			return parent[p];
+			long next = parent.get(p);
+			parent.set(p, r);
+			p = next;
 		}
-			
-		return p;
+		return r;
 	}
 	
 	
@@ -170,121 +58,102 @@ public class LocalMaximaLabeling
 		
 		int ndim = input.numDimensions();
 		long[] dims = new long[ndim]; input.dimensions(dims);
-		parent = new int[(int) input.size()];
-		for( int i=0; i<parent.length; i++)
-			parent[i]=-1;
+		parent = new PagedIndexArray(input.size());
+		parent.fill(-1);
 		
-		// extend the input
-		T minT = input.firstElement().createVariable();
-		minT.setReal(minT.getMinValue());
-		float minT_float = minT.getRealFloat();
+		float minT_float = (float)input.firstElement().createVariable().getMinValue();
 		threshold = threshold<minT_float?minT_float:threshold;
-		//minT.setReal(Float.NEGATIVE_INFINITY);
-		RandomAccessible< T > input_X = Views.extendValue(input, minT );
-		
 		
-		// create a flat iterable cursor
-		long[] min = new long[ ndim ], max = new long[ ndim ];
-        for ( int d = 0; d < ndim; ++d ){   min[ d ] = 0 ;    max[ d ] = dims[d] - 1 ;  }
-        FinalInterval interval = new FinalInterval( min, max );
-        final Cursor< T > ipix = Views.flatIterable( Views.interval( input_X, interval)).cursor();
-        		
+		// define the connectivity, only the neighbors already visited in the flat order
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dims, ImageConnectivity.Connectivity.LEXICO_FULL);
+		MaximaMerging merging = new MaximaMerging(FlatImageAccess.createReal(input), threshold);
 		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.LEXICO_FULL);
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dims);
-        final RectangleShape shape = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-        int nNeigh = (int)((Math.pow(3, ndim)-1)/2);
-		
-        
 		// first path, go through all the pixel and check already visited neighbor for existing tree
-        int p = -1, n, r;
-        float pval, nval;
-        
-        ismaxroot = new boolean[(int)input.size()];
-        for( int i=0; i<ismaxroot.length; i++)
-        	ismaxroot[i] = false; 
+        ismaxroot = new PagedBooleanArray(input.size());
         
-        for ( final Neighborhood< T > neighborhood : shape.neighborhoods( Views.interval( input_X, interval)) )
+        long[] position = new long[ndim];
+        long size = input.size();
+        for ( long p = 0; p < size; p++, neighborhood.fwd(position) )
         {
-        	p++;
-        	pval = ipix.next().getRealFloat();
-			if (pval>threshold)
-			{
-        	
-				parent[p]=p;
-				ismaxroot[p]= true;
-				
-				// loop on neighbor
-				Cursor<T> nCursor = neighborhood.cursor();
-				for( int i = 0; i<nNeigh; i++)
-				{
-					// if n is in bounds
-					nval = nCursor.next().getRealFloat(); 
-					if(nval>threshold)
-					{
-					
-						n=p+n_offset[i];
-						if( pval >= nval) 
-						{
-							// union of n and p
-							r = find_root(n);
-							if( r == p) { continue; }
-							if (pval==nval)
-							{	parent[r]=p;
-								ismaxroot[p] = ismaxroot[p] & ismaxroot[r];
-							}
-							ismaxroot[r]=false;
-							
-						}
-						else // if ( pval < nval ) then p status is changed to non-maximum root
-						{	
-							ismaxroot[p] = false;
-						}
-						
-					}
-				}
-				
-			}
+        	float pval = (float)merging.in.get(p);
+			if (pval<=threshold){ continue; }
 			
+			parent.set(p, p);
+			ismaxroot.set(p, true);
+			
+			// loop on neighbor
+			merging.p = p;
+			merging.pval = pval;
+			neighborhood.forEachNeighbor(p, neighborhood.getBorderCode(position), merging);
 		}
 		
         
 		// second path to label the tree
         int current_label = 0;
-        for(int i = parent.length-1 ; i>-1 ; i--)
+        for(long i = parent.size()-1 ; i>-1 ; i--)
 		{
-			if(parent[i]>=0)
+			if(parent.get(i)>=0)
 			{
-				if(parent[i]==i) // if i is root of a flat zone
+				if(parent.get(i)==i) // if i is root of a flat zone
 				{
-					if( ismaxroot[i] ) // if i is root of a maxima create a new label
+					if( ismaxroot.get(i) ) // if i is root of a maxima create a new label
 					{
 						current_label++;
-						parent[i] = current_label;
+						parent.set(i, current_label);
 					}
 					else // if i is not a maxima set its intensity to zero
-						parent[i] = 0;
+						parent.set(i, 0);
 				}
 				else 
-					parent[i] = parent[ parent[i] ];
+					parent.set(i, parent.get( parent.get(i) ));
 			}
 		}
+		numberOfFoundObjects = current_label;
         
 		
         // create an output image from the label array
-		final IntAccess access = new IntArray( parent );
-		final Fraction frac = new Fraction(1,1);
-		final ArrayImg<IntType, IntAccess> array =	new ArrayImg<IntType, IntAccess>( access, dims, frac );// create a Type that is linked to the container
-		//final ArrayImg<IntType, IntAccess> array = new ArrayImg<IntType, IntAccess>( access, dims, 1 );// create a Type that is linked to the container
-		final IntType linkedType = new IntType( array );
-		// pass it to the DirectAccessContainer
-		array.setLinkedType( linkedType );	
-		
-		return array;
+		return LabelingUtilities.convertIndexArrayToLabelmap(parent, dims);
 	}
 	
 	
+	// union of p with its already visited neighbors n, p stays a maximum root as long as no neighbor is higher
+	private class MaximaMerging implements ImageNeighborhood.NeighborConsumer
+	{
+		final FlatImageAccess.Real in;
+		final float threshold;
+		long p;
+		float pval;
+		
+		MaximaMerging(FlatImageAccess.Real in, float threshold)
+		{
+			this.in = in;
+			this.threshold = threshold;
+		}
+		
+		@Override
+		public void accept(int i, long n)
+		{
+			float nval = (float)in.get(n);
+			if( nval<=threshold ){ return; }
+			
+			if( pval >= nval) 
+			{
+				// union of n and p
+				long r = find_root(n);
+				if( r == p) { return; }
+				if (pval==nval)
+				{	parent.set(r, p);
+					ismaxroot.set(p, ismaxroot.get(p) & ismaxroot.get(r));
+				}
+				ismaxroot.set(r, false);
+			}
+			else // if ( pval < nval ) then p status is changed to non-maximum root
+			{	
+				ismaxroot.set(p, false);
+			}
+		}
+	}
+	
 	
 
 	public int getNumberOfFoundObjects() {
@@ -0,0 +1,655 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import de.mpicbg.scf.imgtools.core.data.LongCountMap;
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
+import de.mpicbg.scf.imgtools.core.data.PagedIntArray;
+import de.mpicbg.scf.imgtools.core.data.RadixSort;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
+
+
+// component tree of the upper level sets of an image (max-tree), built once to label the maxima of the image
+// for any value of a criterion without sorting the pixels again. Each node is a connected component of the
+// pixels >= its level and keeps its height (max level in the node - node level), area (number of pixels)
+// and volume (sum of the pixel levels above the node level). A criterion selects the lowest nodes reaching
+// it, i.e. nodes reaching it that have no child reaching it, in a single pass over the nodes.
+//
+// As in HMaximaLabeling and AreaMaximaLabeling the grey values are compared as float, the pixels are processed
+// in the order of SortedPixels, the connectivity is FULL and only the pixels above the threshold are in the tree
+// (which then can be a forest). The maxima of height >= h-1 are the labels of HMaximaLabeling.HMaxima(input, h,
+// threshold) and the maxima of area >= A the ones of AreaMaximaLabeling.AreaMaxima(input, A, threshold), with
+// the same label numbers (up to the float rounding of the heights for non integer values).
+//
+// The tree is built with the union-find of Berger et al. 2007, "Effective component tree computation with
+// application to pattern recognition in astronomical imaging"
+
+public class MaxTree {
+
+	public enum Attribute
+	{
+		HEIGHT,
+		AREA,
+		VOLUME
+	}
+
+	// the canonical pixels are interleaved in buckets of the upper bits of their key, see buildNodes
+	private static final int BUCKET_BITS = 16;
+	private static final int NBUCKETS = 1 << BUCKET_BITS;
+
+	private final long[] dims;
+	private final PagedIndexArray pixelNode; // node of each pixel, -1 for pixels not above threshold
+	private int nNodes;
+	private int[] nodeParent; // -1 for a root, parents have a higher index than their children
+	private float[] nodeLevel;
+	private float[] nodeHeight;
+	private long[] nodeArea;
+	private double[] nodeVolume;
+
+	private int numberOfFoundObjects = 0;
+
+
+	public <T extends RealType<T>> MaxTree(RandomAccessibleInterval<T> input, float threshold)
+	{
+		this(input, threshold, 1);
+	}
+
+	/**
+	 * build the tree with several threads: the image is cut in slabs along its last dimension, the tree of
+	 * each slab is built by one thread, then the trees of neighbor slabs are merged along their common face
+	 * (Wilkinson et al. 2008, "Concurrent computation of attribute filters on shared memory parallel
+	 * machines"). The tree, thus any labeling, is the same as with one thread.
+	 */
+	public <T extends RealType<T>> MaxTree(final RandomAccessibleInterval<T> input, final float threshold, int numThreads)
+	{
+		final int ndim = input.numDimensions();
+		dims = new long[ndim]; input.dimensions(dims);
+		final long size = Intervals.numElements(input);
+
+		// slabs along the last dimension, they are ranges of indices in flat order
+		final long planeSize = size / Math.max(dims[ndim-1], 1);
+		final int nSlabs = (int) Math.max(1, Math.min(numThreads, dims[ndim-1]));
+		final long[] slabStart = new long[nSlabs+1];
+		for( int s=0; s<=nSlabs; s++)
+			slabStart[s] = (dims[ndim-1] * s / nSlabs) * planeSize;
+
+		ExecutorService service = Executors.newFixedThreadPool( nSlabs );
+		try
+		{
+			// sorted list of the pixels above threshold of each slab, higher level first and in flat order
+			// within a level. The lists are never merged, the order of the whole image is only needed for
+			// the canonical pixels, see buildNodes
+			final PagedIndexArray[] slabSorted = new PagedIndexArray[nSlabs];
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						final FlatImageAccess.Real slabIn = FlatImageAccess.createReal(input);
+						slabSorted[slab] = SortedPixels.sort(slabIn, slabStart[slab], slabStart[slab+1], threshold, size);
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			// union-find of each slab in sorted order. parent is the tree, zpar the union-find forest with path
+			// compression, the root of a component is always its last processed pixel
+			final PagedIndexArray parent = new PagedIndexArray(size);
+			pixelNode = new PagedIndexArray(size);
+			final PagedIndexArray zpar = pixelNode;
+			zpar.fill(-1);
+			tasks.clear();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						long[] slabDims = dims.clone();
+						slabDims[ndim-1] = (slabStart[slab+1] - slabStart[slab]) / planeSize;
+						ImageNeighborhood neighborhood = new ImageNeighborhood(slabDims, ImageConnectivity.Connectivity.FULL);
+						ComponentMerging merging = new ComponentMerging(parent, zpar, slabStart[slab]);
+						final PagedIndexArray slabList = slabSorted[slab];
+						for( long k=0; k<slabList.size(); k++)
+						{
+							long p = slabList.get(k);
+							parent.set(p, p);
+							zpar.set(p, p);
+							merging.p = p;
+							neighborhood.forEachNeighbor(p - slabStart[slab], merging);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			// merge the trees of the slabs pairwise, then the pairs pairwise ... the merges of a round are on
+			// disjoint groups of slabs
+			final ImageNeighborhood neighborhood = new ImageNeighborhood(dims, ImageConnectivity.Connectivity.FULL);
+			for( int step=1; step<nSlabs; step*=2)
+			{
+				tasks.clear();
+				for( int s=step; s<nSlabs; s+=2*step)
+				{
+					final long faceStart = slabStart[s];
+					tasks.add( new Callable<Void>() {
+						@Override
+						public Void call() {
+							TreeMerging merging = new TreeMerging(parent, zpar, FlatImageAccess.createReal(input), faceStart);
+							for( long p=faceStart; p<faceStart+planeSize; p++)
+							{
+								if( zpar.get(p)<0 ){ continue; }
+								merging.p = p;
+								neighborhood.forEachNeighbor(p, merging);
+							}
+							return null;
+						}
+					});
+				}
+				runAll(service, tasks);
+			}
+
+			buildNodes(slabSorted, slabStart, parent, input, service);
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+
+	// canonical tree and nodes with their attributes, from the tree of the sorted pixels of each slab. Each pass
+	// over the pixels runs on the slabs in parallel, a thread only writes the pixels of its slab or of its nodes, the
+	// attributes are accumulated from the children to the parents in a last pass over the nodes
+	private <T extends RealType<T>> void buildNodes(final PagedIndexArray[] slabSorted, final long[] slabStart,
+			final PagedIndexArray parent, final RandomAccessibleInterval<T> input, ExecutorService service)
+	{
+		final int nSlabs = slabSorted.length;
+		final PagedIndexArray zpar = pixelNode;
+
+		// canonical tree: every pixel points to the canonical pixel of its node, i.e. the last processed one,
+		// and canonical pixels to the canonical pixel of the parent node. The parent of a pixel is processed
+		// after it, thus in reverse order the parents within the slab are already resolved and a pixel ends
+		// up pointing either to a canonical pixel or to a pixel of a next slab
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for( int s=0; s<nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+					final PagedIndexArray slabList = slabSorted[slab];
+					for( long k=slabList.size()-1; k>=0; k--)
+					{
+						long p = slabList.get(k);
+						long q = parent.get(p);
+						if( q>=slabStart[slab] && q<slabStart[slab+1] && (float)in.get(parent.get(q)) == (float)in.get(q) )
+							parent.set(p, parent.get(q));
+					}
+					return null;
+				}
+			});
+		}
+		runAll(service, tasks);
+
+		// then the pointers to the next slabs are followed, at most one step per slab, and the canonical pixel
+		// is stored in zpar (free since the trees are merged) to not change the pixels other threads read.
+		// The nodes are numbered in the processing order of the whole image, so that children are numbered
+		// before their parent and the labels are the ones of the sequential construction: the canonical pixels
+		// of the slabs are interleaved by the upper bits of their key, from the count of each slab in each
+		// bucket, then the buckets with pixels of several slabs are sorted on the lower bits
+		final long[][] bucketCount = new long[nSlabs][NBUCKETS];
+		tasks.clear();
+		for( int s=0; s<nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+					final PagedIndexArray slabList = slabSorted[slab];
+					for( long k=0; k<slabList.size(); k++)
+					{
+						long p = slabList.get(k);
+						long c = parent.get(p);
+						while( !isCanonical(c, parent, in) )
+							c = parent.get(c);
+						zpar.set(p, c);
+						if( isCanonical(p, parent, in) )
+							bucketCount[slab][getBucket(p, in)]++;
+					}
+					return null;
+				}
+			});
+		}
+		runAll(service, tasks);
+
+		final long[][] bucketPosition = new long[nSlabs][NBUCKETS];
+		final long[] bucketStart = new long[NBUCKETS+1];
+		final boolean[] isMixed = new boolean[NBUCKETS];
+		long count = 0;
+		for( int b=0; b<NBUCKETS; b++)
+		{
+			bucketStart[b] = count;
+			int nSlabsInBucket = 0;
+			for( int s=0; s<nSlabs; s++)
+			{
+				bucketPosition[s][b] = count;
+				count += bucketCount[s][b];
+				if( bucketCount[s][b]>0 ){ nSlabsInBucket++; }
+			}
+			isMixed[b] = nSlabsInBucket>1;
+		}
+		bucketStart[NBUCKETS] = count;
+		if( count>Integer.MAX_VALUE-8 )
+			throw new IllegalArgumentException("MaxTree supports at most " + (Integer.MAX_VALUE-8) + " nodes");
+		nNodes = (int)count;
+		nodeParent = new int[nNodes];
+		nodeLevel = new float[nNodes];
+		nodeHeight = new float[nNodes];
+		nodeArea = new long[nNodes];
+		nodeVolume = new double[nNodes];
+		final float[] nodeMaxLevel = new float[nNodes];
+		final boolean isLong = pixelNode.size()>Integer.MAX_VALUE;
+		final PagedIndexArray nodePixel = new PagedIndexArray(nNodes, PagedIntArray.getPageBits(nNodes), isLong);
+
+		// canonical tree from zpar, canonical pixels of each slab at its positions in the buckets
+		tasks.clear();
+		for( int s=0; s<nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+					final PagedIndexArray slabList = slabSorted[slab];
+					final long[] position = bucketPosition[slab];
+					for( long k=0; k<slabList.size(); k++)
+					{
+						long p = slabList.get(k);
+						parent.set(p, zpar.get(p));
+						if( isCanonical(p, parent, in) )
+							nodePixel.set(position[getBucket(p, in)]++, p);
+					}
+					return null;
+				}
+			});
+		}
+		runAll(service, tasks);
+
+		// ranges of buckets with about the same number of nodes
+		tasks.clear();
+		int firstBucket = 0;
+		for( int s=0; s<nSlabs; s++)
+		{
+			long rangeEnd = (long)nNodes * (s+1) / nSlabs;
+			int next = firstBucket;
+			while( next<NBUCKETS && (bucketStart[next+1]<=rangeEnd || s==nSlabs-1) ){ next++; }
+			final int start = firstBucket;
+			final int end = next;
+			firstBucket = next;
+			if( start==end ){ continue; }
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+					for( int b=start; b<end; b++)
+						if( isMixed[b] ){ sortBucket(nodePixel, bucketStart[b], bucketStart[b+1], in, isLong); }
+					for( long n=bucketStart[start]; n<bucketStart[end]; n++)
+					{
+						long p = nodePixel.get(n);
+						nodeLevel[(int)n] = (float)in.get(p);
+						nodeMaxLevel[(int)n] = nodeLevel[(int)n];
+						pixelNode.set(p, n);
+					}
+					return null;
+				}
+			});
+		}
+		runAll(service, tasks);
+
+		// node of the other pixels, parent of the nodes, area of each node. The thread of the slab of the
+		// canonical pixel counts the area of a node, the pixels of the other slabs are counted apart
+		final LongCountMap[] otherSlabArea = new LongCountMap[nSlabs];
+		tasks.clear();
+		for( int s=0; s<nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+					final PagedIndexArray slabList = slabSorted[slab];
+					final LongCountMap otherArea = new LongCountMap();
+					for( long k=0; k<slabList.size(); k++)
+					{
+						long p = slabList.get(k);
+						long c = parent.get(p);
+						int n;
+						if( isCanonical(p, parent, in) )
+						{
+							n = (int)pixelNode.get(p);
+							nodeParent[n] = c==p ? -1 : (int)pixelNode.get(c);
+							c = p;
+						}
+						else
+						{
+							n = (int)pixelNode.get(c);
+							pixelNode.set(p, n);
+						}
+						if( c>=slabStart[slab] && c<slabStart[slab+1] )
+							nodeArea[n]++;
+						else
+							otherArea.add(n+1L, 1);
+					}
+					otherSlabArea[slab] = otherArea;
+					return null;
+				}
+			});
+		}
+		runAll(service, tasks);
+		for( LongCountMap otherArea : otherSlabArea )
+			for( long key : otherArea.getSortedKeys() )
+				nodeArea[(int)(key-1)] += otherArea.get(key);
+
+		// accumulate the attributes from the children to the parents
+		for( int n=0; n<nNodes; n++)
+		{
+			nodeHeight[n] = nodeMaxLevel[n] - nodeLevel[n];
+			int np = nodeParent[n];
+			if( np<0 ){ continue; }
+			nodeMaxLevel[np] = Math.max(nodeMaxLevel[np], nodeMaxLevel[n]);
+			nodeArea[np] += nodeArea[n];
+			// the volume above the parent level is the volume of n plus its area above the parent level
+			nodeVolume[np] += nodeVolume[n] + (double)nodeArea[n] * ((double)nodeLevel[n] - nodeLevel[np]);
+		}
+	}
+
+
+	// bucket of the canonical pixels: upper bits of the key of their level, in processing order
+	private static int getBucket(long p, FlatImageAccess.Real in)
+	{
+		return RadixSort.getDescendingKey( (float)in.get(p) ) >>> (32-BUCKET_BITS);
+	}
+
+	// sort the nodes from..to of a bucket by the key of their level, the nodes of each slab are in processing
+	// order and follow the ones of the previous slabs, the sort is stable thus so is the merged order
+	private static void sortBucket(PagedIndexArray nodePixel, long from, long to, FlatImageAccess.Real in, boolean isLong)
+	{
+		final long n = to - from;
+		PagedIntArray keys = new PagedIntArray(n);
+		PagedIndexArray pixels = new PagedIndexArray(n, PagedIntArray.getPageBits(n), isLong);
+		for( long k=0; k<n; k++)
+		{
+			long p = nodePixel.get(from+k);
+			keys.set(k, RadixSort.getDescendingKey( (float)in.get(p) ));
+			pixels.set(k, p);
+		}
+		RadixSort.sort(keys, pixels, new PagedIntArray(n), new PagedIndexArray(n, PagedIntArray.getPageBits(n), isLong));
+		for( long k=0; k<n; k++)
+			nodePixel.set(from+k, pixels.get(k));
+	}
+
+
+	// pixel p is the canonical pixel of its node
+	private static boolean isCanonical(long p, PagedIndexArray parent, FlatImageAccess.Real in)
+	{
+		long q = parent.get(p);
+		return q==p || (float)in.get(q) != (float)in.get(p);
+	}
+
+
+	// merge the components of the neighbors already processed into pixel p, the neighbors are given in the
+	// indices of a slab starting at offset
+	private static class ComponentMerging implements ImageNeighborhood.NeighborConsumer
+	{
+		final PagedIndexArray parent;
+		final PagedIndexArray zpar;
+		final long offset;
+		long p;
+
+		ComponentMerging(PagedIndexArray parent, PagedIndexArray zpar, long offset)
+		{
+			this.parent = parent;
+			this.zpar = zpar;
+			this.offset = offset;
+		}
+
+		@Override
+		public void accept(int i, long n)
+		{
+			n += offset;
+			if( zpar.get(n)<0 ){ return; }
+			long r = findRoot(n);
+			if( r==p ){ return; }
+			parent.set(r, p);
+			zpar.set(r, p);
+		}
+
+		private long findRoot(long n)
+		{
+			long r = n;
+			while( zpar.get(r)!=r )
+				r = zpar.get(r);
+
+			// path compression
+			while( n!=r )
+			{
+				long next = zpar.get(n);
+				zpar.set(n, r);
+				n = next;
+			}
+			return r;
+		}
+	}
+
+
+	// merge the trees of two slabs: pixel p of the first plane of a slab is connected to its neighbors in the
+	// last plane of the previous slab. As in the trees of the slabs, a pixel points to a lower level or, at
+	// the same level, to a higher index, so that the canonical pixel of a node stays the one of the sequential
+	// construction
+	private static class TreeMerging implements ImageNeighborhood.NeighborConsumer
+	{
+		final PagedIndexArray parent;
+		final PagedIndexArray zpar;
+		final FlatImageAccess.Real in;
+		final long faceStart;
+		long p;
+
+		TreeMerging(PagedIndexArray parent, PagedIndexArray zpar, FlatImageAccess.Real in, long faceStart)
+		{
+			this.parent = parent;
+			this.zpar = zpar;
+			this.in = in;
+			this.faceStart = faceStart;
+		}
+
+		@Override
+		public void accept(int i, long n)
+		{
+			if( n>=faceStart || zpar.get(n)<0 ){ return; }
+			connect(n, p);
+		}
+
+		// merge the branches of x and y from their level down to the roots
+		private void connect(long x, long y)
+		{
+			x = levelRoot(x);
+			y = levelRoot(y);
+			if( level(y)>level(x) ){ long aux = x; x = y; y = aux; }
+			while( x!=y && y>=0 )
+			{
+				long z = parent.get(x)==x ? -1 : levelRoot(parent.get(x));
+				if( z>=0 && level(z)>=level(y) )
+				{
+					x = z;
+				}
+				else if( level(x)==level(y) && x>y )
+				{
+					long aux = x; x = y; y = aux;
+				}
+				else
+				{
+					// x goes below y, the branch of y continues with the former parent of x
+					parent.set(x, y);
+					x = y;
+					y = z;
+				}
+			}
+		}
+
+		// canonical pixel of the node of x in the current tree, with path compression within the level
+		private long levelRoot(long x)
+		{
+			final float level = level(x);
+			long r = x;
+			while( parent.get(r)!=r && level(parent.get(r))==level )
+				r = parent.get(r);
+
+			while( x!=r )
+			{
+				long next = parent.get(x);
+				parent.set(x, r);
+				x = next;
+			}
+			return r;
+		}
+
+		private float level(long x)
+		{
+			return (float)in.get(x);
+		}
+	}
+
+
+	private static void runAll(ExecutorService service, List<Callable<Void>> tasks)
+	{
+		try
+		{
+			for( Future<Void> future : service.invokeAll(tasks) )
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("max-tree construction interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("max-tree construction failed", e.getCause());
+		}
+	}
+
+
+	public int getNumberOfNodes()
+	{
+		return nNodes;
+	}
+
+	public double getAttribute(Attribute attribute, int node)
+	{
+		switch( attribute )
+		{
+		case HEIGHT: return nodeHeight[node];
+		case AREA:   return nodeArea[node];
+		default:     return nodeVolume[node];
+		}
+	}
+
+
+	// nodes whose attribute is >= minValue and that have no child with an attribute >= minValue, the
+	// attributes increase from the leaves to the roots, thus a single pass from the leaves is enough
+	private boolean[] getSelectedNodes(Attribute attribute, double minValue)
+	{
+		boolean[] selected = new boolean[nNodes];
+		boolean[] childReached = new boolean[nNodes];
+		for( int n=0; n<nNodes; n++)
+		{
+			if( getAttribute(attribute, n) < minValue ){ continue; }
+			selected[n] = !childReached[n];
+			if( nodeParent[n]>=0 ){ childReached[nodeParent[n]] = true; }
+		}
+		return selected;
+	}
+
+	/**
+	 * @return the number of maxima getMaximaLabeling(attribute, minValue) would label, in time linear in
+	 *         the number of nodes
+	 */
+	public int getNumberOfMaxima(Attribute attribute, double minValue)
+	{
+		int count = 0;
+		for( boolean isSelected : getSelectedNodes(attribute, minValue) )
+			if( isSelected ){ count++; }
+		return count;
+	}
+
+
+	public Img<IntType> getMaximaLabeling(Attribute attribute, double minValue)
+	{
+		final IntType t = new IntType();
+		final Img<IntType> output = Util.getArrayOrCellImgFactory(new FinalDimensions(dims), t).create(dims, t);
+		getMaximaLabeling(attribute, minValue, output);
+		return output;
+	}
+
+	/**
+	 * label the lowest nodes whose attribute is at least minValue, the pixels of a selected node and of its
+	 * children get its label, all the other pixels are set to 0
+	 *
+	 * @param output label image of the size of the input, e.g. reused between calls for a preview
+	 */
+	public <L extends IntegerType<L>> void getMaximaLabeling(Attribute attribute, double minValue, RandomAccessibleInterval<L> output)
+	{
+		boolean[] selected = getSelectedNodes(attribute, minValue);
+
+		// parents first, numbered as in HMaximaLabeling
+		int[] nodeLabel = new int[nNodes];
+		int current_label = 0;
+		for( int n=nNodes-1; n>=0; n--)
+		{
+			if( selected[n] )
+				nodeLabel[n] = ++current_label;
+			else
+				nodeLabel[n] = nodeParent[n]<0 ? 0 : nodeLabel[nodeParent[n]];
+		}
+		numberOfFoundObjects = current_label;
+
+		final FlatImageAccess.Labels out = FlatImageAccess.createLabels(output);
+		if( current_label>out.getMaxLabel() )
+			throw new IllegalArgumentException("The output type cannot hold " + current_label + " labels");
+		final long size = pixelNode.size();
+		for( long p=0; p<size; p++)
+		{
+			long n = pixelNode.get(p);
+			out.set(p, n<0 ? 0 : nodeLabel[(int)n]);
+		}
+	}
+
+
+	public int getNumberOfFoundObjects()
+	{
+		return numberOfFoundObjects;
+	}
+
+}
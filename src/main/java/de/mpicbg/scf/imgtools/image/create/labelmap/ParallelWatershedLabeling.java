@@ -0,0 +1,213 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import de.mpicbg.scf.imgtools.core.data.FloatLevels;
+import de.mpicbg.scf.imgtools.image.create.labelmap.WatershedLabeling.WatershedConnectivity;
+
+
+// seeded watershed computed block by block with a thread pool (see BlockWatershedFlooding)
+// the input is only read and the labels are written block by block in the output, thus the images can
+// be CellImg larger than the memory available for a single array (the blocks then follow the cells)
+//
+// the flooding follows WatershedLabeling.watershedInPlace: highest grey level first, then within a level
+// by distance to where the flood entered the level. A pixel takes the label of the neighbor it is reached
+// from with the highest level, then the smallest distance, then the smallest label, while watershedInPlace
+// takes the first one in its queue. On images without such ties (no plateau, distinct values in distinct
+// levels of FloatLevels, e.g. non integer images whose range holds less than 2^16 floats) the
+// result is the one of watershedInPlace, in any case it is the same for any block size and number of threads.
+
+public class ParallelWatershedLabeling {
+
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+
+	/**
+	 * @param input image to flood
+	 * @param seed seeds of the watershed, pixels with a value >0 are seeds of label (int)value
+	 * @param output label image, same size as input, every pixel is written (0 for unlabeled pixels)
+	 * @param threshold pixels with a value below threshold are not flooded
+	 * @param connectivity FACE or FULL
+	 * @param blockSize size of the blocks processed in parallel, if null the cells of a CellImg input are used
+	 * 			or DEFAULT_BLOCK_SIZE in each dimension
+	 * @param numThreads number of threads flooding blocks concurrently
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>, L extends IntegerType<L>> void watershed(
+			RandomAccessibleInterval<T> input, RandomAccessibleInterval<U> seed, RandomAccessibleInterval<L> output,
+			float threshold, WatershedConnectivity connectivity, int[] blockSize, int numThreads)
+	{
+		final int ndim = input.numDimensions();
+		final long[] dimensions = new long[ndim];
+		input.dimensions(dimensions);
+		if( blockSize==null )
+			blockSize = getDefaultBlockSize(input);
+
+		final RandomAccessibleInterval<T> input0 = Views.zeroMin(input);
+		final RandomAccessibleInterval<U> seed0 = Views.zeroMin(seed);
+		final RandomAccessibleInterval<L> output0 = Views.zeroMin(output);
+
+		BlockWatershedFlooding.BlockAccess access = new BlockWatershedFlooding.BlockAccess() {
+
+			@Override
+			public void read(long[] localMin, int[] localDims, double[] values, int[] seeds)
+			{
+				// part of the block + halo inside the image
+				long[] min = new long[ndim];
+				long[] max = new long[ndim];
+				for( int d=0; d<ndim; d++)
+				{
+					min[d] = Math.max(localMin[d], 0);
+					max[d] = Math.min(localMin[d] + localDims[d], dimensions[d]) - 1;
+				}
+
+				final Cursor<T> input_cursor = Views.flatIterable( Views.interval(input0, min, max) ).cursor();
+				final Cursor<U> seed_cursor = Views.flatIterable( Views.interval(seed0, min, max) ).cursor();
+				final long[] pos = min.clone();
+				while( input_cursor.hasNext() )
+				{
+					int idx = 0;
+					for( int d=ndim-1; d>=0; d--)
+						idx = idx*localDims[d] + (int)( pos[d] - localMin[d] );
+
+					values[idx] = input_cursor.next().getRealDouble();
+					double valSeed = seed_cursor.next().getRealDouble();
+					if( valSeed>0 )
+						seeds[idx] = (int) valSeed;
+
+					for( int d=0; d<ndim; d++)
+					{
+						if( ++pos[d]<=max[d] )
+							break;
+						pos[d] = min[d];
+					}
+				}
+			}
+
+			@Override
+			public void write(long[] coreMin, int[] coreDims, int[] localDims, int[] labels)
+			{
+				long[] max = new long[ndim];
+				for( int d=0; d<ndim; d++)
+					max[d] = coreMin[d] + coreDims[d] - 1;
+
+				final Cursor<L> output_cursor = Views.flatIterable( Views.interval(output0, coreMin, max) ).cursor();
+				final int[] pos = new int[ndim];
+				while( output_cursor.hasNext() )
+				{
+					// core pixels start at 1 in the local indexing
+					int idx = 0;
+					for( int d=ndim-1; d>=0; d--)
+						idx = idx*localDims[d] + pos[d] + 1;
+
+					output_cursor.next().setInteger( labels[idx] );
+
+					for( int d=0; d<ndim; d++)
+					{
+						if( ++pos[d]<coreDims[d] )
+							break;
+						pos[d] = 0;
+					}
+				}
+			}
+		};
+
+		// levels of the flooding, the ones watershedInPlace uses for the same image (see FloatLevels)
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		boolean isIntegerValued = true;
+		final Cursor<T> input_cursor = Views.flatIterable(input0).cursor();
+		while( input_cursor.hasNext() )
+		{
+			final double val = input_cursor.next().getRealDouble();
+			isIntegerValued &= ( val == Math.floor(val) );
+			if( val<threshold )
+				continue;
+			if( val<min )
+				min = val;
+			if( val>max )
+				max = val;
+		}
+		if( min>max )
+		{
+			min = threshold;
+			max = threshold;
+		}
+		FloatLevels levels = new FloatLevels(min, max, isIntegerValued);
+
+		BlockWatershedFlooding flooding = new BlockWatershedFlooding(dimensions, blockSize, threshold, levels, connectivity.getConn());
+		ExecutorService service = Executors.newFixedThreadPool( Math.max(numThreads, 1) );
+		try
+		{
+			flooding.run(access, service);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("parallel watershed interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("parallel watershed failed", e.getCause());
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+
+	/**
+	 * Same as watershed(input, seed, output, threshold, connectivity, blockSize, numThreads) with one thread per
+	 * processor and the default block size. The output is an IntType ArrayImg, or a CellImg for large images
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> Img<IntType> watershed(RandomAccessibleInterval<T> input, RandomAccessibleInterval<U> seed, float threshold, WatershedConnectivity connectivity)
+	{
+		long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+		final Dimensions dimensions = new FinalDimensions(dims);
+		final IntType t = new IntType();
+		final Img<IntType> output = Util.getArrayOrCellImgFactory(dimensions, t).create(dimensions, t);
+
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		watershed(input, seed, output, threshold, connectivity, null, numThreads);
+
+		return output;
+	}
+
+	public static <T extends RealType<T>, U extends RealType<U>> Img<IntType> watershed(RandomAccessibleInterval<T> input, RandomAccessibleInterval<U> seed)
+	{
+		return watershed(input, seed, Float.NEGATIVE_INFINITY, WatershedConnectivity.FULL);
+	}
+
+
+	// blocks aligned on the cells of a CellImg, so that a block never reads more than a cell and its neighbors
+	private static int[] getDefaultBlockSize(RandomAccessibleInterval<?> input)
+	{
+		int ndim = input.numDimensions();
+		int[] blockSize = new int[ndim];
+		if( input instanceof AbstractCellImg )
+		{
+			((AbstractCellImg<?, ?, ?, ?>) input).getCellGrid().cellDimensions(blockSize);
+		}
+		else
+		{
+			Arrays.fill(blockSize, DEFAULT_BLOCK_SIZE);
+		}
+		return blockSize;
+	}
+
+}
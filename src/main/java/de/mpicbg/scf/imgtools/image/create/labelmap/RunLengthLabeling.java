@@ -0,0 +1,246 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.Arrays;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
+
+
+// connected components of the pixels above a threshold, computed on the runs of foreground pixels along the
+// first dimension instead of the pixels: the runs of a row are merged with the overlapping runs of the
+// neighbor rows already visited, with a union-find on the runs. Memory and time of the merging depend on the
+// number of runs and rows, which makes it much cheaper than ThresholdLabeling for sparse masks. The label image
+// is only written on request, the labels of the runs can be read without it.
+//
+// The labels are the ones of ThresholdLabeling: the root of a component is its last run, and the labels are
+// numbered in decreasing order of the roots.
+
+public class RunLengthLabeling {
+
+	private final long[] dims;
+	private int nRuns = 0;
+	private long[] runStart; // flat index of the first pixel of each run, runs are in flat order
+	private int[] runLength;
+	private int[] runLabel; // union-find parent of the runs, then their label
+	private final int[] rowFirstRun; // first run of each row, and nRuns at the end
+
+	private int numberOfFoundObjects = 0;
+
+
+	/**
+	 * @param connectivity FACE or FULL
+	 */
+	public <T extends RealType<T>> RunLengthLabeling(RandomAccessibleInterval<T> input, float Thresh, ImageConnectivity.Connectivity connectivity)
+	{
+		final int ndim = input.numDimensions();
+		dims = new long[ndim]; input.dimensions(dims);
+		final long size = Intervals.numElements(input);
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+
+		// rows along the first dimension, they are the pixels of an image of the other dimensions
+		final long rowLength = dims[0];
+		final long[] rowDims = ndim>1 ? Arrays.copyOfRange(dims, 1, ndim) : new long[] {1};
+		final long nRows = size / Math.max(rowLength, 1);
+		if( nRows>=Integer.MAX_VALUE )
+			throw new IllegalArgumentException("RunLengthLabeling supports less than " + Integer.MAX_VALUE + " rows");
+		rowFirstRun = new int[(int)nRows + 1];
+
+		// only the rows already visited, runs touching by a corner are connected with the full connectivity
+		final boolean isFull = connectivity==ImageConnectivity.Connectivity.FULL || connectivity==ImageConnectivity.Connectivity.LEXICO_FULL;
+		ImageNeighborhood rowNeighborhood = new ImageNeighborhood(rowDims, isFull ? ImageConnectivity.Connectivity.LEXICO_FULL : ImageConnectivity.Connectivity.LEXICO_FACE);
+		RunMerging merging = new RunMerging(isFull ? 1 : 0);
+
+		runStart = new long[1024];
+		runLength = new int[1024];
+		runLabel = new int[1024];
+		long[] rowPosition = new long[rowDims.length];
+		for( int row=0; row<nRows; row++, rowNeighborhood.fwd(rowPosition) )
+		{
+			rowFirstRun[row] = nRuns;
+
+			// runs of the row
+			final long rowStart = row * rowLength;
+			long x = 0;
+			while( x<rowLength )
+			{
+				while( x<rowLength && !((float)in.get(rowStart + x)>Thresh) ){ x++; }
+				if( x==rowLength ){ break; }
+				long start = x;
+				while( x<rowLength && (float)in.get(rowStart + x)>Thresh ){ x++; }
+				addRun(rowStart + start, (int)(x - start));
+			}
+			rowFirstRun[row+1] = nRuns;
+
+			// merge them with the runs of the neighbor rows
+			if( rowFirstRun[row]==nRuns ){ continue; }
+			merging.row = row;
+			rowNeighborhood.forEachNeighbor(row, rowNeighborhood.getBorderCode(rowPosition), merging);
+		}
+
+		// label the runs, by construction parents are visited first
+		int current_label = 0;
+		for( int r=nRuns-1; r>=0; r--)
+		{
+			if( runLabel[r]==r )
+				runLabel[r] = ++current_label;
+			else
+				runLabel[r] = runLabel[runLabel[r]];
+		}
+		numberOfFoundObjects = current_label;
+
+		runStart = Arrays.copyOf(runStart, nRuns);
+		runLength = Arrays.copyOf(runLength, nRuns);
+		runLabel = Arrays.copyOf(runLabel, nRuns);
+	}
+
+
+	private void addRun(long start, int length)
+	{
+		if( nRuns==runStart.length )
+		{
+			if( nRuns>=Integer.MAX_VALUE-8 )
+				throw new IllegalArgumentException("RunLengthLabeling supports at most " + (Integer.MAX_VALUE-8) + " runs");
+			int capacity = (int) Math.min( 2L*nRuns, Integer.MAX_VALUE-8 );
+			runStart = Arrays.copyOf(runStart, capacity);
+			runLength = Arrays.copyOf(runLength, capacity);
+			runLabel = Arrays.copyOf(runLabel, capacity);
+		}
+		runStart[nRuns] = start;
+		runLength[nRuns] = length;
+		runLabel[nRuns] = nRuns;
+		nRuns++;
+	}
+
+
+	// merge the runs of a row with the overlapping runs of a neighbor row, both lists are sorted along the row
+	private class RunMerging implements ImageNeighborhood.NeighborConsumer
+	{
+		final int gap; // runs separated by up to gap pixels along the row are connected
+		int row;
+
+		RunMerging(int gap)
+		{
+			this.gap = gap;
+		}
+
+		@Override
+		public void accept(int i, long neighborRow)
+		{
+			int r = rowFirstRun[row];
+			int rEnd = rowFirstRun[row+1];
+			int n = rowFirstRun[(int)neighborRow];
+			int nEnd = rowFirstRun[(int)neighborRow+1];
+			long shift = (row - neighborRow) * dims[0];
+			while( r<rEnd && n<nEnd )
+			{
+				// positions along the row
+				long rs = runStart[r] - shift, re = rs + runLength[r];
+				long ns = runStart[n], ne = ns + runLength[n];
+				if( ns <= re-1+gap && rs <= ne-1+gap )
+					union(n, r);
+				// the run ending first cannot overlap the next runs of the other row
+				if( re < ne ){ r++; }
+				else{ n++; }
+			}
+		}
+	}
+
+	private int findRoot(int r)
+	{
+		int root = r;
+		while( runLabel[root]!=root )
+			root = runLabel[root];
+
+		// path compression
+		while( r!=root )
+		{
+			int next = runLabel[r];
+			runLabel[r] = root;
+			r = next;
+		}
+		return root;
+	}
+
+	// the root with the lower index goes below the other one, the root of a component is its last run
+	private void union(int r1, int r2)
+	{
+		r1 = findRoot(r1);
+		r2 = findRoot(r2);
+		if( r1<r2 )
+			runLabel[r1] = r2;
+		else if( r2<r1 )
+			runLabel[r2] = r1;
+	}
+
+
+	public int getNumberOfRuns()
+	{
+		return nRuns;
+	}
+
+	/**
+	 * @return flat index of the first pixel of the run, the runs are in flat order
+	 */
+	public long getRunStart(int run)
+	{
+		return runStart[run];
+	}
+
+	public int getRunLength(int run)
+	{
+		return runLength[run];
+	}
+
+	public int getRunLabel(int run)
+	{
+		return runLabel[run];
+	}
+
+
+	public Img<IntType> getLabeling()
+	{
+		final IntType t = new IntType();
+		final Img<IntType> output = Util.getArrayOrCellImgFactory(new FinalDimensions(dims), t).create(dims, t);
+		getLabeling(output);
+		return output;
+	}
+
+	/**
+	 * write the labels of the runs in output, the background is set to 0
+	 *
+	 * @param output label image of the size of the input
+	 */
+	public <L extends IntegerType<L>> void getLabeling(RandomAccessibleInterval<L> output)
+	{
+		final FlatImageAccess.Labels out = FlatImageAccess.createLabels(output);
+		if( numberOfFoundObjects>out.getMaxLabel() )
+			throw new IllegalArgumentException("The output type cannot hold " + numberOfFoundObjects + " labels");
+
+		long p = 0;
+		for( int r=0; r<nRuns; r++)
+		{
+			for( ; p<runStart[r]; p++)
+				out.set(p, 0);
+			for( long end=p+runLength[r]; p<end; p++)
+				out.set(p, runLabel[r]);
+		}
+		final long size = Intervals.numElements(output);
+		for( ; p<size; p++)
+			out.set(p, 0);
+	}
+
+
+	public int getNumberOfFoundObjects()
+	{
+		return numberOfFoundObjects;
+	}
+
+}
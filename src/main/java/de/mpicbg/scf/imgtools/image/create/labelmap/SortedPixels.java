@@ -0,0 +1,60 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
+import de.mpicbg.scf.imgtools.core.data.PagedIntArray;
+import de.mpicbg.scf.imgtools.core.data.RadixSort;
+
+
+// indices of the pixels above a threshold, higher values first and pixels of equal value in flat order: the
+// processing order of HMaximaLabeling, AreaMaximaLabeling and MaxTree. The values are compared as float,
+// the pixels are radix sorted on the bits of their value (see RadixSort), thus neither the time nor the
+// memory depend on the range of the values
+
+public final class SortedPixels {
+
+	private SortedPixels() {}
+
+
+	public static PagedIndexArray sort(FlatImageAccess.Real in, long size, float threshold)
+	{
+		return sort(in, 0, size, threshold, size);
+	}
+
+	/**
+	 * @param in pixel values
+	 * @param start first pixel index of the range to sort
+	 * @param end pixel index after the range to sort
+	 * @param threshold only the pixels whose value is > threshold are in the list
+	 * @param imageSize number of pixels of the image, above Integer.MAX_VALUE the indices are stored as long
+	 * @return sorted pixel indices
+	 */
+	public static PagedIndexArray sort(FlatImageAccess.Real in, long start, long end, float threshold, long imageSize)
+	{
+		long n = 0;
+		for( long p=start; p<end; p++)
+			if( (float)in.get(p) > threshold ){ n++; }
+
+		PagedIntArray keys = new PagedIntArray(n);
+		PagedIndexArray sorted = createIndexArray(n, imageSize);
+		long k = 0;
+		for( long p=start; p<end; p++)
+		{
+			float val = (float)in.get(p);
+			if( val > threshold )
+			{
+				keys.set(k, RadixSort.getDescendingKey(val));
+				sorted.set(k++, p);
+			}
+		}
+
+		RadixSort.sort(keys, sorted, new PagedIntArray(n), createIndexArray(n, imageSize));
+		return sorted;
+	}
+
+
+	private static PagedIndexArray createIndexArray(long n, long imageSize)
+	{
+		return new PagedIndexArray(n, PagedIntArray.getPageBits(n), imageSize>Integer.MAX_VALUE);
+	}
+
+}
@@ -1,82 +1,94 @@
 package de.mpicbg.scf.imgtools.image.create.labelmap;
 
-import net.imglib2.Cursor;
-import net.imglib2.FinalInterval;
-import net.imglib2.RandomAccessible;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.basictypeaccess.IntAccess;
-import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Fraction;
-import net.imglib2.view.Views;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import de.mpicbg.scf.imgtools.core.data.ConcurrentIndexArray;
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
 import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
+
 
+// connected components of the pixels above a threshold, labeled by a union-find in raster order: the root of a
+// component is always its last pixel in flat order and the labels are numbered in decreasing order of the roots.
+//
+// With several threads the image is cut in slabs along its last dimension. The pixels of each slab are
+// labeled by one thread, then the components are merged across the slab borders by all the threads at once
+// with a lock-free union-find (a root is linked below the other one with compareAndSet, Anderson and Woll 1991,
+// "Wait-free parallel algorithms for the union-find problem"), and at last each thread writes the labels of
+// its slab. The labels are the same whatever the number of threads.
 
 public class ThresholdLabeling {
 
-	int[] parent;
+	PagedIndexArray parent;
 	int numberOfFoundObjects = 0;
-	
+
 	// speed : 4ms at the best of 10 successive filtering of the blob image
 	// 850 ms with t1-head
 	public <T extends RealType<T> > Img<IntType> Labeling(Img<T> input, float Thresh)
 	{
-		
+		return Labeling(input, Thresh, ImageConnectivity.Connectivity.FULL, 1);
+	}
+
+	public <T extends RealType<T> > Img<IntType> Labeling(Img<T> input)
+	{
+		return Labeling( input, 0);
+	}
+
+
+	/**
+	 * @param connectivity FACE or FULL
+	 * @param numThreads number of threads, the labels do not depend on it
+	 * @return an ArrayImg if the image fits in a java array, a CellImg otherwise
+	 */
+	public <T extends RealType<T> > Img<IntType> Labeling(RandomAccessibleInterval<T> input, float Thresh, ImageConnectivity.Connectivity connectivity, int numThreads)
+	{
 		int ndim = input.numDimensions();
 		long[] dims = new long[ndim]; input.dimensions(dims);
-		parent = new int[(int) input.size()];
-		for( int i=0; i<parent.length; i++)
-			parent[i]=-1;
-		
-		// extend the input
-		T minT = input.firstElement().createVariable();
-		minT.setReal(minT.getMinValue());
-		RandomAccessible< T > input_X = Views.extendValue(input, minT );
-		
+		if( numThreads>1 )
+		{
+			final IntType t = new IntType();
+			final Img<IntType> output = Util.getArrayOrCellImgFactory(new FinalDimensions(dims), t).create(dims, t);
+			Labeling(input, Thresh, connectivity, numThreads, output);
+			return output;
+		}
+
+		// with a single thread the labels are written in the union-find forest itself, which becomes the output
+		long size = Intervals.numElements(input);
+		parent = new PagedIndexArray(size);
+		parent.fill(-1);
 		
-		// create a flat iterable cursor
-		long[] min = new long[ ndim ], max = new long[ ndim ];
-        for ( int d = 0; d < ndim; ++d ){   min[ d ] = 0 ;    max[ d ] = dims[d] - 1 ;  }
-        FinalInterval interval = new FinalInterval( min, max );
-        final Cursor< T > ipix = Views.flatIterable( Views.interval( input_X, interval)).cursor();
-        		
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
 		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.LEXICO_FULL);
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dims);
-        final RectangleShape shape = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-        int nNeigh = (int)((Math.pow(3, ndim)-1)/2);
+		// define the connectivity, only the neighbors already visited in the flat order
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dims, getLexicoConnectivity(connectivity));
+		ForegroundUnion foregroundUnion = new ForegroundUnion();
 		
-        
 		// first path, go through all the pixel and check already visited neighbor for existing tree
-        int p = -1, n, nlocal;
-        for ( final Neighborhood< T > neighborhood : shape.neighborhoods( Views.interval( input_X, interval)) )
+        long[] position = new long[ndim];
+        for ( long p = 0; p < size; p++, neighborhood.fwd(position) )
         {
-        	p++;
-			ipix.fwd();
-			
-			if (ipix.get().getRealFloat()>Thresh)
+			if ((float)in.get(p)>Thresh)
 			{
 				// makeset(p);
-				parent[p]=p;
+				parent.set(p, p);
 				
 				// loop on neighbor
-				Cursor<T> nCursor = neighborhood.cursor();
-				nlocal=0;
-				for( int i = 0; i<nNeigh; i++)
-				{
-					// if n is in bounds and n is processed ()
-					if(nCursor.next().getRealFloat()>Thresh)
-					{
-						n=p+n_offset[nlocal];
-						union(n,p);
-					}
-					nlocal++;
-				}
+				foregroundUnion.p = p;
+				neighborhood.forEachNeighbor(p, neighborhood.getBorderCode(position), foregroundUnion);
 				//is_processed(p)= true, always true given pixel visit order 
 			}
 			
@@ -85,54 +97,336 @@ public class ThresholdLabeling {
         
 		// second path to label the tree
         int current_label = 0;
-		for(int i = parent.length-1 ; i>-1 ; i--)
+		for(long i = parent.size()-1 ; i>-1 ; i--)
 		{
-			if (parent[i]>-1)
+			if (parent.get(i)>-1)
 			{
-				if( parent[i]==i ) // create a new label
-					parent[i] = ++current_label;
+				if( parent.get(i)==i ) // create a new label
+					parent.set(i, ++current_label);
 				else // propagate the label of parent. (i.e. by construction parent are always visited first)
-					parent[i] = parent[ parent[i] ];
+					parent.set(i, parent.get( parent.get(i) ));
 			}
 			else{
-				parent[i]=0;
+				parent.set(i, 0);
 			}
 		}
 		numberOfFoundObjects = current_label;
 		
         // create an output image from the label array
-		final IntAccess access = new IntArray( parent );
-		final Fraction frac = new Fraction(1,1);
-		final ArrayImg<IntType, IntAccess> array =	new ArrayImg<IntType, IntAccess>( access, dims, frac );// create a Type that is linked to the container
-		//final ArrayImg<IntType, IntAccess> array = new ArrayImg<IntType, IntAccess>( access, dims, 1 );// create a Type that is linked to the container
-		final IntType linkedType = new IntType( array );
-		// pass it to the DirectAccessContainer
-		array.setLinkedType( linkedType );
-		
-		
-		return array;
+		return LabelingUtilities.convertIndexArrayToLabelmap(parent, dims);
+	}
+
+	/**
+	 * label the pixels above Thresh in output, the background is set to 0
+	 *
+	 * @param connectivity FACE or FULL
+	 * @param numThreads number of threads, the labels do not depend on it
+	 * @param output label image of the size of the input
+	 */
+	public <T extends RealType<T>, L extends IntegerType<L>> void Labeling(final RandomAccessibleInterval<T> input, final float Thresh, ImageConnectivity.Connectivity connectivity, int numThreads, final RandomAccessibleInterval<L> output)
+	{
+		final int ndim = input.numDimensions();
+		final long[] dims = new long[ndim]; input.dimensions(dims);
+		final long size = Intervals.numElements(input);
+		final ImageConnectivity.Connectivity lexico = getLexicoConnectivity(connectivity);
+
+		// union-find forest, -1 for the background. Once the trees are complete the pixels get -1-label,
+		// starting with the roots
+		final ConcurrentIndexArray forest = new ConcurrentIndexArray(size);
+
+		// slabs along the last dimension, they are ranges of indices in flat order
+		final long planeSize = size / Math.max(dims[ndim-1], 1);
+		final int nSlabs = (int) Math.max(1, Math.min(numThreads, dims[ndim-1]));
+		final long[] slabStart = new long[nSlabs+1];
+		for( int s=0; s<=nSlabs; s++)
+			slabStart[s] = (dims[ndim-1] * s / nSlabs) * planeSize;
+
+		ExecutorService service = Executors.newFixedThreadPool( nSlabs );
+		try
+		{
+			// first pass, each slab on its own: go through all the pixels and merge the trees of the
+			// neighbors already visited
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+						final long offset = slabStart[slab];
+						long[] slabDims = dims.clone();
+						slabDims[ndim-1] = (slabStart[slab+1] - offset) / planeSize;
+						ImageNeighborhood neighborhood = new ImageNeighborhood(slabDims, lexico);
+						SlabUnion slabUnion = new SlabUnion(forest, offset);
+
+						long[] position = new long[ndim];
+						for( long p=offset; p<slabStart[slab+1]; p++, neighborhood.fwd(position) )
+						{
+							if( (float)in.get(p)>Thresh )
+							{
+								forest.set(p, p);
+								slabUnion.p = p;
+								neighborhood.forEachNeighbor(p - offset, neighborhood.getBorderCode(position), slabUnion);
+							}
+							else
+								forest.set(p, -1);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			// merge the components across the slab borders: the pixels of the first plane of a slab and
+			// their neighbors in the previous slab, all borders at once
+			final ImageNeighborhood neighborhood = new ImageNeighborhood(dims, lexico);
+			tasks.clear();
+			for( int s=1; s<nSlabs; s++)
+			{
+				final long faceStart = slabStart[s];
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						BorderUnion borderUnion = new BorderUnion(forest, faceStart);
+						for( long p=faceStart; p<faceStart+planeSize; p++)
+						{
+							if( forest.get(p)<0 ){ continue; }
+							borderUnion.p = p;
+							neighborhood.forEachNeighbor(p, borderUnion);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			// number the roots from the end of the image
+			final long[] slabRoots = new long[nSlabs];
+			tasks.clear();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						for( long p=slabStart[slab]; p<slabStart[slab+1]; p++)
+							if( forest.get(p)==p ){ slabRoots[slab]++; }
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			long nLabels = 0;
+			final long[] firstLabel = new long[nSlabs];
+			for( int s=nSlabs-1; s>=0; s--)
+			{
+				firstLabel[s] = nLabels + 1;
+				nLabels += slabRoots[s];
+			}
+			final FlatImageAccess.Labels out = FlatImageAccess.createLabels(output);
+			if( nLabels>out.getMaxLabel() )
+				throw new IllegalArgumentException("The output type cannot hold " + nLabels + " labels");
+			numberOfFoundObjects = (int) nLabels;
+
+			tasks.clear();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						long label = firstLabel[slab];
+						for( long p=slabStart[slab+1]-1; p>=slabStart[slab]; p--)
+							if( forest.get(p)==p ){ forest.set(p, -1-label++); }
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+
+			// second pass to label the trees, the background decodes to 0
+			tasks.clear();
+			for( int s=0; s<nSlabs; s++)
+			{
+				final int slab = s;
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						final FlatImageAccess.Labels slabOut = FlatImageAccess.createLabels(output);
+						for( long p=slabStart[slab+1]-1; p>=slabStart[slab]; p--)
+						{
+							// parents are visited first within the slab, a parent in another slab may still
+							// point to its own parent
+							long label = forest.get(p);
+							while( label>=0 )
+								label = forest.get(label);
+							forest.set(p, label);
+							slabOut.set(p, (int)(-1-label));
+						}
+						return null;
+					}
+				});
+			}
+			runAll(service, tasks);
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+
+	private static ImageConnectivity.Connectivity getLexicoConnectivity(ImageConnectivity.Connectivity connectivity)
+	{
+		if( connectivity==ImageConnectivity.Connectivity.FACE || connectivity==ImageConnectivity.Connectivity.LEXICO_FACE )
+			return ImageConnectivity.Connectivity.LEXICO_FACE;
+		return ImageConnectivity.Connectivity.LEXICO_FULL;
 	}
 	
 	
-	private int find_root(int p)
+	private long find_root(long p)
 	{
-		if( parent[p]==p )
-			return p;
-		return parent[p] = find_root(parent[p]);
+		long r = p;
+		while( parent.get(r)!=r )
+			r = parent.get(r);
+		
+		// path compression
+		while( p!=r )
+		{
+			long next = parent.get(p);
+			parent.set(p, r);
+			p = next;
+		}
+		return r;
 	}
 	
-	private void union(int n, int p)
+	// neighbors already visited are in the foreground if they have a parent
+	private class ForegroundUnion implements ImageNeighborhood.NeighborConsumer
 	{
-		int r = find_root(n);
-		if( r!=p )
-			parent[r]=p;
+		long p;
+		
+		@Override
+		public void accept(int i, long n)
+		{
+			if( parent.get(n)>-1 )
+				union(n, p);
+		}
 	}
 	
-	public <T extends RealType<T> > Img<IntType> Labeling(Img<T> input)
+	private void union(long n, long p)
 	{
-		return Labeling( input, 0);
+		long r = find_root(n);
+		if( r!=p )
+			parent.set(r, p);
 	}
-	
+
+
+	// same as ForegroundUnion in the forest shared by the threads, the neighbors are given in the indices of a
+	// slab starting at offset
+	private static class SlabUnion implements ImageNeighborhood.NeighborConsumer
+	{
+		final ConcurrentIndexArray forest;
+		final long offset;
+		long p;
+
+		SlabUnion(ConcurrentIndexArray forest, long offset)
+		{
+			this.forest = forest;
+			this.offset = offset;
+		}
+
+		@Override
+		public void accept(int i, long n)
+		{
+			n += offset;
+			if( forest.get(n)<0 ){ return; }
+
+			long r = n;
+			while( forest.get(r)!=r )
+				r = forest.get(r);
+
+			// path compression, within the slab of the thread
+			while( n!=r )
+			{
+				long next = forest.get(n);
+				forest.set(n, r);
+				n = next;
+			}
+			if( r!=p )
+				forest.set(r, p);
+		}
+	}
+
+	// neighbors in the previous slab, whose trees are linked concurrently by the other borders
+	private static class BorderUnion implements ImageNeighborhood.NeighborConsumer
+	{
+		final ConcurrentIndexArray forest;
+		final long faceStart;
+		long p;
+
+		BorderUnion(ConcurrentIndexArray forest, long faceStart)
+		{
+			this.forest = forest;
+			this.faceStart = faceStart;
+		}
+
+		@Override
+		public void accept(int i, long n)
+		{
+			if( n<faceStart && forest.get(n)>-1 )
+				union(n, p);
+		}
+
+		// the root with the lower index goes below the other one, thus the root of a component stays its last
+		// pixel. A root linked by another thread in the meantime makes compareAndSet fail, and the roots are
+		// searched again
+		private void union(long x, long y)
+		{
+			while( true )
+			{
+				x = findRoot(x);
+				y = findRoot(y);
+				if( x==y ){ return; }
+				if( x>y ){ long aux = x; x = y; y = aux; }
+				if( forest.compareAndSet(x, x, y) ){ return; }
+			}
+		}
+
+		// with path halving, a pixel only ever moves to a higher ancestor
+		private long findRoot(long x)
+		{
+			while( true )
+			{
+				long px = forest.get(x);
+				if( px==x ){ return x; }
+				long ppx = forest.get(px);
+				if( ppx!=px ){ forest.compareAndSet(x, px, ppx); }
+				x = px;
+			}
+		}
+	}
+
+
+	private static void runAll(ExecutorService service, List<Callable<Void>> tasks)
+	{
+		try
+		{
+			for( Future<Void> future : service.invokeAll(tasks) )
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("threshold labeling interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("threshold labeling failed", e.getCause());
+		}
+	}
+
 
 	public int getNumberOfFoundObjects() {
 		return numberOfFoundObjects;
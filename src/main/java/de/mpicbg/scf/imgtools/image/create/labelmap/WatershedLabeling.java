@@ -4,20 +4,19 @@ import ij.IJ;
 import ij.ImagePlus;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
-import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessible;
-import net.imglib2.algorithm.neighborhood.DiamondTipsShape;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
-import net.imglib2.algorithm.neighborhood.RectangleShape.NeighborhoodsAccessible;
-import net.imglib2.algorithm.neighborhood.Shape;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
+import de.mpicbg.scf.imgtools.core.data.FloatLevels;
 import de.mpicbg.scf.imgtools.core.data.HierarchicalFIFO;
+import de.mpicbg.scf.imgtools.core.data.HierarchicalFloatFIFO;
 import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
 import de.mpicbg.scf.imgtools.image.create.image.ImageCreationUtilities;
 
 // for debug
@@ -29,7 +28,7 @@ import net.imglib2.type.numeric.integer.IntType;
 // todo:
 // - calculate the watershed in place (it will save a lot moving around  in the image) ==> done, to be tested
 // - change the neighborhood strategy to be able to have 4 connectivity ==> done for the inplace version, to be tested
-// - modify HIerarchical FiFo to accept float value too
+// - modify HIerarchical FiFo to accept float value too ==> done, see HierarchicalFloatFIFO, used for non integer images
 // - Create an actual watershed (no seeds)
 
 
@@ -46,6 +45,8 @@ public class WatershedLabeling {
 	// 3.6 sec on T1_head (consistent with the size ratio with blob image)
 	
 	
+	
+	
 	public enum WatershedConnectivity
 	{
 		FACE(ImageConnectivity.Connectivity.FACE),
@@ -82,93 +83,33 @@ public class WatershedLabeling {
 		
 		
 		// create a priority queue
-		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max);
+		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max, input.size()-1 );
 		
 		int ndim = input.numDimensions();
 		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
 		
-		// create a flat iterable cursor
-		long[] minInt = new long[ ndim ], maxInt = new long[ ndim ];
-		for ( int d = 0; d < ndim; ++d ){   minInt[ d ] = 0 ;    maxInt[ d ] = dimensions[d] - 1 ;  }
-		FinalInterval interval = new FinalInterval( minInt, maxInt );
-		final Cursor< T > input_cursor = Views.flatIterable( Views.interval( input, interval)).cursor();
-		final Cursor< U > seed_cursor = Views.flatIterable( Views.interval( seed, interval)).cursor();
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final FlatImageAccess.Real labels = FlatImageAccess.createReal(seed);
 		
 		// fill the queue
-		int idx=-1;
-		while( input_cursor.hasNext() )
+		final long size = input.size();
+		for( long idx=0; idx<size; idx++)
 		{
-			idx++;
-			int val = (int)input_cursor.next().getRealFloat();
-			if ( seed_cursor.next().getRealFloat()>0 )
+			if ( labels.get(idx)>0 )
 			{
-				Q.add( idx, val );
+				Q.add( idx, (int)in.get(idx) );
 			}
 		}
 		
-		// extend input and seeds to to deal with out of bound
-		T maxT = input.firstElement().createVariable(); 
-		maxT.setReal(maxT.getMaxValue());
-		int outofboundval = (int)maxT.getRealFloat();
-		RandomAccessible< T > input_X = Views.extendValue(input, maxT );
-		RandomAccess<U> seed_RA = seed.randomAccess();
-		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, connectivity.getConn() );
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
-		final Shape shape;
-		if (connectivity.equals(WatershedConnectivity.FULL) )
-			shape = new RectangleShape( 1, true ); // defines a hyper-square of radius one
-		else
-			shape = new DiamondTipsShape( 1 );
-		int nNeigh = n_offset.length;
-		        
-		RandomAccessible<Neighborhood<T>> input_XN = shape.neighborhoodsRandomAccessible(input_X);
-		RandomAccessible<Neighborhood<U>> seed_N = shape.neighborhoodsRandomAccessible(seed);
-		RandomAccess<Neighborhood<T>> input_XNRA = input_XN.randomAccess(interval);
-		RandomAccess<Neighborhood<U>> seed_XNRA = seed_N.randomAccess(interval);
-        
-        int nidx, pidx;
-        int pval, nval;
-		long[] posCurrent = new long[ndim];
+		// flood, the labels are propagated in the seed image
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity.getConn());
+		SeedFlooding flooding = new SeedFlooding(Q, in, labels, Integer.MIN_VALUE);
 		while( Q.HasNext() )
 		{ 	
-			pidx = (int) Q.Next(); 
-			pval = Q.getCurrent_level() + Q.getMin();
-			//count++;
-			// position all the cursors
-			getPosFromIdx((long)pidx, posCurrent, dimensions);
-			seed_RA.setPosition(posCurrent);
-			U pLabel = seed_RA.get();
-			
-			input_XNRA.setPosition(posCurrent);
-			
-			Cursor< T > inputNeighC = input_XNRA.get().cursor();
-			
-			seed_XNRA.setPosition(posCurrent);
-			Cursor< U > seedNeighC = seed_XNRA.get().cursor();
-			
-			// loop on neighbors			
-			for( int i =0; i<nNeigh; i++)
-			{
-				nidx = pidx + n_offset[i];
-				//IJ.log("pidx "+pidx+"  ;  n_offset " + n_offset[i]);
-				//IJ.log("outofbound " + outofboundval);
-				
-				nval = (int)inputNeighC.next().getRealFloat();
-				//IJ.log("nval "+nval+"  ;  outofbound " + outofboundval);
-				
-				U nLabel = seedNeighC.next(); 
-				if( nval < outofboundval) // is in bound
-				{ 
-					if ( nLabel.getRealFloat()==0 ) // is not queued yet?
-					{
-						nval = Math.min(pval, nval);
-						Q.add( nidx, (int)nval );
-						nLabel.set(pLabel);
-					}
-				}
-			}
+			final long pIdx = Q.Next(); 
+			flooding.pVal = Q.getCurrent_level() + Q.getMin();
+			flooding.pLabel = labels.get(pIdx);
+			neighborhood.forEachNeighbor(pIdx, flooding);
 		}
 		return seed;
 	}
@@ -178,7 +119,7 @@ public class WatershedLabeling {
 	{
 		for ( int i = 0; i < dimensions.length; i++ )
 		{
-			position[ i ] = ( int ) ( idx % dimensions[ i ] );
+			position[ i ] = idx % dimensions[ i ];
 			idx /= dimensions[ i ];
 		}
 	}
@@ -201,90 +142,36 @@ public class WatershedLabeling {
 		
 		
 		// create a priority queue
-		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max);
+		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max, input.size()-1 );
 		
 		int ndim = input.numDimensions();
 		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
 		
-		// create a flat iterable cursor
-		long[] minInt = new long[ ndim ], maxInt = new long[ ndim ];
-		for ( int d = 0; d < ndim; ++d ){   minInt[ d ] = 0 ;    maxInt[ d ] = dimensions[d] - 1 ;  }
-		FinalInterval interval = new FinalInterval( minInt, maxInt );
-		final Cursor< T > input_cursor = Views.flatIterable( Views.interval( input, interval)).cursor();
-		final Cursor< U > seed_cursor = Views.flatIterable( Views.interval( seed, interval)).cursor();
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final FlatImageAccess.Real labels = FlatImageAccess.createReal(seed);
 		
 		// fill the queue
-		int idx=-1;
-		while( input_cursor.hasNext() )
+		final long size = input.size();
+		for( long idx=0; idx<size; idx++)
 		{
-			idx++;
-			int val = (int)input_cursor.next().getRealFloat();
-			if ( seed_cursor.next().getRealFloat()>0 & val>min )
+			int val = (int)in.get(idx);
+			if ( labels.get(idx)>0 & val>min )
 			{
 				Q.add( idx, val );
 			}
 		}
 		
-		// extend input and seeds to to deal with out of bound
-		T minT = input.firstElement().createVariable(); 
-		minT.setReal(min);
-		int outofboundval = (int)min;
-		RandomAccessible< T > input_X = Views.extendValue(input, minT );
-		RandomAccess<U> seed_RA = seed.randomAccess();
-		
-		
-		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, connectivity.getConn() );
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
-		final RectangleShape shape = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-		int nNeigh = n_offset.length;
-		        
-		NeighborhoodsAccessible<T> input_XN = shape.neighborhoodsRandomAccessible(input_X);
-		NeighborhoodsAccessible<U> seed_N = shape.neighborhoodsRandomAccessible(seed);
-		RandomAccess<Neighborhood<T>> input_XNRA = input_XN.randomAccess(interval);
-		RandomAccess<Neighborhood<U>> seed_XNRA = seed_N.randomAccess(interval);
-        
-        int nidx, pidx;
-        int pval, nval;
-		long[] posCurrent = new long[ndim];
+		// flood, the labels are propagated in the seed image
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity.getConn());
+		SeedFlooding flooding = new SeedFlooding(Q, in, labels, (int)min);
 		while( Q.HasNext() )
 		{ 	
-			pidx = (int) Q.Next(); 
-			pval = Q.getCurrent_level() + Q.getMin();
-			//count++;
-			// position all the cursors
-			getPosFromIdx((long)pidx, posCurrent, dimensions);
-			seed_RA.setPosition(posCurrent);
-			U pLabel = seed_RA.get();
-			
-			input_XNRA.setPosition(posCurrent);
-			Cursor< T > inputNeighC = input_XNRA.get().cursor();
-			
-			seed_XNRA.setPosition(posCurrent);
-			Cursor< U > seedNeighC = seed_XNRA.get().cursor();
-			
-			// loop on neighbors			
-			for( int i =0; i<nNeigh; i++)
-			{
-				nidx = pidx + n_offset[i];
-				
-				nval = (int)inputNeighC.next().getRealFloat();
-				
-				U nLabel = seedNeighC.next(); 
-				if( nval > outofboundval) // is in bound
-				{ 
-					if ( nLabel.getRealFloat()==0 ) // is not queued yet?
-					{
-						nval = Math.min(pval, nval);
-						Q.add( nidx, (int)nval );
-						nLabel.set(pLabel);
-					}
-				}
-			}
+			final long pIdx = Q.Next(); 
+			flooding.pVal = Q.getCurrent_level() + Q.getMin();
+			flooding.pLabel = labels.get(pIdx);
+			neighborhood.forEachNeighbor(pIdx, flooding);
 		}
 
-
 		return seed;
 	}
 	
@@ -318,6 +205,7 @@ public class WatershedLabeling {
 		
 		float min = Float.MAX_VALUE;
 		float max = Float.MIN_VALUE;
+		boolean isIntegerValued = true;
 		Cursor<T> Cursor = input.cursor();
 		while ( Cursor.hasNext() )
 		{
@@ -326,12 +214,17 @@ public class WatershedLabeling {
 				min=val;
 			else if( val>max )
 				max = val;
+			isIntegerValued &= ( val == (float)Math.floor(val) );
 		}	
 		
+		// grey levels would be collapsed by the cast to int, flood with the float levels instead
+		if ( !isIntegerValued )
+			return watershedInPlaceFloat(input, seed, thresh, connectivity);
+		
 		min = Math.max(min, thresh);
 		
 		// create a priority queue
-		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max );
+		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max, input.size()-1 );
 		
 		int ndim = input.numDimensions();
 		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
@@ -344,7 +237,7 @@ public class WatershedLabeling {
 		final Cursor< U > seed_cursor = Views.flatIterable( Views.interval( seed, interval)).cursor();
 		
 		// fill the queue
-		int idx=-1;
+		long idx=-1;
 		while( input_cursor.hasNext() )
 		{
 			idx++;
@@ -365,41 +258,15 @@ public class WatershedLabeling {
 			}
 		}
 		
-		// extend input and seeds to to deal with out of bound
-		T outOfBoundT = input.firstElement().createVariable(); 
-		outOfBoundT.setReal(min-1);
-		RandomAccess< T > input_XRA = Views.extendValue(input, outOfBoundT ).randomAccess();
-		
-		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, connectivity.getConn() );
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
-		long[][] dPosList = ImageConnectivity.getSuccessiveMove(neigh);
-		int nNeigh = n_offset.length;
-        
+		// flood, the labels are coded as min-1-label in the input
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity.getConn());
+		InPlaceFlooding flooding = new InPlaceFlooding(Q, FlatImageAccess.createReal(input), min);
         while( Q.HasNext() )
 		{ 	
-			final int pIdx = (int) Q.Next(); 
-			final int pVal = Q.getCurrent_level() + Q.getMin();
-			
-			final long[] posCurrent = new long[ndim];
-			getPosFromIdx((long)pIdx, posCurrent, dimensions);
-			input_XRA.setPosition(posCurrent);
-			float pLabel = input_XRA.get().getRealFloat();
-			
-			// loop on neighbors			
-			for( int i =0; i<nNeigh; i++)
-			{
-				final int nIdx = pIdx + n_offset[i];
-				
-				input_XRA.move(dPosList[i]);
-				final T n = input_XRA.get();
-				final float nVal = n.getRealFloat();
-				if ( nVal>=min ) // is not queued yet and is in bound?
-				{
-					Q.add( nIdx, (int)Math.min(pVal, nVal) );
-					n.setReal(pLabel);
-				}
-			}
+			final long pIdx = Q.Next(); 
+			flooding.pVal = Q.getCurrent_level() + Q.getMin();
+			flooding.pLabel = flooding.image.get(pIdx);
+			neighborhood.forEachNeighbor(pIdx, flooding);
 		}
         
         final T minT = input.firstElement().createVariable();
@@ -424,6 +291,95 @@ public class WatershedLabeling {
 		return input;
 	}
 	
+	// same as watershedInPlace but the pixels are queued with their exact grey value (HierarchicalFloatFIFO)
+	// the levels of the queue are buckets of the range of the values above the threshold (see FloatLevels)
+	// labels are coded as base-label during the flooding, base being an integer below the flooded values,
+	// they are exact as long as |base|+label is representable by T (2^24 for FloatType)
+	private static <T extends RealType<T>, U extends RealType<U>> Img<T> watershedInPlaceFloat(Img<T> input, Img<U> seed, float thresh, WatershedConnectivity connectivity)
+	{
+		int ndim = input.numDimensions();
+		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
+		
+		// create a flat iterable cursor
+		long[] minInt = new long[ ndim ], maxInt = new long[ ndim ];
+		for ( int d = 0; d < ndim; ++d ){   minInt[ d ] = 0 ;    maxInt[ d ] = dimensions[d] - 1 ;  }
+		FinalInterval interval = new FinalInterval( minInt, maxInt );
+		
+		// range of the grey values to flood, the levels of the queue are buckets of this range (see FloatLevels)
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		Cursor< T > input_cursor = Views.flatIterable( Views.interval( input, interval)).cursor();
+		while( input_cursor.hasNext() )
+		{
+			double pVal = input_cursor.next().getRealDouble();
+			if ( pVal>=thresh )
+			{
+				if( pVal<min )
+					min = pVal;
+				if( pVal>max )
+					max = pVal;
+			}
+		}
+		
+		if ( min>max )
+		{
+			min = thresh;
+			max = thresh;
+		}
+		final double base = Math.min(0, Math.floor(min) - 1);
+		
+		// create a priority queue
+		HierarchicalFloatFIFO Q = new HierarchicalFloatFIFO( min, max, input.size()-1 );
+		
+		// fill the queue
+		input_cursor.reset();
+		final Cursor< U > seed_cursor = Views.flatIterable( Views.interval( seed, interval)).cursor();
+		long idx=-1;
+		while( input_cursor.hasNext() )
+		{
+			idx++;
+			T pInput = input_cursor.next();
+			double pVal = pInput.getRealDouble();
+			double valSeed = seed_cursor.next().getRealDouble(); 
+			if ( pVal>=min)
+			{
+				if ( valSeed>0)
+				{
+					Q.add( idx, pVal );
+					pInput.setReal(base-valSeed);
+				}
+			}
+			else
+			{
+				pInput.setReal(base);
+			}
+		}
+		
+		// flood, the labels are coded as base-label in the input
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity.getConn());
+		InPlaceFloatFlooding flooding = new InPlaceFloatFlooding(Q, FlatImageAccess.createReal(input), min);
+		while( Q.HasNext() )
+		{ 	
+			final long pIdx = Q.Next(); 
+			flooding.pLevel = Q.getCurrent_level();
+			flooding.pLabel = flooding.image.get(pIdx);
+			neighborhood.forEachNeighbor(pIdx, flooding);
+		}
+		
+		Cursor<T> input_cursor2 = input.cursor();
+		while( input_cursor2.hasNext() )
+		{
+			T p = input_cursor2.next();
+			double pVal = p.getRealDouble();
+			if ( pVal>=base )
+				p.setReal(0);
+			else
+				p.setReal(base-pVal);
+		}
+		
+		return input;
+	}
+	
 	public static <T extends RealType<T>, U extends RealType<U>> Img<T> watershedInPlace(Img<T> input, Img<U> seed)
 	{
 		float threshold = Float.NEGATIVE_INFINITY; 
@@ -434,7 +390,212 @@ public class WatershedLabeling {
 	{
 		return watershedInPlace(input, seed, threshold, WatershedConnectivity.FULL);
 	}
-	
+
+
+	// same flooding as watershedInPlace but input and seeds are only read, the labels are written in output
+	// the output is also the state of the flooding (a pixel is queued once it has a label), thus no copy of the
+	// input and no other image is needed. ArrayImg and PlanarImg of the common types are accessed in their primitive arrays
+
+	/**
+	 * @param input image to flood
+	 * @param seed seeds of the watershed, pixels with a value >=1 are seeds of label (int)value
+	 * @param mask only pixels where the mask is >0 are flooded, null to flood the whole image
+	 * @param output label image, same size as input, every pixel is written (0 for unlabeled pixels). The labels
+	 * 			must fit in its type, e.g. at most 65535 for UnsignedShortType
+	 * @param thresh pixels with a value below thresh are not flooded
+	 * @param connectivity FACE or FULL
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>, M extends RealType<M>, L extends IntegerType<L>> void watershed(
+			RandomAccessibleInterval<T> input, RandomAccessibleInterval<U> seed, RandomAccessibleInterval<M> mask,
+			RandomAccessibleInterval<L> output, float thresh, WatershedConnectivity connectivity)
+	{
+		int ndim = input.numDimensions();
+		long[] dimensions = new long[ndim]; input.dimensions(dimensions);
+		final long size = Views.iterable(input).size();
+
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final FlatImageAccess.Real seeds = FlatImageAccess.createReal(seed);
+		final FlatImageAccess.Real inMask = mask==null ? null : FlatImageAccess.createReal(mask);
+		final FlatImageAccess.Labels out = FlatImageAccess.createLabels(output);
+
+		// clear the output and get the range of the values to flood
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		boolean isIntegerValued = true;
+		for( long idx=0; idx<size; idx++)
+		{
+			out.set(idx, 0);
+			final double val = in.get(idx);
+			if( val<thresh || ( inMask!=null && inMask.get(idx)<=0 ) )
+				continue;
+			if( val<min )
+				min = val;
+			if( val>max )
+				max = val;
+			isIntegerValued &= ( val == Math.floor(val) );
+		}
+		if( min>max )
+			return;
+
+		// levels of the queue, consecutive integers or buckets of the values of a non integer image
+		HierarchicalFloatFIFO Q = new HierarchicalFloatFIFO( new FloatLevels(min, max, isIntegerValued), size-1 );
+
+		// fill the queue with the seeds
+		final long maxLabel = out.getMaxLabel();
+		for( long idx=0; idx<size; idx++)
+		{
+			final double valSeed = seeds.get(idx);
+			if( valSeed<1 )
+				continue;
+			final double val = in.get(idx);
+			if( val<thresh || ( inMask!=null && inMask.get(idx)<=0 ) )
+				continue;
+			if( valSeed>maxLabel )
+				throw new IllegalArgumentException("seed label " + (long)valSeed + " does not fit in the output type (max " + maxLabel + ")");
+
+			out.set(idx, (int)valSeed);
+			Q.add( idx, val );
+		}
+
+		// flood
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity.getConn());
+		LabelFlooding flooding = new LabelFlooding(Q, in, inMask, out, thresh);
+		while( Q.HasNext() )
+		{
+			final long pIdx = Q.Next();
+			flooding.pLevel = Q.getCurrent_level();
+			flooding.pLabel = out.get(pIdx);
+			neighborhood.forEachNeighbor(pIdx, flooding);
+		}
+	}
+
+	public static <T extends RealType<T>, U extends RealType<U>, L extends IntegerType<L>> void watershed(RandomAccessibleInterval<T> input, RandomAccessibleInterval<U> seed, RandomAccessibleInterval<L> output, float thresh, WatershedConnectivity connectivity)
+	{
+		watershed(input, seed, (RandomAccessibleInterval<FloatType>) null, output, thresh, connectivity);
+	}
+
+
+	// flooding of the deprecated watershed: the labels are propagated in the seed image, pixels with a
+	// value not above floodMin are not flooded
+	private static final class SeedFlooding implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFIFO Q;
+		final FlatImageAccess.Real in, labels;
+		final int floodMin;
+		int pVal;
+		double pLabel;
+
+		SeedFlooding(HierarchicalFIFO Q, FlatImageAccess.Real in, FlatImageAccess.Real labels, int floodMin)
+		{
+			this.Q = Q;
+			this.in = in;
+			this.labels = labels;
+			this.floodMin = floodMin;
+		}
+
+		@Override
+		public void accept(int i, long nIdx)
+		{
+			if ( labels.get(nIdx)!=0 ) // already queued
+				return;
+			final int nVal = (int)in.get(nIdx);
+			if ( nVal>floodMin )
+			{
+				Q.add( nIdx, Math.min(pVal, nVal) );
+				labels.set(nIdx, pLabel);
+			}
+		}
+	}
+
+	// flooding of watershedInPlace: pixels not queued yet are the ones with a value >= min
+	private static final class InPlaceFlooding implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFIFO Q;
+		final FlatImageAccess.Real image;
+		final double min;
+		int pVal;
+		double pLabel;
+
+		InPlaceFlooding(HierarchicalFIFO Q, FlatImageAccess.Real image, double min)
+		{
+			this.Q = Q;
+			this.image = image;
+			this.min = min;
+		}
+
+		@Override
+		public void accept(int i, long nIdx)
+		{
+			final double nVal = image.get(nIdx);
+			if ( nVal>=min ) // is not queued yet
+			{
+				Q.add( nIdx, (int)Math.min(pVal, nVal) );
+				image.set(nIdx, pLabel);
+			}
+		}
+	}
+
+	// same as InPlaceFlooding with the exact grey values of a non integer image
+	private static final class InPlaceFloatFlooding implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFloatFIFO Q;
+		final FlatImageAccess.Real image;
+		final double min;
+		int pLevel;
+		double pLabel;
+
+		InPlaceFloatFlooding(HierarchicalFloatFIFO Q, FlatImageAccess.Real image, double min)
+		{
+			this.Q = Q;
+			this.image = image;
+			this.min = min;
+		}
+
+		@Override
+		public void accept(int i, long nIdx)
+		{
+			final double nVal = image.get(nIdx);
+			if ( nVal>=min ) // is not queued yet
+			{
+				Q.addLevel( nIdx, Math.min(pLevel, Q.getLevel(nVal)) );
+				image.set(nIdx, pLabel);
+			}
+		}
+	}
+
+	// flooding of watershed(input, seed, mask, output, ...): pixels not queued yet have no label in the output
+	private static final class LabelFlooding implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFloatFIFO Q;
+		final FlatImageAccess.Real in, inMask;
+		final FlatImageAccess.Labels out;
+		final double thresh;
+		int pLevel;
+		int pLabel;
+
+		LabelFlooding(HierarchicalFloatFIFO Q, FlatImageAccess.Real in, FlatImageAccess.Real inMask, FlatImageAccess.Labels out, double thresh)
+		{
+			this.Q = Q;
+			this.in = in;
+			this.inMask = inMask;
+			this.out = out;
+			this.thresh = thresh;
+		}
+
+		@Override
+		public void accept(int i, long nIdx)
+		{
+			if( out.get(nIdx)!=0 ) // already queued
+				return;
+			final double nVal = in.get(nIdx);
+			if( nVal<thresh || ( inMask!=null && inMask.get(nIdx)<=0 ) )
+				return;
+
+			Q.addLevel( nIdx, Math.min(pLevel, Q.getLevel(nVal)) );
+			out.set(nIdx, pLabel);
+		}
+	}
+
 	
 	
 	
@@ -495,6 +656,21 @@ public class WatershedLabeling {
 			DebugHelper.trackDeltaTime(null);
 		}
 		
+		System.out.println("\n====== c8 to label image ==========");
+		for (int i=0; i<nIter; i++)
+		{
+			thresh = Float.NEGATIVE_INFINITY;
+			Img<IntType> ws6 = ArrayImgs.ints(imp.getWidth(), imp.getHeight());
+			watershed( input, seed, ws6, thresh, WatershedConnectivity.FULL);
+			if(show)
+			{
+				ImagePlus imp6 = ImageCreationUtilities.convertImgToImagePlus(ws6, "c8 to label image", lut, imp.getDimensions(), imp.getCalibration());
+				imp6.show() ;
+				IJ.run(imp6, "Enhance Contrast", "saturated=0.35");
+			}
+			DebugHelper.trackDeltaTime(null);
+		}
+		
 		System.out.println("\n====== c4 in place ==========");
 		for (int i=0; i<nIter; i++)
 		{
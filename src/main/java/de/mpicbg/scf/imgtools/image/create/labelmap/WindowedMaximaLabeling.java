@@ -1,6 +1,7 @@
 package de.mpicbg.scf.imgtools.image.create.labelmap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.imglib2.Cursor;
@@ -12,7 +13,6 @@ import net.imglib2.algorithm.localextrema.LocalExtrema;
 import net.imglib2.algorithm.localextrema.LocalExtrema.LocalNeighborhoodCheck;
 import net.imglib2.algorithm.neighborhood.HyperSphereShape;
 import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.algorithm.neighborhood.Shape;
 import net.imglib2.img.Img;
 import net.imglib2.type.NativeType;
@@ -22,6 +22,7 @@ import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
+import de.mpicbg.scf.imgtools.image.filter.MinMaxFilter;
 
 public class WindowedMaximaLabeling {
 
@@ -41,9 +42,23 @@ public class WindowedMaximaLabeling {
 		return  getExtrema( img, threshold, neighborhoodRadius, extremaType, NeighborhoodType.SQUARE );
 	}
 	
+	// in one thread, see getExtrema(img, threshold, neighborhoodRadius, extremaType, neighType, numThreads)
 	public static < T extends RealType<T> & NumericType< T > & NativeType< T > > 
 						List<Point> getExtrema( RandomAccessibleInterval<T> img, double threshold, int neighborhoodRadius, ExtremaType extremaType, NeighborhoodType neighType)
 	{
+		return getExtrema( img, threshold, neighborhoodRadius, extremaType, neighType, 1 );
+	}
+	
+	/**
+	 * @param numThreads number of threads of the maximum (minimum) filter of a SQUARE neighborhood, the
+	 *        SPHERE neighborhoods are checked in the calling thread
+	 */
+	public static < T extends RealType<T> & NumericType< T > & NativeType< T > > 
+						List<Point> getExtrema( RandomAccessibleInterval<T> img, double threshold, int neighborhoodRadius, ExtremaType extremaType, NeighborhoodType neighType, int numThreads)
+	{
+		if( neighType==NeighborhoodType.SQUARE )
+			return getExtremaInSquare( img, threshold, neighborhoodRadius, extremaType, numThreads );
+		
 		RandomAccessible< T > imgX = Views.extendBorder(img);
 		Interval interval = Intervals.expand(img, 0);
 		
@@ -61,17 +76,7 @@ public class WindowedMaximaLabeling {
 				break;
 		}
 		
-		Shape shape;
-		switch(neighType)
-		{
-			case SQUARE:	
-				boolean skipCenter = true; //implementation of the extrema checked is such that we don't care of equal values
-				shape = new RectangleShape( neighborhoodRadius, skipCenter );
-				break;
-			default: // case SPHERE:
-				shape = new HyperSphereShape( neighborhoodRadius);
-				break;
-		}
+		Shape shape = new HyperSphereShape( neighborhoodRadius);
 		
 		final Cursor< T > center = Views.flatIterable( img ).cursor();
 		
@@ -88,10 +93,59 @@ public class WindowedMaximaLabeling {
 		return extrema;
 	}
 	
+	// in a square the extrema are the pixels equal to the maximum (minimum) filter of the image: no neighbor is
+	// higher (lower), as checked by LocalExtrema.MaximumCheck (MinimumCheck) on the image extended by its border
+	private static < T extends RealType<T> & NumericType< T > & NativeType< T > > 
+						List<Point> getExtremaInSquare( RandomAccessibleInterval<T> img, double threshold, int neighborhoodRadius, ExtremaType extremaType, int numThreads)
+	{
+		long[] radius = new long[img.numDimensions()];
+		Arrays.fill(radius, Math.max(0, neighborhoodRadius));
+		Img<T> filtered;
+		switch(extremaType)
+		{
+			case MINIMA:	
+				filtered = MinMaxFilter.min( img, radius, numThreads );
+				break;
+			default: // case MAXIMA:
+				filtered = MinMaxFilter.max( img, radius, numThreads );
+				break;
+		}
+		
+		T val = Util.getTypeFromInterval(img).createVariable();
+		val.setReal(threshold);
+		boolean isMinima = extremaType==ExtremaType.MINIMA;
+		
+		final Cursor< T > center = Views.flatIterable( img ).cursor();
+		final Cursor< T > extremum = Views.flatIterable( filtered ).cursor();
+		
+		List<Point> extrema = new ArrayList<Point>();
+		
+		while( center.hasNext() )
+		{
+			T c = center.next();
+			T e = extremum.next();
+			boolean passesThreshold = isMinima ? c.compareTo( val ) <= 0 : c.compareTo( val ) >= 0;
+			if ( c.compareTo( e ) == 0 && passesThreshold )
+				extrema.add( new Point( center ) );
+		}
+		
+		return extrema;
+	}
+	
+	// in one thread, see getExtremaLabelImage(img, threshold, neighborhoodRadius, extremaType, neighType, numThreads)
 	public static < T extends RealType<T> & NumericType< T > & NativeType< T > > 
 	Img<FloatType> getExtremaLabelImage( RandomAccessibleInterval<T> img, double threshold, int neighborhoodRadius, ExtremaType extremaType, NeighborhoodType neighType)
 	{
-		List<Point> points = getExtrema( img, threshold, neighborhoodRadius, extremaType, neighType );
+		return getExtremaLabelImage( img, threshold, neighborhoodRadius, extremaType, neighType, 1 );
+	}
+	
+	/**
+	 * @param numThreads number of threads of the maximum (minimum) filter of a SQUARE neighborhood, see getExtrema
+	 */
+	public static < T extends RealType<T> & NumericType< T > & NativeType< T > > 
+	Img<FloatType> getExtremaLabelImage( RandomAccessibleInterval<T> img, double threshold, int neighborhoodRadius, ExtremaType extremaType, NeighborhoodType neighType, int numThreads)
+	{
+		List<Point> points = getExtrema( img, threshold, neighborhoodRadius, extremaType, neighType, numThreads );
 		long[] dims = new long[img.numDimensions()];
 		img.dimensions(dims);
 		Img<FloatType> labelImage = LabelingUtilities.convertPointsToLabelmap(dims, points);
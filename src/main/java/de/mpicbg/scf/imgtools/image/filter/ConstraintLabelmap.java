@@ -9,6 +9,7 @@ import ij.ImagePlus;
 import ij.measure.Calibration;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.img.Img;
@@ -64,6 +65,8 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
     private Img<I> mustBeWithInLabelMap = null;
     private Img<F> signalImage = null;
     private boolean keepIds = false;
+    private int numThreads = 1;
+    private ExecutorService executorService = null;
 
     // output variables
     private int[] dims = null;
@@ -150,6 +153,11 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
             }
 
             lpa = new LabelAnalyser<I, F>(labelMap, voxelSize, measurements);
+            if (executorService != null) {
+                lpa.setExecutorService(executorService, numThreads);
+            } else {
+                lpa.setNumThreads(numThreads);
+            }
             if (this.signalImage != null) {
                 lpa.setSignalImage(signalImage);
             }
@@ -273,6 +281,29 @@ public class ConstraintLabelmap<I extends RealType<I>, F extends RealType<F>> {
         resultValid = false;
     }
 
+    /**
+     * Measure the labels with several threads, see LabelAnalyser.setNumThreads()
+     *
+     * @param numThreads number of threads, default: 1
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executorService = null;
+        resultValid = false;
+    }
+
+    /**
+     * Measure the labels with the given executor, see LabelAnalyser.setExecutorService()
+     *
+     * @param executorService executor running the measurements, it is not shut down
+     * @param numTasks        number of tasks measured in parallel
+     */
+    public void setExecutorService(ExecutorService executorService, int numTasks) {
+        this.executorService = executorService;
+        this.numThreads = Math.max(1, numTasks);
+        resultValid = false;
+    }
+
     /**
      * Deliver resulting label map and Img of given type
      *
@@ -3,25 +3,22 @@ package de.mpicbg.scf.imgtools.image.filter;
 
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
-import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
-import net.imglib2.algorithm.neighborhood.RectangleShape.NeighborhoodsAccessible;
 import net.imglib2.img.Img;
-import net.imglib2.outofbounds.OutOfBounds;
-import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
-import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.view.Views;
 import de.mpicbg.scf.imgtools.core.data.HierarchicalFIFO;
+import de.mpicbg.scf.imgtools.core.data.PagedBooleanArray;
+import de.mpicbg.scf.imgtools.image.create.labelmap.FlatImageAccess;
 import de.mpicbg.scf.imgtools.image.create.labelmap.LocalMaximaLabeling;
 import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
 
 
 // compare reconstruction 1 and 2 and keep only the fastest
+// the hybrid reconstructions (reconstructionByDilation, reconstructionByErosion) are faster than both, see
+// GeodesicReconstructionBenchmark
 
 public class GeodesicReconstruction {	
 	
@@ -60,7 +57,7 @@ public class GeodesicReconstruction {
 		}	
 		
 		// create a priority queue
-		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max);
+		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max, MarkerImg.size()-1 );
 		
 		//PriorityQueue< Pixel > Q = new PriorityQueue< Pixel >((int) MarkerImg.size());
 		
@@ -87,64 +84,28 @@ public class GeodesicReconstruction {
 			idx++;
 		}
 		
-		// extend marker to deal with out of bound
-		T outOfBoundValue = MarkerImg.firstElement();
-		final OutOfBoundsFactory< T, RandomAccessibleInterval< T >> oobImageFactory =  new OutOfBoundsConstantValueFactory< T, RandomAccessibleInterval< T >>( outOfBoundValue );
-		final OutOfBounds< T > Marker_X = oobImageFactory.create( MarkerImg );
-		RandomAccess<T> Mask_X = MaskImg.randomAccess();
+		// marker and mask read by index
+		final FlatImageAccess.Real marker = FlatImageAccess.createReal(MarkerImg);
+		final FlatImageAccess.Real mask = FlatImageAccess.createReal(MaskImg);
 		
 		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.FULL);
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
-		long[][] neighMov = ImageConnectivity.getSuccessiveMove(neigh);
-		int nNeigh = neigh.length;
-		
-		boolean[] is_processed = new boolean[(int)MaskImg.size()];
-        boolean[] is_requeued = new boolean[(int)MaskImg.size()];
-        for( int i=0; i<is_processed.length; i++)
-        {
-        	is_processed[i] = false;
-        	is_requeued[i] = false;
-        	
-        }
-        int pidx, nidx;
-		float pfloatVal, nfloatVal, nfloatValMask;
-		long[] posCurrent = new long[ndim]; //, posNeigh = new long[ndim];
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, ImageConnectivity.Connectivity.FULL);
+		
+		PagedBooleanArray is_processed = new PagedBooleanArray(MaskImg.size());
+		PagedBooleanArray is_requeued = new PagedBooleanArray(MaskImg.size());
+		Propagation propagation = new Propagation(Q, marker, mask, is_requeued, false);
+        long pidx;
 		while(  Q.HasNext() )
 		{
-			pidx = (int)Q.Next(); // retrieve head of the queue and remove it from the queue;
+			pidx = Q.Next(); // retrieve head of the queue and remove it from the queue;
 			
-			if( is_processed[(int)pidx]){ continue; }
-			is_processed[(int)pidx]=true;
-			is_requeued[pidx]=true;
+			if( is_processed.get(pidx)){ continue; }
+			is_processed.set(pidx, true);
+			is_requeued.set(pidx, true);
 			
-			getPosFromIdx(pidx, posCurrent, dimensions);
-			Marker_X.setPosition( posCurrent );
-			pfloatVal = Marker_X.get().getRealFloat();
-			Mask_X.setPosition( posCurrent );
-
 			// loop on neighbors
-			for( int i =0; i<nNeigh; i++)
-			{
-				nidx = pidx + n_offset[i];
-				Marker_X.move(neighMov[i]);
-				Mask_X.move(neighMov[i]);
-				
-				if ( Marker_X.isOutOfBounds() ) { continue; } // already re-queued or out of bound
-				if ( is_requeued[(int)nidx] ){ continue; }// already processed
-				
-				//if ( nfloatVal>=pfloatVal  |  Marker_X.isOutOfBounds() ) { continue; }
-				
-				// update neighbor value (nfloatVal)
-				nfloatValMask = Mask_X.get().getRealFloat(); 
-				nfloatVal = Math.min(pfloatVal, nfloatValMask);
-				Marker_X.get().setReal(nfloatVal);
-				
-				// queue n
-				Q.add( nidx , (int)nfloatVal );
-				is_requeued[nidx]=true;
-				//insertTime++;
-			}
+			propagation.pfloatVal = (float)marker.get(pidx);
+			neighborhood.forEachNeighbor(pidx, propagation);
 		}
 		
 		return MarkerImg;
@@ -190,7 +151,7 @@ public class GeodesicReconstruction {
 		
 		
 		// create a priority queue
-		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max );
+		HierarchicalFIFO Q = new HierarchicalFIFO( (int)min, (int)max, MarkerImg.size()-1 );
 		
 		int ndim = MarkerImg.numDimensions();
 		long[] dimensions = new long[ndim]; MarkerImg.dimensions(dimensions);
@@ -203,7 +164,7 @@ public class GeodesicReconstruction {
 		final Cursor< IntType > max_cursor = Views.flatIterable( Views.interval( LocalMaxImg, interval)).cursor();
 		
 		// fill the queue
-		int idx=-1;
+		long idx=-1;
 		while( marker_cursor.hasNext() )
 		{
 			idx++;
@@ -214,85 +175,297 @@ public class GeodesicReconstruction {
 			}
 		}
 		
-		// extend marker and mask to deal with out of bound
-		T maxT = MarkerImg.firstElement().createVariable(); 
-		maxT.setReal(maxT.getMaxValue()); //ideally set min(Marker) -1
-		RandomAccessible< T > Mask_X = Views.extendValue(MaskImg, maxT );
-		RandomAccessible< T > Marker_X = Views.extendValue(MarkerImg, maxT );
-		RandomAccess<T> Marker_XRA = Marker_X.randomAccess();
+		// marker and mask read by index
+		final FlatImageAccess.Real marker = FlatImageAccess.createReal(MarkerImg);
+		final FlatImageAccess.Real mask = FlatImageAccess.createReal(MaskImg);
 		
 		// define the connectivity
-		long[][] neigh = ImageConnectivity.getConnectivityPos(ndim, ImageConnectivity.Connectivity.FULL);
-		int[] n_offset = ImageConnectivity.getIdxOffsetToCenterPix(neigh, dimensions);
-		final RectangleShape shape1 = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-		final RectangleShape shape2 = new RectangleShape( 1, true ); // defines a hyper-square of radius one 
-        int nNeigh = n_offset.length;
-		        
-        NeighborhoodsAccessible<T> Mask_XN = shape1.neighborhoodsRandomAccessible(Views.interval( Mask_X, interval));
-        NeighborhoodsAccessible<T> Marker_XN = shape2.neighborhoodsRandomAccessible(Views.interval( Marker_X, interval));
-        RandomAccess<Neighborhood<T>> Mask_XNRA = Mask_XN.randomAccess();
-        RandomAccess<Neighborhood<T>> Marker_XNRA = Marker_XN.randomAccess();
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, ImageConnectivity.Connectivity.FULL);
         
-        long nidx, pidx;
-        float pfloatVal, nfloatVal, nfloatValMask;
-		long[] posCurrent = new long[ndim];
-		
-		boolean[] is_processed = new boolean[(int)MaskImg.size()];
-		boolean[] is_requeued = new boolean[(int)MaskImg.size()];
-        for( int i=0; i<is_processed.length; i++)
-        {
-        	is_processed[i] = false;
-        	is_requeued[i] = false;	
-        }
+        long pidx;
+		
+		PagedBooleanArray is_processed = new PagedBooleanArray(MaskImg.size());
+		PagedBooleanArray is_requeued = new PagedBooleanArray(MaskImg.size());
+		Propagation propagation = new Propagation(Q, marker, mask, is_requeued, true);
         
 		while( Q.HasNext() )
 		{ 	
 			pidx = Q.Next(); // retrieve head of the queue and remove it from the queue;
-			if ( is_processed[(int) pidx] ) { continue; }
-			is_processed[(int)pidx]=true;
+			if ( is_processed.get(pidx) ) { continue; }
+			is_processed.set(pidx, true);
 
-			// position all the cursors
-			getPosFromIdx((long)pidx, posCurrent, dimensions);
-			Marker_XRA.setPosition( posCurrent );
-			Mask_XNRA.setPosition(posCurrent);
-			Marker_XNRA.setPosition(posCurrent);
+			// loop on neighbors
+			propagation.pfloatVal = (float)marker.get(pidx);
+			neighborhood.forEachNeighbor(pidx, propagation);
+		}
+		
+		return MarkerImg;
+	}
+	
+	
+	// set the marker of the neighbors not queued yet to min(mask, marker of the current pixel) and queue them.
+	// reconstruction2 also skips the neighbors whose marker is not below the current one
+	private static final class Propagation implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFIFO Q;
+		final FlatImageAccess.Real marker, mask;
+		final PagedBooleanArray is_requeued;
+		final boolean skipHigherMarker;
+		float pfloatVal;
+		
+		Propagation(HierarchicalFIFO Q, FlatImageAccess.Real marker, FlatImageAccess.Real mask, PagedBooleanArray is_requeued, boolean skipHigherMarker)
+		{
+			this.Q = Q;
+			this.marker = marker;
+			this.mask = mask;
+			this.is_requeued = is_requeued;
+			this.skipHigherMarker = skipHigherMarker;
+		}
+		
+		@Override
+		public void accept(int i, long nidx)
+		{
+			if ( skipHigherMarker && (float)marker.get(nidx) >= pfloatVal ) { return; }
+			if ( is_requeued.get(nidx) ){ return; }// already processed
 			
-			pfloatVal = Marker_XRA.get().getRealFloat();
-
-			// loop on neighbors			
-			Cursor< T >  MaskNeighC = Mask_XNRA.get().cursor();
-			Cursor< T >  MarkerNeighC = Marker_XNRA.get().cursor();
-			for( int i =0; i<nNeigh; i++)
+			// update neighbor value (nfloatVal)
+			float nfloatVal = Math.min(pfloatVal, (float)mask.get(nidx));
+			marker.set(nidx, nfloatVal);
+			
+			// queue n
+			Q.add( nidx, (int)nfloatVal );
+			is_requeued.set(nidx, true);
+		}
+	}
+	
+	
+	// 3 - hybrid reconstruction, Vincent 1993, "Morphological grayscale reconstruction in image analysis:
+	// applications and efficient algorithms"
+	// forward raster scan with the neighbors before p, N+(p)
+	//     marker(p) = min( max(marker(p), marker(N+(p))), mask(p) )
+	// backward raster scan with the neighbors after p, N-(p)
+	//     marker(p) = min( max(marker(p), marker(N-(p))), mask(p) )
+	//     queue p if a neighbor q in N-(p) can still be raised: marker(q)<marker(p) and marker(q)<mask(q)
+	// for each p in the FIFO
+	//     for q in neigh(p) with marker(q)<marker(p) and marker(q)!=mask(q)
+	//         marker(q) = min(marker(p), mask(q)), queue q
+	
+	/**
+	 * reconstruction by dilation of the marker under the mask, computed in place in the marker
+	 * 
+	 * @param MaskImg mask, the marker values above it are lowered to it
+	 * @param MarkerImg marker, replaced by the reconstruction
+	 * @param connectivity FACE or FULL
+	 * @return MarkerImg
+	 */
+	public <T extends RealType<T>, U extends RealType<U>, R extends RandomAccessibleInterval<U>> R reconstructionByDilation(RandomAccessibleInterval<T> MaskImg, R MarkerImg, ImageConnectivity.Connectivity connectivity)
+	{
+		hybridReconstruction(FlatImageAccess.createReal(MaskImg), FlatImageAccess.createReal(MarkerImg), getDimensions(MarkerImg), connectivity, false);
+		return MarkerImg;
+	}
+	
+	/**
+	 * reconstruction by erosion of the marker above the mask, computed in place in the marker: the dual of
+	 * the reconstruction by dilation, run on the negated values
+	 * 
+	 * @param MaskImg mask, the marker values below it are raised to it
+	 * @param MarkerImg marker, replaced by the reconstruction
+	 * @param connectivity FACE or FULL
+	 * @return MarkerImg
+	 */
+	public <T extends RealType<T>, U extends RealType<U>, R extends RandomAccessibleInterval<U>> R reconstructionByErosion(RandomAccessibleInterval<T> MaskImg, R MarkerImg, ImageConnectivity.Connectivity connectivity)
+	{
+		hybridReconstruction(FlatImageAccess.createReal(MaskImg), FlatImageAccess.createReal(MarkerImg), getDimensions(MarkerImg), connectivity, true);
+		return MarkerImg;
+	}
+	
+	
+	private static long[] getDimensions(RandomAccessibleInterval<?> img)
+	{
+		long[] dimensions = new long[img.numDimensions()];
+		img.dimensions(dimensions);
+		return dimensions;
+	}
+	
+	/**
+	 * reconstruction by dilation or by erosion on flat images, e.g. a marker buffer that is not an image
+	 * 
+	 * @param maskAccess mask of the reconstruction
+	 * @param markerAccess marker, replaced by the reconstruction
+	 * @param dimensions dimensions of both images
+	 * @param connectivity FACE or FULL
+	 * @param byErosion true for the reconstruction by erosion, false for the reconstruction by dilation
+	 */
+	static void hybridReconstruction(FlatImageAccess.Real maskAccess, FlatImageAccess.Real markerAccess, long[] dimensions, ImageConnectivity.Connectivity connectivity, boolean byErosion)
+	{
+		if( connectivity!=ImageConnectivity.Connectivity.FACE )
+			connectivity = ImageConnectivity.Connectivity.FULL;
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dimensions, connectivity);
+		final long size = neighborhood.size();
+		
+		// the images are read and written in place, as double so that no value of a double or int image is
+		// rounded, and the values are negated on the fly for the reconstruction by erosion. Only an image
+		// without backing array is copied, then the pixels written in the copy of the marker are written back
+		final double sign = byErosion ? -1 : 1;
+		FlatImageAccess.Real mask = maskAccess.isArrayBacked() ? maskAccess : new ImageCopy(maskAccess, size);
+		ImageCopy markerCopy = markerAccess.isArrayBacked() ? null : new ImageCopy(markerAccess, size);
+		FlatImageAccess.Real marker = markerCopy==null ? markerAccess : markerCopy;
+		
+		forwardScan(marker, mask, sign, neighborhood);
+		HierarchicalFIFO Q = backwardScan(marker, mask, sign, neighborhood);
+		
+		// propagation from the queued pixels
+		FIFOPropagation propagation = new FIFOPropagation(Q, marker, mask, sign);
+		while( Q.HasNext() )
+		{
+			long pidx = Q.Next();
+			propagation.pVal = sign*marker.get(pidx);
+			neighborhood.forEachNeighbor(pidx, propagation);
+		}
+		
+		if( markerCopy!=null )
+			markerCopy.writeBack(markerAccess);
+	}
+	
+	// marker(p) = min( max(marker(p), marker(N+(p))), mask(p) ) in flat order, row by row along the first
+	// dimension: the border code of a row only changes at its ends. The first half of the neighbors is before
+	// the center pixel in flat order, the second half after it (the sign of the offsets is not enough for
+	// dimensions of size 1). A pixel is only written if its value changes
+	private static void forwardScan(FlatImageAccess.Real marker, FlatImageAccess.Real mask, double sign, ImageNeighborhood neighborhood)
+	{
+		final long size = neighborhood.size();
+		final long rowLength = neighborhood.getDimensions()[0];
+		final long[] offsets = neighborhood.getOffsets();
+		final int nHalf = offsets.length/2;
+		for( long rowStart=0; rowStart<size; rowStart+=rowLength )
+		{
+			final long rowCode = neighborhood.getBorderCode(rowStart) & ~3L;
+			for( long x=0, p=rowStart; x<rowLength; x++, p++)
 			{
-				nidx = pidx + n_offset[i];
-				
-				nfloatVal = MarkerNeighC.next().getRealFloat();
-				MaskNeighC.fwd(); 
-				
-				if ( nfloatVal >= pfloatVal ) { continue; }
-				if ( is_requeued[(int)nidx] ){ continue; }
-				nfloatValMask = MaskNeighC.get().getRealFloat(); 
-
-				// update neighbor value (nfloatVal)
-				nfloatVal = Math.min(pfloatVal, nfloatValMask);
-				MarkerNeighC.get().setReal(nfloatVal);
+				final long code = rowCode | ( x==0 ? 1L : 0L ) | ( x==rowLength-1 ? 2L : 0L );
+				final double pval = sign*marker.get(p);
+				double val = pval;
+				for( int i=0; i<nHalf; i++)
+					if( code==0 || neighborhood.isInside(code, i) )
+						val = Math.max(val, sign*marker.get(p + offsets[i]));
+				val = Math.min(val, sign*mask.get(p));
+				if( val!=pval )
+					marker.set(p, sign*val);
+			}
+		}
+	}
+	
+	// marker(p) = min( max(marker(p), marker(N-(p))), mask(p) ) in reverse flat order, and queue the pixels
+	// having a neighbor in N-(p) that can still be raised
+	private static HierarchicalFIFO backwardScan(FlatImageAccess.Real marker, FlatImageAccess.Real mask, double sign, ImageNeighborhood neighborhood)
+	{
+		final long size = neighborhood.size();
+		final long rowLength = neighborhood.getDimensions()[0];
+		final long[] offsets = neighborhood.getOffsets();
+		final int nNeigh = offsets.length;
+		final int nHalf = nNeigh/2;
+		HierarchicalFIFO Q = new HierarchicalFIFO(0, 0, size-1);
+		for( long rowStart=size-rowLength; rowStart>=0; rowStart-=rowLength )
+		{
+			final long rowCode = neighborhood.getBorderCode(rowStart) & ~3L;
+			for( long x=rowLength-1, p=rowStart+x; x>=0; x--, p--)
+			{
+				final long code = rowCode | ( x==0 ? 1L : 0L ) | ( x==rowLength-1 ? 2L : 0L );
+				final double pval = sign*marker.get(p);
+				double val = pval;
+				for( int i=nHalf; i<nNeigh; i++)
+					if( code==0 || neighborhood.isInside(code, i) )
+						val = Math.max(val, sign*marker.get(p + offsets[i]));
+				val = Math.min(val, sign*mask.get(p));
+				if( val!=pval )
+					marker.set(p, sign*val);
 				
-				// queue n
-				Q.add( nidx, (int)nfloatVal );
-				is_requeued[(int)nidx]=true;
+				for( int i=nHalf; i<nNeigh; i++)
+				{
+					if( code!=0 && !neighborhood.isInside(code, i) ){ continue; }
+					final long q = p + offsets[i];
+					final double qval = sign*marker.get(q);
+					if( qval<val && qval<sign*mask.get(q) )
+					{
+						Q.add(p, 0);
+						break;
+					}
+				}
 			}
-			
+		}
+		return Q;
+	}
+	
+	// raise the neighbors below the current pixel that are not at their mask value yet, and queue them
+	private static final class FIFOPropagation implements ImageNeighborhood.NeighborConsumer
+	{
+		final HierarchicalFIFO Q;
+		final FlatImageAccess.Real marker, mask;
+		final double sign;
+		double pVal;
+		
+		FIFOPropagation(HierarchicalFIFO Q, FlatImageAccess.Real marker, FlatImageAccess.Real mask, double sign)
+		{
+			this.Q = Q;
+			this.marker = marker;
+			this.mask = mask;
+			this.sign = sign;
 		}
 		
-		return MarkerImg;
+		@Override
+		public void accept(int i, long nidx)
+		{
+			double nVal = sign*marker.get(nidx);
+			if( nVal>=pVal ){ return; }
+			double nMaskVal = sign*mask.get(nidx);
+			if( nVal==nMaskVal ){ return; }
+			marker.set(nidx, sign*Math.min(pVal, nMaskVal));
+			Q.add(nidx, 0);
+		}
 	}
 	
+	// copy of an image that is not array backed, read once through its RandomAccess. The pixels written in the
+	// copy are flagged, so that only them are written back to the image
+	private static final class ImageCopy extends FlatImageAccess.Real
+	{
+		final FlatImageAccess.Real values;
+		final PagedBooleanArray isWritten;
+		
+		ImageCopy(FlatImageAccess.Real image, long size)
+		{
+			values = FlatImageAccess.createDoubleBuffer(size);
+			for( long p=0; p<size; p++)
+				values.set(p, image.get(p));
+			isWritten = new PagedBooleanArray(size);
+		}
+		
+		@Override
+		public double get(long idx)
+		{
+			return values.get(idx);
+		}
+		
+		@Override
+		public void set(long idx, double val)
+		{
+			values.set(idx, val);
+			isWritten.set(idx, true);
+		}
+		
+		void writeBack(FlatImageAccess.Real image)
+		{
+			final long size = isWritten.size();
+			for( long p=0; p<size; p++)
+				if( isWritten.get(p) )
+					image.set(p, values.get(p));
+		}
+	}
 	
 	protected static void getPosFromIdx(long idx, long[] position, long[] dimensions)
 	{
 		for ( int i = 0; i < dimensions.length; i++ )
 		{
-			position[ i ] = ( int ) ( idx % dimensions[ i ] );
+			position[ i ] = idx % dimensions[ i ];
 			idx /= dimensions[ i ];
 		}
 	}
@@ -0,0 +1,284 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import de.mpicbg.scf.imgtools.core.data.PagedFloatArray;
+import de.mpicbg.scf.imgtools.image.create.labelmap.FlatImageAccess;
+
+
+// squared euclidean distance transforms of a label map in linear time, whatever the distance: one pass per
+// dimension along the lines of the image, each pass takes the lower envelope of the parabolas
+// w*(x-x')^2 + f(x') of the line (Felzenszwalb and Huttenlocher 2012, "Distance transforms of sampled
+// functions"). Distances are in calibrated units, w is the square of the pixel spacing along the dimension
+//
+// distanceToOtherLabels: for each labeled pixel, distance to the closest pixel with another value, the outside
+//     of the image is background unless it is ignored on request. Along a line, the closest such pixel of a
+//     pixel of label L is either just outside the run of L containing it or reached through a pixel of that
+//     run, so each run is processed alone with a parabola of height 0 at its ends (at the ends that are in
+//     the image if the outside is ignored). Background pixels are left at 0
+// distanceToLabels: for each pixel, distance to the closest labeled pixel and label of that pixel (feature
+//     transform). Each pixel gets a single label: labels dilated this way do not merge
+// distanceTransform: the same distance computed in place in a buffer, e.g. the one returned by
+//     distanceToOtherLabels, to chain an erosion and a dilation with a single buffer of the image size
+
+public class LabelDistanceTransform {
+
+	private LabelDistanceTransform() {}
+
+
+	/**
+	 * @param labels label map, 0 is the background
+	 * @param dims dimensions of the label map
+	 * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+	 * @return squared distance of each labeled pixel to the closest pixel with a different value, the outside
+	 * of the image being background, 0 in the background
+	 */
+	public static PagedFloatArray distanceToOtherLabels(FlatImageAccess.Real labels, long[] dims, double[] voxelSize)
+	{
+		return distanceToOtherLabels(labels, dims, voxelSize, true);
+	}
+
+	/**
+	 * @param labels label map, 0 is the background
+	 * @param dims dimensions of the label map
+	 * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+	 * @param isOutsideBackground true if the outside of the image is background, false to ignore it
+	 * @return squared distance of each labeled pixel to the closest pixel with a different value, infinite if
+	 * there is none, 0 in the background
+	 */
+	public static PagedFloatArray distanceToOtherLabels(FlatImageAccess.Real labels, long[] dims, double[] voxelSize, boolean isOutsideBackground)
+	{
+		final long size = numElements(dims);
+		final PagedFloatArray dist = new PagedFloatArray(size);
+		for( long p=0; p<size; p++)
+			dist.set(p, labels.get(p)!=0 ? Float.POSITIVE_INFINITY : 0);
+		final LineEnvelope envelope = new LineEnvelope(getMaxDimension(dims) + 2);
+
+		long stride = 1;
+		for( int d=0; d<dims.length; d++)
+		{
+			final int length = (int) dims[d];
+			final double w = getWeight(voxelSize, d);
+			final long nLines = size / length;
+			for( long line=0; line<nLines; line++)
+			{
+				final long start = (line / stride) * stride * length + line % stride;
+				for( int x=0, end; x<length; x=end)
+				{
+					final float L = (float) labels.get(start + x*stride);
+					end = x+1;
+					while( end<length && (float) labels.get(start + end*stride)==L ){ end++; }
+					if( L==0 ){ continue; }
+
+					// the run [x, end) of label L, between the pixels at distance 0 just before and after it
+					final int n = end - x;
+					envelope.clear();
+					if( x>0 || isOutsideBackground )
+						envelope.add(-1, 0, 0);
+					for( int i=0; i<n; i++)
+					{
+						final float f = dist.get(start + (x+i)*stride);
+						if( f!=Float.POSITIVE_INFINITY )
+							envelope.add(i, f, L);
+					}
+					if( end<length || isOutsideBackground )
+						envelope.add(n, 0, 0);
+					if( envelope.isEmpty() ){ continue; }
+
+					for( int i=0; i<n; i++)
+						dist.set(start + (x+i)*stride, (float) envelope.evaluate(i, w));
+				}
+			}
+			stride *= length;
+		}
+		return dist;
+	}
+
+
+	/**
+	 * @param labels label map, 0 is the background
+	 * @param dims dimensions of the label map
+	 * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+	 * @param nearestLabel filled with the label of the closest labeled pixel, or null
+	 * @return squared distance of each pixel to the closest labeled pixel, infinite if there is none
+	 */
+	public static PagedFloatArray distanceToLabels(FlatImageAccess.Real labels, long[] dims, double[] voxelSize, PagedFloatArray nearestLabel)
+	{
+		final long size = numElements(dims);
+		final PagedFloatArray dist = new PagedFloatArray(size);
+		for( long p=0; p<size; p++)
+		{
+			final float L = (float) labels.get(p);
+			if( nearestLabel!=null )
+				nearestLabel.set(p, L);
+			dist.set(p, L!=0 ? 0 : Float.POSITIVE_INFINITY);
+		}
+		distanceTransform(dist, dims, voxelSize, nearestLabel);
+		return dist;
+	}
+
+	/**
+	 * squared distance transform in place, without allocating a buffer of the image size
+	 *
+	 * @param dist 0 at the pixels the distance is measured to, infinite elsewhere, replaced by the squared
+	 * distance to the closest of these pixels (infinite if there is none)
+	 * @param dims dimensions of the image
+	 * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+	 */
+	public static void distanceTransform(PagedFloatArray dist, long[] dims, double[] voxelSize)
+	{
+		distanceTransform(dist, dims, voxelSize, null);
+	}
+
+	// label is the label of the closest pixel, or null
+	private static void distanceTransform(PagedFloatArray dist, long[] dims, double[] voxelSize, PagedFloatArray label)
+	{
+		final long size = numElements(dims);
+		final LineEnvelope envelope = new LineEnvelope(getMaxDimension(dims));
+
+		long stride = 1;
+		for( int d=0; d<dims.length; d++)
+		{
+			final int length = (int) dims[d];
+			final double w = getWeight(voxelSize, d);
+			final long nLines = size / length;
+			for( long line=0; line<nLines; line++)
+			{
+				final long start = (line / stride) * stride * length + line % stride;
+
+				// pixels already reached by a label
+				envelope.clear();
+				for( int x=0; x<length; x++)
+				{
+					final float f = dist.get(start + x*stride);
+					if( f!=Float.POSITIVE_INFINITY )
+						envelope.add(x, f, label!=null ? label.get(start + x*stride) : 0);
+				}
+				if( envelope.isEmpty() ){ continue; }
+
+				for( int x=0; x<length; x++)
+				{
+					dist.set(start + x*stride, (float) envelope.evaluate(x, w));
+					if( label!=null )
+						label.set(start + x*stride, envelope.getLabel());
+				}
+			}
+			stride *= length;
+		}
+	}
+
+
+	// lower envelope of the parabolas w*(x-pos)^2 + f of a line, the parabolas are added by increasing position
+	// and the envelope is evaluated by increasing x
+	private static final class LineEnvelope
+	{
+		final int[] pos;
+		final double[] f;
+		final float[] label;
+		final int[] v; // parabolas of the envelope
+		final double[] z; // the parabola v[k] is the lowest between z[k] and z[k+1]
+		int nPoints, k;
+		double w;
+
+		LineEnvelope(int capacity)
+		{
+			pos = new int[capacity];
+			f = new double[capacity];
+			label = new float[capacity];
+			v = new int[capacity];
+			z = new double[capacity+1];
+		}
+
+		void clear()
+		{
+			nPoints = 0;
+			k = -1;
+		}
+
+		boolean isEmpty()
+		{
+			return nPoints==0;
+		}
+
+		void add(int x, double fx, float L)
+		{
+			pos[nPoints] = x;
+			f[nPoints] = fx;
+			label[nPoints] = L;
+			nPoints++;
+		}
+
+		// build the envelope at the first evaluation, the weight is the same for the whole line
+		double evaluate(int x, double weight)
+		{
+			if( k<0 )
+				build(weight);
+			while( z[k+1]<x ){ k++; }
+			final double dx = x - pos[v[k]];
+			return w*dx*dx + f[v[k]];
+		}
+
+		float getLabel()
+		{
+			return label[v[k]];
+		}
+
+		private void build(double weight)
+		{
+			w = weight;
+			k = 0;
+			v[0] = 0;
+			z[0] = Double.NEGATIVE_INFINITY;
+			z[1] = Double.POSITIVE_INFINITY;
+			for( int q=1; q<nPoints; q++)
+			{
+				double s = intersection(q, v[k]);
+				while( s<=z[k] )
+				{
+					k--;
+					s = intersection(q, v[k]);
+				}
+				k++;
+				v[k] = q;
+				z[k] = s;
+				z[k+1] = Double.POSITIVE_INFINITY;
+			}
+			k = 0;
+		}
+
+		// position where the parabolas q and p have the same height, pos[p] < pos[q]
+		private double intersection(int q, int p)
+		{
+			final double fq = f[q] + w*pos[q]*(double)pos[q];
+			final double fp = f[p] + w*pos[p]*(double)pos[p];
+			return (fq - fp) / (2*w*(pos[q] - pos[p]));
+		}
+	}
+
+
+	private static double getWeight(double[] voxelSize, int d)
+	{
+		if( voxelSize==null )
+			return 1;
+		if( d>=voxelSize.length )
+			throw new IllegalArgumentException("voxelSize has " + voxelSize.length + " values for an image with more dimensions");
+		return voxelSize[d]*voxelSize[d];
+	}
+
+	private static long numElements(long[] dims)
+	{
+		long size = 1;
+		for( long dim : dims )
+			size *= dim;
+		return size;
+	}
+
+	private static int getMaxDimension(long[] dims)
+	{
+		long max = 0;
+		for( long dim : dims )
+			max = Math.max(max, dim);
+		if( max>Integer.MAX_VALUE-8 )
+			throw new IllegalArgumentException("LabelDistanceTransform supports dimensions of less than " + (Integer.MAX_VALUE-8) + " pixels");
+		return (int) max;
+	}
+
+}
@@ -1,17 +1,16 @@
 package de.mpicbg.scf.imgtools.image.filter;
 
+import de.mpicbg.scf.imgtools.core.data.PagedFloatArray;
+import de.mpicbg.scf.imgtools.image.create.labelmap.FlatImageAccess;
 import de.mpicbg.scf.imgtools.ui.visualisation.ProgressDialog;
 import net.imglib2.Cursor;
-import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
-import net.imglib2.algorithm.neighborhood.RectangleShape.NeighborhoodsIterableInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.ExtendedRandomAccessibleInterval;
-import net.imglib2.view.Views;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Author: Robert Haase, Scientific Computing Facility, MPI-CBG Dresden,
@@ -56,32 +55,74 @@ public class LabelmapMathematicalMorphology {
      * @return the opened label map
      */
     public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, int distanceInPixels) {
+        return openingLabelMap(labelMap, distanceInPixels, null);
+    }
+
+    /**
+     * apply opening to a label map: the labels are eroded by radius, also from
+     * the border of the image, then the pixels of the label map farther than
+     * radius from the eroded labels are removed. The runtime does not depend
+     * on the radius.
+     *
+     * @param labelMap  an image where the grey value represents the class to which a
+     *                  pixel belongs to
+     * @param radius    margin size to erode and afterwards dilate, in the unit of voxelSize
+     * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+     * @param <T>       type of the image
+     * @return the opened label map
+     */
+    public static <T extends RealType<T>> Img<T> openingLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
         ProgressDialog.reset();
         ProgressDialog.setStatusText("Apply opening...");
-        Img<T> res = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, distanceInPixels);
+        Img<T> ret = labelMap.copy();
         ProgressDialog.setProgress(0.25);
         if (ProgressDialog.wasCancelled()) {
             return null;
         }
 
-        Img<T> bin = LabelmapMathematicalMorphology.binarizeLabelMap(res);
-        ProgressDialog.setProgress(0.5);
-        if (ProgressDialog.wasCancelled()) {
-            return null;
-        }
-
-        Img<T> binDil = LabelmapMathematicalMorphology.dilateBinaryImage(bin, distanceInPixels);
-        ProgressDialog.setProgress(0.75);
-        if (ProgressDialog.wasCancelled()) {
-            return null;
-        }
-
-        Img<T> ret = ImageFilterUtilities.maskImage(labelMap, binDil);
+        LabelmapMathematicalMorphology.openingLabelMap(ret, radius, voxelSize, ret);
         ProgressDialog.finish();
 
         return ret;
     }
 
+    /**
+     * apply opening to a label map, see openingLabelMap(labelMap, radius,
+     * voxelSize). Erosion, binarization and dilation are chained in a single
+     * float buffer of the image size, the opened label map is written in
+     * output.
+     *
+     * @param labelMap  an image where the grey value represents the class to which a
+     *                  pixel belongs to
+     * @param radius    margin size to erode and afterwards dilate, in the unit of voxelSize
+     * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+     * @param output    image of the size of the label map receiving the opened label map,
+     *                  can be labelMap itself to open it in place
+     * @param <T>       type of the label map
+     * @param <U>       type of the output
+     */
+    public static <T extends RealType<T>, U extends RealType<U>> void openingLabelMap(RandomAccessibleInterval<T> labelMap, double radius, double[] voxelSize, RandomAccessibleInterval<U> output) {
+        long[] dims = new long[labelMap.numDimensions()];
+        labelMap.dimensions(dims);
+        FlatImageAccess.Real in = FlatImageAccess.createReal(labelMap);
+        float radius2 = (float) (radius * radius);
+
+        // erosion: distance to the other labels
+        PagedFloatArray distance = LabelDistanceTransform.distanceToOtherLabels(in, dims, voxelSize);
+
+        // binarization: the eroded labels are the pixels the dilation measures the distance to
+        for (long p = 0; p < distance.size(); p++) {
+            distance.set(p, in.get(p) != 0 && distance.get(p) > radius2 ? 0 : Float.POSITIVE_INFINITY);
+        }
+
+        // dilation, then the labels within it are kept
+        LabelDistanceTransform.distanceTransform(distance, dims, voxelSize);
+        FlatImageAccess.Real out = FlatImageAccess.createReal(output);
+        for (long p = 0; p < distance.size(); p++) {
+            out.set(p, distance.get(p) <= radius2 ? in.get(p) : 0);
+        }
+    }
+
     /**
      * Create a binary image out of a label map. If a pixel belongs to any
      * label, it will be set to 1, otherwise to 0.
@@ -117,7 +158,7 @@ public class LabelmapMathematicalMorphology {
      * @return the dilated binary image.
      */
     public static <T extends RealType<T>> Img<T> dilateBinaryImage(Img<T> labelMap, int distanceInPixels) {
-        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 1);
+        return LabelmapMathematicalMorphology.dilateLabelMap(labelMap, distanceInPixels, null);
     }
 
     /**
@@ -127,88 +168,136 @@ public class LabelmapMathematicalMorphology {
      * @return a new eroded label map
      */
     public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, int distanceInPixels) {
-        return LabelmapMathematicalMorphology.erodeOrDilate(labelMap, distanceInPixels, 0);
+        return LabelmapMathematicalMorphology.erodeLabelMap(labelMap, distanceInPixels, null);
     }
 
     /**
-     * This function allows to erode or dilate binary images. Furthermore,
-     * erosion of label maps is possible. Dilation makes no real sense.
-     * <p>
-     * Taken and adapted from http://fiji.sc/ImgLib2_Examples Example4B
+     * Erode the labels of a label map: the pixels closer than radius (or at
+     * radius) to a pixel of another label or of the background are set to 0.
+     * Touching labels are eroded from each other, the outside of the image is
+     * background: labels are eroded from the border of the image.
      *
-     * @param labelMap         an image where the grey value represents the class to which a
-     *                         pixel belongs to
-     * @param distanceInPixels margin size to erode or dilate
-     * @param valueToWrite     all pixels which are within this margin (at the boundary of
-     *                         the object) will be set to this value. To apply erosion, enter
-     *                         0. To apply dilation, enter 1.
-     * @return eroded/dilated label map
+     * @param labelMap  image of a label map to erode
+     * @param radius    euclidean distance, in the unit of voxelSize
+     * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+     * @param <T>       type of the image
+     * @return a new eroded label map
      */
-    private static <T extends RealType<T>> Img<T> erodeOrDilate(Img<T> labelMap, int distanceInPixels, int valueToWrite) {
-        ExtendedRandomAccessibleInterval<T, Img<T>> extsource = Views.extendZero(labelMap);
-        RandomAccessibleInterval<T> source = Views.interval(extsource, labelMap);
-
-        // Create a new image for the output
-        RandomAccessibleInterval<T> output = labelMap.copy();
-
-        // define an interval that is one pixel smaller on each side in each
-        // dimension, so that the search in the 8-neighborhood (3x3x3...x3)
-        // never goes outside of the defined interval
-        Interval interval = source;
-
-        // create a view on the source with this interval
-        source = Views.interval(source, interval);
-
-        // create a Cursor that iterates over the source and checks in a
-        // 8-neighborhood if it is a minima
-        final Cursor<T> center = Views.iterable(labelMap).cursor();
-
-        // instantiate a RectangleShape to access rectangular local
-        // neighborhoods of radius 1 (that is 3x3x...x3 neighborhoods),
-        // skipping the center pixel (this corresponds to an
-        // 8-neighborhood in 2d or 26-neighborhood in 3d, ...)
-        final RectangleShape shape = new RectangleShape(distanceInPixels, true);
-
-        /**
-         * TODO> Handle other shapes!
-         */
-        NeighborhoodsIterableInterval<T> nhi = shape.neighborhoods(labelMap);
-
-        RandomAccess<T> randomAccess = output.randomAccess();
-
-        // iterate over the set of neighborhoods in the image
-        for (final Neighborhood<T> localNeighborhood : nhi) {
-            // what is the value that we investigate?
-            // (the center cursor runs over the image in the same iteration
-            // order as neighborhood)
-            final T centerValue = center.next();
-
-            // keep this boolean true as long as no other value in the local
-            // neighborhood is larger or equal
-            boolean isAtEdge = false;
-
-            for (final T value : localNeighborhood) {
-                try {
-                    if (centerValue.compareTo(value) != 0) {
-                        isAtEdge = true;
-                        break;
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
-
-                }
+    public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        return erodeLabelMap(labelMap, radius, voxelSize, true);
+    }
+
+    /**
+     * Erode the labels of a label map, see erodeLabelMap(labelMap, radius,
+     * voxelSize).
+     *
+     * @param labelMap        image of a label map to erode
+     * @param radius          euclidean distance, in the unit of voxelSize
+     * @param voxelSize       pixel spacing along each dimension, null for 1 in all dimensions
+     * @param erodeFromBorder true to erode the labels from the border of the
+     *                        image, false to only erode them from the other
+     *                        labels and the background inside the image
+     * @param <T>             type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMap(Img<T> labelMap, double radius, double[] voxelSize, boolean erodeFromBorder) {
+        PagedFloatArray distance = LabelDistanceTransform.distanceToOtherLabels(FlatImageAccess.createReal(labelMap), getDimensions(labelMap), voxelSize, erodeFromBorder);
+
+        Img<T> output = labelMap.copy();
+        FlatImageAccess.Real out = FlatImageAccess.createReal(output);
+        float radius2 = (float) (radius * radius);
+        for (long p = 0; p < distance.size(); p++) {
+            if (distance.get(p) <= radius2) {
+                out.set(p, 0);
             }
+        }
+        return output;
+    }
 
-            if (isAtEdge) {
-                // set the output cursor to the position of the input cursor
-                randomAccess.setPosition(center);
+    /**
+     * Dilate the labels of a label map: each background pixel closer than
+     * radius (or at radius) to a label gets the label of the closest labeled
+     * pixel. Labels keep their identity and do not merge into each other.
+     *
+     * @param labelMap  image of a label map to dilate
+     * @param radius    euclidean distance, in the unit of voxelSize
+     * @param voxelSize pixel spacing along each dimension, null for 1 in all dimensions
+     * @param <T>       type of the image
+     * @return a new dilated label map
+     */
+    public static <T extends RealType<T>> Img<T> dilateLabelMap(Img<T> labelMap, double radius, double[] voxelSize) {
+        long[] dims = getDimensions(labelMap);
+        PagedFloatArray nearestLabel = new PagedFloatArray(labelMap.size());
+        PagedFloatArray distance = LabelDistanceTransform.distanceToLabels(FlatImageAccess.createReal(labelMap), dims, voxelSize, nearestLabel);
 
-                // set the value of this pixel of the output image, every Type
-                // supports T.set( T type )
-                randomAccess.get().setReal(valueToWrite);
+        Img<T> output = labelMap.copy();
+        FlatImageAccess.Real out = FlatImageAccess.createReal(output);
+        float radius2 = (float) (radius * radius);
+        for (long p = 0; p < distance.size(); p++) {
+            if (distance.get(p) <= radius2) {
+                out.set(p, nearestLabel.get(p));
             }
         }
+        return output;
+    }
+
+    /**
+     * Erode the labels of a label map with a box: a pixel keeps its label if
+     * all pixels of the box centered on it (clipped to the image) have the
+     * same label, see MinMaxFilter. The runtime does not depend on the box
+     * size.
+     *
+     * @param labelMap   image of a label map to erode
+     * @param radius     half size of the box along each dimension, in pixels
+     * @param numThreads number of threads
+     * @param <T>        type of the image
+     * @return a new eroded label map
+     */
+    public static <T extends RealType<T>> Img<T> erodeLabelMapWithBox(Img<T> labelMap, long[] radius, int numThreads) {
+        Img<T> minimum = labelMap.copy();
+        Img<T> output = labelMap.copy();
+        // one pool for both filters
+        ExecutorService service = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            MinMaxFilter.min(labelMap, radius, minimum, service, numThreads);
+            MinMaxFilter.max(labelMap, radius, output, service, numThreads);
+        } finally {
+            if (service != null) {
+                service.shutdown();
+            }
+        }
+
+        FlatImageAccess.Real min = FlatImageAccess.createReal(minimum);
+        FlatImageAccess.Real out = FlatImageAccess.createReal(output);
+        for (long p = 0; p < labelMap.size(); p++) {
+            if (min.get(p) != out.get(p)) {
+                out.set(p, 0);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Dilate a binary image with a box: maximum filter over the box centered
+     * on each pixel, see MinMaxFilter. In a label map, the highest label wins
+     * where several labels reach a pixel.
+     *
+     * @param labelMap   binary image to dilate
+     * @param radius     half size of the box along each dimension, in pixels
+     * @param numThreads number of threads
+     * @param <T>        type of the image
+     * @return a new dilated image
+     */
+    public static <T extends RealType<T>> Img<T> dilateBinaryImageWithBox(Img<T> labelMap, long[] radius, int numThreads) {
+        Img<T> output = labelMap.copy();
+        MinMaxFilter.max(labelMap, radius, output, numThreads);
+        return output;
+    }
 
-        return (Img<T>) output;
+    private static long[] getDimensions(Img<?> img) {
+        long[] dims = new long[img.numDimensions()];
+        img.dimensions(dims);
+        return dims;
     }
 
 }
@@ -0,0 +1,286 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import de.mpicbg.scf.imgtools.image.create.labelmap.FlatImageAccess;
+
+
+// minimum and maximum filters over a box of radius r[d] along each dimension d, one pass per dimension along
+// the lines of the image (van Herk 1992, Gil and Werman 1993). A line is cut in blocks of the window width
+// k = 2r+1, a window overlaps at most two blocks and its maximum is the maximum of its part in the first block
+// (suffix maximum of that block) and of its part in the second one (prefix maximum), that is 3 comparisons
+// per pixel whatever the radius. The window is clipped to the image, which gives the same result as an image
+// extended by its border. The minimum is the maximum of the negated values
+//
+// the lines of a pass are shared among the threads, of a pool created for the call or of an executor given by
+// the caller, e.g. to share it between several filters. ArrayImg and PlanarImg are read and written directly in
+// their arrays, any other image (e.g. a CellImg) through one random access per thread, see FlatImageAccess
+
+public class MinMaxFilter {
+
+	private MinMaxFilter() {}
+
+
+	/**
+	 * @param radius half size of the box along each dimension, the box is 2*radius+1 pixels wide
+	 * @param numThreads number of threads sharing the lines of the image
+	 * @return the maximum of the input over the box centered on each pixel, in a new image of the input type
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> max(RandomAccessibleInterval<T> input, long[] radius, int numThreads)
+	{
+		final Img<T> output = createImage(input);
+		filter(input, radius, output, numThreads, true);
+		return output;
+	}
+
+	/**
+	 * @param radius half size of the box along each dimension, the box is 2*radius+1 pixels wide
+	 * @param service executor running the tasks, e.g. shared by several filters, it is not shut down. null to
+	 *        run in the calling thread
+	 * @param numTasks number of tasks sharing the lines of the image, e.g. the number of threads of service
+	 * @return the maximum of the input over the box centered on each pixel, in a new image of the input type
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> max(RandomAccessibleInterval<T> input, long[] radius, ExecutorService service, int numTasks)
+	{
+		final Img<T> output = createImage(input);
+		filter(input, radius, output, service, numTasks, true);
+		return output;
+	}
+
+	/**
+	 * @param radius half size of the box along each dimension, the box is 2*radius+1 pixels wide
+	 * @param numThreads number of threads sharing the lines of the image
+	 * @return the minimum of the input over the box centered on each pixel, in a new image of the input type
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> min(RandomAccessibleInterval<T> input, long[] radius, int numThreads)
+	{
+		final Img<T> output = createImage(input);
+		filter(input, radius, output, numThreads, false);
+		return output;
+	}
+
+	/**
+	 * @param radius half size of the box along each dimension, the box is 2*radius+1 pixels wide
+	 * @param service executor running the tasks, e.g. shared by several filters, it is not shut down. null to
+	 *        run in the calling thread
+	 * @param numTasks number of tasks sharing the lines of the image, e.g. the number of threads of service
+	 * @return the minimum of the input over the box centered on each pixel, in a new image of the input type
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> min(RandomAccessibleInterval<T> input, long[] radius, ExecutorService service, int numTasks)
+	{
+		final Img<T> output = createImage(input);
+		filter(input, radius, output, service, numTasks, false);
+		return output;
+	}
+
+	/**
+	 * maximum filter written in output, an image of the size of the input that can be the input itself
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void max(RandomAccessibleInterval<T> input, long[] radius, RandomAccessibleInterval<U> output, int numThreads)
+	{
+		filter(input, radius, output, numThreads, true);
+	}
+
+	/**
+	 * maximum filter written in output with the tasks run by service, see max(input, radius, service, numTasks)
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void max(RandomAccessibleInterval<T> input, long[] radius, RandomAccessibleInterval<U> output, ExecutorService service, int numTasks)
+	{
+		filter(input, radius, output, service, numTasks, true);
+	}
+
+	/**
+	 * minimum filter written in output, an image of the size of the input that can be the input itself
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void min(RandomAccessibleInterval<T> input, long[] radius, RandomAccessibleInterval<U> output, int numThreads)
+	{
+		filter(input, radius, output, numThreads, false);
+	}
+
+	/**
+	 * minimum filter written in output with the tasks run by service, see min(input, radius, service, numTasks)
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void min(RandomAccessibleInterval<T> input, long[] radius, RandomAccessibleInterval<U> output, ExecutorService service, int numTasks)
+	{
+		filter(input, radius, output, service, numTasks, false);
+	}
+
+
+	// a pool for the call if there is more than one thread
+	private static <T extends RealType<T>, U extends RealType<U>> void filter(RandomAccessibleInterval<T> input, long[] radius, RandomAccessibleInterval<U> output, int numThreads, boolean isMax)
+	{
+		if( numThreads<=1 )
+		{
+			filter(input, radius, output, null, 1, isMax);
+			return;
+		}
+		final ExecutorService service = Executors.newFixedThreadPool( numThreads );
+		try
+		{
+			filter(input, radius, output, service, numThreads, isMax);
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	// the first dimension with a radius reads the input, the next ones filter the output in place
+	private static <T extends RealType<T>, U extends RealType<U>> void filter(final RandomAccessibleInterval<T> input, long[] radius, final RandomAccessibleInterval<U> output, ExecutorService service, int numTasks, boolean isMax)
+	{
+		final int nDim = input.numDimensions();
+		if( radius.length<nDim )
+			throw new IllegalArgumentException("radius has " + radius.length + " values for an image with " + nDim + " dimensions");
+		final long[] dims = new long[nDim];
+		input.dimensions(dims);
+		final long size = numElements(dims);
+		final double sign = isMax ? 1 : -1;
+
+		boolean isFirstPass = true;
+		long stride = 1;
+		for( int d=0; d<nDim; d++)
+		{
+			if( dims[d]>Integer.MAX_VALUE-8 )
+				throw new IllegalArgumentException("MinMaxFilter supports dimensions of less than " + (Integer.MAX_VALUE-8) + " pixels");
+			final int length = (int) dims[d];
+			final int r = (int) Math.max(0, Math.min(radius[d], length-1));
+			if( r>0 )
+			{
+				final long lineStride = stride;
+				final long nLines = size / length;
+				final int nTasks = (int) Math.min(Math.max(1, numTasks), nLines);
+				final boolean fromInput = isFirstPass;
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for( int t=0; t<nTasks; t++)
+				{
+					final long firstLine = nLines * t / nTasks;
+					final long lastLine = nLines * (t+1) / nTasks;
+					tasks.add( new Callable<Void>() {
+						@Override
+						public Void call() {
+							final FlatImageAccess.Real src = fromInput ? FlatImageAccess.createReal(input) : FlatImageAccess.createReal(output);
+							final FlatImageAccess.Real dst = FlatImageAccess.createReal(output);
+							filterLines(src, dst, firstLine, lastLine, length, lineStride, r, sign);
+							return null;
+						}
+					});
+				}
+				runAll(service, tasks);
+				isFirstPass = false;
+			}
+			stride *= length;
+		}
+
+		// no radius: the filter is the identity
+		if( isFirstPass )
+		{
+			final FlatImageAccess.Real src = FlatImageAccess.createReal(input);
+			final FlatImageAccess.Real dst = FlatImageAccess.createReal(output);
+			for( long p=0; p<size; p++)
+				dst.set(p, src.get(p));
+		}
+	}
+
+	// maximum of sign*value over the window of radius r of the lines [firstLine, lastLine) along the dimension
+	// of the given length and stride, multiplied back by sign
+	private static void filterLines(FlatImageAccess.Real src, FlatImageAccess.Real dst, long firstLine, long lastLine, int length, long stride, int r, double sign)
+	{
+		// the line is padded with r pixels at -infinity on both sides, the window [x, x+k) of the padded line
+		// is centered on the pixel x of the line
+		final int k = 2*r + 1;
+		final int m = length + 2*r;
+		final double[] line = new double[m];
+		final double[] prefix = new double[m];
+		final double[] suffix = new double[m];
+		Arrays.fill(line, Double.NEGATIVE_INFINITY);
+
+		for( long l=firstLine; l<lastLine; l++)
+		{
+			final long start = (l / stride) * stride * length + l % stride;
+			for( int x=0; x<length; x++)
+				line[r+x] = sign*src.get(start + x*stride);
+
+			for( int b=0; b<m; b+=k)
+			{
+				final int end = Math.min(b+k, m);
+				prefix[b] = line[b];
+				for( int i=b+1; i<end; i++)
+					prefix[i] = prefix[i-1]>line[i] ? prefix[i-1] : line[i];
+				suffix[end-1] = line[end-1];
+				for( int i=end-2; i>=b; i--)
+					suffix[i] = suffix[i+1]>line[i] ? suffix[i+1] : line[i];
+			}
+
+			for( int x=0; x<length; x++)
+			{
+				final double h = suffix[x];
+				final double g = prefix[x+k-1];
+				dst.set(start + x*stride, sign*(h>g ? h : g));
+			}
+		}
+	}
+
+
+	// the tasks run in the calling thread without service
+	private static void runAll(ExecutorService service, List<Callable<Void>> tasks)
+	{
+		try
+		{
+			if( service==null )
+			{
+				for( Callable<Void> task : tasks )
+					task.call();
+				return;
+			}
+			for( Future<Void> future : service.invokeAll(tasks) )
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("min/max filter interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("min/max filter failed", e.getCause());
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("min/max filter failed", e);
+		}
+	}
+
+	private static <T extends RealType<T> & NativeType<T>> Img<T> createImage(RandomAccessibleInterval<T> input)
+	{
+		final long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+		final T t = Util.getTypeFromInterval(input).createVariable();
+		return Util.getArrayOrCellImgFactory(new FinalDimensions(dims), t).create(dims, t);
+	}
+
+	private static long numElements(long[] dims)
+	{
+		long size = 1;
+		for( long dim : dims )
+			size *= dim;
+		return size;
+	}
+
+}
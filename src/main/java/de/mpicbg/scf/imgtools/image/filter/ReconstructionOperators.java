@@ -0,0 +1,200 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import de.mpicbg.scf.imgtools.image.create.labelmap.FlatImageAccess;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageNeighborhood;
+
+
+// operators built on the hybrid geodesic reconstruction of GeodesicReconstruction, all linear in the number
+// of pixels. The input is never modified, the marker is a buffer of the precision of the input (float or
+// double, see createMarker) and the result is written in a new image of the input type
+//
+// fillHoles      reconstruction by erosion of the border of the image above the input
+// hDome          input - reconstruction by dilation of (input - h) under the input
+// regionalMaxima 1 where input > reconstruction by dilation, under the input, of the pixels having a higher
+//                neighbor. A plateau with a higher neighbor is reached at its own level, a regional
+//                maximum only through lower pixels, which is exact for float images
+// regionalMinima the dual of regionalMaxima
+// clearBorder    input - reconstruction by dilation of the border of the image under the input
+
+public class ReconstructionOperators {
+
+	private ReconstructionOperators() {}
+
+
+	/**
+	 * fill the regions of the image that are darker than their surrounding and do not touch the image
+	 * border, e.g. the holes of a binary mask
+	 *
+	 * @param connectivity connectivity of the background reaching the border, FACE or FULL
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> fillHoles(RandomAccessibleInterval<T> input, ImageConnectivity.Connectivity connectivity)
+	{
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final ImageNeighborhood neighborhood = createNeighborhood(input, connectivity);
+		final long size = neighborhood.size();
+		final FlatImageAccess.Real marker = createMarker(input, size);
+
+		for( long p=0; p<size; p++)
+			marker.set(p, neighborhood.getBorderCode(p)!=0 ? in.get(p) : Double.POSITIVE_INFINITY);
+
+		GeodesicReconstruction.hybridReconstruction(in, marker, neighborhood.getDimensions(), connectivity, true);
+
+		return copyToInputType(input, marker, neighborhood);
+	}
+
+
+	/**
+	 * @param h height of the domes, the maxima of the input are kept if their dynamic is higher than h
+	 * @return input - reconstruction of (input - h), the domes of height at most h on top of the maxima
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> hDome(RandomAccessibleInterval<T> input, float h, ImageConnectivity.Connectivity connectivity)
+	{
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final ImageNeighborhood neighborhood = createNeighborhood(input, connectivity);
+		final long size = neighborhood.size();
+		final FlatImageAccess.Real marker = createMarker(input, size);
+
+		for( long p=0; p<size; p++)
+			marker.set(p, in.get(p) - h);
+
+		GeodesicReconstruction.hybridReconstruction(in, marker, neighborhood.getDimensions(), connectivity, false);
+
+		for( long p=0; p<size; p++)
+			marker.set(p, in.get(p) - marker.get(p));
+		return copyToInputType(input, marker, neighborhood);
+	}
+
+
+	/**
+	 * @return 1 in the regional maxima of the input (connected plateaus whose neighbors are all lower), 0
+	 * elsewhere
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> regionalMaxima(RandomAccessibleInterval<T> input, ImageConnectivity.Connectivity connectivity)
+	{
+		return regionalExtrema(input, connectivity, true);
+	}
+
+	/**
+	 * @return 1 in the regional minima of the input (connected plateaus whose neighbors are all higher), 0
+	 * elsewhere
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> regionalMinima(RandomAccessibleInterval<T> input, ImageConnectivity.Connectivity connectivity)
+	{
+		return regionalExtrema(input, connectivity, false);
+	}
+
+
+	/**
+	 * remove the bright structures touching the border of the image, e.g. the objects of a binary mask. In a
+	 * label map, labels touching each other are compared by value: use a mask of the labels
+	 */
+	public static <T extends RealType<T> & NativeType<T>> Img<T> clearBorder(RandomAccessibleInterval<T> input, ImageConnectivity.Connectivity connectivity)
+	{
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final ImageNeighborhood neighborhood = createNeighborhood(input, connectivity);
+		final long size = neighborhood.size();
+		final FlatImageAccess.Real marker = createMarker(input, size);
+
+		for( long p=0; p<size; p++)
+			marker.set(p, neighborhood.getBorderCode(p)!=0 ? in.get(p) : Double.NEGATIVE_INFINITY);
+
+		GeodesicReconstruction.hybridReconstruction(in, marker, neighborhood.getDimensions(), connectivity, false);
+
+		for( long p=0; p<size; p++)
+			marker.set(p, in.get(p) - marker.get(p));
+		return copyToInputType(input, marker, neighborhood);
+	}
+
+
+	private static <T extends RealType<T> & NativeType<T>> Img<T> regionalExtrema(RandomAccessibleInterval<T> input, ImageConnectivity.Connectivity connectivity, boolean isMaxima)
+	{
+		final FlatImageAccess.Real in = FlatImageAccess.createReal(input);
+		final ImageNeighborhood neighborhood = createNeighborhood(input, connectivity);
+		final long size = neighborhood.size();
+		final FlatImageAccess.Real marker = createMarker(input, size);
+
+		// the pixels having a higher (lower for the minima) neighbor keep their value, the others cannot be
+		// reached by the reconstruction
+		final double unreached = isMaxima ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		final BeyondNeighbor beyondNeighbor = new BeyondNeighbor(in, isMaxima);
+		for( long p=0; p<size; p++)
+		{
+			beyondNeighbor.pVal = in.get(p);
+			beyondNeighbor.isFound = false;
+			neighborhood.forEachNeighbor(p, beyondNeighbor);
+			marker.set(p, beyondNeighbor.isFound ? beyondNeighbor.pVal : unreached);
+		}
+
+		GeodesicReconstruction.hybridReconstruction(in, marker, neighborhood.getDimensions(), connectivity, !isMaxima);
+
+		// the extrema are the pixels the reconstruction did not reach at their level
+		for( long p=0; p<size; p++)
+			marker.set(p, marker.get(p)!=in.get(p) ? 1 : 0);
+		return copyToInputType(input, marker, neighborhood);
+	}
+
+	// look for a neighbor higher (or lower) than the current pixel
+	private static final class BeyondNeighbor implements ImageNeighborhood.NeighborConsumer
+	{
+		final FlatImageAccess.Real in;
+		final boolean isHigher;
+		double pVal;
+		boolean isFound;
+
+		BeyondNeighbor(FlatImageAccess.Real in, boolean isHigher)
+		{
+			this.in = in;
+			this.isHigher = isHigher;
+		}
+
+		@Override
+		public void accept(int i, long nidx)
+		{
+			final double nVal = in.get(nidx);
+			if( isHigher ? nVal>pVal : nVal<pVal )
+				isFound = true;
+		}
+	}
+
+
+	private static ImageNeighborhood createNeighborhood(RandomAccessibleInterval<?> input, ImageConnectivity.Connectivity connectivity)
+	{
+		final long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+		if( connectivity!=ImageConnectivity.Connectivity.FACE )
+			connectivity = ImageConnectivity.Connectivity.FULL;
+		return new ImageNeighborhood(dims, connectivity);
+	}
+
+	// marker of the precision of the input: float for the float images and the integer images of at most
+	// 16 bits, whose values are exact in a float, double otherwise, e.g. for double, int and long images
+	private static FlatImageAccess.Real createMarker(RandomAccessibleInterval<? extends RealType<?>> input, long size)
+	{
+		final RealType<?> t = Util.getTypeFromInterval(input);
+		if( t instanceof FloatType || ( t instanceof IntegerType && t.getBitsPerPixel()<=16 ) )
+			return FlatImageAccess.createFloatBuffer(size);
+		return FlatImageAccess.createDoubleBuffer(size);
+	}
+
+	private static <T extends RealType<T> & NativeType<T>> Img<T> copyToInputType(RandomAccessibleInterval<T> input, FlatImageAccess.Real values, ImageNeighborhood neighborhood)
+	{
+		final long[] dims = neighborhood.getDimensions();
+		final T t = Util.getTypeFromInterval(input).createVariable();
+		final Img<T> output = Util.getArrayOrCellImgFactory(new FinalDimensions(dims), t).create(dims, t);
+		final FlatImageAccess.Real out = FlatImageAccess.createReal(output);
+		final long size = neighborhood.size();
+		for( long p=0; p<size; p++)
+			out.set(p, values.get(p));
+		return output;
+	}
+
+}
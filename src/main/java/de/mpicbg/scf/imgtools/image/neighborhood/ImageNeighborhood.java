@@ -0,0 +1,204 @@
+package de.mpicbg.scf.imgtools.image.neighborhood;
+
+
+// neighbors of a pixel given by its index in flat iteration order (first dimension fastest)
+// the index offsets of the neighbors are computed once for the image dimensions. Only a pixel on the image
+// border (one of its coordinates is 0 or dims-1) can have neighbors outside of the image: its border code
+// has one bit per dimension and side, and a neighbor is skipped if it moves across one of these sides.
+// Interior pixels (border code 0) use the offsets without any check.
+//
+// Usage, e.g. in a flooding loop
+//		ImageNeighborhood neighborhood = new ImageNeighborhood(dims, Connectivity.FULL);
+//		neighborhood.forEachNeighbor(pIdx, consumer);  // consumer.accept(i, nIdx) for the neighbors in the image
+// or in a scan of the image in flat order, the position being updated instead of computed from the index
+//		for( long idx=0; idx<size; idx++, neighborhood.fwd(position) )
+//			neighborhood.forEachNeighbor(idx, neighborhood.getBorderCode(position), consumer);
+
+public class ImageNeighborhood {
+
+	public interface NeighborConsumer
+	{
+		/**
+		 * @param i number of the neighbor in getNeighborPositions()
+		 * @param nIdx index of the neighbor in flat iteration order
+		 */
+		void accept(int i, long nIdx);
+	}
+
+	private final int ndim;
+	private final long[] dims;
+	private final long size;
+	private final long[][] neigh;
+	private final long[] offsets;
+	private final int[] intOffsets;
+	private final long[] sideMask; // sides of the image crossed by each neighbor, bit 2d for -1 in dimension d, 2d+1 for +1
+
+
+	public ImageNeighborhood(long[] dims, ImageConnectivity.Connectivity connectivity)
+	{
+		this.ndim = dims.length;
+		if( ndim>32 )
+			throw new IllegalArgumentException("ImageNeighborhood supports at most 32 dimensions");
+		this.dims = dims.clone();
+
+		long n = 1;
+		for( long dim : dims )
+			n *= dim;
+		this.size = n;
+
+		neigh = ImageConnectivity.getConnectivityPos(ndim, connectivity);
+		offsets = ImageConnectivity.getLongIdxOffsetToCenterPix(neigh, dims);
+		intOffsets = size <= Integer.MAX_VALUE ? ImageConnectivity.getIdxOffsetToCenterPix(neigh, dims) : null;
+
+		sideMask = new long[neigh.length];
+		for( int i=0; i<neigh.length; i++)
+			for( int d=0; d<ndim; d++)
+			{
+				if( neigh[i][d]<0 )
+					sideMask[i] |= 1L << (2*d);
+				else if( neigh[i][d]>0 )
+					sideMask[i] |= 1L << (2*d+1);
+			}
+	}
+
+
+	public int getNumberOfNeighbors()
+	{
+		return offsets.length;
+	}
+
+	public long[][] getNeighborPositions()
+	{
+		return neigh;
+	}
+
+	/**
+	 * @return index offset of each neighbor relative to the center pixel
+	 */
+	public long[] getOffsets()
+	{
+		return offsets;
+	}
+
+	/**
+	 * @return same as getOffsets() as int, null if the image has more than Integer.MAX_VALUE pixels
+	 */
+	public int[] getIntOffsets()
+	{
+		return intOffsets;
+	}
+
+	public long[] getDimensions()
+	{
+		return dims;
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+
+	/**
+	 * @return 0 for a pixel whose neighbors are all in the image, otherwise the sides of the image it touches
+	 */
+	public long getBorderCode(long[] position)
+	{
+		long code = 0;
+		for( int d=0; d<ndim; d++)
+		{
+			if( position[d]==0 )
+				code |= 1L << (2*d);
+			if( position[d]==dims[d]-1 )
+				code |= 1L << (2*d+1);
+		}
+		return code;
+	}
+
+	/**
+	 * same as getBorderCode(position) for a pixel given by its index
+	 */
+	public long getBorderCode(long idx)
+	{
+		long code = 0;
+		for( int d=0; d<ndim-1; d++)
+		{
+			final long q = idx / dims[d];
+			final long p = idx - q*dims[d];
+			if( p==0 )
+				code |= 1L << (2*d);
+			if( p==dims[d]-1 )
+				code |= 1L << (2*d+1);
+			idx = q;
+		}
+		if( idx==0 )
+			code |= 1L << (2*ndim-2);
+		if( idx==dims[ndim-1]-1 )
+			code |= 1L << (2*ndim-1);
+		return code;
+	}
+
+	/**
+	 * @param borderCode see getBorderCode()
+	 * @param i number of the neighbor
+	 * @return true if the neighbor i of a pixel with this border code is in the image
+	 */
+	public boolean isInside(long borderCode, int i)
+	{
+		return ( borderCode & sideMask[i] ) == 0;
+	}
+
+
+	/**
+	 * call consumer.accept(i, nIdx) for each neighbor of pixel idx that is in the image, in the order of
+	 * getNeighborPositions()
+	 */
+	public void forEachNeighbor(long idx, NeighborConsumer consumer)
+	{
+		forEachNeighbor(idx, getBorderCode(idx), consumer);
+	}
+
+	/**
+	 * same as forEachNeighbor(idx, consumer) with the border code of the pixel already known
+	 */
+	public void forEachNeighbor(long idx, long borderCode, NeighborConsumer consumer)
+	{
+		final int nNeigh = offsets.length;
+		if( borderCode==0 )
+		{
+			for( int i=0; i<nNeigh; i++)
+				consumer.accept(i, idx + offsets[i]);
+		}
+		else
+		{
+			for( int i=0; i<nNeigh; i++)
+				if( ( borderCode & sideMask[i] ) == 0 )
+					consumer.accept(i, idx + offsets[i]);
+		}
+	}
+
+
+	public void localize(long idx, long[] position)
+	{
+		for( int d=0; d<ndim; d++)
+		{
+			final long q = idx / dims[d];
+			position[d] = idx - q*dims[d];
+			idx = q;
+		}
+	}
+
+	/**
+	 * move position to the next pixel in flat iteration order
+	 */
+	public void fwd(long[] position)
+	{
+		for( int d=0; d<ndim; d++)
+		{
+			if( ++position[d] < dims[d] )
+				return;
+			position[d] = 0;
+		}
+	}
+
+}
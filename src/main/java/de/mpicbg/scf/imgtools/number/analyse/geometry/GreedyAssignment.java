@@ -5,7 +5,6 @@ package de.mpicbg.scf.imgtools.number.analyse.geometry;
 import de.mpicbg.scf.imgtools.geometry.data.Point3D;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 //import java.util.Arrays;
@@ -14,10 +13,14 @@ import java.util.List;
 public class GreedyAssignment {
 
     /**
-     * Brute force assignment of the points in source to the points in reference
+     * Assignment of the points in source to the points in reference
      * each point is assigned to its closest available neighbor (each point is assigned only once).
      * Distance is measured with euclidian norm
      * There is a cutoff distance beyond which no assignment is done
+     * <p>
+     * The candidate pairs closer than the cutoff are found in a k-d tree of the reference points instead of measuring the distances of all the pairs,
+     * they are kept in primitive arrays and sorted as packed longs (distance, position in the table of pairs), which links the pairs at the same
+     * distance in the order of a stable sort of the table by source, then reference index.
      *
      * @param points_src a source list of points that have to be matched
      * @param points_ref a reference list of points
@@ -30,19 +33,59 @@ public class GreedyAssignment {
     public static int[] assign_to_closest_unique(List<Point3D> points_src, List<Point3D> points_ref, double R_cut) {
         int n_src = points_src.size();
         int n_ref = points_ref.size();
-        int n_pair = n_src * n_ref;
-        final Float[] dist = new Float[n_pair]; // the final keyword is needed for the array sorting
-        int[][] pairs = new int[2][];
-        for (int i = 0; i < pairs.length; i++) {
-            pairs[i] = new int[n_pair];
+
+        // reference points with a coordinate that is not finite are not in the tree, they are compared to all the source points
+        double[] coordinates = new double[3 * n_ref];
+        int[] outside = new int[n_ref];
+        int n_outside = 0;
+        for (int i1 = 0; i1 < n_ref; i1++) {
+            Point3D p = points_ref.get(i1);
+            coordinates[3 * i1] = p.getX();
+            coordinates[3 * i1 + 1] = p.getY();
+            coordinates[3 * i1 + 2] = p.getZ();
+            if (!isFinite(p)) {
+                outside[n_outside++] = i1;
+            }
         }
+        PointKDTree tree = new PointKDTree(coordinates, 3);
+        int[] all = null;
 
-        // build the distance table for each pair between the 2 points list
+        // candidate pairs in the order of the distance table, distances are compared after rounding to float, the tree is searched a bit further
+        double R_search = R_cut * (1 + 1e-6) + Float.MIN_VALUE;
+        int[][] pairs = new int[2][16];
+        float[] dist = new float[16];
         int count = 0;
-        for (int i0 = 0; i0 < n_src; i0++) {// the first element is not a real object
-            for (int i1 = 0; i1 < n_ref; i1++) {//
-                float d = (float) points_src.get(i0).getDistanceTo(points_ref.get(i1));
+        double[] position = new double[3];
+        for (int i0 = 0; i0 < n_src; i0++) {
+            Point3D p = points_src.get(i0);
+            int[] candidates;
+            if (isFinite(p)) {
+                position[0] = p.getX();
+                position[1] = p.getY();
+                position[2] = p.getZ();
+                int[] found = tree.findWithin(position, R_search);
+                candidates = Arrays.copyOf(found, found.length + n_outside);
+                System.arraycopy(outside, 0, candidates, found.length, n_outside);
+                Arrays.sort(candidates);
+            } else {
+                if (all == null) {
+                    all = new int[n_ref];
+                    for (int i1 = 0; i1 < n_ref; i1++) {
+                        all[i1] = i1;
+                    }
+                }
+                candidates = all;
+            }
+
+            for (int i1 : candidates) {
+                float d = (float) p.getDistanceTo(points_ref.get(i1));
                 if (d <= R_cut) {
+                    if (count == dist.length) {
+                        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * count);
+                        dist = Arrays.copyOf(dist, capacity);
+                        pairs[0] = Arrays.copyOf(pairs[0], capacity);
+                        pairs[1] = Arrays.copyOf(pairs[1], capacity);
+                    }
                     dist[count] = d;
                     pairs[0][count] = i0;
                     pairs[1][count] = i1;
@@ -51,17 +94,12 @@ public class GreedyAssignment {
             }
         }
 
-        // build a mapping of dist to sort(d01)
-        final Integer[] map = new Integer[count];
+        // sort the pairs by distance: the bits of a positive float have the order of its value, the position of the pair breaks the ties
+        long[] keys = new long[count];
         for (int i = 0; i < count; i++) {
-            map[i] = i;
+            keys[i] = ((long) Float.floatToIntBits(dist[i]) << 32) | i;
         }
-        Arrays.sort(map, new Comparator<Integer>() {
-            @Override
-            public int compare(final Integer o1, final Integer o2) {
-                return Float.compare(dist[o1], dist[o2]);
-            }
-        });
+        Arrays.parallelSort(keys);
 
         // linking source to reference list with a greedy algorithm,
         // element that are the closest are linked first
@@ -70,18 +108,12 @@ public class GreedyAssignment {
             match[i] = -1;
         }
         boolean[] istrack_src = new boolean[n_src];
-        for (int i = 0; i < n_src; i++) {
-            istrack_src[i] = false;
-        }
         boolean[] istrack_ref = new boolean[n_ref];
-        for (int i = 0; i < n_ref; i++) {
-            istrack_ref[i] = false;
-        }
         int ii;
         int n_min = Math.min(n_src, n_ref);
         int n_match = 0;
         for (int i = 0; i < count; i++) {
-            ii = map[i];
+            ii = (int) keys[i];
             int src = pairs[0][ii];
             int ref = pairs[1][ii];
             if (!istrack_src[src]) {
@@ -100,6 +132,14 @@ public class GreedyAssignment {
         return match;
     }
 
+    private static boolean isFinite(Point3D p) {
+        return isFinite(p.getX()) && isFinite(p.getY()) && isFinite(p.getZ());
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
 
     //public static int[] assign_to_closest(List<Point3D> points_src, List<Point3D> points_ref, double R_cut)
     //{
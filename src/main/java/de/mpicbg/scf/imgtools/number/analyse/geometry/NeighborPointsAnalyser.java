@@ -1,12 +1,20 @@
 package de.mpicbg.scf.imgtools.number.analyse.geometry;
 
-import de.mpicbg.scf.imgtools.geometry.data.PointN;
-import de.mpicbg.scf.imgtools.number.filter.ArrayUtilities;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The pointlist analyser is thought to deliver statistical information from point lists. Theoretically, Pearson coefficients are thinkable,
  * but for the moment, just the distance between the points is analysed. Add whatever tools come to your mind.
  * <p>
+ * The neighbors of the points are searched in a PointKDTree instead of a matrix of the distances between all the points, the memory is linear and the
+ * queries run in O(n log n). The points can be queried in parallel, see setNumThreads() and setExecutorService().
+ * <p>
  * <p>
  * <p>
  * <p>
@@ -41,8 +49,14 @@ import de.mpicbg.scf.imgtools.number.filter.ArrayUtilities;
  */
 public class NeighborPointsAnalyser {
 
-    private PointN[] pointlist = null;
-    private float[][] distanceMatrix = null;
+    private int numPoints = 0;
+    private int dimensions = 0;
+    // point i at [i * dimensions, (i + 1) * dimensions)
+    private double[] coordinates = null;
+    private PointKDTree tree = null;
+
+    private int numThreads = 1;
+    private ExecutorService executorService = null;
 
     /**
      * Constructor using an array in the form
@@ -100,8 +114,6 @@ public class NeighborPointsAnalyser {
             return;
         }
 
-        int numPoints;
-        int dimensions;
         if (pointlistFirstDimensionsLast) {
             numPoints = pointlist.length;
             dimensions = pointlist[0].length;
@@ -110,38 +122,38 @@ public class NeighborPointsAnalyser {
             dimensions = pointlist.length;
         }
 
-
-        this.pointlist = new PointN[numPoints];
+        coordinates = new double[numPoints * dimensions];
         for (int i = 0; i < numPoints; i++) {
-            if (pointlistFirstDimensionsLast) {
-                this.pointlist[i] = new PointN(ArrayUtilities.typeConvertToDouble(pointlist[i]));
-            } else {
-                double[] temp = new double[dimensions];
-                for (int j = 0; j < dimensions; j++) {
-                    temp[j] = pointlist[j][i];
-                }
-                this.pointlist[i] = new PointN(temp);
+            for (int j = 0; j < dimensions; j++) {
+                coordinates[i * dimensions + j] = pointlistFirstDimensionsLast ? pointlist[i][j] : pointlist[j][i];
             }
         }
     }
 
     /**
-     * Internally built up a n*n matrix storing the distance between all of the points to each other. Of course, the diagonal in this matrix will be equal to zero.
+     * @param numThreads number of threads querying the points, 1 (default) to query them in the calling thread
      */
-    private void buildDistanceMatrix() {
-        if (distanceMatrix == null) {
-            distanceMatrix = new float[pointlist.length][pointlist.length];
-            for (int i = 0; i < pointlist.length; i++) {
-                for (int j = i; j < pointlist.length; j++) {
-                    if (i == j) {
-                        distanceMatrix[i][j] = 0;
-                    } else {
-                        distanceMatrix[i][j] = (float) pointlist[i].getDistanceTo(pointlist[j]);
-
-                        distanceMatrix[j][i] = distanceMatrix[i][j];
-                    }
-                }
-            }
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executorService = null;
+    }
+
+    /**
+     * @param service  executor querying groups of points in parallel, it is not shut down
+     * @param numTasks number of groups of points
+     */
+    public void setExecutorService(ExecutorService service, int numTasks) {
+        this.executorService = service;
+        this.numThreads = Math.max(1, numTasks);
+    }
+
+    /**
+     * Internally build up a k-d tree of the points; points with a coordinate that is not a finite number are not in the tree, like they were never
+     * closer than any distance in the distance matrix.
+     */
+    private synchronized void buildTree() {
+        if (tree == null && coordinates != null) {
+            tree = new PointKDTree(coordinates, dimensions);
         }
     }
 
@@ -151,33 +163,36 @@ public class NeighborPointsAnalyser {
      * @param n number of closest neighbors to be taken into account
      * @return average distance to these neighbors
      */
-    public float[] getAverageDistanceOfNClosestPoints(int n) {
-        buildDistanceMatrix();
+    public float[] getAverageDistanceOfNClosestPoints(final int n) {
+        buildTree();
 
-        float[] result = new float[pointlist.length];
-        float[] closestDistances = new float[n];
+        final float[] result = new float[numPoints];
+        measureInParallel(new PointRangeMeasurement() {
+            @Override
+            public void measure(int from, int to) {
+                int[] closestPoints = new int[Math.max(0, n)];
+                double[] distances = new double[Math.max(0, n)];
+                float[] closestDistances = new float[n];
+                double[] position = new double[dimensions];
 
-
-        for (int i = 0; i < pointlist.length; i++) {
-            for (int k = 0; k < n; k++) {
-                closestDistances[k] = Float.MAX_VALUE;
-            }
-            for (int j = 0; j < pointlist.length; j++) {
-                if (i != j) {
+                for (int i = from; i < to; i++) {
+                    int count = 0;
+                    if (isFinite(i)) {
+                        System.arraycopy(coordinates, i * dimensions, position, 0, dimensions);
+                        count = tree.findNearest(position, n, i, closestPoints, distances);
+                    }
+                    // missing neighbors count as far away as possible, like the initial values of the sorted list of closest distances
                     for (int k = 0; k < n; k++) {
-                        if (closestDistances[k] > distanceMatrix[i][j]) {
-                            ArrayUtilities.insertAndShiftBehind(closestDistances, k, distanceMatrix[i][j]);
-                            break;
-                        }
+                        closestDistances[k] = k < count ? (float) distances[k] : Float.MAX_VALUE;
+                    }
+                    float sum = 0;
+                    for (int k = 0; k < n; k++) {
+                        sum += closestDistances[k];
                     }
+                    result[i] = sum / n;
                 }
             }
-            float sum = 0;
-            for (int k = 0; k < n; k++) {
-                sum += closestDistances[k];
-            }
-            result[i] = sum / n;
-        }
+        });
         return result;
     }
 
@@ -187,21 +202,92 @@ public class NeighborPointsAnalyser {
      * @param maximumDistance maximum distance
      * @return a long array containing point counts
      */
-    public long[] getNumberOfPointsNearerAs(double maximumDistance) {
-        buildDistanceMatrix();
+    public long[] getNumberOfPointsNearerAs(final double maximumDistance) {
+        buildTree();
 
-        long[] result = new long[pointlist.length];
-
-        for (int i = 0; i < pointlist.length; i++) {
-            result[i] = 0;
-            for (int j = 0; j < pointlist.length; j++) {
-                if (i != j) {
-                    if (distanceMatrix[i][j] <= maximumDistance) {
-                        result[i]++;
+        // distances are compared after rounding to float, the tree is searched a bit further
+        final double searchRadius = maximumDistance * (1 + 1e-6) + Float.MIN_VALUE;
+        final long[] result = new long[numPoints];
+        measureInParallel(new PointRangeMeasurement() {
+            @Override
+            public void measure(int from, int to) {
+                double[] position = new double[dimensions];
+                for (int i = from; i < to; i++) {
+                    result[i] = 0;
+                    if (!isFinite(i)) {
+                        continue;
+                    }
+                    System.arraycopy(coordinates, i * dimensions, position, 0, dimensions);
+                    for (int j : tree.findWithin(position, searchRadius)) {
+                        if (i != j) {
+                            if ((float) getDistance(i, j) <= maximumDistance) {
+                                result[i]++;
+                            }
+                        }
                     }
                 }
             }
-        }
+        });
         return result;
     }
+
+    // same distance as PointN.getDistanceTo()
+    private double getDistance(int i, int j) {
+        double sum = 0;
+        for (int d = 0; d < dimensions; d++) {
+            sum += Math.pow((coordinates[i * dimensions + d] - coordinates[j * dimensions + d]), 2);
+        }
+        return Math.sqrt(sum);
+    }
+
+    private boolean isFinite(int i) {
+        for (int d = 0; d < dimensions; d++) {
+            double value = coordinates[i * dimensions + d];
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface PointRangeMeasurement {
+        void measure(int from, int to);
+    }
+
+    // the points are split into groups measured by the threads
+    private void measureInParallel(final PointRangeMeasurement measurement) {
+        int numTasks = Math.max(1, Math.min(numThreads, numPoints));
+        if (numTasks == 1) {
+            measurement.measure(0, numPoints);
+            return;
+        }
+
+        ExecutorService service = executorService != null ? executorService : Executors.newFixedThreadPool(numTasks);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < numTasks; t++) {
+            final int from = (int) ((long) numPoints * t / numTasks);
+            final int to = (int) ((long) numPoints * (t + 1) / numTasks);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    measurement.measure(from, to);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : service.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Neighbor analysis interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Neighbor analysis failed", e.getCause());
+        } finally {
+            if (service != executorService) {
+                service.shutdown();
+            }
+        }
+    }
 }
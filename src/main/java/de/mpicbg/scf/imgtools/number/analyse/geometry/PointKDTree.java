@@ -0,0 +1,335 @@
+package de.mpicbg.scf.imgtools.number.analyse.geometry;
+
+import java.util.Arrays;
+
+/**
+ * This class is a k-d tree over a list of points, to find the k nearest neighbors of a position or the points within a distance of it without measuring
+ * the distances between all the points. Building the tree takes O(n log n), a query O(log n) on average plus the number of points found.
+ * <p>
+ * The coordinates are copied into a flat array in tree order: the points of a subtree are contiguous, the point in the middle of the range splits it
+ * along the dimension where the range is the widest, the points before it are not above it along that dimension and the points after it are not below.
+ * Small ranges are searched linearly. Points with a coordinate that is not finite are left out of the tree. The tree is not modified by the queries,
+ * several threads can query it at the same time.
+ * <p>
+ * Distances are euclidean, the squared differences are computed with Math.pow like in PointN.getDistanceTo(), so that the distances are the same.
+ * <p>
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PointKDTree {
+    private static final int LEAF_SIZE = 8;
+
+    private final int numDimensions;
+    private final int numPoints;
+
+    // point at position p of the tree: coordinates at [p * numDimensions, (p + 1) * numDimensions), index in the list given to the constructor
+    private final double[] coordinates;
+    private final int[] indices;
+    // split dimension of the range whose middle is at position p
+    private final byte[] splitDimensions;
+
+    /**
+     * @param coordinates   coordinates of the points, point i at [i * numDimensions, (i + 1) * numDimensions)
+     * @param numDimensions number of dimensions of the points
+     */
+    public PointKDTree(double[] coordinates, int numDimensions) {
+        if (numDimensions < 1 || numDimensions > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Points with " + numDimensions + " dimensions are not supported.");
+        }
+        this.numDimensions = numDimensions;
+
+        int count = 0;
+        for (int i = 0; i < coordinates.length / numDimensions; i++) {
+            if (isFinite(coordinates, i * numDimensions)) {
+                count++;
+            }
+        }
+        numPoints = count;
+        this.coordinates = new double[numPoints * numDimensions];
+        indices = new int[numPoints];
+        splitDimensions = new byte[numPoints];
+
+        int p = 0;
+        for (int i = 0; i < coordinates.length / numDimensions; i++) {
+            if (isFinite(coordinates, i * numDimensions)) {
+                System.arraycopy(coordinates, i * numDimensions, this.coordinates, p * numDimensions, numDimensions);
+                indices[p++] = i;
+            }
+        }
+        build(0, numPoints);
+    }
+
+    private void build(int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+
+        // widest dimension of the range
+        int splitDimension = 0;
+        double widest = -1;
+        for (int d = 0; d < numDimensions; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int p = from; p < to; p++) {
+                double value = coordinates[p * numDimensions + d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                splitDimension = d;
+            }
+        }
+
+        int middle = (from + to) >>> 1;
+        select(from, to, middle, splitDimension);
+        splitDimensions[middle] = (byte) splitDimension;
+        build(from, middle);
+        build(middle + 1, to);
+    }
+
+    // moves the point of rank k along dimension d to position k of [from, to), the points before it are not above it, the points after it not below
+    private void select(int from, int to, int k, int d) {
+        int left = from;
+        int right = to - 1;
+        while (right > left) {
+            double pivot = coordinates[((left + right) >>> 1) * numDimensions + d];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinates[i * numDimensions + d] < pivot) {
+                    i++;
+                }
+                while (coordinates[j * numDimensions + d] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int p, int q) {
+        for (int d = 0; d < numDimensions; d++) {
+            double temp = coordinates[p * numDimensions + d];
+            coordinates[p * numDimensions + d] = coordinates[q * numDimensions + d];
+            coordinates[q * numDimensions + d] = temp;
+        }
+        int temp = indices[p];
+        indices[p] = indices[q];
+        indices[q] = temp;
+    }
+
+    /**
+     * @return the number of points in the tree, without the points with a coordinate that is not finite
+     */
+    public int size() {
+        return numPoints;
+    }
+
+    /**
+     * Find the k points closest to a position.
+     *
+     * @param position      position to search around, with the number of dimensions of the points
+     * @param k             number of points to find
+     * @param excludedIndex index of a point that is not searched, e.g. the point at the position, or -1
+     * @param foundIndices  filled with the indices of the closest points, by increasing distance, at least k long
+     * @param distances     filled with the distances to these points, at least k long
+     * @return the number of points found, less than k if the tree has less points
+     */
+    public int findNearest(double[] position, int k, int excludedIndex, int[] foundIndices, double[] distances) {
+        if (k <= 0) {
+            return 0;
+        }
+        // max-heap of the squared distances of the closest points found so far
+        int count = findNearest(position, k, excludedIndex, foundIndices, distances, 0, 0, numPoints);
+
+        // heap sort by increasing distance
+        for (int n = count - 1; n > 0; n--) {
+            swap(foundIndices, distances, 0, n);
+            siftDown(foundIndices, distances, 0, n);
+        }
+        for (int n = 0; n < count; n++) {
+            distances[n] = Math.sqrt(distances[n]);
+        }
+        return count;
+    }
+
+    private int findNearest(double[] position, int k, int excludedIndex, int[] heapIndices, double[] heapDistances, int count, int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            for (int p = from; p < to; p++) {
+                count = offer(position, k, excludedIndex, heapIndices, heapDistances, count, p);
+            }
+            return count;
+        }
+
+        int middle = (from + to) >>> 1;
+        count = offer(position, k, excludedIndex, heapIndices, heapDistances, count, middle);
+        int d = splitDimensions[middle];
+        double difference = position[d] - coordinates[middle * numDimensions + d];
+        if (difference < 0) {
+            count = findNearest(position, k, excludedIndex, heapIndices, heapDistances, count, from, middle);
+            if (count < k || Math.pow(difference, 2) <= heapDistances[0]) {
+                count = findNearest(position, k, excludedIndex, heapIndices, heapDistances, count, middle + 1, to);
+            }
+        } else {
+            count = findNearest(position, k, excludedIndex, heapIndices, heapDistances, count, middle + 1, to);
+            if (count < k || Math.pow(difference, 2) <= heapDistances[0]) {
+                count = findNearest(position, k, excludedIndex, heapIndices, heapDistances, count, from, middle);
+            }
+        }
+        return count;
+    }
+
+    // adds the point at position p of the tree to the heap if it is closer than the farthest point of a full heap
+    private int offer(double[] position, int k, int excludedIndex, int[] heapIndices, double[] heapDistances, int count, int p) {
+        if (indices[p] == excludedIndex) {
+            return count;
+        }
+        double squaredDistance = getSquaredDistance(position, p);
+        if (count < k) {
+            // sift up
+            int n = count;
+            while (n > 0 && heapDistances[(n - 1) / 2] < squaredDistance) {
+                heapIndices[n] = heapIndices[(n - 1) / 2];
+                heapDistances[n] = heapDistances[(n - 1) / 2];
+                n = (n - 1) / 2;
+            }
+            heapIndices[n] = indices[p];
+            heapDistances[n] = squaredDistance;
+            return count + 1;
+        }
+        if (squaredDistance < heapDistances[0]) {
+            heapIndices[0] = indices[p];
+            heapDistances[0] = squaredDistance;
+            siftDown(heapIndices, heapDistances, 0, count);
+        }
+        return count;
+    }
+
+    private static void siftDown(int[] heapIndices, double[] heapDistances, int n, int size) {
+        while (2 * n + 1 < size) {
+            int child = 2 * n + 1;
+            if (child + 1 < size && heapDistances[child + 1] > heapDistances[child]) {
+                child++;
+            }
+            if (heapDistances[child] <= heapDistances[n]) {
+                return;
+            }
+            swap(heapIndices, heapDistances, n, child);
+            n = child;
+        }
+    }
+
+    private static void swap(int[] heapIndices, double[] heapDistances, int n, int m) {
+        int index = heapIndices[n];
+        heapIndices[n] = heapIndices[m];
+        heapIndices[m] = index;
+        double distance = heapDistances[n];
+        heapDistances[n] = heapDistances[m];
+        heapDistances[m] = distance;
+    }
+
+    /**
+     * Find the points within a distance of a position.
+     *
+     * @param position position to search around, with the number of dimensions of the points
+     * @param radius   maximum distance
+     * @return the indices of the points at a distance of at most radius, in no particular order. The squared distance is compared to the squared
+     * radius: a caller that needs the exact rounding of another distance measure searches a slightly larger radius and checks the points found
+     */
+    public int[] findWithin(double[] position, double radius) {
+        if (!(radius >= 0)) {
+            return new int[0];
+        }
+        int[] found = new int[16];
+        int count = findWithin(position, radius * radius, found, 0, 0, numPoints);
+        if (count > found.length) {
+            // the buffer was too small, the points are counted first
+            found = new int[count];
+            findWithin(position, radius * radius, found, 0, 0, numPoints);
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+    // points are written to found as long as it is large enough, the return value is the number of points within the distance
+    private int findWithin(double[] position, double squaredRadius, int[] found, int count, int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            for (int p = from; p < to; p++) {
+                count = add(position, squaredRadius, found, count, p);
+            }
+            return count;
+        }
+
+        int middle = (from + to) >>> 1;
+        count = add(position, squaredRadius, found, count, middle);
+        int d = splitDimensions[middle];
+        double difference = position[d] - coordinates[middle * numDimensions + d];
+        if (difference <= 0 || Math.pow(difference, 2) <= squaredRadius) {
+            count = findWithin(position, squaredRadius, found, count, from, middle);
+        }
+        if (difference >= 0 || Math.pow(difference, 2) <= squaredRadius) {
+            count = findWithin(position, squaredRadius, found, count, middle + 1, to);
+        }
+        return count;
+    }
+
+    private int add(double[] position, double squaredRadius, int[] found, int count, int p) {
+        if (getSquaredDistance(position, p) <= squaredRadius) {
+            if (count < found.length) {
+                found[count] = indices[p];
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private double getSquaredDistance(double[] position, int p) {
+        double sum = 0;
+        int offset = p * numDimensions;
+        for (int d = 0; d < numDimensions; d++) {
+            sum += Math.pow(position[d] - coordinates[offset + d], 2);
+        }
+        return sum;
+    }
+
+    private boolean isFinite(double[] coordinates, int offset) {
+        for (int d = offset; d < offset + numDimensions; d++) {
+            if (Double.isNaN(coordinates[d]) || Double.isInfinite(coordinates[d])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
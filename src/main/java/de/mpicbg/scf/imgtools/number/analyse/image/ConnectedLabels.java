@@ -1,14 +1,12 @@
 package de.mpicbg.scf.imgtools.number.analyse.image;
 
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
-import net.imglib2.algorithm.stats.ComputeMinMax;
+import java.util.concurrent.ExecutorService;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.RealType;
 
 /**
- * This class builds up a matrix with n times n entries, where n represents the number of labels in a given labelmap. Afterwards, the number of touching pixels
- * are counted. At the end it is possible to count the number of non-zero elements in a row or column to determine the number of neighboring labels.
+ * This class counts the neighboring labels of each label in a given labelmap. The touching pixels are counted in a sparse RegionAdjacencyGraph, which only
+ * stores the pairs of touching labels, and the number of neighbors of a label is its degree in that graph.
  * <p>
  * <p>
  * Author: Robert Haase, Scientific Computing Facility, MPI-CBG Dresden,
@@ -44,81 +42,52 @@ import net.imglib2.type.numeric.RealType;
  */
 public class ConnectedLabels<T extends RealType<T>> {
     private final Img<T> labelMap;
+    private final ExecutorService executorService;
+    private final int numTasks;
 
-    int[][] neighborMatrix = null;
-    int maximumCount = -1;
+    private RegionAdjacencyGraph graph = null;
 
     public ConnectedLabels(Img<T> labelMap) {
+        this(labelMap, null, 1);
+    }
+
+    /**
+     * @param labelMap label map, 0 is the background
+     * @param service  executor counting slabs of the label map in parallel (not shut down), or null to count in the calling thread
+     * @param numTasks number of slabs counted in parallel
+     */
+    public ConnectedLabels(Img<T> labelMap, ExecutorService service, int numTasks) {
         this.labelMap = labelMap;
+        this.executorService = service;
+        this.numTasks = Math.max(1, numTasks);
     }
 
-    private synchronized void buildNeighborMatrix() {
-        if (neighborMatrix != null) {
+    private synchronized void buildNeighborGraph() {
+        if (graph != null) {
             return;
         }
-
-        T ftMin = labelMap.cursor().next().copy();
-        T ftMax = labelMap.cursor().next().copy();
-        ComputeMinMax.computeMinMax(labelMap, ftMin, ftMax);
-
-        // Theoretically it is possible to half the memory consumption, because the matrix will be symmetric. If label A has label B as neighbor, label B also
-        // has label A as neighbor.
-        neighborMatrix = new int[(int) ftMax.getRealFloat()][(int) ftMax.getRealFloat()];
-
-        Cursor<T> cursor = labelMap.cursor();
-        RandomAccess<T> ra = labelMap.randomAccess();
-
-        int numDimensions = labelMap.numDimensions();
-
-        long[] position = new long[numDimensions];
-
-        while (cursor.hasNext()) {
-            cursor.next();
-
-            cursor.localize(position);
-            int matrixX = (int) cursor.get().getRealFloat() - 1;
-            if (matrixX >= 0) {
-                for (int d = 0; d < numDimensions; d++) {
-                    position[d]++;
-                    if (position[d] <= labelMap.max(d)) {
-                        ra.setPosition(position);
-                        int matrixY = (int) ra.get().getRealFloat() - 1;
-
-                        if (matrixY >= 0 && matrixX != matrixY) {
-                            neighborMatrix[matrixX][matrixY]++;
-                            neighborMatrix[matrixY][matrixX]++;
-                        }
-                    }
-                    position[d]--;
-                }
-            }
+        if (executorService != null) {
+            graph = RegionAdjacencyGraph.build(labelMap, executorService, numTasks);
+        } else {
+            graph = RegionAdjacencyGraph.build(labelMap);
         }
     }
 
-    public int[] getNeighbourCounts() {
-        buildNeighborMatrix();
-
-        int[] result = new int[neighborMatrix.length];
+    /**
+     * @return the adjacency graph of the labels, with the neighbors of each label and the contact areas
+     */
+    public RegionAdjacencyGraph getRegionAdjacencyGraph() {
+        buildNeighborGraph();
+        return graph;
+    }
 
-        maximumCount = 0;
-        for (int i = 0; i < neighborMatrix.length; i++) {
-            result[i] = 0;
-            for (int j = 0; j < neighborMatrix.length; j++) {
-                if (i != j) {
-                    if (neighborMatrix[i][j] > 0) {
-                        result[i]++;
-                        if (result[i] > maximumCount) {
-                            maximumCount = result[i];
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+    public int[] getNeighbourCounts() {
+        buildNeighborGraph();
+        return graph.getDegrees();
     }
 
     public int getMaximumCount() {
-        buildNeighborMatrix();
-        return maximumCount;
+        buildNeighborGraph();
+        return graph.getMaximumDegree();
     }
 }
@@ -4,24 +4,28 @@ import de.mpicbg.scf.imgtools.image.create.labelmap.LabelingUtilities;
 import de.mpicbg.scf.imgtools.number.analyse.geometry.NeighborPointsAnalyser;
 import de.mpicbg.scf.imgtools.number.filter.ArrayUtilities;
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import net.imglib2.*;
-import net.imglib2.algorithm.stats.ComputeMinMax;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.roi.Regions;
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.roi.labeling.LabelRegion;
 import net.imglib2.roi.labeling.LabelRegionCursor;
-import net.imglib2.roi.labeling.LabelRegions;
 import net.imglib2.type.BooleanType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 
 /**
  * This class allows to measure features (volume/area, aspect ratio, average signal value, ...) of labels in a label map in a generic way. Only features which
@@ -99,6 +103,8 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
     private EnumSet<Feature> whatToMeasure = null;
     private int numberNOfClosestNeighbors = 5;
     private double closeNeighborDistanceD = 100;
+    private int numThreads = 1;
+    private ExecutorService executorService = null;
 
     private final Img<I> labelMap;
     private Img<F> signalMap;
@@ -159,6 +165,30 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
         resultsValid = false;
     }
 
+    /**
+     * Measure with several threads: the label map is split into slabs along its last dimension which are measured in parallel, the sphericities are
+     * determined in parallel for groups of labels. A thread pool is created for each feature extraction.
+     *
+     * @param numThreads number of threads, 1 (default) to measure in the calling thread
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executorService = null;
+        resultsValid = false;
+    }
+
+    /**
+     * Measure in parallel with the given executor, e.g. a pool shared by several analysers or a ForkJoinPool. The executor is not shut down.
+     *
+     * @param executorService executor running the measurements
+     * @param numTasks        number of slabs of the label map and of groups of labels measured in parallel, e.g. the number of threads of the executor
+     */
+    public void setExecutorService(ExecutorService executorService, int numTasks) {
+        this.executorService = executorService;
+        this.numThreads = Math.max(1, numTasks);
+        resultsValid = false;
+    }
+
     private void doFeatureExtaction() {
         if (resultsValid) {
             return;
@@ -183,18 +213,36 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
         averageDistanceOfNClosestNeighbors = null;
         numberOfNeighborsCloserThanDistanceD = null;
 
-        // ------------------------------------------------------------------------------------
-        // Prepare: Get label map and signal image in ImgLib2 format, read out sizes, dimensions, number of labels
-        LabelRegions<Integer> regions = null;
+        ExecutorService service = executorService;
+        if (service == null && numThreads > 1) {
+            service = Executors.newFixedThreadPool(numThreads);
+        }
+        try {
+            extractFeatures(service);
+        } finally {
+            if (service != null && service != executorService) {
+                service.shutdown();
+            }
+        }
+        resultsValid = true;
+    }
 
-        Interval[] boundingIntervals = LabelAnalyser.getLabelsBoundingIntervals(labelMap);
+    // service is null to measure in the calling thread
+    private void extractFeatures(ExecutorService service) {
+        // ------------------------------------------------------------------------------------
+        // Prepare: measure all labels in a single sweep over the label map and the signal image, in slabs measured in parallel if possible
+        LabelFeatureAccumulator accumulator;
+        if (service != null) {
+            accumulator = LabelFeatureAccumulator.measure(labelMap, signalMap, service, numThreads);
+        } else {
+            accumulator = LabelFeatureAccumulator.measure(labelMap, signalMap);
+        }
 
         int numDimensions = labelMap.numDimensions();
+        numLabels = accumulator.getNumLabels();
         DebugHelper.print(this, "numDimensions " + numDimensions);
         DebugHelper.print(this, "numLabels " + numLabels);
 
-        numLabels = boundingIntervals.length;
-
         // -------------------------------------------------------------
         // prepare: Create memory for all deserved parameters
         if (whatToMeasure.contains(Feature.AREA_VOLUME)) {
@@ -206,16 +254,11 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
         if (whatToMeasure.contains(Feature.STD_DEV)) {
             standardDeviations = new double[numLabels];
         }
-        if (whatToMeasure.contains(Feature.MIN) || whatToMeasure.contains(Feature.MAX)) {
-            if (whatToMeasure.contains(Feature.MIN)) {
-                minima = new double[numLabels];
-            }
-            if (whatToMeasure.contains(Feature.MAX)) {
-                maxima = new double[numLabels];
-            }
-            ImgLabeling<Integer, IntType> labeling = LabelAnalyser.getIntIntImgLabellingFromLabelMapImg(labelMap);
-
-            regions = new LabelRegions<Integer>(labeling);
+        if (whatToMeasure.contains(Feature.MIN)) {
+            minima = new double[numLabels];
+        }
+        if (whatToMeasure.contains(Feature.MAX)) {
+            maxima = new double[numLabels];
         }
 
         if (whatToMeasure.contains(Feature.AVERAGE_POSITION)) {
@@ -237,7 +280,7 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
             sphericities = new double[numLabels];
         }
         if (whatToMeasure.contains(Feature.NUMBER_OF_TOUCHING_NEIGHBORS)) {
-            ConnectedLabels<I> lnc = new ConnectedLabels<I>(labelMap);
+            ConnectedLabels<I> lnc = new ConnectedLabels<I>(labelMap, service, numThreads);
             numberOfTouchingNeighbors = lnc.getNeighbourCounts();
         }
 
@@ -246,6 +289,9 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
             float[][] points = LabelAnalyser.getLabelsCenterOfMass(labelMap);
 
             NeighborPointsAnalyser pla = new NeighborPointsAnalyser(points, false);
+            if (service != null) {
+                pla.setExecutorService(service, numThreads);
+            }
 
             if (whatToMeasure.contains(Feature.AVERAGE_DISTANCE_OF_N_CLOSEST_NEIGHBORS)) {
                 averageDistanceOfNClosestNeighbors = ArrayUtilities.typeConvertToDouble(pla.getAverageDistanceOfNClosestPoints(numberNOfClosestNeighbors));
@@ -261,28 +307,23 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
             }
         }
         // ---------------------------------------------------------------------------------------
-        // Go through all labels and determine parameters (which were not determined so far)
+        // Go through all labels and read the parameters out of the accumulated sums
+        int momentDimensions = Math.min(numDimensions, 3);
         for (int i = 0; i < numLabels; i++) {
-            LabelMoments3D<I, F> lm3d = new LabelMoments3D<I, F>(labelMap, i + 1, boundingIntervals[i], voxelSize, 2);
-
             if (averagePositions != null) {
-                double[][][] m = lm3d.getMoments();
-                averagePositions[0][i] = m[1][0][0] / m[0][0][0];
-                averagePositions[1][i] = m[0][1][0] / m[0][0][0];
-                if (labelMap.numDimensions() > 2) {
-                    averagePositions[2][i] = m[0][0][1] / m[0][0][0];
+                for (int d = 0; d < momentDimensions; d++) {
+                    averagePositions[d][i] = accumulator.getAveragePosition(i, d);
                 }
             }
 
             if (boundingBoxPosition != null) {
-                for (int d = 0; d < numDimensions; d++) {
-                    boundingBoxPosition[d][i] = boundingIntervals[i].min(d);
-                    boundingBoxPosition[d + numDimensions][i] = boundingIntervals[i].max(d);
+                for (int d = 0; d < numDimensions * 2; d++) {
+                    boundingBoxPosition[d][i] = accumulator.getBoundingBox(i, d);
                 }
             }
 
             if (eigenValues != null) {
-                double[] ev = lm3d.getEigenVector();
+                double[] ev = accumulator.getEigenValues(i);
                 if (ev != null) {
                     for (int j = 0; j < Math.min(ev.length, eigenValues.length); j++) {
                         eigenValues[j][i] = ev[j];
@@ -291,82 +332,81 @@ public class LabelAnalyser<I extends RealType<I>, F extends RealType<F>> {
             }
 
             if (aspectRatios != null) {
-                aspectRatios[i] = lm3d.getAspectRatio();
+                aspectRatios[i] = accumulator.getAspectRatio(i);
             }
 
             if (volumes != null) {
-                volumes[i] = lm3d.getMoments()[0][0][0];
-            }
-
-            if (sphericities != null) {
-                LabelSphericityDeterminator<I> lsd = new LabelSphericityDeterminator<I>(labelMap, i + 1, boundingIntervals[i], voxelSize);
-                sphericities[i] = lsd.getSphericity();
+                volumes[i] = accumulator.getCount(i);
             }
 
             if (signalMap != null) {
-                if (averages != null || standardDeviations != null || centerofMassPositions != null) {
-
-                    if (averages != null) {
-                        double volume = lm3d.getMoments()[0][0][0];
-                        lm3d.setSignalImage(signalMap);
-                        averages[i] = lm3d.getMoments()[0][0][0] / volume;
-                    } else {
-                        lm3d.setSignalImage(signalMap);
-                    }
-
-                    if (centerofMassPositions != null) {
-                        double[][][] m = lm3d.getMoments();
-                        centerofMassPositions[0][i] = m[1][0][0] / m[0][0][0];
-                        centerofMassPositions[1][i] = m[0][1][0] / m[0][0][0];
-                        if (labelMap.numDimensions() > 2) {
-                            centerofMassPositions[2][i] = m[0][0][1] / m[0][0][0];
-                        }
-                    }
-
-                    if (standardDeviations != null) {
-                        lm3d.setSignalImage(null);
-                        double volume = lm3d.getMoments()[0][0][0];
-                        lm3d.setSignalImage(signalMap);
-                        double average = lm3d.getMoments()[0][0][0] / volume;
-
-                        Cursor<F> signalCursor = Views.interval(signalMap, boundingIntervals[i]).cursor();
-                        Cursor<I> labelCursor = Views.interval(labelMap, boundingIntervals[i]).cursor();
-
-                        double sum = 0;
-                        long count = 0;
-                        while (signalCursor.hasNext() && labelCursor.hasNext()) {
-                            signalCursor.next();
-                            labelCursor.next();
-
-                            if (((int) labelCursor.get().getRealDouble()) == (i + 1)) {
-                                sum += Math.pow(signalCursor.get().getRealDouble() - average, 2);
-                                count++;
-                            }
-                        }
-                        standardDeviations[i] = Math.sqrt(sum / (count - 1));
+                if (averages != null) {
+                    averages[i] = accumulator.getMean(i);
+                }
+                if (centerofMassPositions != null) {
+                    for (int d = 0; d < momentDimensions; d++) {
+                        centerofMassPositions[d][i] = accumulator.getCenterOfMass(i, d);
                     }
                 }
+                if (standardDeviations != null) {
+                    standardDeviations[i] = accumulator.getStandardDeviation(i);
+                }
+                if (minima != null) {
+                    minima[i] = accumulator.getMinimum(i);
+                }
+                if (maxima != null) {
+                    maxima[i] = accumulator.getMaximum(i);
+                }
+            }
+        }
 
-                if (regions != null) {
-                    LabelRegion<Integer> lr = regions.getLabelRegion(i + 1);
-                    IterableInterval<F> ii = Regions.sample(lr, signalMap);
-
-                    F min = signalMap.cursor().next().copy();
-                    F max = signalMap.cursor().next().copy();
+        if (sphericities != null) {
+            measureSphericities(accumulator, service);
+        }
+    }
 
-                    ComputeMinMax<F> cmm = new ComputeMinMax<F>(ii, min, max);
-                    cmm.process();
+    // the labels are split into groups measured in parallel if a service is given
+    private void measureSphericities(final LabelFeatureAccumulator accumulator, ExecutorService service) {
+        if (service == null) {
+            measureSphericities(accumulator, 0, numLabels);
+            return;
+        }
 
-                    if (minima != null) {
-                        minima[i] = cmm.getMin().getRealFloat();
-                    }
-                    if (maxima != null) {
-                        maxima[i] = cmm.getMax().getRealFloat();
-                    }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int numTasks = Math.max(1, Math.min(numThreads, numLabels));
+        for (int t = 0; t < numTasks; t++) {
+            final int firstLabel = (int) ((long) numLabels * t / numTasks);
+            final int lastLabel = (int) ((long) numLabels * (t + 1) / numTasks);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    measureSphericities(accumulator, firstLabel, lastLabel);
+                    return null;
                 }
+            });
+        }
+        try {
+            for (Future<Void> future : service.invokeAll(tasks)) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Sphericity measurement interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Sphericity measurement failed", e.getCause());
+        }
+    }
+
+    private void measureSphericities(LabelFeatureAccumulator accumulator, int firstLabel, int lastLabel) {
+        int numDimensions = labelMap.numDimensions();
+        long[] boundingBox = new long[numDimensions * 2];
+        for (int i = firstLabel; i < lastLabel; i++) {
+            for (int d = 0; d < numDimensions * 2; d++) {
+                boundingBox[d] = accumulator.getBoundingBox(i, d);
+            }
+            LabelSphericityDeterminator<I> lsd = new LabelSphericityDeterminator<I>(labelMap, i + 1, Intervals.createMinMax(boundingBox), voxelSize);
+            sphericities[i] = lsd.getSphericity();
         }
-        resultsValid = true;
     }
 
     public double[] getFeatures(Feature measurement) {
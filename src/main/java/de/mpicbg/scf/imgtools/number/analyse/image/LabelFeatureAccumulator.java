@@ -0,0 +1,477 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * This class measures all labels of a label map in a single sweep over the label map and the signal image: per label, it accumulates the pixel count,
+ * the mean position and the sums of the products of the deviations from it (moments up to order 2), the bounding box and the sum, mean, sum of squared
+ * deviations, minimum and maximum of the signal. Average position, center of mass, eigenvalues, aspect ratio, mean and standard deviation are derived
+ * from these, the same way LabelMoments3D and LabelAnalyser compute them label by label.
+ * <p>
+ * Positions are in pixels, like the moments of LabelMoments3D. Means and deviations are updated pixel by pixel (Welford), the second order moments and
+ * the variance do not lose their precision far from the origin or on a high background.
+ * <p>
+ * Accumulators of parts of the label map are merged with merge(), in any grouping (Chan et al.): measure() with an ExecutorService (e.g. a
+ * ForkJoinPool) accumulates slabs of the label map along its last dimension in parallel and merges them in slab order.
+ * <p>
+ * Labels are the integer part of the label map values, label 1 is stored at index 0. Labels without any pixel have a count of 0.
+ * <p>
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelFeatureAccumulator {
+    // moments are computed along the first three dimensions, like in LabelMoments3D
+    private static final int MAX_MOMENT_DIMENSIONS = 3;
+
+    private final int numDimensions;
+    private final int momentDimensions;
+    private final int numPairs;
+    private final boolean hasSignal;
+
+    private int numLabels = 0;
+    private int capacity = 0;
+
+    // per label
+    private long[] counts;
+    private double[] means;
+    private double[] comoments;
+    private long[] boundingBoxes;
+
+    private double[] signalSums;
+    private double[] signalMeans;
+    private double[] signalDeviations;
+    private double[] weightedPositions;
+    private float[] signalMinima;
+    private float[] signalMaxima;
+
+    private final double[] delta;
+
+    /**
+     * @param numDimensions number of dimensions of the label map
+     * @param hasSignal     true if a signal image is measured together with the label map
+     */
+    public LabelFeatureAccumulator(int numDimensions, boolean hasSignal) {
+        this.numDimensions = numDimensions;
+        this.momentDimensions = Math.min(numDimensions, MAX_MOMENT_DIMENSIONS);
+        this.numPairs = momentDimensions * (momentDimensions + 1) / 2;
+        this.hasSignal = hasSignal;
+        this.delta = new double[momentDimensions];
+        ensureCapacity(16);
+    }
+
+    /**
+     * Measure all labels of the label map in a single sweep.
+     *
+     * @param labelMap  label map, 0 is the background
+     * @param signalMap signal image of the size of the label map, or null if the accumulator has no signal
+     * @param <I>       type of the label map
+     * @param <F>       type of the signal image
+     * @return the accumulator, for chaining
+     */
+    public static <I extends RealType<I>, F extends RealType<F>> LabelFeatureAccumulator measure(RandomAccessibleInterval<I> labelMap, RandomAccessibleInterval<F> signalMap) {
+        LabelFeatureAccumulator accumulator = new LabelFeatureAccumulator(labelMap.numDimensions(), signalMap != null);
+        accumulator.accumulate(labelMap, signalMap);
+        return accumulator;
+    }
+
+    /**
+     * Measure all labels of the label map in parallel: the label map is split into slabs along its last dimension (z-slabs of a stack), each slab is
+     * accumulated by a task of the service and the partial accumulators are merged.
+     *
+     * @param labelMap  label map, 0 is the background
+     * @param signalMap signal image of the size of the label map, or null
+     * @param service   executor running the tasks, it is not shut down
+     * @param numSlabs  number of slabs, e.g. the number of threads of the service
+     * @param <I>       type of the label map
+     * @param <F>       type of the signal image
+     * @return the accumulator of the whole label map
+     */
+    public static <I extends RealType<I>, F extends RealType<F>> LabelFeatureAccumulator measure(final RandomAccessibleInterval<I> labelMap, final RandomAccessibleInterval<F> signalMap, ExecutorService service, int numSlabs) {
+        final int numDimensions = labelMap.numDimensions();
+        final int last = numDimensions - 1;
+        final long depth = labelMap.dimension(last);
+        numSlabs = (int) Math.max(1, Math.min(numSlabs, depth));
+
+        List<Callable<LabelFeatureAccumulator>> tasks = new ArrayList<Callable<LabelFeatureAccumulator>>();
+        for (int s = 0; s < numSlabs; s++) {
+            final long[] min = new long[numDimensions];
+            final long[] max = new long[numDimensions];
+            labelMap.min(min);
+            labelMap.max(max);
+            min[last] = labelMap.min(last) + depth * s / numSlabs;
+            max[last] = labelMap.min(last) + depth * (s + 1) / numSlabs - 1;
+            tasks.add(new Callable<LabelFeatureAccumulator>() {
+                @Override
+                public LabelFeatureAccumulator call() {
+                    return measure(Views.interval(labelMap, min, max), signalMap != null ? Views.interval(signalMap, min, max) : null);
+                }
+            });
+        }
+
+        LabelFeatureAccumulator result = null;
+        try {
+            for (Future<LabelFeatureAccumulator> future : service.invokeAll(tasks)) {
+                if (result == null) {
+                    result = future.get();
+                } else {
+                    result.merge(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Label measurement interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Label measurement failed", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Add the pixels of the label map (and of the signal image) to the statistics of their labels.
+     *
+     * @param labelMap  label map, 0 is the background
+     * @param signalMap signal image of the size of the label map, null if the accumulator has no signal
+     * @param <I>       type of the label map
+     * @param <F>       type of the signal image
+     */
+    public <I extends RealType<I>, F extends RealType<F>> void accumulate(RandomAccessibleInterval<I> labelMap, RandomAccessibleInterval<F> signalMap) {
+        if (hasSignal && signalMap == null) {
+            throw new IllegalArgumentException("The accumulator measures a signal, but no signal image was given.");
+        }
+        Cursor<I> labelCursor = Views.flatIterable(labelMap).cursor();
+        Cursor<F> signalCursor = hasSignal ? Views.flatIterable(signalMap).cursor() : null;
+        long[] position = new long[numDimensions];
+
+        while (labelCursor.hasNext()) {
+            int label = (int) labelCursor.next().getRealFloat();
+            F signal = signalCursor != null ? signalCursor.next() : null;
+            if (label <= 0) {
+                continue;
+            }
+            labelCursor.localize(position);
+            if (signal != null) {
+                addPixel(label, position, signal.getRealFloat(), signal.getRealDouble());
+            } else {
+                addPixel(label, position, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Add a pixel to the statistics of its label.
+     *
+     * @param label       label of the pixel, at least 1
+     * @param position    position of the pixel
+     * @param signal      signal value as float, summed for the mean and the center of mass
+     * @param signalValue signal value as double, for the standard deviation
+     */
+    public void addPixel(int label, long[] position, float signal, double signalValue) {
+        if (label > numLabels) {
+            ensureCapacity(label);
+            numLabels = label;
+        }
+        final int i = label - 1;
+
+        if (counts[i] == 0) {
+            for (int d = 0; d < numDimensions; d++) {
+                boundingBoxes[i * 2 * numDimensions + d] = position[d];
+                boundingBoxes[i * 2 * numDimensions + numDimensions + d] = position[d];
+            }
+            if (hasSignal) {
+                signalMinima[i] = signal;
+                signalMaxima[i] = signal;
+            }
+        }
+        final long n = ++counts[i];
+
+        final int box = i * 2 * numDimensions;
+        for (int d = 0; d < numDimensions; d++) {
+            if (boundingBoxes[box + d] > position[d]) {
+                boundingBoxes[box + d] = position[d];
+            }
+            if (boundingBoxes[box + numDimensions + d] < position[d]) {
+                boundingBoxes[box + numDimensions + d] = position[d];
+            }
+        }
+
+        // deviations from the previous mean times deviations from the new one, for the dimensions a <= b
+        final int m = i * momentDimensions;
+        for (int a = 0; a < momentDimensions; a++) {
+            delta[a] = position[a] - means[m + a];
+            means[m + a] += delta[a] / n;
+        }
+        int k = i * numPairs;
+        for (int a = 0; a < momentDimensions; a++) {
+            for (int b = a; b < momentDimensions; b++) {
+                comoments[k++] += delta[a] * (position[b] - means[m + b]);
+            }
+        }
+
+        if (hasSignal) {
+            signalSums[i] += signal;
+            for (int a = 0; a < momentDimensions; a++) {
+                weightedPositions[m + a] += signal * (double) position[a];
+            }
+            double signalDelta = signalValue - signalMeans[i];
+            signalMeans[i] += signalDelta / n;
+            signalDeviations[i] += signalDelta * (signalValue - signalMeans[i]);
+            if (signalMinima[i] > signal) {
+                signalMinima[i] = signal;
+            }
+            if (signalMaxima[i] < signal) {
+                signalMaxima[i] = signal;
+            }
+        }
+    }
+
+    /**
+     * Add the statistics of another accumulator, e.g. of another part of the label map, to this one.
+     *
+     * @param other accumulator with the same number of dimensions and signal setting
+     */
+    public void merge(LabelFeatureAccumulator other) {
+        if (other.numDimensions != numDimensions || other.hasSignal != hasSignal) {
+            throw new IllegalArgumentException("Only accumulators with the same number of dimensions and signal setting can be merged.");
+        }
+        if (other.numLabels > numLabels) {
+            ensureCapacity(other.numLabels);
+            numLabels = other.numLabels;
+        }
+
+        for (int i = 0; i < other.numLabels; i++) {
+            final long nb = other.counts[i];
+            if (nb == 0) {
+                continue;
+            }
+            final long na = counts[i];
+            final double n = na + nb;
+            final int m = i * momentDimensions;
+            final int box = i * 2 * numDimensions;
+            if (na == 0) {
+                System.arraycopy(other.boundingBoxes, box, boundingBoxes, box, 2 * numDimensions);
+                if (hasSignal) {
+                    signalMinima[i] = other.signalMinima[i];
+                    signalMaxima[i] = other.signalMaxima[i];
+                }
+            }
+            counts[i] = na + nb;
+
+            for (int d = 0; d < numDimensions; d++) {
+                boundingBoxes[box + d] = Math.min(boundingBoxes[box + d], other.boundingBoxes[box + d]);
+                boundingBoxes[box + numDimensions + d] = Math.max(boundingBoxes[box + numDimensions + d], other.boundingBoxes[box + numDimensions + d]);
+            }
+
+            for (int a = 0; a < momentDimensions; a++) {
+                delta[a] = other.means[m + a] - means[m + a];
+                means[m + a] += delta[a] * nb / n;
+            }
+            int k = i * numPairs;
+            for (int a = 0; a < momentDimensions; a++) {
+                for (int b = a; b < momentDimensions; b++, k++) {
+                    comoments[k] += other.comoments[k] + delta[a] * delta[b] * na * nb / n;
+                }
+            }
+
+            if (hasSignal) {
+                signalSums[i] += other.signalSums[i];
+                for (int a = 0; a < momentDimensions; a++) {
+                    weightedPositions[m + a] += other.weightedPositions[m + a];
+                }
+                double signalDelta = other.signalMeans[i] - signalMeans[i];
+                signalMeans[i] += signalDelta * nb / n;
+                signalDeviations[i] += other.signalDeviations[i] + signalDelta * signalDelta * na * nb / n;
+                signalMinima[i] = Math.min(signalMinima[i], other.signalMinima[i]);
+                signalMaxima[i] = Math.max(signalMaxima[i], other.signalMaxima[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the highest label found, labels are numbered from 1 to this number
+     */
+    public int getNumLabels() {
+        return numLabels;
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return number of pixels of the label
+     */
+    public long getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @param d dimension, one of the first three
+     * @return mean position of the pixels of the label along d, NaN if the label has no pixel
+     */
+    public double getAveragePosition(int i, int d) {
+        return counts[i] == 0 ? Double.NaN : means[i * momentDimensions + d];
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @param d dimension, one of the first three
+     * @return mean position of the pixels of the label weighted by the signal along d
+     */
+    public double getCenterOfMass(int i, int d) {
+        return weightedPositions[i * momentDimensions + d] / signalSums[i];
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @param d dimension, minimum along d for d &lt; numDimensions, maximum along d - numDimensions otherwise
+     * @return bounding box of the label, 0 if the label has no pixel
+     */
+    public long getBoundingBox(int i, int d) {
+        return boundingBoxes[i * 2 * numDimensions + d];
+    }
+
+    /**
+     * Eigenvalues of the covariance matrix of the pixel positions of the label, like LabelMoments3D.getEigenVector(). The matrix is 3x3 whatever the
+     * number of dimensions: a missing dimension has a variance of 1 and no covariance with the present ones.
+     *
+     * @param i index of the label, label - 1
+     * @return the 3 eigenvalues, null if the label has no pixel
+     */
+    public double[] getEigenValues(int i) {
+        final long n = counts[i];
+        if (n == 0) {
+            return null;
+        }
+        double[][] covariance = new double[MAX_MOMENT_DIMENSIONS][MAX_MOMENT_DIMENSIONS];
+        for (int a = 0; a < MAX_MOMENT_DIMENSIONS; a++) {
+            for (int b = 0; b < MAX_MOMENT_DIMENSIONS; b++) {
+                if (a < momentDimensions && b < momentDimensions) {
+                    covariance[a][b] = getCentralMoment(i, Math.min(a, b), Math.max(a, b)) / n;
+                } else if (a >= momentDimensions && b >= momentDimensions) {
+                    covariance[a][b] = 1;
+                }
+            }
+        }
+        return new EigenvalueDecomposition(new Matrix(covariance)).getRealEigenvalues();
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return smallest divided by largest eigenvalue, 0 if the label has no pixel
+     */
+    public double getAspectRatio(int i) {
+        double[] ev = getEigenValues(i);
+        if (ev == null) {
+            return 0;
+        }
+
+        double maxEv = ev[0];
+        double minEv = ev[0];
+        for (int j = 1; j < ev.length; j++) {
+            minEv = Math.min(minEv, ev[j]);
+            maxEv = Math.max(maxEv, ev[j]);
+        }
+        return minEv / maxEv;
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return mean signal of the label, NaN if the label has no pixel
+     */
+    public double getMean(int i) {
+        return signalSums[i] / counts[i];
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return standard deviation of the signal around the mean, normalized by count - 1, 0 if the label has no pixel
+     */
+    public double getStandardDeviation(int i) {
+        final long n = counts[i];
+        if (n == 0) {
+            return 0;
+        }
+        // sum of (s - mean)^2, the mean being the one of the float values
+        double shift = getMean(i) - signalMeans[i];
+        double sum = signalDeviations[i] + n * shift * shift;
+        return Math.sqrt(sum / (n - 1));
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return minimum signal of the label, 0 if the label has no pixel
+     */
+    public double getMinimum(int i) {
+        return signalMinima[i];
+    }
+
+    /**
+     * @param i index of the label, label - 1
+     * @return maximum signal of the label, 0 if the label has no pixel
+     */
+    public double getMaximum(int i) {
+        return signalMaxima[i];
+    }
+
+    // sum of (x_a - mean_a)(x_b - mean_b) over the label, a <= b
+    private double getCentralMoment(int i, int a, int b) {
+        int k = i * numPairs;
+        for (int c = 0; c < a; c++) {
+            k += momentDimensions - c;
+        }
+        return comoments[k + b - a];
+    }
+
+    private void ensureCapacity(int numLabels) {
+        if (numLabels <= capacity) {
+            return;
+        }
+        capacity = Math.max(numLabels, 2 * capacity);
+        counts = counts == null ? new long[capacity] : Arrays.copyOf(counts, capacity);
+        means = means == null ? new double[capacity * momentDimensions] : Arrays.copyOf(means, capacity * momentDimensions);
+        comoments = comoments == null ? new double[capacity * numPairs] : Arrays.copyOf(comoments, capacity * numPairs);
+        boundingBoxes = boundingBoxes == null ? new long[capacity * 2 * numDimensions] : Arrays.copyOf(boundingBoxes, capacity * 2 * numDimensions);
+        if (hasSignal) {
+            signalSums = signalSums == null ? new double[capacity] : Arrays.copyOf(signalSums, capacity);
+            signalMeans = signalMeans == null ? new double[capacity] : Arrays.copyOf(signalMeans, capacity);
+            signalDeviations = signalDeviations == null ? new double[capacity] : Arrays.copyOf(signalDeviations, capacity);
+            weightedPositions = weightedPositions == null ? new double[capacity * momentDimensions] : Arrays.copyOf(weightedPositions, capacity * momentDimensions);
+            signalMinima = signalMinima == null ? new float[capacity] : Arrays.copyOf(signalMinima, capacity);
+            signalMaxima = signalMaxima == null ? new float[capacity] : Arrays.copyOf(signalMaxima, capacity);
+        }
+    }
+
+}
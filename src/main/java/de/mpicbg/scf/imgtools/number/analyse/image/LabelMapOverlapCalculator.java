@@ -0,0 +1,375 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import de.mpicbg.scf.imgtools.core.data.LongCountMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * This class measures the overlap of the labels of two label maps of the same size, e.g. a segmentation and its ground truth, in a single sweep over
+ * both: it counts the pixels of each label and, in a contingency table, the pixels of each pair of labels (labelA, labelB) that overlap. The table is
+ * sparse, a LongCountMap from the packed pair to the number of shared pixels, its size is the number of overlapping pairs instead of the product of the
+ * numbers of labels. Intersection over union (Jaccard index) and Dice coefficient of any pair, and the best match of each label, follow from it.
+ * <p>
+ * Unlike LabelOverlapCalculator, which compares two lists of binary images pair by pair, the cost is linear in the number of pixels. With an
+ * ExecutorService, slabs of the label maps along their last dimension are counted in parallel and the tables are summed.
+ * <p>
+ * Labels are the integer part of the label map values, 0 is the background. The overlapping pairs are sorted by labelA, then labelB.
+ * <p>
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelMapOverlapCalculator {
+    private final int numLabelsA;
+    private final int numLabelsB;
+    // label l at index l - 1
+    private final long[] sizesA;
+    private final long[] sizesB;
+
+    // overlapping pairs sorted by labelA, then labelB, the pairs of labelA at [offsetsA[labelA - 1], offsetsA[labelA])
+    private final int[] pairLabelsA;
+    private final int[] pairLabelsB;
+    private final long[] intersections;
+    private final int[] offsetsA;
+
+    // best match of each label: largest intersection over union and label of the other map with it, 0 if none
+    private final double[] bestOverlapsA;
+    private final int[] bestMatchesA;
+    private final double[] bestOverlapsB;
+    private final int[] bestMatchesB;
+
+    /**
+     * @param labelMapA a label map, 0 is the background
+     * @param labelMapB another label map of the same size
+     * @param <A>       type of the first label map
+     * @param <B>       type of the second label map
+     */
+    public <A extends RealType<A>, B extends RealType<B>> LabelMapOverlapCalculator(RandomAccessibleInterval<A> labelMapA, RandomAccessibleInterval<B> labelMapB) {
+        this(count(checkSize(labelMapA, labelMapB), labelMapB));
+    }
+
+    /**
+     * The label maps are split into slabs along their last dimension, which are counted in parallel by the service.
+     *
+     * @param labelMapA a label map, 0 is the background
+     * @param labelMapB another label map of the same size
+     * @param service   executor running the tasks, it is not shut down
+     * @param numSlabs  number of slabs, e.g. the number of threads of the service
+     * @param <A>       type of the first label map
+     * @param <B>       type of the second label map
+     */
+    public <A extends RealType<A>, B extends RealType<B>> LabelMapOverlapCalculator(RandomAccessibleInterval<A> labelMapA, RandomAccessibleInterval<B> labelMapB, ExecutorService service, int numSlabs) {
+        this(count(checkSize(labelMapA, labelMapB), labelMapB, service, numSlabs));
+    }
+
+    private LabelMapOverlapCalculator(Table table) {
+        numLabelsA = table.numLabelsA;
+        numLabelsB = table.numLabelsB;
+        sizesA = Arrays.copyOf(table.sizesA, numLabelsA);
+        sizesB = Arrays.copyOf(table.sizesB, numLabelsB);
+
+        long[] keys = table.intersections.getSortedKeys();
+        pairLabelsA = new int[keys.length];
+        pairLabelsB = new int[keys.length];
+        intersections = new long[keys.length];
+        offsetsA = new int[numLabelsA + 1];
+        for (int i = 0; i < keys.length; i++) {
+            pairLabelsA[i] = LongCountMap.getFirst(keys[i]);
+            pairLabelsB[i] = LongCountMap.getSecond(keys[i]);
+            intersections[i] = table.intersections.get(keys[i]);
+            offsetsA[pairLabelsA[i]]++;
+        }
+        for (int l = 0; l < numLabelsA; l++) {
+            offsetsA[l + 1] += offsetsA[l];
+        }
+
+        // row and column maxima from the pairs, ties go to the smaller label
+        bestOverlapsA = new double[numLabelsA];
+        bestMatchesA = new int[numLabelsA];
+        bestOverlapsB = new double[numLabelsB];
+        bestMatchesB = new int[numLabelsB];
+        for (int i = 0; i < keys.length; i++) {
+            double overlap = getPairIntersectionOverUnion(i);
+            int a = pairLabelsA[i] - 1;
+            int b = pairLabelsB[i] - 1;
+            if (overlap > bestOverlapsA[a]) {
+                bestOverlapsA[a] = overlap;
+                bestMatchesA[a] = b + 1;
+            }
+            if (overlap > bestOverlapsB[b]) {
+                bestOverlapsB[b] = overlap;
+                bestMatchesB[b] = a + 1;
+            }
+        }
+    }
+
+    private static <A extends RealType<A>> RandomAccessibleInterval<A> checkSize(RandomAccessibleInterval<A> labelMapA, RandomAccessibleInterval<?> labelMapB) {
+        if (!Intervals.equalDimensions(labelMapA, labelMapB)) {
+            throw new IllegalArgumentException("The label maps do not have the same size.");
+        }
+        return labelMapA;
+    }
+
+    private static <A extends RealType<A>, B extends RealType<B>> Table count(final RandomAccessibleInterval<A> labelMapA, final RandomAccessibleInterval<B> labelMapB, ExecutorService service, int numSlabs) {
+        final int numDimensions = labelMapA.numDimensions();
+        final int last = numDimensions - 1;
+        final long depth = labelMapA.dimension(last);
+        numSlabs = (int) Math.max(1, Math.min(numSlabs, depth));
+
+        List<Callable<Table>> tasks = new ArrayList<Callable<Table>>();
+        for (int s = 0; s < numSlabs; s++) {
+            final long[] minA = new long[numDimensions];
+            final long[] maxA = new long[numDimensions];
+            final long[] minB = new long[numDimensions];
+            final long[] maxB = new long[numDimensions];
+            labelMapA.min(minA);
+            labelMapA.max(maxA);
+            labelMapB.min(minB);
+            labelMapB.max(maxB);
+            minA[last] = labelMapA.min(last) + depth * s / numSlabs;
+            maxA[last] = labelMapA.min(last) + depth * (s + 1) / numSlabs - 1;
+            minB[last] = labelMapB.min(last) + depth * s / numSlabs;
+            maxB[last] = labelMapB.min(last) + depth * (s + 1) / numSlabs - 1;
+            tasks.add(new Callable<Table>() {
+                @Override
+                public Table call() {
+                    return count(Views.interval(labelMapA, minA, maxA), Views.interval(labelMapB, minB, maxB));
+                }
+            });
+        }
+
+        Table table = null;
+        try {
+            for (Future<Table> future : service.invokeAll(tasks)) {
+                if (table == null) {
+                    table = future.get();
+                } else {
+                    table.addAll(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Label overlap counting interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Label overlap counting failed", e.getCause());
+        }
+        return table;
+    }
+
+    private static <A extends RealType<A>, B extends RealType<B>> Table count(RandomAccessibleInterval<A> labelMapA, RandomAccessibleInterval<B> labelMapB) {
+        Table table = new Table();
+        Cursor<A> cursorA = Views.flatIterable(labelMapA).cursor();
+        Cursor<B> cursorB = Views.flatIterable(labelMapB).cursor();
+        while (cursorA.hasNext()) {
+            int a = (int) cursorA.next().getRealFloat();
+            int b = (int) cursorB.next().getRealFloat();
+            if (a > 0) {
+                table.sizesA = Table.addToSize(table.sizesA, a);
+                table.numLabelsA = Math.max(table.numLabelsA, a);
+            }
+            if (b > 0) {
+                table.sizesB = Table.addToSize(table.sizesB, b);
+                table.numLabelsB = Math.max(table.numLabelsB, b);
+            }
+            if (a > 0 && b > 0) {
+                table.intersections.add(LongCountMap.packPair(a, b), 1);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the largest label of the first label map
+     */
+    public int getNumLabelsA() {
+        return numLabelsA;
+    }
+
+    /**
+     * @return the largest label of the second label map
+     */
+    public int getNumLabelsB() {
+        return numLabelsB;
+    }
+
+    /**
+     * @param labelA label of the first label map
+     * @return its number of pixels
+     */
+    public long getSizeA(int labelA) {
+        return labelA >= 1 && labelA <= numLabelsA ? sizesA[labelA - 1] : 0;
+    }
+
+    /**
+     * @param labelB label of the second label map
+     * @return its number of pixels
+     */
+    public long getSizeB(int labelB) {
+        return labelB >= 1 && labelB <= numLabelsB ? sizesB[labelB - 1] : 0;
+    }
+
+    /**
+     * @return the number of pairs of labels sharing at least one pixel
+     */
+    public int getNumPairs() {
+        return intersections.length;
+    }
+
+    public int getPairLabelA(int pair) {
+        return pairLabelsA[pair];
+    }
+
+    public int getPairLabelB(int pair) {
+        return pairLabelsB[pair];
+    }
+
+    /**
+     * @param pair index of an overlapping pair, from 0 to getNumPairs() - 1
+     * @return the number of pixels shared by the two labels of the pair
+     */
+    public long getPairIntersection(int pair) {
+        return intersections[pair];
+    }
+
+    public double getPairIntersectionOverUnion(int pair) {
+        return getIntersectionOverUnion(intersections[pair], sizesA[pairLabelsA[pair] - 1], sizesB[pairLabelsB[pair] - 1]);
+    }
+
+    public double getPairDice(int pair) {
+        return getDice(intersections[pair], sizesA[pairLabelsA[pair] - 1], sizesB[pairLabelsB[pair] - 1]);
+    }
+
+    /**
+     * @param labelA label of the first label map
+     * @param labelB label of the second label map
+     * @return the number of pixels shared by the two labels
+     */
+    public long getIntersection(int labelA, int labelB) {
+        if (labelA < 1 || labelA > numLabelsA) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(pairLabelsB, offsetsA[labelA - 1], offsetsA[labelA], labelB);
+        return i >= 0 ? intersections[i] : 0;
+    }
+
+    /**
+     * @return the intersection over union (Jaccard index) of the two labels, 0 if they do not overlap
+     */
+    public double getIntersectionOverUnion(int labelA, int labelB) {
+        return getIntersectionOverUnion(getIntersection(labelA, labelB), getSizeA(labelA), getSizeB(labelB));
+    }
+
+    /**
+     * @return the Dice coefficient of the two labels, 0 if they do not overlap
+     */
+    public double getDice(int labelA, int labelB) {
+        return getDice(getIntersection(labelA, labelB), getSizeA(labelA), getSizeB(labelB));
+    }
+
+    /**
+     * @param labelA label of the first label map
+     * @return the largest intersection over union of the label with a label of the second map, 0 if it overlaps none
+     */
+    public double getMaximumOverlapOfLabelA(int labelA) {
+        return labelA >= 1 && labelA <= numLabelsA ? bestOverlapsA[labelA - 1] : 0;
+    }
+
+    /**
+     * @param labelA label of the first label map
+     * @return the label of the second map with the largest intersection over union with it, 0 if it overlaps none
+     */
+    public int getBestMatchOfLabelA(int labelA) {
+        return labelA >= 1 && labelA <= numLabelsA ? bestMatchesA[labelA - 1] : 0;
+    }
+
+    /**
+     * @param labelB label of the second label map
+     * @return the largest intersection over union of the label with a label of the first map, 0 if it overlaps none
+     */
+    public double getMaximumOverlapOfLabelB(int labelB) {
+        return labelB >= 1 && labelB <= numLabelsB ? bestOverlapsB[labelB - 1] : 0;
+    }
+
+    /**
+     * @param labelB label of the second label map
+     * @return the label of the first map with the largest intersection over union with it, 0 if it overlaps none
+     */
+    public int getBestMatchOfLabelB(int labelB) {
+        return labelB >= 1 && labelB <= numLabelsB ? bestMatchesB[labelB - 1] : 0;
+    }
+
+    private static double getIntersectionOverUnion(long intersection, long sizeA, long sizeB) {
+        return intersection > 0 ? (double) intersection / (double) (sizeA + sizeB - intersection) : 0;
+    }
+
+    private static double getDice(long intersection, long sizeA, long sizeB) {
+        return intersection > 0 ? 2.0 * intersection / (double) (sizeA + sizeB) : 0;
+    }
+
+    // pixel counts of a part of the label maps
+    private static final class Table {
+        final LongCountMap intersections = new LongCountMap();
+        long[] sizesA = new long[16];
+        long[] sizesB = new long[16];
+        int numLabelsA = 0;
+        int numLabelsB = 0;
+
+        static long[] addToSize(long[] sizes, int label) {
+            if (label > sizes.length) {
+                sizes = Arrays.copyOf(sizes, Math.max(label, 2 * sizes.length));
+            }
+            sizes[label - 1]++;
+            return sizes;
+        }
+
+        void addAll(Table other) {
+            intersections.addAll(other.intersections);
+            sizesA = add(sizesA, other.sizesA, other.numLabelsA);
+            sizesB = add(sizesB, other.sizesB, other.numLabelsB);
+            numLabelsA = Math.max(numLabelsA, other.numLabelsA);
+            numLabelsB = Math.max(numLabelsB, other.numLabelsB);
+        }
+
+        private static long[] add(long[] sizes, long[] otherSizes, int numLabels) {
+            if (numLabels > sizes.length) {
+                sizes = Arrays.copyOf(sizes, numLabels);
+            }
+            for (int l = 0; l < numLabels; l++) {
+                sizes[l] += otherSizes[l];
+            }
+            return sizes;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import de.mpicbg.scf.imgtools.core.data.LongCountMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * This class stores which labels of a label map touch each other and by how many pixel faces (contact area): two labels touch if a pixel of the one
+ * and a pixel of the other are neighbors along one of the dimensions. Only the pairs of touching labels are stored, the memory scales with the number
+ * of contacts instead of the square of the number of labels.
+ * <p>
+ * While the label map is scanned, the contact areas are counted in a LongCountMap from the pair (smaller label, larger label), packed in a long, to the
+ * number of shared faces. Each pixel only looks at its successor along each dimension, so that slabs of the label map along its last dimension are
+ * counted in parallel (the pairs across two slabs belong to the slab of their first pixel) and their maps are summed. The graph is then stored in
+ * compressed rows (CSR): for each label, its neighbors sorted by label and the contact areas with them.
+ * <p>
+ * Labels are the integer part of the label map values, 0 is the background. Labels from 1 to getNumLabels() can be queried, labels without any
+ * neighbor (or any pixel) have a degree of 0.
+ * <p>
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RegionAdjacencyGraph {
+    private final int numLabels;
+
+    // neighbors of label l (and contact areas with them) at [offsets[l - 1], offsets[l]), sorted by label
+    private final long[] offsets;
+    private final int[] neighbors;
+    private final long[] contactAreas;
+
+    private RegionAdjacencyGraph(Contacts contacts) {
+        this.numLabels = contacts.maximumLabel;
+
+        // keys sorted by smaller, then larger label: each row is filled by increasing neighbor label
+        long[] keys = contacts.areas.getSortedKeys();
+
+        offsets = new long[numLabels + 1];
+        for (long key : keys) {
+            offsets[LongCountMap.getFirst(key)]++;
+            offsets[LongCountMap.getSecond(key)]++;
+        }
+        for (int l = 0; l < numLabels; l++) {
+            offsets[l + 1] += offsets[l];
+        }
+        if (offsets[numLabels] > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many touching labels: " + offsets[numLabels] / 2 + " pairs.");
+        }
+        neighbors = new int[(int) offsets[numLabels]];
+        contactAreas = new long[neighbors.length];
+
+        // offsets[l - 1] is moved to the end of the row of label l while it is filled, then shifted back
+        for (long key : keys) {
+            int a = LongCountMap.getFirst(key);
+            int b = LongCountMap.getSecond(key);
+            long area = contacts.areas.get(key);
+            int i = (int) offsets[a - 1]++;
+            neighbors[i] = b;
+            contactAreas[i] = area;
+            i = (int) offsets[b - 1]++;
+            neighbors[i] = a;
+            contactAreas[i] = area;
+        }
+        for (int l = numLabels; l > 0; l--) {
+            offsets[l] = offsets[l - 1];
+        }
+        offsets[0] = 0;
+    }
+
+    /**
+     * Build the adjacency graph of the labels of a label map.
+     *
+     * @param labelMap label map, 0 is the background
+     * @param <T>      type of the label map
+     * @return the graph
+     */
+    public static <T extends RealType<T>> RegionAdjacencyGraph build(RandomAccessibleInterval<T> labelMap) {
+        return new RegionAdjacencyGraph(countContacts(labelMap, labelMap));
+    }
+
+    /**
+     * Build the adjacency graph in parallel: the label map is split into slabs along its last dimension, the contacts of each slab are counted by a
+     * task of the service and summed.
+     *
+     * @param labelMap label map, 0 is the background
+     * @param service  executor running the tasks, it is not shut down
+     * @param numSlabs number of slabs, e.g. the number of threads of the service
+     * @param <T>      type of the label map
+     * @return the graph
+     */
+    public static <T extends RealType<T>> RegionAdjacencyGraph build(final RandomAccessibleInterval<T> labelMap, ExecutorService service, int numSlabs) {
+        final int numDimensions = labelMap.numDimensions();
+        final int last = numDimensions - 1;
+        final long depth = labelMap.dimension(last);
+        numSlabs = (int) Math.max(1, Math.min(numSlabs, depth));
+
+        List<Callable<Contacts>> tasks = new ArrayList<Callable<Contacts>>();
+        for (int s = 0; s < numSlabs; s++) {
+            final long[] min = new long[numDimensions];
+            final long[] max = new long[numDimensions];
+            labelMap.min(min);
+            labelMap.max(max);
+            min[last] = labelMap.min(last) + depth * s / numSlabs;
+            max[last] = labelMap.min(last) + depth * (s + 1) / numSlabs - 1;
+            tasks.add(new Callable<Contacts>() {
+                @Override
+                public Contacts call() {
+                    return countContacts(Views.interval(labelMap, min, max), labelMap);
+                }
+            });
+        }
+
+        Contacts contacts = null;
+        try {
+            for (Future<Contacts> future : service.invokeAll(tasks)) {
+                if (contacts == null) {
+                    contacts = future.get();
+                } else {
+                    contacts.addAll(future.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Label contact counting interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Label contact counting failed", e.getCause());
+        }
+        return new RegionAdjacencyGraph(contacts);
+    }
+
+    // contacts of the pixels of the region with their successors in the label map, the region is a part of the label map
+    private static <T extends RealType<T>> Contacts countContacts(RandomAccessibleInterval<T> region, RandomAccessibleInterval<T> labelMap) {
+        int numDimensions = labelMap.numDimensions();
+        long[] max = new long[numDimensions];
+        labelMap.max(max);
+
+        Contacts contacts = new Contacts();
+        Cursor<T> cursor = Views.flatIterable(region).localizingCursor();
+        RandomAccess<T> ra = labelMap.randomAccess();
+        while (cursor.hasNext()) {
+            int label = (int) cursor.next().getRealFloat();
+            if (label <= 0) {
+                continue;
+            }
+            if (label > contacts.maximumLabel) {
+                contacts.maximumLabel = label;
+            }
+            ra.setPosition(cursor);
+            for (int d = 0; d < numDimensions; d++) {
+                if (cursor.getLongPosition(d) < max[d]) {
+                    ra.fwd(d);
+                    int neighbor = (int) ra.get().getRealFloat();
+                    if (neighbor > 0 && neighbor != label) {
+                        contacts.areas.add(LongCountMap.packSymmetricPair(label, neighbor), 1);
+                    }
+                    ra.bck(d);
+                }
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * @return the largest label of the label map
+     */
+    public int getNumLabels() {
+        return numLabels;
+    }
+
+    /**
+     * @return the number of pairs of touching labels
+     */
+    public int getNumEdges() {
+        return neighbors.length / 2;
+    }
+
+    /**
+     * @param label label value
+     * @return the number of labels touching the label
+     */
+    public int getDegree(int label) {
+        if (label < 1 || label > numLabels) {
+            return 0;
+        }
+        return (int) (offsets[label] - offsets[label - 1]);
+    }
+
+    /**
+     * @return the number of labels touching each label, label 1 at index 0
+     */
+    public int[] getDegrees() {
+        int[] degrees = new int[numLabels];
+        for (int l = 0; l < numLabels; l++) {
+            degrees[l] = (int) (offsets[l + 1] - offsets[l]);
+        }
+        return degrees;
+    }
+
+    /**
+     * @return the largest number of labels touching a label
+     */
+    public int getMaximumDegree() {
+        int maximum = 0;
+        for (int l = 1; l <= numLabels; l++) {
+            maximum = Math.max(maximum, getDegree(l));
+        }
+        return maximum;
+    }
+
+    /**
+     * @param label label value
+     * @return the labels touching the label, in increasing order
+     */
+    public int[] getNeighbors(int label) {
+        if (label < 1 || label > numLabels) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(neighbors, (int) offsets[label - 1], (int) offsets[label]);
+    }
+
+    /**
+     * @param label label value
+     * @return the contact areas of the label with its neighbors, in the order of getNeighbors()
+     */
+    public long[] getContactAreas(int label) {
+        if (label < 1 || label > numLabels) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(contactAreas, (int) offsets[label - 1], (int) offsets[label]);
+    }
+
+    /**
+     * @param labelA a label value
+     * @param labelB another label value
+     * @return the number of pixel faces shared by the two labels, 0 if they do not touch
+     */
+    public long getContactArea(int labelA, int labelB) {
+        if (labelA < 1 || labelA > numLabels || labelA == labelB) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(neighbors, (int) offsets[labelA - 1], (int) offsets[labelA], labelB);
+        return i >= 0 ? contactAreas[i] : 0;
+    }
+
+    /**
+     * @param labelA a label value
+     * @param labelB another label value
+     * @return true if the two labels touch
+     */
+    public boolean areNeighbors(int labelA, int labelB) {
+        return getContactArea(labelA, labelB) > 0;
+    }
+
+    // contacts of a part of the label map
+    private static final class Contacts {
+        final LongCountMap areas = new LongCountMap();
+        int maximumLabel = 0;
+
+        void addAll(Contacts other) {
+            areas.addAll(other.areas);
+            maximumLabel = Math.max(maximumLabel, other.maximumLabel);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * This class scores a segmentation against a ground truth label map, from a single LabelMapOverlapCalculator pass over both label maps:
+ * <ul>
+ * <li>matching at an intersection over union (IoU) threshold: the overlapping pairs are linked greedily by decreasing IoU, each label at most once,
+ * as long as their IoU is at least the threshold. Above 0.5 a label can overlap only one other label that much and the matching is the unique one.</li>
+ * <li>true positives (matched pairs), false positives (predicted labels without a match), false negatives (ground truth labels without a match),
+ * precision, recall and F1 score at a threshold</li>
+ * <li>average precision over a sweep of thresholds: the mean of TP / (TP + FP + FN), as in the 2018 Data Science Bowl</li>
+ * <li>splits: ground truth labels holding most of the pixels of two or more predicted labels, merges: predicted labels holding most of the pixels of
+ * two or more ground truth labels</li>
+ * </ul>
+ * The pairs are sorted by IoU once, a threshold then costs one pass over the overlapping pairs, so that a segmentation can be scored in a parameter
+ * sweep loop. Labels without any pixel are not counted.
+ * <p>
+ * <p>
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class SegmentationMetrics {
+    private final LabelMapOverlapCalculator overlap;
+    private final int numGroundTruthLabels;
+    private final int numPredictedLabels;
+
+    // indices of the overlapping pairs by decreasing IoU, ties by increasing pair index
+    private final int[] pairsByOverlap;
+
+    /**
+     * @param groundTruth ground truth label map, 0 is the background
+     * @param prediction  label map of the segmentation to score, of the same size
+     * @param <G>         type of the ground truth label map
+     * @param <P>         type of the predicted label map
+     */
+    public <G extends RealType<G>, P extends RealType<P>> SegmentationMetrics(RandomAccessibleInterval<G> groundTruth, RandomAccessibleInterval<P> prediction) {
+        this(new LabelMapOverlapCalculator(groundTruth, prediction));
+    }
+
+    /**
+     * @param groundTruth ground truth label map, 0 is the background
+     * @param prediction  label map of the segmentation to score, of the same size
+     * @param service     executor counting slabs of the label maps in parallel, it is not shut down
+     * @param numSlabs    number of slabs, e.g. the number of threads of the service
+     * @param <G>         type of the ground truth label map
+     * @param <P>         type of the predicted label map
+     */
+    public <G extends RealType<G>, P extends RealType<P>> SegmentationMetrics(RandomAccessibleInterval<G> groundTruth, RandomAccessibleInterval<P> prediction, ExecutorService service, int numSlabs) {
+        this(new LabelMapOverlapCalculator(groundTruth, prediction, service, numSlabs));
+    }
+
+    /**
+     * @param overlap overlap of the ground truth (first label map) and the prediction (second label map)
+     */
+    public SegmentationMetrics(LabelMapOverlapCalculator overlap) {
+        this.overlap = overlap;
+
+        int count = 0;
+        for (int l = 1; l <= overlap.getNumLabelsA(); l++) {
+            if (overlap.getSizeA(l) > 0) {
+                count++;
+            }
+        }
+        numGroundTruthLabels = count;
+        count = 0;
+        for (int l = 1; l <= overlap.getNumLabelsB(); l++) {
+            if (overlap.getSizeB(l) > 0) {
+                count++;
+            }
+        }
+        numPredictedLabels = count;
+
+        pairsByOverlap = sortPairsByOverlap(overlap);
+    }
+
+    // sorted as packed longs (decreasing float IoU, pair index), pairs with the same float IoU are then ordered by their exact IoU
+    private static int[] sortPairsByOverlap(LabelMapOverlapCalculator overlap) {
+        int numPairs = overlap.getNumPairs();
+        long[] keys = new long[numPairs];
+        for (int p = 0; p < numPairs; p++) {
+            int bits = Float.floatToIntBits((float) overlap.getPairIntersectionOverUnion(p));
+            keys[p] = ((long) (Integer.MAX_VALUE - bits) << 32) | p;
+        }
+        Arrays.sort(keys);
+
+        int[] pairs = new int[numPairs];
+        for (int i = 0; i < numPairs; i++) {
+            pairs[i] = (int) keys[i];
+        }
+        for (int start = 0, end; start < numPairs; start = end) {
+            end = start + 1;
+            while (end < numPairs && (keys[end] >>> 32) == (keys[start] >>> 32)) {
+                end++;
+            }
+            // insertion sort of a run of pairs with the same float IoU
+            for (int i = start + 1; i < end; i++) {
+                int pair = pairs[i];
+                double iou = overlap.getPairIntersectionOverUnion(pair);
+                int j = i - 1;
+                while (j >= start && overlap.getPairIntersectionOverUnion(pairs[j]) < iou) {
+                    pairs[j + 1] = pairs[j];
+                    j--;
+                }
+                pairs[j + 1] = pair;
+            }
+        }
+        return pairs;
+    }
+
+    public LabelMapOverlapCalculator getOverlapCalculator() {
+        return overlap;
+    }
+
+    /**
+     * @return the number of labels of the ground truth with at least one pixel
+     */
+    public int getNumGroundTruthLabels() {
+        return numGroundTruthLabels;
+    }
+
+    /**
+     * @return the number of labels of the prediction with at least one pixel
+     */
+    public int getNumPredictedLabels() {
+        return numPredictedLabels;
+    }
+
+    /**
+     * @param threshold minimum intersection over union of a matched pair, greater than 0
+     * @return the predicted label matched to each ground truth label (label 1 at index 0), 0 if there is none
+     */
+    public int[] getMatches(double threshold) {
+        int[] matches = new int[overlap.getNumLabelsA()];
+        boolean[] isMatched = new boolean[overlap.getNumLabelsB()];
+        for (int pair : pairsByOverlap) {
+            if (overlap.getPairIntersectionOverUnion(pair) < threshold) {
+                break;
+            }
+            int groundTruth = overlap.getPairLabelA(pair);
+            int predicted = overlap.getPairLabelB(pair);
+            if (matches[groundTruth - 1] == 0 && !isMatched[predicted - 1]) {
+                matches[groundTruth - 1] = predicted;
+                isMatched[predicted - 1] = true;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param threshold minimum intersection over union of a matched pair, greater than 0
+     * @return the number of matched pairs
+     */
+    public int getNumTruePositives(double threshold) {
+        int count = 0;
+        for (int match : getMatches(threshold)) {
+            if (match > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of predicted labels without a match
+     */
+    public int getNumFalsePositives(double threshold) {
+        return numPredictedLabels - getNumTruePositives(threshold);
+    }
+
+    /**
+     * @return the number of ground truth labels without a match
+     */
+    public int getNumFalseNegatives(double threshold) {
+        return numGroundTruthLabels - getNumTruePositives(threshold);
+    }
+
+    /**
+     * @return TP / (TP + FP), the fraction of the predicted labels that are matched, 0 if there is no predicted label
+     */
+    public double getPrecision(double threshold) {
+        return numPredictedLabels > 0 ? (double) getNumTruePositives(threshold) / numPredictedLabels : 0;
+    }
+
+    /**
+     * @return TP / (TP + FN), the fraction of the ground truth labels that are matched, 0 if there is no ground truth label
+     */
+    public double getRecall(double threshold) {
+        return numGroundTruthLabels > 0 ? (double) getNumTruePositives(threshold) / numGroundTruthLabels : 0;
+    }
+
+    /**
+     * @return 2 TP / (2 TP + FP + FN), the harmonic mean of precision and recall, 0 if there is no label at all
+     */
+    public double getF1Score(double threshold) {
+        int total = numPredictedLabels + numGroundTruthLabels;
+        return total > 0 ? 2.0 * getNumTruePositives(threshold) / total : 0;
+    }
+
+    /**
+     * @param thresholds intersection over union thresholds, e.g. 0.5, 0.55, ..., 0.95
+     * @return the mean over the thresholds of TP / (TP + FP + FN)
+     */
+    public double getAveragePrecision(double[] thresholds) {
+        double sum = 0;
+        for (double threshold : thresholds) {
+            int truePositives = getNumTruePositives(threshold);
+            int total = numPredictedLabels + numGroundTruthLabels - truePositives;
+            sum += total > 0 ? (double) truePositives / total : 0;
+        }
+        return thresholds.length > 0 ? sum / thresholds.length : 0;
+    }
+
+    /**
+     * @return the average precision over the thresholds 0.5, 0.55, ..., 0.95
+     */
+    public double getAveragePrecision() {
+        double[] thresholds = new double[10];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = 0.5 + 0.05 * i;
+        }
+        return getAveragePrecision(thresholds);
+    }
+
+    /**
+     * @param minimumFraction fraction of the pixels of a predicted label that must lie in a ground truth label to count as a part of it, above 0.5
+     *                        a predicted label is part of at most one ground truth label
+     * @return the number of ground truth labels split into two or more predicted labels
+     */
+    public int getNumSplits(double minimumFraction) {
+        int[] parts = new int[overlap.getNumLabelsA()];
+        int count = 0;
+        for (int p = 0; p < overlap.getNumPairs(); p++) {
+            int groundTruth = overlap.getPairLabelA(p);
+            if ((double) overlap.getPairIntersection(p) / overlap.getSizeB(overlap.getPairLabelB(p)) >= minimumFraction) {
+                if (++parts[groundTruth - 1] == 2) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of ground truth labels holding more than half of two or more predicted labels
+     */
+    public int getNumSplits() {
+        return getNumSplits(Math.nextUp(0.5));
+    }
+
+    /**
+     * @param minimumFraction fraction of the pixels of a ground truth label that must lie in a predicted label to count as a part of it
+     * @return the number of predicted labels merging two or more ground truth labels
+     */
+    public int getNumMerges(double minimumFraction) {
+        int[] parts = new int[overlap.getNumLabelsB()];
+        int count = 0;
+        for (int p = 0; p < overlap.getNumPairs(); p++) {
+            int predicted = overlap.getPairLabelB(p);
+            if ((double) overlap.getPairIntersection(p) / overlap.getSizeA(overlap.getPairLabelA(p)) >= minimumFraction) {
+                if (++parts[predicted - 1] == 2) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of predicted labels holding more than half of two or more ground truth labels
+     */
+    public int getNumMerges() {
+        return getNumMerges(Math.nextUp(0.5));
+    }
+}
@@ -4,6 +4,7 @@ import de.mpicbg.scf.labelhandling.data.Feature;
 import java.util.ArrayList;
 
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
+import net.imagej.ops.OpService;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.BooleanType;
@@ -38,6 +39,7 @@ public class ConstraintLabelMap<F extends RealType<F>, B extends BooleanType<B>>
 	private double[] voxelSize;
 	private double[] origin;
 	private Img<F> signalImage;
+	private OpService ops;
 
 	// Output:
 	ArrayList<RandomAccessibleInterval<B>> constraintedLabelMap;
@@ -64,6 +66,7 @@ public class ConstraintLabelMap<F extends RealType<F>, B extends BooleanType<B>>
 			lpa.setSignalImage(signalImage);
 			lpa.setVoxelSize(voxelSize);
 			lpa.setOrigin(origin);
+			lpa.setOpService(ops);
 
 		}
 
@@ -144,4 +147,8 @@ public class ConstraintLabelMap<F extends RealType<F>, B extends BooleanType<B>>
 		resultValid = false;
 		this.origin = origin;
 	}
+
+	public void setOpService(OpService ops) {
+		this.ops = ops;
+	}
 }
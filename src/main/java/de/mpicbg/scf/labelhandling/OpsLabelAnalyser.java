@@ -4,6 +4,12 @@ import de.mpicbg.scf.labelhandling.data.Feature;
 import de.mpicbg.scf.labelhandling.data.Measurement;
 import de.mpicbg.scf.labelhandling.data.Utilities;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.mpicbg.scf.imgtools.ui.DebugHelper;
 import net.imagej.mesh.Mesh;
@@ -21,8 +27,12 @@ import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
 import org.scijava.Context;
 
+import net.imagej.ops.Op;
 import net.imagej.ops.OpMatchingService;
 import net.imagej.ops.OpService;
+import net.imagej.ops.Ops;
+import net.imagej.ops.special.function.Functions;
+import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.img.Img;
 import net.imglib2.roi.Regions;
 import net.imglib2.type.numeric.RealType;
@@ -54,6 +64,13 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 	private double[] voxelSize;
 	private double[] origin;
 
+	private OpService ops = null;
+	private int numThreads = 1;
+	private ExecutorService executorService = null;
+
+	// shared by all analysers which were not handed over a Context or an OpService
+	private static OpService sharedOpService = null;
+
 	// State:
 	boolean resultsValid = false;
 
@@ -121,6 +138,67 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 		resultsValid = false;
 	}
 
+	/**
+	 * Use the OpService of an existing context, e.g. the one of a running ImageJ, instead of the shared one.
+	 *
+	 * @param ops OpService to run the ops with
+	 */
+	public void setOpService(OpService ops)
+	{
+		this.ops = ops;
+	}
+
+	/**
+	 * Use the OpService of an existing context instead of the shared one.
+	 *
+	 * @param context Context containing an OpService
+	 */
+	public void setContext(Context context)
+	{
+		this.ops = context.service(OpService.class);
+	}
+
+	/**
+	 * Measure the labels with several threads. A thread pool is created for each feature extraction.
+	 *
+	 * @param numThreads number of threads, 1 (default) to measure in the calling thread
+	 */
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+		this.executorService = null;
+		resultsValid = false;
+	}
+
+	/**
+	 * Measure the labels in parallel with the given executor, e.g. a pool shared by several analysers. The executor is not shut down. The time
+	 * taken per feature is summed over all tasks, in parallel it can be longer than the feature extraction took.
+	 *
+	 * @param executorService executor running the measurements
+	 * @param numTasks        number of tasks measuring labels in parallel, e.g. the number of threads of the executor
+	 */
+	public void setExecutorService(ExecutorService executorService, int numTasks)
+	{
+		this.executorService = executorService;
+		this.numThreads = Math.max(1, numTasks);
+		resultsValid = false;
+	}
+
+	/**
+	 * Starting a Context takes much longer than analysing a few labels. Therefore, analysers which were not handed over an OpService share one,
+	 * which is created when it is needed the first time.
+	 *
+	 * @return an OpService of a Context which only contains the services needed to run ops
+	 */
+	public static synchronized OpService getSharedOpService()
+	{
+		if (sharedOpService == null)
+		{
+			sharedOpService = new Context(OpService.class, OpMatchingService.class).getService(OpService.class);
+		}
+		return sharedOpService;
+	}
+
 	private void doFeatureExtaction() {
 		if (resultsValid) {
 			return;
@@ -159,8 +237,6 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 			voxelVolume = voxelSize[0] * voxelSize[1] * voxelSize[2]; //(voxelSize.length > 2 ? voxelSize[2] : 1.0);
 		}
 
-		OpService ops = new Context(OpService.class, OpMatchingService.class).getService(OpService.class);
-
 		// Check Features for applicability
 		//iter = whatToMeasure.iterator();
 		//while(iter.hasNext())
@@ -178,13 +254,84 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 			}
 		}
 
-		long meshGenerationDurationInMilliseconds = 0;
-		long polygonGenerationDurationInMilliseconds = 0;
-		long samplingDurationInMilliseconds = 0;
+		final Measurement[] measurements = new Measurement[whatToMeasure.size()];
+		for (int f = 0; f < measurements.length; f++)
+		{
+			measurements[f] = results.get(whatToMeasure.get(f));
+		}
+
+		ExecutorService service = executorService;
+		if (service == null && numThreads > 1) {
+			service = Executors.newFixedThreadPool(numThreads);
+		}
+		Durations durations;
+		try {
+			durations = measureLabels(measurements, pixelArea, voxelVolume, service);
+		} finally {
+			if (service != null && service != executorService) {
+				service.shutdown();
+			}
+		}
+		for (int f = 0; f < measurements.length; f++)
+		{
+			measurements[f].timeTakenInMilliseconds += durations.featureInMilliseconds[f];
+		}
+
+		DebugHelper.print(this, "Generating polygons took " + durations.polygonGenerationInMilliseconds + " ms");
+		DebugHelper.print(this, "Generating meshes took " + durations.meshGenerationInMilliseconds + " ms");
+		DebugHelper.print(this, "Sampling the image took " + durations.samplingInMilliseconds + " ms");
+		for (Feature feature : results.keySet()) {
+			Measurement measurement = results.get(feature);
+			DebugHelper.print(this, "Measuring " + feature.toString() + " took " + measurement.timeTakenInMilliseconds + " ms");
+		}
+		resultsValid = true;
+	}
+
+	// service is null to measure in the calling thread. Otherwise, numThreads tasks take the labels one after the other from a shared counter,
+	// because the time needed per label varies a lot with its size and the features. Each task matches its own ops and writes only the rows of
+	// its labels into the measurements.
+	private Durations measureLabels(final Measurement[] measurements, final double pixelArea, final double voxelVolume, ExecutorService service)
+	{
+		final OpService opService = ops != null ? ops : getSharedOpService();
+		final AtomicInteger nextLabel = new AtomicInteger(0);
+		if (service == null)
+		{
+			return measureNextLabels(nextLabel, measurements, pixelArea, voxelVolume, new MatchedOps(opService));
+		}
+
+		List<Callable<Durations>> tasks = new ArrayList<Callable<Durations>>();
+		int numTasks = Math.max(1, Math.min(numThreads, numLabels));
+		for (int t = 0; t < numTasks; t++)
+		{
+			tasks.add(new Callable<Durations>() {
+				@Override
+				public Durations call() {
+					return measureNextLabels(nextLabel, measurements, pixelArea, voxelVolume, new MatchedOps(opService));
+				}
+			});
+		}
+
+		Durations durations = new Durations(measurements.length);
+		try {
+			for (Future<Durations> future : service.invokeAll(tasks)) {
+				durations.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Label feature extraction interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Label feature extraction failed", e.getCause());
+		}
+		return durations;
+	}
+
+	private Durations measureNextLabels(AtomicInteger nextLabel, Measurement[] measurements, double pixelArea, double voxelVolume, MatchedOps matchedOps)
+	{
+		Durations durations = new Durations(measurements.length);
 
 		// ---------------------------------------------------------------------------------------
 		// Go through all labels and determine parameters (which were not determined so far)
-		for (int i = 0; i < numLabels; i++) {
+		for (int i = nextLabel.getAndIncrement(); i < numLabels; i = nextLabel.getAndIncrement()) {
 			//Regions.sample(region, img)
 			//RandomAccessibleInterval<? extends BooleanType<?>> map = labelMap.get(i);
 			IterableRegion<B> map = Regions.iterable(labelMap.get(i));
@@ -195,71 +342,71 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 			Mesh mesh = null;
 			long pixelCount = -1;
 
-			for (Feature feature : whatToMeasure)
+			for (int f = 0; f < measurements.length; f++)
 			{
 				DoubleType measure = new DoubleType();
 				
-				//Feature feature = iter.next();
-				Measurement measurement = ((Measurement)results.get(feature));
+				Feature feature = whatToMeasure.get(f);
+				Measurement measurement = measurements[f];
 
 				long timeStamp;
 				if (feature.needsPolygon() && polygon == null)
 				{
 					timeStamp = System.currentTimeMillis();
-					polygon = ops.geom().contour(map, true);
+					polygon = matchedOps.calculate(Ops.Geometric.Contour.class, Polygon2D.class, map, true);
 					polygon = transformPolygonInPhysicalSpace(polygon);
-					polygonGenerationDurationInMilliseconds += System.currentTimeMillis() - timeStamp;
+					durations.polygonGenerationInMilliseconds += System.currentTimeMillis() - timeStamp;
 					//DebugHelper.print(this, "Polygon initialized");
 				}
 				
 				if (feature.needsMesh() && mesh == null)
 				{
 					timeStamp = System.currentTimeMillis();
-					mesh = ops.geom().marchingCubes(map);
+					mesh = matchedOps.calculate(Ops.Geometric.MarchingCubes.class, Mesh.class, map);
 					//mesh = transformMeshInPhysicalSpace(mesh);
-					meshGenerationDurationInMilliseconds += System.currentTimeMillis() - timeStamp;
+					durations.meshGenerationInMilliseconds += System.currentTimeMillis() - timeStamp;
 					//DebugHelper.print(this, "Mesh initialized");
 				}
 				if (feature.needsSignalImage() && signalMap != null && sampledRegion == null ) {
 					timeStamp = System.currentTimeMillis();
 					sampledRegion = Regions.sample(map, signalMap);
-					samplingDurationInMilliseconds += System.currentTimeMillis() - timeStamp;
+					durations.samplingInMilliseconds += System.currentTimeMillis() - timeStamp;
 				}
 
 				if ((pixelCount == -1) && (feature == Feature.PIXELCOUNT || feature == Feature.AREA || feature == Feature.VOLUME))
 				{
-					pixelCount = (long)ops.geom().size(Regions.iterable(map)).get();
+					pixelCount = (long)matchedOps.calculate(Ops.Geometric.Size.class, DoubleType.class, map).get();
 				}
 
 				timeStamp = System.currentTimeMillis();
 				switch (feature)
 				{
 					case MEAN:
-						ops.stats().mean(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.Mean.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case MIN:
-						F val = ops.stats().min(sampledRegion);
+						RealType<?> val = matchedOps.calculate(Ops.Stats.Min.class, RealType.class, sampledRegion);
 						measurement.setValue(val.getRealDouble(), 0, i);
 						break;
 					case MAX:
-						F val1 = ops.stats().max(sampledRegion);
+						RealType<?> val1 = matchedOps.calculate(Ops.Stats.Max.class, RealType.class, sampledRegion);
 						measurement.setValue(val1.getRealDouble(), 0, i);
 						break;
 					case MEDIAN:
-						ops.stats().median(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.Median.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case STD_DEV:
-						ops.stats().stdDev(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.StdDev.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case SUM:
-						ops.stats().sum(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.Sum.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case CENTROID:
-						RealLocalizable point = ops.geom().centroid(Regions.iterable(map));
+						RealLocalizable point = matchedOps.calculate(Ops.Geometric.Centroid.class, RealLocalizable.class, map);
 						for (int d = 0; d < point.numDimensions(); d++)
 						{
 							measurement.setValue(point.getDoublePosition(d), d, i);
@@ -267,7 +414,7 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 						break;
 
 					case CENTROID_2D:
-						RealLocalizable point2 = ops.geom().centroid(polygon);
+						RealLocalizable point2 = matchedOps.calculate(Ops.Geometric.Centroid.class, RealLocalizable.class, polygon);
 						for (int d = 0; d < point2.numDimensions(); d++)
 						{
 							measurement.setValue(point2.getDoublePosition(d), d, i);
@@ -282,7 +429,7 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 					//	}
 					//	break;
 					case BOUNDARY_SIZE_2D:
-						ops.geom().boundarySize(measure, polygon);
+						measure = matchedOps.calculate(Ops.Geometric.BoundarySize.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					//case BOUNDARY_SIZE_3D:
@@ -290,11 +437,11 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 					//	measurement.setValue(measure.get(), 0, i);
 					//	break;
 					case SKEWNESS:
-						ops.stats().skewness(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.Skewness.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case KURTOSIS:
-						ops.stats().kurtosis(measure, sampledRegion);
+						measure = matchedOps.calculate(Ops.Stats.Kurtosis.class, DoubleType.class, sampledRegion);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case PIXELCOUNT:
@@ -307,7 +454,7 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 						measurement.setValue(voxelVolume * pixelCount, 0, i);
 						break;
 					case CENTER_OF_MASS:
-						RealLocalizable position = ops.geom().centerOfGravity(sampledRegion);
+						RealLocalizable position = matchedOps.calculate(Ops.Geometric.CenterOfGravity.class, RealLocalizable.class, sampledRegion);
 						for (int d = 0; d < position.numDimensions(); d++)
 						{
 							measurement.setValue(position.getDoublePosition(d), d, i);
@@ -317,11 +464,11 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 					//	measurement.setValue(mesh.getSurfaceArea(), 0, i );
 					//	break;
 					case MAJOR_AXIS2D:
-						ops.geom().majorAxis(measure, polygon);
+						measure = matchedOps.calculate(Ops.Geometric.MajorAxis.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case MINOR_AXIS2D:
-						ops.geom().minorAxis(measure, polygon);
+						measure = matchedOps.calculate(Ops.Geometric.MinorAxis.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					//case BOUNDARY_PIXEL_COUNT3D:
@@ -377,15 +524,15 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 						//DebugHelper.print(this, "Eigen values not implemented yet.");
 						break;*/
 					case BOXIVITY2D:
-						measure = ops.geom().boxivity(polygon);
+						measure = matchedOps.calculate(Ops.Geometric.Boxivity.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case SOLIDITY2D:
-						measure = ops.geom().solidity(polygon);
+						measure = matchedOps.calculate(Ops.Geometric.Solidity.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case ROUNDNESS2D:
-						measure = ops.geom().roundness(polygon);
+						measure = matchedOps.calculate(Ops.Geometric.Roundness.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case BOUNDING_BOX2D:
@@ -437,18 +584,18 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 					//	measurement.setValue(measure.get(), 0, i);
 					//	break;
 					case COARSENESS:
-						ops.tamura().coarseness(measure, map);
+						measure = matchedOps.calculate(Ops.Tamura.Coarseness.class, DoubleType.class, map);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case FERET:
-						Pair<RealLocalizable, RealLocalizable> minFeret = ops.geom().minimumFeret(polygon);
+						Pair<RealLocalizable, RealLocalizable> minFeret = matchedOps.calculate(Ops.Geometric.MinimumFeret.class, Pair.class, polygon);
 
 						measurement.setValue(minFeret.getA().getDoublePosition(0), 0, i);
 						measurement.setValue(minFeret.getA().getDoublePosition(1), 1, i);
 						measurement.setValue(minFeret.getB().getDoublePosition(0), 2, i);
 						measurement.setValue(minFeret.getB().getDoublePosition(1), 3, i);
 
-						Pair<RealLocalizable, RealLocalizable> maxFeret = ops.geom().maximumFeret(polygon);
+						Pair<RealLocalizable, RealLocalizable> maxFeret = matchedOps.calculate(Ops.Geometric.MaximumFeret.class, Pair.class, polygon);
 
 						measurement.setValue(maxFeret.getA().getDoublePosition(0), 4, i);
 						measurement.setValue(maxFeret.getA().getDoublePosition(1), 5, i);
@@ -462,16 +609,16 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 					//	measurement.setValue(measure.get(), 0, i);
 					//	break;
 					case MAIN_ELONGATION_2D:
-						ops.geom().mainElongation(measure, polygon);
+						measure = matchedOps.calculate(Ops.Geometric.MainElongation.class, DoubleType.class, polygon);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 
 					case HARALICK_TEXTURE_ORIENTATION_2D:
-						measure = ops.haralick().textureHomogeneity(sampledRegion, 255, 2, MatrixOrientation2D.ANTIDIAGONAL);
+						measure = matchedOps.calculate(Ops.Haralick.TextureHomogeneity.class, DoubleType.class, sampledRegion, 255, 2, MatrixOrientation2D.ANTIDIAGONAL);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					case HARALICK_TEXTURE_ORIENTATION_3D:
-						measure = ops.haralick().textureHomogeneity(sampledRegion, 255, 2, MatrixOrientation3D.ANTIDIAGONAL);
+						measure = matchedOps.calculate(Ops.Haralick.TextureHomogeneity.class, DoubleType.class, sampledRegion, 255, 2, MatrixOrientation3D.ANTIDIAGONAL);
 						measurement.setValue(measure.get(), 0, i);
 						break;
 					default:
@@ -481,7 +628,7 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 						}
 						break;
 				}
-				measurement.timeTakenInMilliseconds += System.currentTimeMillis() - timeStamp;
+				durations.featureInMilliseconds[f] += System.currentTimeMillis() - timeStamp;
 			}
 			/*
 			if (boundingBoxPosition != null) {
@@ -493,15 +640,7 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 			*/
 		}
 
-
-		DebugHelper.print(this, "Generating polygons took " + polygonGenerationDurationInMilliseconds + " ms");
-		DebugHelper.print(this, "Generating meshes took " + meshGenerationDurationInMilliseconds + " ms");
-		DebugHelper.print(this, "Sampling the image took " + samplingDurationInMilliseconds + " ms");
-		for (Feature feature : results.keySet()) {
-			Measurement measurement = results.get(feature);
-			DebugHelper.print(this, "Measuring " + feature.toString() + " took " + measurement.timeTakenInMilliseconds + " ms");
-		}
-		resultsValid = true;
+		return durations;
 	}
 
 	public double[] getFeatures(Feature measurement) {
@@ -689,4 +828,58 @@ public class OpsLabelAnalyser<F extends RealType<F>, B extends BooleanType<B>> {
 		doFeatureExtaction();
 		return results;
 	}
+
+	// time taken per feature (in the order of whatToMeasure) and for generating polygons, meshes and samples, summed over the labels of a task
+	private static class Durations
+	{
+		final long[] featureInMilliseconds;
+		long polygonGenerationInMilliseconds = 0;
+		long meshGenerationInMilliseconds = 0;
+		long samplingInMilliseconds = 0;
+
+		Durations(int numFeatures)
+		{
+			featureInMilliseconds = new long[numFeatures];
+		}
+
+		void addAll(Durations other)
+		{
+			for (int f = 0; f < featureInMilliseconds.length; f++)
+			{
+				featureInMilliseconds[f] += other.featureInMilliseconds[f];
+			}
+			polygonGenerationInMilliseconds += other.polygonGenerationInMilliseconds;
+			meshGenerationInMilliseconds += other.meshGenerationInMilliseconds;
+			samplingInMilliseconds += other.samplingInMilliseconds;
+		}
+	}
+
+	/**
+	 * Matching an op to its arguments is expensive compared to running it on a small label. Therefore, ops are matched once per op type and
+	 * type signature (classes of input and output, additional arguments) and the matched instance is reused for all labels. A matched op keeps
+	 * its input and helper ops in fields: the instances must not be used by several threads at the same time, each task has its own MatchedOps.
+	 */
+	private static class MatchedOps
+	{
+		private final OpService ops;
+		private final HashMap<String, UnaryFunctionOp<Object, ?>> functions = new HashMap<String, UnaryFunctionOp<Object, ?>>();
+
+		MatchedOps(OpService ops)
+		{
+			this.ops = ops;
+		}
+
+		@SuppressWarnings("unchecked")
+		<O> O calculate(Class<? extends Op> opType, Class<O> outType, Object in, Object... otherArgs)
+		{
+			String signature = opType.getName() + "(" + in.getClass().getName() + ", " + Arrays.toString(otherArgs) + ") -> " + outType.getName();
+			UnaryFunctionOp<Object, ?> function = functions.get(signature);
+			if (function == null)
+			{
+				function = Functions.unary(ops, opType, outType, in, otherArgs);
+				functions.put(signature, function);
+			}
+			return (O) function.calculate(in);
+		}
+	}
 }
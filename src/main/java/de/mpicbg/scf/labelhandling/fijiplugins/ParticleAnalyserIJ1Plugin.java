@@ -73,7 +73,7 @@ public  class  ParticleAnalyserIJ1Plugin<T extends RealType<T>> implements PlugI
     public void run(ImageProcessor imageProcessor) {
         ImagePlus binaryOrLabelImage = IJ.getImage();
 ;
-        OpService ops = new net.imagej.ImageJ().op();
+        OpService ops = OpsLabelAnalyser.getSharedOpService();
 
         ImagePlusImgConverter ipic = new ImagePlusImgConverter(binaryOrLabelImage);
 
@@ -201,6 +201,7 @@ public  class  ParticleAnalyserIJ1Plugin<T extends RealType<T>> implements PlugI
 
         if (excludeOnEdges) {
             ConstraintLabelMap<T, BoolType> clm = new ConstraintLabelMap(regionsList);
+            clm.setOpService(ops);
             if (dims.numDimensions() == 2) {
                 clm.addConstraint(Feature.BOUNDING_BOX2D, 1, binaryOrLabelImage.getWidth() - 2, 0); // minimum x
                 clm.addConstraint(Feature.BOUNDING_BOX2D, 1, binaryOrLabelImage.getWidth() - 2, 2); // maximum x
@@ -240,6 +241,7 @@ public  class  ParticleAnalyserIJ1Plugin<T extends RealType<T>> implements PlugI
 
         // Execute label analyser
         OpsLabelAnalyser ola = new OpsLabelAnalyser(regionsList, features);
+        ola.setOpService(ops);
         if (signalImage != null) {
             DebugHelper.print("Para", "setting signal image " + signalImage);
             ola.setSignalImage(signalImage);
@@ -201,6 +201,7 @@ public class ParticleAnalyserIJ2Plugin implements Command {
 
         // Execute label analyser
         OpsLabelAnalyser ola = new OpsLabelAnalyser(regionsList, features);
+        ola.setOpService(ops);
         if (signalImage != null) {
             DebugHelper.print("Para", "setting signal image " + signalImage);
             ola.setSignalImage(signalImage);
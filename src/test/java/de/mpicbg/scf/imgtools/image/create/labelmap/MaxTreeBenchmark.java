@@ -0,0 +1,88 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+
+// time of the max-tree construction with 1 to 16 threads on a 3D stack of blobs, the labels of each
+// run are checked against the ones of the sequential union-find labeling of HMaximaLabeling
+// run with e.g. -Xmx4g, arguments: [width height depth] [number of repetitions]
+
+public class MaxTreeBenchmark {
+
+	public static void main(final String... args)
+	{
+		int width  = args.length>=3 ? Integer.parseInt(args[0]) : 512;
+		int height = args.length>=3 ? Integer.parseInt(args[1]) : 512;
+		int depth  = args.length>=3 ? Integer.parseInt(args[2]) : 128;
+		int nIter  = args.length>=4 ? Integer.parseInt(args[3]) : 3;
+
+		Img<UnsignedShortType> input = createBlobs(width, height, depth, 1000, 1);
+		float threshold = 10;
+		int h = 20;
+		System.out.println("max-tree of " + width + "x" + height + "x" + depth + " blobs, " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		HMaximaLabeling reference = new HMaximaLabeling();
+		Img<IntType> referenceLabels = reference.HMaxima(input, h, threshold);
+
+		for (int numThreads : new int[] {1, 2, 4, 8, 16})
+		{
+			long best = Long.MAX_VALUE;
+			MaxTree tree = null;
+			for (int i = 0; i < nIter; i++)
+			{
+				long start = System.nanoTime();
+				tree = new MaxTree(input, threshold, numThreads);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			boolean isEqual = labelsEqual(referenceLabels, tree.getMaximaLabeling(MaxTree.Attribute.HEIGHT, h - 1));
+			System.out.println(numThreads + " threads: " + best / 1000000 + " ms, " + tree.getNumberOfNodes() + " nodes, " + tree.getNumberOfFoundObjects() + " h-maxima, same labels: " + isEqual);
+		}
+	}
+
+	// sum of gaussian blobs of random height and size plus noise
+	private static Img<UnsignedShortType> createBlobs(int width, int height, int depth, int nBlobs, long seed)
+	{
+		short[] data = new short[width * height * depth];
+		Random random = new Random(seed);
+		for (int b = 0; b < nBlobs; b++)
+		{
+			int cx = random.nextInt(width), cy = random.nextInt(height), cz = random.nextInt(depth);
+			double amplitude = 50 + random.nextInt(200);
+			double sigma = 3 + random.nextInt(8);
+			int r = (int) (3 * sigma);
+			for (int z = Math.max(0, cz - r); z < Math.min(depth, cz + r + 1); z++)
+				for (int y = Math.max(0, cy - r); y < Math.min(height, cy + r + 1); y++)
+					for (int x = Math.max(0, cx - r); x < Math.min(width, cx + r + 1); x++)
+					{
+						double d2 = (x - cx) * (x - cx) + (y - cy) * (y - cy) + (z - cz) * (z - cz);
+						int idx = x + width * (y + height * z);
+						data[idx] = (short) Math.min(0xffff, (data[idx] & 0xffff) + (int) (amplitude * Math.exp(-d2 / (2 * sigma * sigma))));
+					}
+		}
+		for (int i = 0; i < data.length; i++)
+			data[i] = (short) Math.min(0xffff, (data[i] & 0xffff) + random.nextInt(5));
+		return ArrayImgs.unsignedShorts(data, width, height, depth);
+	}
+
+	private static boolean labelsEqual(Img<IntType> img1, Img<IntType> img2)
+	{
+		Cursor<IntType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<IntType> c2 = Views.flatIterable(img2).cursor();
+		while (c1.hasNext())
+		{
+			if (c1.next().get() != c2.next().get())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,151 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import static org.junit.Assert.*;
+import java.util.Random;
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+/**
+ *
+ *
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ *                Dresden, Germany
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   1. Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *   3. Neither the name of the copyright holder nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+public class MaxTreeTest {
+
+	@Test
+	public void testMaximaEqualHMaximaAndAreaMaxima() {
+
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		float threshold = 20;
+
+		MaxTree tree = new MaxTree(input, threshold);
+
+		for (int h : new int[] {1, 5, 20, 60})
+		{
+			HMaximaLabeling hmaxima = new HMaximaLabeling();
+			Img<IntType> reference = hmaxima.HMaxima(input, h, threshold);
+			Img<IntType> labeling = tree.getMaximaLabeling(MaxTree.Attribute.HEIGHT, h - 1);
+
+			assertEquals("number of maxima with h = " + h, hmaxima.getNumberOfFoundObjects(), tree.getNumberOfFoundObjects());
+			assertEquals("number of maxima counted with h = " + h, hmaxima.getNumberOfFoundObjects(), tree.getNumberOfMaxima(MaxTree.Attribute.HEIGHT, h - 1));
+			assertTrue("labels equal HMaxima with h = " + h, labelsEqual(reference, labeling));
+		}
+
+		for (int area : new int[] {1, 10, 100, 1000})
+		{
+			AreaMaximaLabeling areaMaxima = new AreaMaximaLabeling();
+			Img<IntType> reference = areaMaxima.AreaMaxima(input, area, threshold);
+			Img<IntType> labeling = tree.getMaximaLabeling(MaxTree.Attribute.AREA, area);
+
+			assertEquals("number of maxima with area = " + area, areaMaxima.getNumberOfFoundObjects(), tree.getNumberOfFoundObjects());
+			assertTrue("labels equal AreaMaxima with area = " + area, labelsEqual(reference, labeling));
+		}
+	}
+
+	@Test
+	public void testParallelConstructionEqualsSequential() {
+
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		float threshold = 20;
+
+		for (int numThreads : new int[] {2, 3, 8})
+		{
+			HMaximaLabeling hmaxima = new HMaximaLabeling();
+			assertTrue("HMaxima with " + numThreads + " threads", labelsEqual(hmaxima.HMaxima(input, 20, threshold), hmaxima.HMaxima(input, 20, threshold, numThreads)));
+
+			AreaMaximaLabeling areaMaxima = new AreaMaximaLabeling();
+			assertTrue("AreaMaxima with " + numThreads + " threads", labelsEqual(areaMaxima.AreaMaxima(input, 50, threshold), areaMaxima.AreaMaxima(input, 50, threshold, numThreads)));
+		}
+	}
+
+	@Test
+	public void testParallelNodesEqualSequentialOnPlateaus() {
+
+		// few grey levels in thick planes, so that the flat zones and the nodes span several slabs
+		Random random = new Random(1);
+		float[] values = new float[12 * 10 * 40];
+		for (int i = 0; i < values.length; i++)
+			values[i] = random.nextInt(3) + (i / 120 / 5) % 2;
+		Img<FloatType> input = ArrayImgs.floats(values, 12, 10, 40);
+		MaxTree sequential = new MaxTree(input, -1);
+
+		for (int numThreads : new int[] {2, 3, 8, 40})
+		{
+			MaxTree parallel = new MaxTree(input, -1, numThreads);
+			assertEquals("number of nodes with " + numThreads + " threads", sequential.getNumberOfNodes(), parallel.getNumberOfNodes());
+			for (int node = 0; node < sequential.getNumberOfNodes(); node++)
+				for (MaxTree.Attribute attribute : MaxTree.Attribute.values())
+					assertEquals(attribute + " of node " + node + " with " + numThreads + " threads", sequential.getAttribute(attribute, node), parallel.getAttribute(attribute, node), 0);
+			assertTrue("labels with " + numThreads + " threads", labelsEqual(sequential.getMaximaLabeling(MaxTree.Attribute.AREA, 2), parallel.getMaximaLabeling(MaxTree.Attribute.AREA, 2)));
+		}
+	}
+
+	@Test
+	public void testAttributesOfASingleProfile() {
+
+		// levels 0 3 1 5 5 0: nodes {5,5}, {3}, {3,1,5,5} and the whole line
+		float[] values = {0, 3, 1, 5, 5, 0};
+		Img<FloatType> input = ArrayImgs.floats(values, values.length);
+		MaxTree tree = new MaxTree(input, -1);
+
+		assertEquals("number of nodes", 4, tree.getNumberOfNodes());
+		int root = tree.getNumberOfNodes() - 1;
+		assertEquals("area of the root", 6, tree.getAttribute(MaxTree.Attribute.AREA, root), 0);
+		assertEquals("height of the root", 5, tree.getAttribute(MaxTree.Attribute.HEIGHT, root), 0);
+		assertEquals("volume of the root", 14, tree.getAttribute(MaxTree.Attribute.VOLUME, root), 0);
+
+		assertEquals("maxima of height >= 0", 2, tree.getNumberOfMaxima(MaxTree.Attribute.HEIGHT, 0));
+		assertEquals("maxima of height >= 3", 1, tree.getNumberOfMaxima(MaxTree.Attribute.HEIGHT, 3));
+		assertEquals("maxima of volume >= 10", 1, tree.getNumberOfMaxima(MaxTree.Attribute.VOLUME, 10));
+		assertEquals("maxima of area >= 7", 0, tree.getNumberOfMaxima(MaxTree.Attribute.AREA, 7));
+	}
+
+	private static boolean labelsEqual(Img<IntType> img1, Img<IntType> img2)
+	{
+		Cursor<IntType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<IntType> c2 = Views.flatIterable(img2).cursor();
+		while (c1.hasNext())
+		{
+			if (c1.next().get() != c2.next().get())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,73 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class RunLengthLabelingTest {
+
+	@Test
+	public void testLabelsEqualThresholdLabeling()
+	{
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		float threshold = 120;
+
+		for( ImageConnectivity.Connectivity connectivity : new ImageConnectivity.Connectivity[] { ImageConnectivity.Connectivity.FULL, ImageConnectivity.Connectivity.FACE } )
+		{
+			ThresholdLabeling thresholdLabeling = new ThresholdLabeling();
+			Img<IntType> reference = thresholdLabeling.Labeling(input, threshold, connectivity, 1);
+
+			RunLengthLabeling runs = new RunLengthLabeling(input, threshold, connectivity);
+
+			assertEquals("number of labels with " + connectivity, thresholdLabeling.getNumberOfFoundObjects(), runs.getNumberOfFoundObjects());
+			assertTrue("labels with " + connectivity, labelsEqual(reference, runs.getLabeling()));
+		}
+	}
+
+	@Test
+	public void testRuns()
+	{
+		// rows 0 1 1 0 1 / 1 0 0 0 0: 3 runs, the first and the last touch by a corner
+		float[] values = {0, 1, 1, 0, 1, 1, 0, 0, 0, 0};
+		Img<FloatType> input = ArrayImgs.floats(values, 5, 2);
+
+		RunLengthLabeling runs = new RunLengthLabeling(input, 0, ImageConnectivity.Connectivity.FULL);
+		assertEquals("number of runs", 3, runs.getNumberOfRuns());
+		assertEquals("start of the second run", 4, runs.getRunStart(1));
+		assertEquals("length of the first run", 2, runs.getRunLength(0));
+		assertEquals("objects with FULL connectivity", 2, runs.getNumberOfFoundObjects());
+		assertEquals("label of the last run", 1, runs.getRunLabel(2));
+		assertEquals("label of the first run", 1, runs.getRunLabel(0));
+
+		runs = new RunLengthLabeling(input, 0, ImageConnectivity.Connectivity.FACE);
+		assertEquals("objects with FACE connectivity", 3, runs.getNumberOfFoundObjects());
+	}
+
+	private static boolean labelsEqual(Img<IntType> img1, Img<IntType> img2)
+	{
+		Cursor<IntType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<IntType> c2 = Views.flatIterable(img2).cursor();
+		while( c1.hasNext() )
+		{
+			if( c1.next().get() != c2.next().get() )
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,91 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+import de.mpicbg.scf.imgtools.core.data.PagedIndexArray;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class SortedPixelsTest {
+
+	@Test
+	public void testSortedEqualsReference()
+	{
+		Random random = new Random(1);
+		final float[] values = new float[5000];
+		for( int i=0; i<values.length; i++)
+			values[i] = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(12) - 6));
+		values[10] = 0f;
+		values[11] = -0f;
+		values[12] = Float.POSITIVE_INFINITY;
+		values[13] = Float.NEGATIVE_INFINITY;
+		for( int i=20; i<40; i++)
+			values[i] = 0.5f;
+		float threshold = -0.001f;
+
+		FlatImageAccess.Real in = FlatImageAccess.createReal(ArrayImgs.floats(values, values.length));
+		PagedIndexArray sorted = SortedPixels.sort(in, values.length, threshold);
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for( int i=0; i<values.length; i++)
+			if( values[i] > threshold ){ expected.add(i); }
+		Collections.sort(expected, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2)
+			{
+				if( values[i1]!=values[i2] )
+					return values[i1] > values[i2] ? -1 : 1;
+				return i1.compareTo(i2);
+			}
+		});
+
+		assertEquals("number of pixels above threshold", expected.size(), sorted.size());
+		for( int k=0; k<expected.size(); k++)
+			assertEquals("pixel at position " + k, (long) expected.get(k), sorted.get(k));
+
+		// the list of a range of pixels is the sorted list restricted to the range
+		for( int s=0; s<3; s++)
+		{
+			long start = values.length*s/3, end = values.length*(s+1)/3;
+			PagedIndexArray range = SortedPixels.sort(in, start, end, threshold, values.length);
+			long k = 0;
+			for( int p : expected )
+				if( p>=start && p<end )
+					assertEquals("pixel of range " + s + " at position " + k, p, range.get(k++));
+			assertEquals("number of pixels of range " + s, k, range.size());
+		}
+	}
+
+	@Test
+	public void testMaximaBelowOneGreyLevel()
+	{
+		// two peaks separated by a valley shallower than one grey level
+		float[] values = {0, 0.6f, 0.4f, 0.6f, 0};
+		Img<FloatType> input = ArrayImgs.floats(values, values.length);
+
+		AreaMaximaLabeling areaMaxima = new AreaMaximaLabeling();
+		areaMaxima.AreaMaxima(input, 1, 0);
+		assertEquals("area maxima", 2, areaMaxima.getNumberOfFoundObjects());
+
+		HMaximaLabeling hmaxima = new HMaximaLabeling();
+		hmaxima.HMaxima(input, 1, 0);
+		assertEquals("h-maxima", 2, hmaxima.getNumberOfFoundObjects());
+
+		MaxTree tree = new MaxTree(input, 0);
+		assertEquals("maxima of the max-tree", 2, tree.getNumberOfMaxima(MaxTree.Attribute.HEIGHT, 0));
+		assertEquals("number of nodes", 3, tree.getNumberOfNodes());
+		assertEquals("height of the node joining the peaks", 0.2, tree.getAttribute(MaxTree.Attribute.HEIGHT, 2), 1e-6);
+	}
+
+}
@@ -0,0 +1,81 @@
+package de.mpicbg.scf.imgtools.image.create.labelmap;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class ThresholdLabelingTest {
+
+	@Test
+	public void testParallelLabelingEqualsSequential()
+	{
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		float threshold = 120;
+
+		for( ImageConnectivity.Connectivity connectivity : new ImageConnectivity.Connectivity[] { ImageConnectivity.Connectivity.FULL, ImageConnectivity.Connectivity.FACE } )
+		{
+			ThresholdLabeling sequential = new ThresholdLabeling();
+			Img<IntType> reference = sequential.Labeling(input, threshold, connectivity, 1);
+
+			for( int numThreads : new int[] {2, 3, 8} )
+			{
+				ThresholdLabeling parallel = new ThresholdLabeling();
+				Img<IntType> labeling = parallel.Labeling(input, threshold, connectivity, numThreads);
+
+				assertEquals("number of labels with " + connectivity + " and " + numThreads + " threads", sequential.getNumberOfFoundObjects(), parallel.getNumberOfFoundObjects());
+				assertTrue("labels with " + connectivity + " and " + numThreads + " threads", labelsEqual(reference, labeling));
+			}
+		}
+	}
+
+	@Test
+	public void testConnectivity()
+	{
+		// two pixels touching by a corner in each of the 3 planes
+		float[] values = new float[3 * 3 * 3];
+		for( int z=0; z<3; z++ )
+		{
+			values[z*9] = 1;
+			values[z*9 + 4] = 1;
+		}
+		Img<FloatType> input = ArrayImgs.floats(values, 3, 3, 3);
+
+		for( int numThreads : new int[] {1, 3} )
+		{
+			ThresholdLabeling labeling = new ThresholdLabeling();
+			labeling.Labeling(input, 0, ImageConnectivity.Connectivity.FULL, numThreads);
+			assertEquals("objects with FULL connectivity and " + numThreads + " threads", 1, labeling.getNumberOfFoundObjects());
+
+			labeling.Labeling(input, 0, ImageConnectivity.Connectivity.FACE, numThreads);
+			assertEquals("objects with FACE connectivity and " + numThreads + " threads", 2, labeling.getNumberOfFoundObjects());
+		}
+	}
+
+	private static boolean labelsEqual(Img<IntType> img1, Img<IntType> img2)
+	{
+		Cursor<IntType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<IntType> c2 = Views.flatIterable(img2).cursor();
+		while( c1.hasNext() )
+		{
+			if( c1.next().get() != c2.next().get() )
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -3,11 +3,16 @@ package de.mpicbg.scf.imgtools.image.create.labelmap;
 import static org.junit.Assert.*;
 import ij.IJ;
 import ij.ImagePlus;
+import java.util.Random;
+
 import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.FloatType;
 import de.mpicbg.scf.imgtools.image.create.image.ImageCreationUtilities;
@@ -119,6 +124,224 @@ public class WatershedLabelingTest {
 	}
 	
 	
+	@Test
+	public void testWatershedInPlaceOnNonIntegerImage() {
+
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		
+		ImagePlus impSeed = IJ.openImage("src/test/resources/blobs_hmax20.tif");
+		Img<IntType> seed = ImagePlusAdapter.wrap(impSeed);
+		
+		// same grey value order, but no integer level left
+		Img<FloatType> scaledInput = input.copy();
+		for (FloatType p : scaledInput) {
+			p.setReal(p.getRealFloat() / 255.0f + 0.001f);
+		}
+		
+		Img<FloatType> wsInteger = WatershedLabeling.watershedInPlace( input.copy(), seed );
+		Img<FloatType> wsFloat = WatershedLabeling.watershedInPlace( scaledInput, seed );
+		
+		Cursor<FloatType> cursorInteger = wsInteger.cursor();
+		Cursor<FloatType> cursorFloat = wsFloat.cursor();
+		while (cursorInteger.hasNext()) {
+			assertEquals("watershed of the scaled float image gives the same labels as the integer image", cursorInteger.next().getRealFloat(), cursorFloat.next().getRealFloat(), 0);
+		}
+		
+		// with a threshold between two levels
+		scaledInput = input.copy();
+		for (FloatType p : scaledInput) {
+			p.setReal(p.getRealFloat() / 255.0f + 0.001f);
+		}
+		Img<FloatType> wsIntegerThresh = WatershedLabeling.watershedInPlace( input.copy(), seed, 100, WatershedLabeling.WatershedConnectivity.FACE );
+		Img<FloatType> wsFloatThresh = WatershedLabeling.watershedInPlace( scaledInput, seed, 99.5f / 255.0f + 0.001f, WatershedLabeling.WatershedConnectivity.FACE );
+		
+		cursorInteger = wsIntegerThresh.cursor();
+		cursorFloat = wsFloatThresh.cursor();
+		while (cursorInteger.hasNext()) {
+			assertEquals("thresholded watershed of the scaled float image gives the same labels as the integer image", cursorInteger.next().getRealFloat(), cursorFloat.next().getRealFloat(), 0);
+		}
+	}
+	
+	
+	@Test
+	public void testParallelWatershedIsIndependentOfBlocksAndThreads() {
+
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+		
+		ImagePlus impSeed = IJ.openImage("src/test/resources/blobs_hmax20.tif");
+		Img<IntType> seed = ImagePlusAdapter.wrap(impSeed);
+		
+		long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+		int[] singleBlock = new int[] {(int)dims[0], (int)dims[1]};
+		
+		for (WatershedLabeling.WatershedConnectivity connectivity : WatershedLabeling.WatershedConnectivity.values()) {
+			Img<IntType> wsSingle = ArrayImgs.ints(dims);
+			ParallelWatershedLabeling.watershed(input, seed, wsSingle, 100, connectivity, singleBlock, 1);
+			
+			Img<IntType> wsBlocks = ArrayImgs.ints(dims);
+			ParallelWatershedLabeling.watershed(input, seed, wsBlocks, 100, connectivity, new int[] {16, 11}, 4);
+			
+			Img<FloatType> wsInPlace = WatershedLabeling.watershedInPlace(input.copy(), seed, 100, connectivity);
+			
+			Cursor<IntType> cursorSingle = wsSingle.cursor();
+			Cursor<IntType> cursorBlocks = wsBlocks.cursor();
+			Cursor<FloatType> cursorInPlace = wsInPlace.cursor();
+			while (cursorSingle.hasNext()) {
+				int label = cursorSingle.next().get();
+				assertEquals("parallel watershed gives the same labels for any block size and number of threads (" + connectivity + ")", label, cursorBlocks.next().get());
+				assertEquals("parallel watershed floods the same pixels as watershedInPlace (" + connectivity + ")", label == 0, cursorInPlace.next().getRealFloat() == 0);
+			}
+			assertEquals("number of seeds equals the number of parallel watershed regions (" + connectivity + ")", getMax(seed), getMax(wsBlocks), 0.00001f);
+		}
+	}
+	
+	
+	@Test
+	public void testParallelWatershedEqualsWatershedInPlaceOnDistinctValues() {
+
+		// every grey value once and none is an integer: there is no tie, labels have to be the ones of watershedInPlace
+		long[] dims = new long[] {64, 48};
+		int size = (int)(dims[0] * dims[1]);
+		Random random = new Random(7);
+		int[] permutation = new int[size];
+		for (int i = 0; i < size; i++) {
+			int j = random.nextInt(i + 1);
+			permutation[i] = permutation[j];
+			permutation[j] = i;
+		}
+		Img<FloatType> input = ArrayImgs.floats(dims);
+		int i = 0;
+		for (FloatType p : input)
+			p.setReal(permutation[i++] + 0.5f);
+
+		Img<IntType> seed = ArrayImgs.ints(dims);
+		Cursor<IntType> cursorSeed = seed.cursor();
+		for (int k = 0; k < 12; k++) {
+			cursorSeed.reset();
+			cursorSeed.jumpFwd(1 + random.nextInt(size));
+			cursorSeed.get().set(1 + k);
+		}
+
+		for (WatershedLabeling.WatershedConnectivity connectivity : WatershedLabeling.WatershedConnectivity.values()) {
+			Img<FloatType> wsInPlace = WatershedLabeling.watershedInPlace(input.copy(), seed, Float.NEGATIVE_INFINITY, connectivity);
+
+			for (int[] blockSize : new int[][] {{5, 7}, {16, 11}, {64, 48}}) {
+				for (int numThreads : new int[] {1, 3}) {
+					Img<IntType> wsBlocks = ArrayImgs.ints(dims);
+					ParallelWatershedLabeling.watershed(input, seed, wsBlocks, Float.NEGATIVE_INFINITY, connectivity, blockSize, numThreads);
+
+					Cursor<FloatType> cursorInPlace = wsInPlace.cursor();
+					Cursor<IntType> cursorBlocks = wsBlocks.cursor();
+					while (cursorInPlace.hasNext())
+						assertEquals("parallel watershed gives the labels of watershedInPlace (" + connectivity + ", blocks " + blockSize[0] + "x" + blockSize[1] + ", " + numThreads + " threads)", cursorInPlace.next().getRealFloat(), cursorBlocks.next().get(), 0);
+				}
+			}
+		}
+	}
+
+
+	@Test(timeout = 60000)
+	public void testParallelWatershedTieRuleOnPlateau() {
+
+		// a single plateau over all the blocks: pixels take the label of the closest seed, the smallest label
+		// where two seeds are as close. The flood crosses every block, many rounds are needed to converge
+		long[] dims = new long[] {40, 30};
+		Img<FloatType> input = ArrayImgs.floats(dims);
+		for (FloatType p : input)
+			p.setReal(1);
+
+		Img<IntType> seed = ArrayImgs.ints(dims);
+		RandomAccess<IntType> raSeed = seed.randomAccess();
+		raSeed.setPosition(new long[] {5, 15});
+		raSeed.get().set(2);
+		raSeed.setPosition(new long[] {33, 15});
+		raSeed.get().set(1);
+
+		for (int[] blockSize : new int[][] {{1, 1}, {7, 4}, {16, 11}}) {
+			Img<IntType> wsBlocks = ArrayImgs.ints(dims);
+			ParallelWatershedLabeling.watershed(input, seed, wsBlocks, Float.NEGATIVE_INFINITY, WatershedLabeling.WatershedConnectivity.FACE, blockSize, 3);
+
+			Cursor<IntType> cursorBlocks = wsBlocks.cursor();
+			while (cursorBlocks.hasNext()) {
+				int label = cursorBlocks.next().get();
+				long x = cursorBlocks.getLongPosition(0);
+				long y = cursorBlocks.getLongPosition(1);
+				long distance1 = Math.abs(x - 33) + Math.abs(y - 15);
+				long distance2 = Math.abs(x - 5) + Math.abs(y - 15);
+				assertEquals("plateau pixel (" + x + ", " + y + ") takes the label of the closest seed, the smallest one on ties (blocks " + blockSize[0] + "x" + blockSize[1] + ")", distance1 <= distance2 ? 1 : 2, label);
+			}
+		}
+	}
+
+
+	@Test
+	public void testWatershedToLabelImageEqualsWatershedInPlace() {
+
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> input = ImagePlusAdapter.convertFloat(imp);
+
+		ImagePlus impSeed = IJ.openImage("src/test/resources/blobs_hmax20.tif");
+		Img<IntType> seed = ImagePlusAdapter.wrap(impSeed);
+
+		long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+
+		// same image in an ArrayImg, read directly in its float array
+		Img<FloatType> arrayInput = ArrayImgs.floats(dims);
+		Cursor<FloatType> cursorArray = arrayInput.cursor();
+		for (FloatType p : input)
+			cursorArray.next().set(p);
+
+		for (WatershedLabeling.WatershedConnectivity connectivity : WatershedLabeling.WatershedConnectivity.values()) {
+			Img<FloatType> wsInPlace = WatershedLabeling.watershedInPlace(input.copy(), seed, 100, connectivity);
+
+			Img<IntType> wsInt = ArrayImgs.ints(dims);
+			WatershedLabeling.watershed(input, seed, wsInt, 100, connectivity);
+
+			Img<UnsignedShortType> wsShort = ArrayImgs.unsignedShorts(dims);
+			WatershedLabeling.watershed(arrayInput, seed, wsShort, 100, connectivity);
+
+			Cursor<FloatType> cursorInPlace = wsInPlace.cursor();
+			Cursor<IntType> cursorInt = wsInt.cursor();
+			Cursor<UnsignedShortType> cursorShort = wsShort.cursor();
+			while (cursorInPlace.hasNext()) {
+				float label = cursorInPlace.next().get();
+				assertEquals("watershed to an IntType image gives the labels of watershedInPlace (" + connectivity + ")", label, cursorInt.next().get(), 0);
+				assertEquals("watershed of an ArrayImg to an UnsignedShortType image gives the labels of watershedInPlace (" + connectivity + ")", label, cursorShort.next().get(), 0);
+			}
+		}
+
+		Cursor<FloatType> cursorInput = input.cursor();
+		cursorArray = arrayInput.cursor();
+		while (cursorInput.hasNext())
+			assertEquals("watershed does not modify its input", cursorInput.next().get(), cursorArray.next().get(), 0);
+
+		// nothing is flooded outside of the mask
+		Img<UnsignedByteType> mask = ArrayImgs.unsignedBytes(dims);
+		Cursor<UnsignedByteType> cursorMask = mask.cursor();
+		while (cursorMask.hasNext()) {
+			cursorMask.fwd();
+			cursorMask.get().set(cursorMask.getLongPosition(0) < dims[0] / 2 ? 0 : 255);
+		}
+		Img<IntType> wsMasked = ArrayImgs.ints(dims);
+		WatershedLabeling.watershed(input, seed, mask, wsMasked, 100, WatershedLabeling.WatershedConnectivity.FULL);
+
+		Cursor<IntType> cursorMasked = wsMasked.cursor();
+		boolean isLabeledInMask = false;
+		while (cursorMasked.hasNext()) {
+			int label = cursorMasked.next().get();
+			if (cursorMasked.getLongPosition(0) < dims[0] / 2)
+				assertEquals("watershed does not flood outside of the mask", 0, label);
+			else
+				isLabeledInMask |= label > 0;
+		}
+		assertTrue("watershed floods inside of the mask", isLabeledInMask);
+	}
+
+
 	private static <T extends RealType<T> > float getMax(Img<T> input)
 	{
 		float max = Float.MIN_VALUE;
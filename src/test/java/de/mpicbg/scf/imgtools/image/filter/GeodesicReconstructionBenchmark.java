@@ -0,0 +1,96 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+
+// time of the reconstruction by dilation of (blobs - h) under a 3D stack of blobs with the queue
+// reconstructions 1 and 2 and the hybrid one, the results are checked against the hybrid reconstruction
+// run with e.g. -Xmx4g, arguments: [width height depth] [number of repetitions]
+
+public class GeodesicReconstructionBenchmark {
+
+	public static void main(final String... args)
+	{
+		int width  = args.length>=3 ? Integer.parseInt(args[0]) : 512;
+		int height = args.length>=3 ? Integer.parseInt(args[1]) : 512;
+		int depth  = args.length>=3 ? Integer.parseInt(args[2]) : 64;
+		int nIter  = args.length>=4 ? Integer.parseInt(args[3]) : 3;
+
+		Img<UnsignedShortType> mask = createBlobs(width, height, depth, 500, 1);
+		int h = 20;
+		Img<UnsignedShortType> marker = mask.copy();
+		for (UnsignedShortType t : marker)
+			t.set(Math.max(0, t.get() - h));
+		System.out.println("reconstruction of " + width + "x" + height + "x" + depth + " blobs - " + h);
+
+		GeodesicReconstruction reconstruction = new GeodesicReconstruction();
+		Img<UnsignedShortType> reference = reconstruction.reconstructionByDilation(mask, marker.copy(), ImageConnectivity.Connectivity.FULL);
+
+		for (String method : new String[] {"reconstruction1", "reconstruction2", "hybrid"})
+		{
+			long best = Long.MAX_VALUE;
+			Img<UnsignedShortType> result = null;
+			for (int i = 0; i < nIter; i++)
+			{
+				result = marker.copy();
+				long start = System.nanoTime();
+				if (method.equals("reconstruction1"))
+					reconstruction.reconstruction1(mask, result);
+				else if (method.equals("reconstruction2"))
+					reconstruction.reconstruction2(mask, result);
+				else
+					reconstruction.reconstructionByDilation(mask, result, ImageConnectivity.Connectivity.FULL);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(method + ": " + best / 1000000 + " ms, same result: " + imagesEqual(reference, result));
+		}
+	}
+
+	// sum of gaussian blobs of random height and size plus noise
+	private static Img<UnsignedShortType> createBlobs(int width, int height, int depth, int nBlobs, long seed)
+	{
+		short[] data = new short[width * height * depth];
+		Random random = new Random(seed);
+		for (int b = 0; b < nBlobs; b++)
+		{
+			int cx = random.nextInt(width), cy = random.nextInt(height), cz = random.nextInt(depth);
+			double amplitude = 50 + random.nextInt(200);
+			double sigma = 3 + random.nextInt(8);
+			int r = (int) (3 * sigma);
+			for (int z = Math.max(0, cz - r); z < Math.min(depth, cz + r + 1); z++)
+				for (int y = Math.max(0, cy - r); y < Math.min(height, cy + r + 1); y++)
+					for (int x = Math.max(0, cx - r); x < Math.min(width, cx + r + 1); x++)
+					{
+						double d2 = (x - cx) * (x - cx) + (y - cy) * (y - cy) + (z - cz) * (z - cz);
+						int idx = x + width * (y + height * z);
+						data[idx] = (short) Math.min(0xffff, (data[idx] & 0xffff) + (int) (amplitude * Math.exp(-d2 / (2 * sigma * sigma))));
+					}
+		}
+		for (int i = 0; i < data.length; i++)
+			data[i] = (short) Math.min(0xffff, (data[i] & 0xffff) + random.nextInt(5));
+		return ArrayImgs.unsignedShorts(data, width, height, depth);
+	}
+
+	private static boolean imagesEqual(Img<UnsignedShortType> img1, Img<UnsignedShortType> img2)
+	{
+		Cursor<UnsignedShortType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<UnsignedShortType> c2 = Views.flatIterable(img2).cursor();
+		while (c1.hasNext())
+		{
+			if (c1.next().get() != c2.next().get())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,102 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class GeodesicReconstructionTest {
+
+	@Test
+	public void testReconstructionByDilationAndErosion()
+	{
+		GeodesicReconstruction reconstruction = new GeodesicReconstruction();
+
+		float[] marker = {0, 3, 0, 0, 0, 6, 0};
+		reconstruction.reconstructionByDilation(ArrayImgs.floats(new float[] {0, 5, 5, 2, 7, 7, 0}, 7, 1), ArrayImgs.floats(marker, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("reconstruction by dilation", new float[] {0, 3, 3, 2, 6, 6, 0}, marker, 0);
+
+		marker = new float[] {9, 2, 9, 9, 9, 9, 9};
+		reconstruction.reconstructionByErosion(ArrayImgs.floats(new float[] {0, 1, 1, 4, 1, 1, 0}, 7, 1), ArrayImgs.floats(marker, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("reconstruction by erosion", new float[] {2, 2, 2, 4, 4, 4, 4}, marker, 0);
+	}
+
+	@Test
+	public void testConnectivity()
+	{
+		// 3 pixels on the diagonal, only connected by their corners
+		float[] mask = {5, 0, 0, 0, 5, 0, 0, 0, 5};
+		GeodesicReconstruction reconstruction = new GeodesicReconstruction();
+
+		float[] marker = {5, 0, 0, 0, 0, 0, 0, 0, 0};
+		reconstruction.reconstructionByDilation(ArrayImgs.floats(mask, 3, 3), ArrayImgs.floats(marker, 3, 3), ImageConnectivity.Connectivity.FULL);
+		assertArrayEquals("FULL connectivity", mask, marker, 0);
+
+		marker = new float[] {5, 0, 0, 0, 0, 0, 0, 0, 0};
+		reconstruction.reconstructionByDilation(ArrayImgs.floats(mask, 3, 3), ArrayImgs.floats(marker, 3, 3), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("FACE connectivity", new float[] {5, 0, 0, 0, 0, 0, 0, 0, 0}, marker, 0);
+	}
+
+	@Test
+	public void testValuesAreNotRoundedToFloat()
+	{
+		GeodesicReconstruction reconstruction = new GeodesicReconstruction();
+
+		// steps of 0.125 around 1e9, below the float precision
+		double b = 1e9;
+		double[] marker = {b, b + 0.375, b, b, b, b + 0.625, b};
+		reconstruction.reconstructionByDilation(ArrayImgs.doubles(new double[] {b, b + 0.5, b + 0.5, b + 0.25, b + 0.75, b + 0.75, b}, 7, 1), ArrayImgs.doubles(marker, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("reconstruction by dilation of doubles", new double[] {b, b + 0.375, b + 0.375, b + 0.25, b + 0.625, b + 0.625, b}, marker, 0);
+
+		// int values above 2^24, through views that are copied and written back
+		int i = 1 << 30;
+		int[] intMarker = {i + 9, i + 2, i + 9, i + 9, i + 9, i + 9, i + 9};
+		Img<IntType> maskImg = ArrayImgs.ints(new int[] {i, i + 1, i + 1, i + 4, i + 1, i + 1, i}, 7, 1);
+		Img<IntType> markerImg = ArrayImgs.ints(intMarker, 7, 1);
+		reconstruction.reconstructionByErosion(Views.interval(maskImg, maskImg), Views.interval(markerImg, markerImg), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("reconstruction by erosion of ints", new int[] {i + 2, i + 2, i + 2, i + 4, i + 4, i + 4, i + 4}, intMarker);
+	}
+
+	@Test
+	public void testHybridEqualsQueueReconstruction()
+	{
+		ImagePlus imp = IJ.openImage("src/test/resources/blobs.tif");
+		Img<FloatType> mask = ImagePlusAdapter.convertFloat(imp);
+		Img<FloatType> marker = mask.copy();
+		for( FloatType t : marker )
+			t.setReal(Math.max(0, t.getRealFloat() - 20));
+		Img<FloatType> marker2 = marker.copy();
+
+		GeodesicReconstruction reconstruction = new GeodesicReconstruction();
+		reconstruction.reconstruction2(mask, marker);
+		reconstruction.reconstructionByDilation(mask, marker2, ImageConnectivity.Connectivity.FULL);
+
+		assertTrue("hybrid and queue reconstructions", imagesEqual(marker, marker2));
+	}
+
+	private static boolean imagesEqual(Img<FloatType> img1, Img<FloatType> img2)
+	{
+		Cursor<FloatType> c1 = Views.flatIterable(img1).cursor();
+		Cursor<FloatType> c2 = Views.flatIterable(img2).cursor();
+		while( c1.hasNext() )
+		{
+			if( c1.next().get() != c2.next().get() )
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -2,11 +2,19 @@ package de.mpicbg.scf.imgtools.image.filter;
 
 import ij.IJ;
 import ij.ImagePlus;
+import java.lang.management.ManagementFactory;
+import net.imglib2.Cursor;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
 /**
  * Author: Robert Haase, Scientific Computing Facility, MPI-CBG Dresden,
  * rhaase@mpi-cbg.de
@@ -47,4 +55,94 @@ public class LabelmapMathematicalMorphologyTest {
         Img<FloatType> img = ImageJFunctions.convertFloat(imp);
         LabelmapMathematicalMorphology.openingLabelMap(img, 3);
     }
+
+    @Test
+    public void testErosionSeparatesTouchingLabels() {
+        Img<FloatType> labelMap = ArrayImgs.floats(new float[]{1, 1, 1, 2, 2, 2, 2}, 7, 1);
+        Img<FloatType> eroded = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, 1, null);
+        assertArrayEquals("eroded labels", new float[]{0, 1, 0, 0, 2, 2, 0}, toArray(eroded), 0);
+
+        eroded = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, 1, null, false);
+        assertArrayEquals("labels eroded without the image border", new float[]{1, 1, 0, 0, 2, 2, 2}, toArray(eroded), 0);
+    }
+
+    @Test
+    public void testDilationKeepsLabelsApart() {
+        Img<FloatType> labelMap = ArrayImgs.floats(new float[]{1, 0, 0, 0, 0, 0, 2}, 7, 1);
+        Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateLabelMap(labelMap, 2, null);
+        assertArrayEquals("dilated labels", new float[]{1, 1, 1, 0, 2, 2, 2}, toArray(dilated), 0);
+    }
+
+    @Test
+    public void testAnisotropicDilation() {
+        float[] values = new float[25];
+        values[12] = 3;
+        float[] expected = new float[25];
+        expected[11] = expected[12] = expected[13] = 3;
+
+        // the pixels are 2 units high: only the neighbors along x are closer than 1.5
+        Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateLabelMap(ArrayImgs.floats(values, 5, 5), 1.5, new double[]{1, 2});
+        assertArrayEquals("dilation with a voxel size of 1x2", expected, toArray(dilated), 0);
+    }
+
+    @Test
+    public void testFusedOpeningEqualsComposedOpening() {
+        ImagePlus imp = IJ.openImage("src/test/resources/labelMapToErode.tif");
+        Img<FloatType> labelMap = ImageJFunctions.convertFloat(imp);
+
+        for (int radius : new int[]{1, 3}) {
+            Img<FloatType> expected = composedOpening(labelMap, radius);
+            Img<FloatType> opened = labelMap.copy();
+            LabelmapMathematicalMorphology.openingLabelMap(opened, radius, null, opened);
+            assertArrayEquals("opening of radius " + radius, toArray(expected), toArray(opened), 0);
+        }
+    }
+
+    @Test
+    public void testFusedOpeningAllocatesOneBuffer() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        // cubes of 24 pixels with distinct labels
+        Img<FloatType> labelMap = ArrayImgs.floats(256, 256, 64);
+        Cursor<FloatType> cursor = labelMap.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.next();
+            int x = cursor.getIntPosition(0), y = cursor.getIntPosition(1), z = cursor.getIntPosition(2);
+            if (x % 32 < 24 && y % 32 < 24 && z % 32 < 24) {
+                cursor.get().set(1 + x / 32 + 8 * (y / 32 + 8 * (z / 32)));
+            }
+        }
+        long imageSize = labelMap.size() * 4;
+
+        // bytes allocated by this thread, the operations are single threaded
+        long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        composedOpening(labelMap, 3);
+        long composed = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+        start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        LabelmapMathematicalMorphology.openingLabelMap(labelMap, 3, null, labelMap);
+        long fused = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+        String sizes = "label map of " + imageSize + " bytes, " + composed + " bytes allocated by erode/binarize/dilate/mask, " + fused + " bytes by the fused opening";
+        assertTrue("fused opening allocates a single float buffer of the image size: " + sizes, fused < 2 * imageSize);
+        assertTrue("fused opening allocates less than the composed one: " + sizes, fused < composed);
+    }
+
+    // erosion, binarization, dilation and masking with one image for each step
+    private static Img<FloatType> composedOpening(Img<FloatType> labelMap, double radius) {
+        Img<FloatType> eroded = LabelmapMathematicalMorphology.erodeLabelMap(labelMap, radius, null);
+        Img<FloatType> binary = LabelmapMathematicalMorphology.binarizeLabelMap(eroded);
+        Img<FloatType> dilated = LabelmapMathematicalMorphology.dilateLabelMap(binary, radius, null);
+        return ImageFilterUtilities.maskImage(labelMap, dilated);
+    }
+
+    private static float[] toArray(Img<FloatType> img) {
+        float[] values = new float[(int) img.size()];
+        Cursor<FloatType> cursor = Views.flatIterable(img).cursor();
+        for (int i = 0; cursor.hasNext(); i++) {
+            values[i] = cursor.next().get();
+        }
+        return values;
+    }
 }
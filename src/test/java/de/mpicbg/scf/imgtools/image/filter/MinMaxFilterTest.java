@@ -0,0 +1,144 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+
+public class MinMaxFilterTest {
+
+	@Test
+	public void testLineWithBorder()
+	{
+		float[] line = {3, 1, 4, 1, 5, 9, 2, 6};
+		long[] radius = {1, 0};
+
+		Img<FloatType> output = MinMaxFilter.max(ArrayImgs.floats(line, 8, 1), radius, 1);
+		assertArrayEquals("maximum over 3 pixels", new float[] {3, 4, 4, 5, 9, 9, 9, 6}, toArray(output), 0);
+
+		output = MinMaxFilter.min(ArrayImgs.floats(line, 8, 1), radius, 1);
+		assertArrayEquals("minimum over 3 pixels", new float[] {1, 1, 1, 1, 1, 2, 2, 2}, toArray(output), 0);
+
+		// a window larger than the line covers the whole line
+		output = MinMaxFilter.max(ArrayImgs.floats(line, 8, 1), new long[] {20, 0}, 1);
+		assertArrayEquals("maximum of the line", new float[] {9, 9, 9, 9, 9, 9, 9, 9}, toArray(output), 0);
+	}
+
+	@Test
+	public void testBoxAgainstBruteForce()
+	{
+		long[] dims = {11, 7, 5};
+		float[] values = new float[11*7*5];
+		Random random = new Random(1);
+		for( int i=0; i<values.length; i++)
+			values[i] = random.nextInt(50);
+		long[][] radii = {{2, 1, 3}, {0, 2, 1}, {4, 0, 0}, {1, 1, 1}};
+
+		for( long[] radius : radii )
+		{
+			float[] expectedMax = bruteForce(values, dims, radius, true);
+			float[] expectedMin = bruteForce(values, dims, radius, false);
+
+			// array, planar and cell images, filtered by several threads
+			for( int k=0; k<3; k++)
+			{
+				RandomAccessibleInterval<FloatType> input = createImage(k, dims, values);
+				String name = k==0 ? "ArrayImg" : k==1 ? "PlanarImg" : "CellImg";
+				assertArrayEquals("maximum of " + name, expectedMax, toArray(MinMaxFilter.max(input, radius, 3)), 0);
+				assertArrayEquals("minimum of " + name, expectedMin, toArray(MinMaxFilter.min(input, radius, 3)), 0);
+			}
+
+			// in place
+			Img<FloatType> img = ArrayImgs.floats(values.clone(), dims);
+			MinMaxFilter.max(img, radius, img, 2);
+			assertArrayEquals("maximum in place", expectedMax, toArray(img), 0);
+		}
+	}
+
+	@Test
+	public void testExecutorOfTheCaller()
+	{
+		long[] dims = {11, 7, 5};
+		float[] values = new float[11*7*5];
+		Random random = new Random(2);
+		for( int i=0; i<values.length; i++)
+			values[i] = random.nextInt(50);
+		long[] radius = {2, 1, 3};
+		Img<FloatType> input = ArrayImgs.floats(values, dims);
+
+		// the executor is shared by the filters and not shut down by them, no executor runs in the calling thread
+		ExecutorService service = Executors.newFixedThreadPool(3);
+		try
+		{
+			assertArrayEquals("maximum", bruteForce(values, dims, radius, true), toArray(MinMaxFilter.max(input, radius, service, 4)), 0);
+			assertArrayEquals("minimum", bruteForce(values, dims, radius, false), toArray(MinMaxFilter.min(input, radius, service, 4)), 0);
+			assertFalse("executor still running", service.isShutdown());
+		}
+		finally
+		{
+			service.shutdown();
+		}
+		assertArrayEquals("maximum in the calling thread", bruteForce(values, dims, radius, true), toArray(MinMaxFilter.max(input, radius, null, 2)), 0);
+	}
+
+	private static RandomAccessibleInterval<FloatType> createImage(int kind, long[] dims, float[] values)
+	{
+		Img<FloatType> img;
+		if( kind==0 )
+			img = ArrayImgs.floats(dims);
+		else if( kind==1 )
+			img = PlanarImgs.floats(dims);
+		else
+			img = new CellImgFactory<FloatType>(new FloatType(), 4).create(dims);
+		Cursor<FloatType> cursor = Views.flatIterable(img).cursor();
+		for( int i=0; cursor.hasNext(); i++)
+			cursor.next().set(values[i]);
+		return img;
+	}
+
+	// maximum (minimum) over the box clipped to the image
+	private static float[] bruteForce(float[] values, long[] dims, long[] radius, boolean isMax)
+	{
+		int nx = (int) dims[0], ny = (int) dims[1], nz = (int) dims[2];
+		float[] result = new float[values.length];
+		for( int z=0; z<nz; z++)
+			for( int y=0; y<ny; y++)
+				for( int x=0; x<nx; x++)
+				{
+					float extremum = values[x + nx*(y + ny*z)];
+					for( int z2=(int)Math.max(0, z-radius[2]); z2<=Math.min(nz-1, z+radius[2]); z2++)
+						for( int y2=(int)Math.max(0, y-radius[1]); y2<=Math.min(ny-1, y+radius[1]); y2++)
+							for( int x2=(int)Math.max(0, x-radius[0]); x2<=Math.min(nx-1, x+radius[0]); x2++)
+							{
+								float v = values[x2 + nx*(y2 + ny*z2)];
+								extremum = isMax ? Math.max(extremum, v) : Math.min(extremum, v);
+							}
+					result[x + nx*(y + ny*z)] = extremum;
+				}
+		return result;
+	}
+
+	private static float[] toArray(RandomAccessibleInterval<FloatType> img)
+	{
+		float[] values = new float[(int) Views.iterable(img).size()];
+		Cursor<FloatType> cursor = Views.flatIterable(img).cursor();
+		for( int i=0; cursor.hasNext(); i++)
+			values[i] = cursor.next().get();
+		return values;
+	}
+
+}
@@ -0,0 +1,122 @@
+package de.mpicbg.scf.imgtools.image.filter;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+import de.mpicbg.scf.imgtools.image.neighborhood.ImageConnectivity;
+
+import static org.junit.Assert.assertArrayEquals;
+
+
+public class ReconstructionOperatorsTest {
+
+	@Test
+	public void testFillHolesAndClearBorder()
+	{
+		float[] ring = {0, 0, 0, 0, 0,
+		                0, 1, 1, 1, 0,
+		                0, 1, 0, 1, 0,
+		                0, 1, 1, 1, 0,
+		                0, 0, 0, 0, 0};
+		float[] filled = ring.clone();
+		filled[12] = 1;
+		Img<FloatType> output = ReconstructionOperators.fillHoles(ArrayImgs.floats(ring, 5, 5), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("filled ring", filled, toArray(output), 0);
+
+		float[] objects = {1, 1, 0, 0, 0,
+		                   1, 0, 0, 1, 0,
+		                   0, 0, 1, 1, 0,
+		                   0, 0, 0, 0, 0,
+		                   2, 0, 0, 0, 0};
+		float[] cleared = new float[25];
+		cleared[8] = cleared[12] = cleared[13] = 1;
+		output = ReconstructionOperators.clearBorder(ArrayImgs.floats(objects, 5, 5), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("objects not touching the border", cleared, toArray(output), 0);
+	}
+
+	@Test
+	public void testHDomeAndRegionalExtrema()
+	{
+		float[] profile = {0, 2, 5, 3, 4, 9, 1};
+
+		Img<FloatType> output = ReconstructionOperators.hDome(ArrayImgs.floats(profile, 7, 1), 2, ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("h-domes", new float[] {0, 0, 2, 0, 0, 2, 0}, toArray(output), 0);
+
+		output = ReconstructionOperators.regionalMaxima(ArrayImgs.floats(profile, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional maxima", new float[] {0, 0, 1, 0, 0, 1, 0}, toArray(output), 0);
+
+		output = ReconstructionOperators.regionalMinima(ArrayImgs.floats(profile, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional minima", new float[] {1, 0, 0, 1, 0, 0, 1}, toArray(output), 0);
+
+		// a plateau is a maximum only if none of its pixels has a higher neighbor, also below one grey level
+		float[] plateaus = {1, 3, 3, 2, 3, 0.5f, 0.7f, 0.7f, 0.8f};
+		output = ReconstructionOperators.regionalMaxima(ArrayImgs.floats(plateaus, 9, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional maxima on plateaus", new float[] {0, 1, 1, 0, 1, 0, 0, 0, 1}, toArray(output), 0);
+	}
+
+	@Test
+	public void testValuesAreNotRoundedToFloat()
+	{
+		// steps of 0.125 around 1e9, below the float precision
+		double b = 1e9;
+		double[] profile = {b, b + 0.25, b + 0.625, b + 0.375, b + 0.5, b + 1.125, b + 0.125};
+
+		Img<DoubleType> output = ReconstructionOperators.hDome(ArrayImgs.doubles(profile, 7, 1), 0.25f, ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("h-domes of doubles", new double[] {0, 0, 0.25, 0, 0, 0.25, 0}, toDoubleArray(output), 0);
+
+		output = ReconstructionOperators.regionalMaxima(ArrayImgs.doubles(profile, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional maxima of doubles", new double[] {0, 0, 1, 0, 0, 1, 0}, toDoubleArray(output), 0);
+
+		output = ReconstructionOperators.regionalMinima(ArrayImgs.doubles(profile, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional minima of doubles", new double[] {1, 0, 0, 1, 0, 0, 1}, toDoubleArray(output), 0);
+
+		// int values above 2^24
+		int i = 1 << 30;
+		int[] intProfile = {i, i + 2, i + 5, i + 3, i + 4, i + 9, i + 1};
+
+		Img<IntType> intOutput = ReconstructionOperators.hDome(ArrayImgs.ints(intProfile, 7, 1), 2, ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("h-domes of ints", new double[] {0, 0, 2, 0, 0, 2, 0}, toDoubleArray(intOutput), 0);
+
+		intOutput = ReconstructionOperators.regionalMaxima(ArrayImgs.ints(intProfile, 7, 1), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("regional maxima of ints", new double[] {0, 0, 1, 0, 0, 1, 0}, toDoubleArray(intOutput), 0);
+
+		int[] ring = {i, i,     i,     i,     i,
+		              i, i + 1, i + 1, i + 1, i,
+		              i, i + 1, i,     i + 1, i,
+		              i, i + 1, i + 1, i + 1, i,
+		              i, i,     i,     i,     i};
+		double[] filled = new double[25];
+		for( int k=0; k<25; k++)
+			filled[k] = ring[k];
+		filled[12] = i + 1;
+		intOutput = ReconstructionOperators.fillHoles(ArrayImgs.ints(ring, 5, 5), ImageConnectivity.Connectivity.FACE);
+		assertArrayEquals("filled ring of ints", filled, toDoubleArray(intOutput), 0);
+	}
+
+	private static float[] toArray(Img<FloatType> img)
+	{
+		float[] values = new float[(int) img.size()];
+		Cursor<FloatType> cursor = Views.flatIterable(img).cursor();
+		for( int i=0; cursor.hasNext(); i++)
+			values[i] = cursor.next().get();
+		return values;
+	}
+
+	private static double[] toDoubleArray(Img<? extends RealType<?>> img)
+	{
+		double[] values = new double[(int) img.size()];
+		Cursor<? extends RealType<?>> cursor = Views.flatIterable(img).cursor();
+		for( int i=0; cursor.hasNext(); i++)
+			values[i] = cursor.next().getRealDouble();
+		return values;
+	}
+
+}
@@ -0,0 +1,73 @@
+package de.mpicbg.scf.imgtools.image.neighborhood;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+
+public class ImageNeighborhoodTest {
+
+	@Test
+	public void testNeighborsEqualBruteForce()
+	{
+		long[][] dimsToTest = { {7}, {5, 4}, {1, 6}, {4, 3, 5}, {3, 1, 2, 3} };
+		for( long[] dims : dimsToTest )
+			for( ImageConnectivity.Connectivity connectivity : ImageConnectivity.Connectivity.values() )
+				checkNeighbors(dims, connectivity);
+	}
+
+	private void checkNeighbors(long[] dims, ImageConnectivity.Connectivity connectivity)
+	{
+		int ndim = dims.length;
+		ImageNeighborhood neighborhood = new ImageNeighborhood(dims, connectivity);
+		long[][] neigh = neighborhood.getNeighborPositions();
+
+		final List<Long> visited = new ArrayList<Long>();
+		ImageNeighborhood.NeighborConsumer collect = new ImageNeighborhood.NeighborConsumer() {
+			@Override
+			public void accept(int i, long nIdx)
+			{
+				visited.add(nIdx);
+			}
+		};
+
+		long[] position = new long[ndim];
+		long[] localized = new long[ndim];
+		long[] nPos = new long[ndim];
+		for( long idx=0; idx<neighborhood.size(); idx++, neighborhood.fwd(position) )
+		{
+			neighborhood.localize(idx, localized);
+			assertArrayEquals("fwd and localize agree at index " + idx, localized, position);
+			assertEquals("border code from index and position agree at index " + idx, neighborhood.getBorderCode(position), neighborhood.getBorderCode(idx));
+
+			// neighbors in the image, found by testing their position
+			List<Long> expected = new ArrayList<Long>();
+			for( int i=0; i<neigh.length; i++)
+			{
+				boolean inside = true;
+				for( int d=0; d<ndim; d++)
+				{
+					nPos[d] = position[d] + neigh[i][d];
+					inside &= nPos[d]>=0 && nPos[d]<dims[d];
+				}
+				assertEquals("isInside of neighbor " + i + " at index " + idx, inside, neighborhood.isInside(neighborhood.getBorderCode(position), i));
+				if( inside )
+				{
+					long nIdx = 0;
+					for( int d=ndim-1; d>=0; d--)
+						nIdx = nIdx*dims[d] + nPos[d];
+					expected.add(nIdx);
+				}
+			}
+
+			visited.clear();
+			neighborhood.forEachNeighbor(idx, collect);
+			assertEquals("neighbors of index " + idx + " with " + connectivity, expected, visited);
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package de.mpicbg.scf.imgtools.number.analyse.geometry;
+
+import de.mpicbg.scf.imgtools.geometry.data.Point3D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class GreedyAssignmentTest {
+
+    @Test
+    public void testAssignmentWithIncreasingCutoff() {
+        List<Point3D> reference = new ArrayList<Point3D>();
+        reference.add(new Point3D(0, 0, 0));
+        reference.add(new Point3D(10, 0, 0));
+        reference.add(new Point3D(20, 0, 0));
+        reference.add(new Point3D(30, 0, 0));
+
+        List<Point3D> source = new ArrayList<Point3D>();
+        source.add(new Point3D(0, 0, 0));
+        source.add(new Point3D(10, 0.5, 0));
+        source.add(new Point3D(20, 1.5, 0));
+        source.add(new Point3D(30, 2.5, 0));
+        source.add(new Point3D(40, 3.5, 0));
+
+        int[][] expected = {
+                {0, -1, -1, -1, -1},
+                {0, 1, -1, -1, -1},
+                {0, 1, 2, -1, -1},
+                {0, 1, 2, 3, -1},
+                {0, 1, 2, 3, -1}
+        };
+        for (int cutoff = 0; cutoff < expected.length; cutoff++) {
+            int[] match = GreedyAssignment.assign_to_closest_unique(source, reference, cutoff);
+            assertTrue("matches with cutoff " + cutoff + ": " + Arrays.toString(match), Arrays.equals(match, expected[cutoff]));
+        }
+    }
+
+    @Test
+    public void testClosestPairIsLinkedFirst() {
+        // the second source point is closer to the reference point than the first one, ties are linked in source order
+        List<Point3D> reference = new ArrayList<Point3D>();
+        reference.add(new Point3D(5, 0, 0));
+
+        List<Point3D> source = new ArrayList<Point3D>();
+        source.add(new Point3D(2, 0, 0));
+        source.add(new Point3D(6, 0, 0));
+        int[] match = GreedyAssignment.assign_to_closest_unique(source, reference, 10);
+        assertTrue("closest source point is matched " + Arrays.toString(match), Arrays.equals(match, new int[]{-1, 0}));
+
+        source.set(0, new Point3D(4, 0, 0));
+        match = GreedyAssignment.assign_to_closest_unique(source, reference, 10);
+        assertTrue("first of two equally close points is matched " + Arrays.toString(match), Arrays.equals(match, new int[]{0, -1}));
+    }
+}
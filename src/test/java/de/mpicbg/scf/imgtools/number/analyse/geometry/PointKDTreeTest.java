@@ -0,0 +1,106 @@
+package de.mpicbg.scf.imgtools.number.analyse.geometry;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PointKDTreeTest {
+
+    @Test
+    public void testIfQueriesEqualBruteForce() {
+        Random random = new Random(3);
+        int numPoints = 500;
+        double[] coordinates = new double[numPoints * 3];
+        for (int i = 0; i < coordinates.length; i++) {
+            // integer coordinates for many equal distances
+            coordinates[i] = random.nextInt(20);
+        }
+        PointKDTree tree = new PointKDTree(coordinates, 3);
+        assertTrue("All points are in the tree", tree.size() == numPoints);
+
+        int k = 6;
+        int[] found = new int[k];
+        double[] distances = new double[k];
+        double[] position = new double[3];
+        for (int i = 0; i < numPoints; i++) {
+            System.arraycopy(coordinates, i * 3, position, 0, 3);
+            double[] bruteForce = new double[numPoints - 1];
+            int n = 0;
+            for (int j = 0; j < numPoints; j++) {
+                if (j != i) {
+                    bruteForce[n++] = distance(coordinates, i, j);
+                }
+            }
+            Arrays.sort(bruteForce);
+
+            assertTrue("k points found", tree.findNearest(position, k, i, found, distances) == k);
+            for (int m = 0; m < k; m++) {
+                assertTrue("distance to neighbor " + m + " of point " + i, distances[m] == bruteForce[m] && distances[m] == distance(coordinates, i, found[m]));
+                assertTrue("point itself is excluded", found[m] != i);
+            }
+
+            int[] within = tree.findWithin(position, 4);
+            int count = 0;
+            for (double distance : bruteForce) {
+                if (distance <= 4) {
+                    count++;
+                }
+            }
+            // the point itself is found too
+            assertTrue("points within the radius of point " + i, within.length == count + 1);
+            for (int j : within) {
+                assertTrue("found point within the radius", distance(coordinates, i, j) <= 4);
+            }
+        }
+    }
+
+    @Test
+    public void testNeighborPointsAnalyser() {
+        // points on a line at 0, 1, 3, 6 and a point that is not a number
+        float[][] points = {{0, 0}, {1, 0}, {3, 0}, {6, 0}, {Float.NaN, 0}};
+
+        NeighborPointsAnalyser npa = new NeighborPointsAnalyser(points);
+        npa.setNumThreads(2);
+        float[] averageDistances = npa.getAverageDistanceOfNClosestPoints(2);
+        assertTrue("average distances " + Arrays.toString(averageDistances), Arrays.equals(averageDistances, new float[]{2, 1.5f, 2.5f, 4, Float.POSITIVE_INFINITY}));
+
+        long[] counts = npa.getNumberOfPointsNearerAs(2);
+        assertTrue("counts " + Arrays.toString(counts), Arrays.equals(counts, new long[]{1, 2, 1, 0, 0}));
+    }
+
+    private static double distance(double[] coordinates, int i, int j) {
+        double sum = 0;
+        for (int d = 0; d < 3; d++) {
+            sum += Math.pow(coordinates[i * 3 + d] - coordinates[j * 3 + d], 2);
+        }
+        return Math.sqrt(sum);
+    }
+}
@@ -11,6 +11,8 @@ import ij.measure.Calibration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
@@ -418,6 +420,95 @@ public class LabelAnalyserTest {
         assertTrue("measured standard deviations equal reference (" + Arrays.toString(referenceStdDevs) + " != " + Arrays.toString(testStdDevs) + ")", new Equal(referenceStdDevs, testStdDevs, 0.1).evaluate());
     }
 
+    @Test
+    public void testIfSingleSweepEqualsLabelMoments() {
+        Img<FloatType> signalMap = ImageJFunctions.convertFloat(IJ.openImage("src/test/resources/blobs.tif"));
+        Img<FloatType> labelMap = ImageJFunctions.convertFloat(IJ.openImage("src/test/resources/blobs_labelmap.tif"));
+        double tolerance = 0.000001;
+
+        LabelAnalyser<FloatType, FloatType> la = new LabelAnalyser<FloatType, FloatType>(labelMap, new double[]{1, 1}, new Feature[]{Feature.AREA_VOLUME,
+                Feature.MEAN, Feature.STD_DEV, Feature.MIN, Feature.MAX, Feature.AVERAGE_POSITION, Feature.CENTER_OF_MASS, Feature.EIGENVALUES,
+                Feature.ASPECT_RATIO});
+        la.setSignalImage(signalMap);
+
+        Interval[] boundingIntervals = LabelAnalyser.getLabelsBoundingIntervals(labelMap);
+        assertTrue("number of labels", la.getNumLabels() == boundingIntervals.length);
+
+        for (int i = 0; i < boundingIntervals.length; i++) {
+            LabelMoments3D<FloatType, FloatType> lm3d = new LabelMoments3D<FloatType, FloatType>(labelMap, i + 1, boundingIntervals[i], new double[]{1, 1}, 2);
+            double[][][] m = lm3d.getMoments();
+            double[] ev = lm3d.getEigenVector();
+            assertTrue("volume of label " + (i + 1), la.getFeatures(Feature.AREA_VOLUME)[i] == m[0][0][0]);
+            assertTrue("average X of label " + (i + 1), Math.abs(la.getFeatures(Feature.AVERAGE_POSITION, 0)[i] - m[1][0][0] / m[0][0][0]) < tolerance);
+            assertTrue("average Y of label " + (i + 1), Math.abs(la.getFeatures(Feature.AVERAGE_POSITION, 1)[i] - m[0][1][0] / m[0][0][0]) < tolerance);
+            for (int d = 0; d < ev.length; d++) {
+                assertTrue("eigenvalue " + d + " of label " + (i + 1), Math.abs(la.getFeatures(Feature.EIGENVALUES, d)[i] - ev[d]) < tolerance);
+            }
+            assertTrue("aspect ratio of label " + (i + 1), Math.abs(la.getFeatures(Feature.ASPECT_RATIO)[i] - lm3d.getAspectRatio()) < tolerance);
+
+            lm3d.setSignalImage(signalMap);
+            double[][][] mw = lm3d.getMoments();
+            double mean = mw[0][0][0] / m[0][0][0];
+            assertTrue("mean of label " + (i + 1), Math.abs(la.getFeatures(Feature.MEAN)[i] - mean) < tolerance);
+            assertTrue("center of mass X of label " + (i + 1), Math.abs(la.getFeatures(Feature.CENTER_OF_MASS, 0)[i] - mw[1][0][0] / mw[0][0][0]) < tolerance);
+            assertTrue("center of mass Y of label " + (i + 1), Math.abs(la.getFeatures(Feature.CENTER_OF_MASS, 1)[i] - mw[0][1][0] / mw[0][0][0]) < tolerance);
+
+            double sum = 0;
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            Cursor<FloatType> labelCursor = labelMap.cursor();
+            Cursor<FloatType> signalCursor = signalMap.cursor();
+            while (labelCursor.hasNext()) {
+                float signal = signalCursor.next().get();
+                if ((int) labelCursor.next().get() == i + 1) {
+                    sum += Math.pow(signal - mean, 2);
+                    min = Math.min(min, signal);
+                    max = Math.max(max, signal);
+                }
+            }
+            assertTrue("standard deviation of label " + (i + 1), Math.abs(la.getFeatures(Feature.STD_DEV)[i] - Math.sqrt(sum / (m[0][0][0] - 1))) < tolerance);
+            assertTrue("minimum of label " + (i + 1), la.getFeatures(Feature.MIN)[i] == min);
+            assertTrue("maximum of label " + (i + 1), la.getFeatures(Feature.MAX)[i] == max);
+        }
+    }
+
+    @Test
+    public void testIfParallelMeasurementEqualsSequentialOne() {
+        Img<FloatType> labelMap = ImagePlusAdapter.convertFloat(IJ.openImage("src/test/resources/labelmaptest.tif"));
+        Img<FloatType> signalMap = labelMap.copy();
+        for (FloatType t : signalMap) {
+            t.setReal(t.get() * 10 + 1000);
+        }
+        Feature[] features = {Feature.AREA_VOLUME, Feature.MEAN, Feature.STD_DEV, Feature.MIN, Feature.MAX, Feature.AVERAGE_POSITION,
+                Feature.CENTER_OF_MASS, Feature.BOUNDING_BOX, Feature.EIGENVALUES, Feature.ASPECT_RATIO, Feature.SPHERICITY};
+
+        LabelAnalyser<FloatType, FloatType> sequential = new LabelAnalyser<FloatType, FloatType>(labelMap, new double[]{1, 1, 1}, features);
+        sequential.setSignalImage(signalMap);
+
+        LabelAnalyser<FloatType, FloatType> threads = new LabelAnalyser<FloatType, FloatType>(labelMap, new double[]{1, 1, 1}, features);
+        threads.setSignalImage(signalMap);
+        threads.setNumThreads(4);
+
+        ExecutorService service = Executors.newFixedThreadPool(3);
+        LabelAnalyser<FloatType, FloatType> executor = new LabelAnalyser<FloatType, FloatType>(labelMap, new double[]{1, 1, 1}, features);
+        executor.setSignalImage(signalMap);
+        executor.setExecutorService(service, 7);
+
+        for (LabelAnalyser<FloatType, FloatType> parallel : Arrays.asList(threads, executor)) {
+            assertTrue("number of labels", parallel.getNumLabels() == sequential.getNumLabels());
+            for (Feature feature : features) {
+                for (int d = 0; d < sequential.getFeaturesNumDimensions(feature); d++) {
+                    double[] reference = sequential.getFeatures(feature, d);
+                    double[] values = parallel.getFeatures(feature, d);
+                    for (int i = 0; i < reference.length; i++) {
+                        assertTrue(feature + "(" + d + ") of label " + (i + 1) + ": " + values[i] + " == " + reference[i], Math.abs(values[i] - reference[i]) <= 0.000001 * Math.max(1, Math.abs(reference[i])));
+                    }
+                }
+            }
+        }
+        service.shutdown();
+    }
+
     @Test
     public void testIfImgBitTypeCreationWorks() {
         ImagePlus labelMapImp3D = IJ.openImage("src/test/resources/labelmaptest.tif");
@@ -0,0 +1,85 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LabelMapOverlapCalculatorTest {
+
+    @Test
+    public void testOverlapOfTwoLabelMaps() {
+        // the same intervals as in LabelOverlapCalculatorTest, plus a second label on each side
+        Img<FloatType> labelMapA = ArrayImgs.floats(new float[]{0, 0, 0, 1, 1, 1, 1, 1, 0, 2, 2, 0}, 12, 1);
+        Img<FloatType> labelMapB = ArrayImgs.floats(new float[]{0, 0, 0, 0, 0, 1, 1, 1, 0, 0, 3, 3}, 12, 1);
+
+        LabelMapOverlapCalculator loc = new LabelMapOverlapCalculator(labelMapA, labelMapB);
+        assertTrue("Number of labels", loc.getNumLabelsA() == 2 && loc.getNumLabelsB() == 3);
+        assertTrue("Overlapping pairs", loc.getNumPairs() == 2);
+        assertTrue("Label sizes", loc.getSizeA(1) == 5 && loc.getSizeB(3) == 2 && loc.getSizeB(2) == 0);
+        assertTrue("Intersection", loc.getIntersection(1, 1) == 3 && loc.getIntersection(2, 3) == 1 && loc.getIntersection(1, 3) == 0);
+        assertEquals(0.6, loc.getIntersectionOverUnion(1, 1), 1e-12);
+        assertEquals(0.75, loc.getDice(1, 1), 1e-12);
+        assertEquals(1.0 / 3.0, loc.getIntersectionOverUnion(2, 3), 1e-12);
+        assertTrue("Best matches", loc.getBestMatchOfLabelA(1) == 1 && loc.getBestMatchOfLabelA(2) == 3 && loc.getBestMatchOfLabelB(2) == 0);
+        assertEquals(0.6, loc.getMaximumOverlapOfLabelB(1), 1e-12);
+    }
+
+    @Test
+    public void testIfParallelCountingEqualsSequentialOne() {
+        long[] dims = {13, 11, 9};
+        float[] a = new float[13 * 11 * 9];
+        float[] b = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (i / 7) % 23;
+            b[i] = (i / 5) % 17;
+        }
+        LabelMapOverlapCalculator sequential = new LabelMapOverlapCalculator(ArrayImgs.floats(a, dims), ArrayImgs.floats(b, dims));
+
+        ExecutorService service = Executors.newFixedThreadPool(3);
+        try {
+            LabelMapOverlapCalculator parallel = new LabelMapOverlapCalculator(ArrayImgs.floats(a, dims), ArrayImgs.floats(b, dims), service, 4);
+            assertTrue("Number of pairs", parallel.getNumPairs() == sequential.getNumPairs());
+            for (int p = 0; p < sequential.getNumPairs(); p++) {
+                assertTrue("Pair " + p, parallel.getPairLabelA(p) == sequential.getPairLabelA(p) && parallel.getPairLabelB(p) == sequential.getPairLabelB(p)
+                        && parallel.getPairIntersection(p) == sequential.getPairIntersection(p));
+            }
+            for (int l = 1; l <= sequential.getNumLabelsA(); l++) {
+                assertTrue("Size of label " + l, parallel.getSizeA(l) == sequential.getSizeA(l));
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+}
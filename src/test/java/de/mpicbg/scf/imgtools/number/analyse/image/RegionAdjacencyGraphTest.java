@@ -0,0 +1,130 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import ij.IJ;
+import ij.ImagePlus;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RegionAdjacencyGraphTest {
+
+    @Test
+    public void testNeighborsAndContactAreas() {
+        float[] labels = {
+                1, 1, 2, 2,
+                1, 1, 2, 0,
+                3, 3, 0, 5,
+                3, 3, 0, 5
+        };
+        RegionAdjacencyGraph graph = RegionAdjacencyGraph.build(ArrayImgs.floats(labels, 4, 4));
+
+        assertTrue("Largest label", graph.getNumLabels() == 5);
+        assertTrue("Touching pairs", graph.getNumEdges() == 2);
+        assertTrue("Neighbors of label 1", Arrays.equals(graph.getNeighbors(1), new int[]{2, 3}));
+        assertTrue("Contact areas of label 1", Arrays.equals(graph.getContactAreas(1), new long[]{2, 2}));
+        assertTrue("Contact area is symmetric", graph.getContactArea(2, 1) == 2 && graph.getContactArea(3, 1) == 2);
+        assertTrue("Labels 2 and 3 do not touch", !graph.areNeighbors(2, 3));
+        assertTrue("Degrees", Arrays.equals(graph.getDegrees(), new int[]{2, 1, 1, 0, 0}));
+        assertTrue("Missing label has no neighbor", graph.getDegree(4) == 0 && graph.getNeighbors(4).length == 0);
+        assertTrue("Maximum degree", graph.getMaximumDegree() == 2);
+    }
+
+    @Test
+    public void testIfParallelGraphEqualsDenseMatrix() {
+        ImagePlus labelMap = IJ.openImage("src/test/resources/touchinglabels.tif");
+        Img<FloatType> labelMapImg = ImagePlusAdapter.convertFloat(labelMap);
+
+        int[][] matrix = buildDenseMatrix(labelMapImg);
+
+        ExecutorService service = Executors.newFixedThreadPool(3);
+        try {
+            RegionAdjacencyGraph graph = RegionAdjacencyGraph.build(labelMapImg, service, 7);
+            assertTrue("Number of labels", graph.getNumLabels() == matrix.length);
+            for (int a = 1; a <= matrix.length; a++) {
+                int degree = 0;
+                for (int b = 1; b <= matrix.length; b++) {
+                    assertTrue("Contact area of " + a + " and " + b, graph.getContactArea(a, b) == matrix[a - 1][b - 1]);
+                    if (matrix[a - 1][b - 1] > 0) {
+                        degree++;
+                    }
+                }
+                assertTrue("Degree of " + a, graph.getDegree(a) == degree);
+            }
+        } finally {
+            service.shutdown();
+        }
+
+        labelMap.close();
+    }
+
+    // touching pixels counted like ConnectedLabels used to, in a matrix of all pairs of labels
+    private static int[][] buildDenseMatrix(Img<FloatType> labelMap) {
+        int width = (int) labelMap.dimension(0);
+        int height = (int) labelMap.dimension(1);
+        int depth = labelMap.numDimensions() > 2 ? (int) labelMap.dimension(2) : 1;
+        float[] values = new float[width * height * depth];
+        int i = 0;
+        int maximum = 0;
+        for (FloatType value : Views.flatIterable(labelMap)) {
+            values[i++] = value.get();
+            maximum = Math.max(maximum, (int) value.get());
+        }
+
+        int[][] matrix = new int[maximum][maximum];
+        int[] steps = {1, width, width * height};
+        int[] sizes = {width, height, depth};
+        for (int z = 0; z < depth; z++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int[] position = {x, y, z};
+                    int p = x + width * (y + height * z);
+                    int a = (int) values[p];
+                    for (int d = 0; d < 3; d++) {
+                        if (a > 0 && position[d] + 1 < sizes[d]) {
+                            int b = (int) values[p + steps[d]];
+                            if (b > 0 && b != a) {
+                                matrix[a - 1][b - 1]++;
+                                matrix[b - 1][a - 1]++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,70 @@
+package de.mpicbg.scf.imgtools.number.analyse.image;
+
+import java.util.Arrays;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright 2017 Max Planck Institute of Molecular Cell Biology and Genetics,
+ * Dresden, Germany
+ * <p>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+public class SegmentationMetricsTest {
+
+    @Test
+    public void testMatchingAndScores() {
+        // ground truth label 3 is split into the predicted labels 4 and 5, the predicted label 2 is a bit too large
+        Img<FloatType> groundTruth = ArrayImgs.floats(new float[]{1, 1, 1, 1, 0, 2, 2, 2, 2, 0, 3, 3, 3, 3, 3, 3}, 16, 1);
+        Img<FloatType> prediction = ArrayImgs.floats(new float[]{1, 1, 1, 0, 0, 2, 2, 2, 2, 2, 4, 4, 4, 5, 5, 5}, 16, 1);
+
+        SegmentationMetrics metrics = new SegmentationMetrics(groundTruth, prediction);
+        assertTrue("Number of labels", metrics.getNumGroundTruthLabels() == 3 && metrics.getNumPredictedLabels() == 4);
+
+        // IoU 0.8, 0.75 and twice 0.5: the first of the two equal pairs is matched
+        assertTrue("Matches at 0.5", Arrays.equals(metrics.getMatches(0.5), new int[]{1, 2, 4}));
+        assertTrue("Counts at 0.5", metrics.getNumTruePositives(0.5) == 3 && metrics.getNumFalsePositives(0.5) == 1 && metrics.getNumFalseNegatives(0.5) == 0);
+        assertEquals(0.75, metrics.getPrecision(0.5), 1e-12);
+        assertEquals(1.0, metrics.getRecall(0.5), 1e-12);
+        assertEquals(6.0 / 7.0, metrics.getF1Score(0.5), 1e-12);
+
+        assertTrue("Matches at 0.7", Arrays.equals(metrics.getMatches(0.7), new int[]{1, 2, 0}));
+        assertEquals(0.5, metrics.getPrecision(0.7), 1e-12);
+        assertEquals(2.0 / 3.0, metrics.getRecall(0.7), 1e-12);
+
+        // TP / (TP + FP + FN) = 3 / 4, 2 / 5 and 0 / 7
+        assertEquals((0.75 + 0.4 + 0) / 3, metrics.getAveragePrecision(new double[]{0.5, 0.7, 0.9}), 1e-12);
+
+        assertTrue("Splits", metrics.getNumSplits() == 1);
+        assertTrue("Merges", metrics.getNumMerges() == 0);
+
+        // swapping the label maps turns the split into a merge
+        SegmentationMetrics swapped = new SegmentationMetrics(prediction, groundTruth);
+        assertTrue("Swapped splits and merges", swapped.getNumSplits() == 0 && swapped.getNumMerges() == 1);
+    }
+}
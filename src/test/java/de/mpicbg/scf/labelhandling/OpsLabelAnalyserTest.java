@@ -363,6 +363,55 @@ public class OpsLabelAnalyserTest {
     }
 
 
+    @Test
+    public void testIfInjectedOpServiceGivesSameResultsAsSharedOne()
+    {
+        assertTrue("shared OpService is created once", OpsLabelAnalyser.getSharedOpService() == OpsLabelAnalyser.getSharedOpService());
+
+        ArrayList<RandomAccessibleInterval<BoolType>> regions = Utilities.getRegionsFromLabelMap(labelMapImp2D);
+        Img<FloatType> signalImage = ImageJFunctions.convertFloat(labelMapImp2D);
+        Feature[] features = Feature.getAvailableFeatures2D();
+
+        OpsLabelAnalyser<FloatType, BoolType> sharedOpsLabelAnalyser = new OpsLabelAnalyser<FloatType, BoolType>(regions, features);
+        sharedOpsLabelAnalyser.setSignalImage(signalImage);
+
+        OpsLabelAnalyser<FloatType, BoolType> injectedOpsLabelAnalyser = new OpsLabelAnalyser<FloatType, BoolType>(regions, features);
+        injectedOpsLabelAnalyser.setSignalImage(signalImage);
+        injectedOpsLabelAnalyser.setContext(new Context(OpService.class, OpMatchingService.class));
+
+        for (Feature feature : features)
+        {
+            for (int d = 0; d < sharedOpsLabelAnalyser.getFeaturesNumDimensions(feature); d++) {
+                assertTrue("results of " + feature + "(" + d + ") do not depend on the OpService", Arrays.equals(sharedOpsLabelAnalyser.getFeatures(feature, d), injectedOpsLabelAnalyser.getFeatures(feature, d)));
+            }
+        }
+    }
+
+
+    @Test
+    public void testIfParallelResultsAreEqualToSequentialOnes()
+    {
+        ArrayList<RandomAccessibleInterval<BoolType>> regions = Utilities.getRegionsFromLabelMap(labelMapImp2D);
+        Img<FloatType> signalImage = ImageJFunctions.convertFloat(labelMapImp2D);
+        Feature[] features = Feature.getAvailableFeatures2D();
+
+        OpsLabelAnalyser<FloatType, BoolType> sequentialOpsLabelAnalyser = new OpsLabelAnalyser<FloatType, BoolType>(regions, features);
+        sequentialOpsLabelAnalyser.setSignalImage(signalImage);
+
+        OpsLabelAnalyser<FloatType, BoolType> parallelOpsLabelAnalyser = new OpsLabelAnalyser<FloatType, BoolType>(regions, features);
+        parallelOpsLabelAnalyser.setSignalImage(signalImage);
+        parallelOpsLabelAnalyser.setNumThreads(4);
+
+        for (Feature feature : features)
+        {
+            for (int d = 0; d < sequentialOpsLabelAnalyser.getFeaturesNumDimensions(feature); d++) {
+                assertTrue("parallel results of " + feature + "(" + d + ") equal sequential ones", Arrays.equals(sequentialOpsLabelAnalyser.getFeatures(feature, d), parallelOpsLabelAnalyser.getFeatures(feature, d)));
+            }
+            assertTrue("time taken for " + feature + " is not negative", parallelOpsLabelAnalyser.getResults().get(feature).timeTakenInMilliseconds >= 0);
+        }
+    }
+
+
     private void testFeatureWithReference(ImagePlus labelMapImp, Feature newFeature,double[][] reference)
     {
         double tolerance = 0.000001;